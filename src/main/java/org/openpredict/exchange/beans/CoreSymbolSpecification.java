@@ -35,6 +35,9 @@ public final class CoreSymbolSpecification implements Serializable, WriteBytesMa
     public final long makerFee;
     // TODO public final int feeCurrency; //  if type=CURRENCY_EXCHANGE_PAIR - should be the same as quoteCurrency
 
+    // order book implementation and parameters (null - matching engine default)
+    public final SymbolEngineProfile engineProfile;
+
     public CoreSymbolSpecification(BytesIn bytes) {
         this.symbolId = bytes.readInt();
         this.type = SymbolType.of(bytes.readByte());
@@ -46,6 +49,7 @@ public final class CoreSymbolSpecification implements Serializable, WriteBytesMa
         this.depositSell = bytes.readLong();
         this.takerFee = bytes.readLong();
         this.makerFee = bytes.readLong();
+        this.engineProfile = bytes.readBoolean() ? new SymbolEngineProfile(bytes) : null;
     }
 
 /* NOT SUPPORTED YET:
@@ -78,6 +82,10 @@ public final class CoreSymbolSpecification implements Serializable, WriteBytesMa
         bytes.writeLong(depositSell);
         bytes.writeLong(takerFee);
         bytes.writeLong(makerFee);
+        bytes.writeBoolean(engineProfile != null);
+        if (engineProfile != null) {
+            engineProfile.writeMarshallable(bytes);
+        }
     }
 
     @Override
@@ -92,6 +100,7 @@ public final class CoreSymbolSpecification implements Serializable, WriteBytesMa
                 depositBuy,
                 depositSell,
                 takerFee,
-                makerFee);
+                makerFee,
+                engineProfile != null ? engineProfile.stateHash() : 0);
     }
 }
@@ -0,0 +1,96 @@
+package org.openpredict.exchange.beans;
+
+import java.util.Arrays;
+
+/**
+ * L2 Market Data incremental update carrier object
+ * <p>
+ * Sequence of price level changes caused by a single command, in order of execution.
+ * Each record contains side, price and new total volume of the level (0 means level was removed).
+ * <p>
+ * Command changing many order books (CANCEL_ALL for all symbols) has one delta per affected symbol chained by {@link #next},
+ * consumer should apply every delta of the chain to the order book of its {@link #symbol} (order of symbols is not defined).
+ * <p>
+ * Object is reused (see {@link #reset()}), arrays are only growing.
+ * NOTE: Can have dirty data, size is important!
+ */
+public final class L2MarketDataDelta {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    public int size;
+
+    // symbol of the changed order book (set by matching engine)
+    public int symbol;
+
+    // changes of other order book caused by the same command, null if none
+    public L2MarketDataDelta next;
+
+    public OrderAction[] actions;
+    public long[] prices;
+    public long[] volumes;
+
+    public L2MarketDataDelta() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public L2MarketDataDelta(int capacity) {
+        this.actions = new OrderAction[capacity];
+        this.prices = new long[capacity];
+        this.volumes = new long[capacity];
+    }
+
+    public void reset() {
+        size = 0;
+        next = null;
+    }
+
+    /**
+     * Append level change record
+     *
+     * @param action - side
+     * @param price  - price level
+     * @param volume - new total volume of the level (0 if level was removed)
+     */
+    public void add(final OrderAction action, final long price, final long volume) {
+        if (size == prices.length) {
+            final int newCapacity = size * 2;
+            actions = Arrays.copyOf(actions, newCapacity);
+            prices = Arrays.copyOf(prices, newCapacity);
+            volumes = Arrays.copyOf(volumes, newCapacity);
+        }
+        actions[size] = action;
+        prices[size] = price;
+        volumes[size] = volume;
+        size++;
+    }
+
+    public L2MarketDataDelta copy() {
+        final L2MarketDataDelta copy = new L2MarketDataDelta(Math.max(size, 1));
+        System.arraycopy(actions, 0, copy.actions, 0, size);
+        System.arraycopy(prices, 0, copy.prices, 0, size);
+        System.arraycopy(volumes, 0, copy.volumes, 0, size);
+        copy.size = size;
+        copy.symbol = symbol;
+        if (next != null) {
+            copy.next = next.copy();
+        }
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("L2MarketDataDelta[symbol=").append(symbol).append(": ");
+        for (int i = 0; i < size; i++) {
+            if (i != 0) {
+                sb.append(", ");
+            }
+            sb.append(actions[i]).append(' ').append(prices[i]).append(':').append(volumes[i]);
+        }
+        sb.append(']');
+        if (next != null) {
+            sb.append(" -> ").append(next);
+        }
+        return sb.toString();
+    }
+}
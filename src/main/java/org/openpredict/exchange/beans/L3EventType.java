@@ -0,0 +1,48 @@
+package org.openpredict.exchange.beans;
+
+import lombok.Getter;
+
+/**
+ * Order-by-order (L3) market data event type
+ */
+@Getter
+public enum L3EventType {
+
+    // order is placed into the order book (price, remaining size)
+    ADD(0),
+
+    // order is moved to a new price and lost its queue position (new price, remaining size)
+    MODIFY(1),
+
+    // order is removed from the order book without trade (cancelled, or fully matched while moving)
+    DELETE(2),
+
+    // resting order is matched (trade price, trade size), order is removed when nothing remains
+    EXECUTE(3),
+
+    // order size is reduced in place and order keeps its queue position (price, remaining size)
+    REDUCE(4);
+
+    private byte code;
+
+    L3EventType(int code) {
+        this.code = (byte) code;
+    }
+
+    public static L3EventType of(byte code) {
+        switch (code) {
+            case 0:
+                return ADD;
+            case 1:
+                return MODIFY;
+            case 2:
+                return DELETE;
+            case 3:
+                return EXECUTE;
+            case 4:
+                return REDUCE;
+            default:
+                throw new IllegalArgumentException("unknown L3EventType:" + code);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.openpredict.exchange.beans;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.BytesIn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Order-by-order (L3) market data events carrier object
+ * <p>
+ * Events caused by a single command, in order of execution, encoded as fixed-size binary records:<br/>
+ * type (byte), action (byte), orderId, uid, price, size (longs).
+ * Encoded records can be copied into a feed as is (see {@link #getBytes()}) and decoded by {@link #readRecord(BytesIn, Handler)}.
+ * <p>
+ * Command changing many order books (CANCEL_ALL for all symbols) has one events object per affected symbol chained by {@link #next},
+ * each of them belongs to the feed of its {@link #symbol}.
+ * <p>
+ * Object is reused (see {@link #reset()}), buffer is only growing.
+ */
+public final class L3MarketDataEvents {
+
+    public static final int RECORD_SIZE = 2 + 8 * 4;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final Bytes<ByteBuffer> bytes;
+
+    // symbol of the order book (set by matching engine)
+    public int symbol;
+
+    // events of other order book caused by the same command, null if none
+    public L3MarketDataEvents next;
+
+    @FunctionalInterface
+    public interface Handler {
+        void onEvent(L3EventType type, OrderAction action, long orderId, long uid, long price, long size);
+    }
+
+    public L3MarketDataEvents() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public L3MarketDataEvents(int capacity) {
+        this.bytes = Bytes.elasticHeapByteBuffer(capacity * RECORD_SIZE);
+    }
+
+    public void reset() {
+        bytes.clear();
+        next = null;
+    }
+
+    /**
+     * Append event record
+     */
+    public void add(final L3EventType type, final OrderAction action, final long orderId, final long uid, final long price, final long size) {
+        bytes.writeByte(type.getCode());
+        bytes.writeByte(action.getCode());
+        bytes.writeLong(orderId);
+        bytes.writeLong(uid);
+        bytes.writeLong(price);
+        bytes.writeLong(size);
+    }
+
+    /**
+     * @return number of records
+     */
+    public int size() {
+        return (int) (bytes.writePosition() / RECORD_SIZE);
+    }
+
+    /**
+     * @return encoded records (readable part)
+     */
+    public Bytes<ByteBuffer> getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Decode all records, does not change buffer positions
+     *
+     * @param handler - events handler
+     */
+    public void forEach(final Handler handler) {
+        final long end = bytes.writePosition();
+        for (long offset = bytes.readPosition(); offset < end; offset += RECORD_SIZE) {
+            handler.onEvent(
+                    L3EventType.of(bytes.readByte(offset)),
+                    OrderAction.of(bytes.readByte(offset + 1)),
+                    bytes.readLong(offset + 2),
+                    bytes.readLong(offset + 10),
+                    bytes.readLong(offset + 18),
+                    bytes.readLong(offset + 26));
+        }
+    }
+
+    /**
+     * Decode one record from a feed
+     *
+     * @param in      - feed
+     * @param handler - events handler
+     */
+    public static void readRecord(final BytesIn in, final Handler handler) {
+        final L3EventType type = L3EventType.of(in.readByte());
+        final OrderAction action = OrderAction.of(in.readByte());
+        final long orderId = in.readLong();
+        final long uid = in.readLong();
+        final long price = in.readLong();
+        final long size = in.readLong();
+        handler.onEvent(type, action, orderId, uid, price, size);
+    }
+
+    public L3MarketDataEvents copy() {
+        final L3MarketDataEvents copy = new L3MarketDataEvents(Math.max(size(), 1));
+        forEach(copy::add);
+        copy.symbol = symbol;
+        if (next != null) {
+            copy.next = next.copy();
+        }
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("L3MarketDataEvents[symbol=").append(symbol).append(": ");
+        final int start = sb.length();
+        forEach((type, action, orderId, uid, price, size) -> {
+            if (sb.length() != start) {
+                sb.append(", ");
+            }
+            sb.append(type).append(' ').append(action).append(" id=").append(orderId).append(" uid=").append(uid)
+                    .append(' ').append(price).append(':').append(size);
+        });
+        sb.append(']');
+        if (next != null) {
+            sb.append(" -> ").append(next);
+        }
+        return sb.toString();
+    }
+}
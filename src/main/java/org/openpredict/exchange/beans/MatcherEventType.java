@@ -3,6 +3,10 @@ package org.openpredict.exchange.beans;
 public enum MatcherEventType {
     TRADE, // regular type of the event
 
+    // Aggregated trade of the active order with all matched orders of one price level (optional mode).
+    // Size is total traded volume of the level, matched orders are listed in makerFills array.
+    LEVEL_TRADE,
+
     // Can happen only when MARKET order has to be rejected by Matcher Engine due lack of liquidity
     // That basically means no ASK (or BID) orders left in the order book for any price.
     // Before being rejected active order can partially filled though.
@@ -11,6 +15,9 @@ public enum MatcherEventType {
     // After cancel order - risk engine has to unlock deposit accordingly
     CANCEL,
 
+    // After reduce order - risk engine has to unlock deposit for reduced size only (order keeps its queue position)
+    REDUCE,
+
     // Custom binary data attached
     BINARY_EVENT
 }
@@ -5,16 +5,26 @@ import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.openpredict.exchange.core.orderbook.MatcherEventsPool;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
 @AllArgsConstructor
 @NoArgsConstructor
-@ToString
+@ToString(exclude = "ownerPool")
 public final class MatcherTradeEvent {
 
+    // makerFills record layout (LEVEL_TRADE)
+    public static final int MAKER_ORDER_ID = 0;
+    public static final int MAKER_UID = 1;
+    public static final int MAKER_SIZE = 2;
+    public static final int MAKER_RESERVE_BID_PRICE = 3;
+    public static final int MAKER_COMPLETED = 4;
+    public static final int MAKER_FIELDS = 5;
+
     public MatcherEventType eventType; // TRADE, CANCEL or REJECTION (rare)
 
     public int symbol;
@@ -35,11 +45,40 @@ public final class MatcherTradeEvent {
     public long size;  // trade size, or unmatched size for REJECTION or CANCEL
     public long timestamp; // same as activeOrder related event timestamp
 
-    public long bidderHoldPrice; // frozen price from BID order owner (depends on activeOrderAction)
+    public long bidderHoldPrice; // frozen price from BID order owner (depends on activeOrderAction), for LEVEL_TRADE - taker only
 
     // reference to next event in chain
     public MatcherTradeEvent nextEvent;
 
+    // makers of LEVEL_TRADE in matching order, MAKER_FIELDS longs per maker (array is reused by pooled event)
+    public long[] makerFills;
+    public int makersNum;
+
+    // pool which created this event (null if event is not pooled), event is returned only into its owner pool
+    public MatcherEventsPool ownerPool;
+
+    /**
+     * Append matched order to LEVEL_TRADE event, array grows if required.
+     */
+    public void addMakerFill(long orderId, long uid, long size, long reserveBidPrice, boolean completed) {
+        final int offset = makersNum * MAKER_FIELDS;
+        if (makerFills == null) {
+            makerFills = new long[MAKER_FIELDS * 8];
+        } else if (offset == makerFills.length) {
+            makerFills = Arrays.copyOf(makerFills, offset * 2);
+        }
+        makerFills[offset + MAKER_ORDER_ID] = orderId;
+        makerFills[offset + MAKER_UID] = uid;
+        makerFills[offset + MAKER_SIZE] = size;
+        makerFills[offset + MAKER_RESERVE_BID_PRICE] = reserveBidPrice;
+        makerFills[offset + MAKER_COMPLETED] = completed ? 1 : 0;
+        makersNum++;
+    }
+
+    public long getMakerFill(int maker, int field) {
+        return makerFills[maker * MAKER_FIELDS + field];
+    }
+
 
     // testing only
     public MatcherTradeEvent copy() {
@@ -56,6 +95,10 @@ public final class MatcherTradeEvent {
         evt.size = this.size;
         evt.timestamp = this.timestamp;
         evt.bidderHoldPrice = this.bidderHoldPrice;
+        if (this.makersNum != 0) {
+            evt.makerFills = Arrays.copyOf(this.makerFills, this.makersNum * MAKER_FIELDS);
+            evt.makersNum = this.makersNum;
+        }
         return evt;
     }
 
@@ -99,6 +142,10 @@ public final class MatcherTradeEvent {
                 .append(price, other.price)
                 .append(size, other.size)
                 .append(bidderHoldPrice, other.bidderHoldPrice)
+                .append(makersNum, other.makersNum)
+                .append(makersNum == 0 || Arrays.equals(
+                        Arrays.copyOf(makerFills, makersNum * MAKER_FIELDS),
+                        Arrays.copyOf(other.makerFills, makersNum * MAKER_FIELDS)), true)
                 // ignore timestamp
                 .append(nextEvent, other.nextEvent)
                 .isEquals();
@@ -121,6 +168,7 @@ public final class MatcherTradeEvent {
                 price,
                 size,
                 bidderHoldPrice,
+                makersNum,
                 nextEvent);
     }
 
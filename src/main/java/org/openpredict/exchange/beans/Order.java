@@ -23,12 +23,23 @@ public final class Order extends OrderCommand implements WriteBytesMarshallable
 
     public long filled;
 
+    // position in the price level queue - assigned by order book from increasing sequence each time order is queued (not included into equals/hashCode)
+    public long queueSeq;
+
+    // intrusive queue links, used by OrdersBucketLinkedImpl (not serialized, not included into equals/hashCode)
+    public Order prev;
+    public Order next;
+
+    // intrusive links of the user orders list, used by UserOrdersIndex (not serialized, not included into equals/hashCode)
+    public Order userPrev;
+    public Order userNext;
+
     @Builder(builderMethodName = "orderBuilder", builderClassName = "OrderBuilder")
 //    public Order(OrderCommandType command, long orderId, int symbol, long price, long size, long price2, OrderAction action, OrderType orderType,
     public Order(OrderCommandType command, long orderId, int symbol, long price, long size, long price2, OrderAction action, OrderType orderType,
                  long uid, long timestamp, int userCookie, long filled) {
         //super(command, orderId, symbol, price, size, price2, action, orderType, uid, timestamp, 0, null, null);
-        super(command, orderId, symbol, price, size, price2, action, orderType, uid, timestamp, userCookie, 0, 0, null, null, null);
+        super(command, orderId, symbol, price, size, price2, action, orderType, uid, timestamp, userCookie, 0, 0, null, null, null, null, null, null, null, null, false);
         this.filled = filled;
     }
 
@@ -49,9 +60,16 @@ public final class Order extends OrderCommand implements WriteBytesMarshallable
                 0,
                 null,
                 null,
-                null);
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                false);
 
         this.filled = bytes.readLong();
+        this.queueSeq = bytes.readLong();
     }
 
     @Override
@@ -67,6 +85,7 @@ public final class Order extends OrderCommand implements WriteBytesMarshallable
         bytes.writeLong(timestamp);
         bytes.writeInt(userCookie);
         bytes.writeLong(filled);
+        bytes.writeLong(queueSeq);
     }
 
     @Override
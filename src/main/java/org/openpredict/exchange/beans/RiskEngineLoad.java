@@ -0,0 +1,39 @@
+package org.openpredict.exchange.beans;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesMarshallable;
+import net.openhft.chronicle.bytes.BytesOut;
+
+/**
+ * Load statistics of one risk engine shard (counters are not persisted and start from zero after restore)
+ */
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public final class RiskEngineLoad implements BytesMarshallable {
+
+    // number of user profiles
+    public final long users;
+
+    // number of commands processed for users of the shard
+    public final long commands;
+
+    // number of matcher events (trades, cancels, reductions, rejections) processed for users of the shard
+    public final long events;
+
+    public RiskEngineLoad(BytesIn bytes) {
+        this.users = bytes.readLong();
+        this.commands = bytes.readLong();
+        this.events = bytes.readLong();
+    }
+
+    @Override
+    public void writeMarshallable(BytesOut bytes) {
+        bytes.writeLong(users);
+        bytes.writeLong(commands);
+        bytes.writeLong(events);
+    }
+}
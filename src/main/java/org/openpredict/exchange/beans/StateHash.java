@@ -4,4 +4,26 @@ public interface StateHash {
 
     int stateHash();
 
+    /**
+     * Bits mixer for rolling hashes (SplitMix64 finalizer).<br/>
+     * Rolling hash is a sum of mixed hashes of entries, so it can be updated additively in any order:
+     * add entry hash on insert, subtract on removal, subtract old and add new on change.
+     *
+     * @param x - value
+     * @return mixed value
+     */
+    static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * @param hash - rolling hash
+     * @return int state hash
+     */
+    static int fold(long hash) {
+        return Long.hashCode(hash);
+    }
+
 }
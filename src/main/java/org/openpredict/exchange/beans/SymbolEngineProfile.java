@@ -0,0 +1,130 @@
+package org.openpredict.exchange.beans;
+
+
+import lombok.*;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+import net.openhft.chronicle.bytes.WriteBytesMarshallable;
+import org.openpredict.exchange.core.orderbook.IOrderBook;
+import org.openpredict.exchange.core.orderbook.OrderBookLadderImpl;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Order book engine profile of the symbol - implementation and its parameters.<br/>
+ * Allows to choose memory/latency trade-off per symbol:
+ * few hot symbols can use wide pre-allocated structures, while long tail symbols can use compact ones.
+ * <p>
+ * Symbols without profile are created by the matching engine default order book factory.
+ * <p>
+ * Parameters supported by each implementation (others must be left unset, otherwise symbol is rejected
+ * with MATCHING_INVALID_ENGINE_PROFILE by risk engines and matching engines, see {@link #validate()}):<br/>
+ * NAIVE, DIRECT - no parameters;<br/>
+ * FAST - hotWidth, adaptiveHotWidth, expectedDepth, indexUserOrders;<br/>
+ * LADDER - hotWidth, floorPrice, tickSize, expectedDepth, indexUserOrders.
+ */
+@Builder
+@AllArgsConstructor
+@Getter
+@ToString
+@EqualsAndHashCode
+public final class SymbolEngineProfile implements Serializable, WriteBytesMarshallable, StateHash {
+
+    @NonNull
+    public final IOrderBook.OrderBookImplType implementation;
+
+    // FAST: initial hot prices range (aligned by 64, at least 1024)
+    // LADDER: number of price levels
+    public final int hotWidth;
+
+    // FAST: hot prices range is adjusted by HotRangeTuner
+    public final boolean adaptiveHotWidth;
+
+    // LADDER only: lowest price of the band and price step
+    public final long floorPrice;
+    public final long tickSize;
+
+    // expected number of resting orders, used for pre-sizing orderId index
+    public final int expectedDepth;
+
+    // FAST, LADDER: maintain uid->orders index, so mass quotes and mass cancels do not scan the order book
+    public final boolean indexUserOrders;
+
+    public SymbolEngineProfile(BytesIn bytes) {
+        this.implementation = IOrderBook.OrderBookImplType.of(bytes.readByte());
+        this.hotWidth = bytes.readInt();
+        this.adaptiveHotWidth = bytes.readBoolean();
+        this.floorPrice = bytes.readLong();
+        this.tickSize = bytes.readLong();
+        this.expectedDepth = bytes.readInt();
+        this.indexUserOrders = bytes.readBoolean();
+    }
+
+    /**
+     * Check that profile contains only parameters supported by the implementation, and they are in valid ranges
+     * (non-positive hotWidth, tickSize and expectedDepth mean implementation defaults).
+     *
+     * @throws IllegalArgumentException if profile is not valid
+     */
+    public void validate() {
+        switch (implementation) {
+            case NAIVE:
+            case DIRECT:
+                checkUnsupported(hotWidth == 0, "hotWidth");
+                checkUnsupported(!adaptiveHotWidth, "adaptiveHotWidth");
+                checkUnsupported(floorPrice == 0 && tickSize == 0, "floorPrice/tickSize");
+                checkUnsupported(expectedDepth == 0, "expectedDepth");
+                checkUnsupported(!indexUserOrders, "indexUserOrders");
+                break;
+            case FAST:
+                checkUnsupported(floorPrice == 0 && tickSize == 0, "floorPrice/tickSize");
+                // hot prices range must be aligned by 64, can not be lower than 1024
+                if (hotWidth > 0 && ((hotWidth & 63) != 0 || hotWidth < 1024)) {
+                    throw new IllegalArgumentException("invalid hotWidth=" + hotWidth + " for " + implementation + " order book");
+                }
+                break;
+            case LADDER:
+                checkUnsupported(!adaptiveHotWidth, "adaptiveHotWidth");
+                // highest price of the band floorPrice + (levelsNum - 1) * tickSize must not overflow
+                final long levels = hotWidth > 0 ? hotWidth : OrderBookLadderImpl.DEFAULT_LEVELS_NUM;
+                final long tick = tickSize > 0 ? tickSize : OrderBookLadderImpl.DEFAULT_TICK_SIZE;
+                if (floorPrice < 0 || (levels - 1) > (Long.MAX_VALUE - floorPrice) / tick) {
+                    throw new IllegalArgumentException(String.format("invalid price band floorPrice=%d tickSize=%d levelsNum=%d for %s order book",
+                            floorPrice, tick, levels, implementation));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown implementation " + implementation);
+        }
+    }
+
+    private void checkUnsupported(final boolean notSet, final String parameter) {
+        if (!notSet) {
+            throw new IllegalArgumentException(parameter + " is not supported by " + implementation + " order book");
+        }
+    }
+
+    @Override
+    public void writeMarshallable(BytesOut bytes) {
+        bytes.writeByte(implementation.getCode());
+        bytes.writeInt(hotWidth);
+        bytes.writeBoolean(adaptiveHotWidth);
+        bytes.writeLong(floorPrice);
+        bytes.writeLong(tickSize);
+        bytes.writeInt(expectedDepth);
+        bytes.writeBoolean(indexUserOrders);
+    }
+
+    @Override
+    public int stateHash() {
+        return Objects.hash(
+                implementation.getCode(),
+                hotWidth,
+                adaptiveHotWidth,
+                floorPrice,
+                tickSize,
+                expectedDepth,
+                indexUserOrders);
+    }
+}
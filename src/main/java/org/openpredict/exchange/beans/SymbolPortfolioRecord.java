@@ -155,6 +155,28 @@ public final class SymbolPortfolioRecord implements WriteBytesMarshallable, Stat
     }
 
 
+    /**
+     * Calculate required deposit based on specification and current position,
+     * as if all pending orders were replaced by new ladder (mass quote)
+     *
+     * @param spec      symbols specification
+     * @param bidVolume total size of new bid levels
+     * @param askVolume total size of new ask levels
+     * @return -1 if ladder will not increase current exposure (no additional margin required), otherwise full deposit for symbol position
+     */
+    public long calculateRequiredDepositForQuotes(final CoreSymbolSpecification spec, final long bidVolume, final long askVolume) {
+        final long signedPosition = openVolume * position.getMultiplier();
+        final long currentDeposit = calculateRequiredDepositForFutures(spec);
+
+        final long depositBuy = spec.depositBuy * (bidVolume + signedPosition);
+        final long depositSell = spec.depositSell * (askVolume - signedPosition);
+
+        // depositBuy or depositSell can be negative, but not both of them
+        final long newDeposit = Math.max(depositBuy, depositSell);
+
+        return (newDeposit <= currentDeposit) ? -1 : newDeposit;
+    }
+
     /**
      * Update portfolio for one user
      * 1. Un-hold pending size
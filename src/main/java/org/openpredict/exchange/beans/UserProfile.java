@@ -35,6 +35,9 @@ public final class UserProfile implements WriteBytesMarshallable, StateHash {
 
     public long commandsCounter = 0L;
 
+    // last hash of accounts and portfolio included into UserProfileService rolling hash (not serialized)
+    public long accountsHash = 0L;
+
     public UserProfile(long uid) {
         //log.debug("New {}", uid);
         this.uid = uid;
@@ -0,0 +1,23 @@
+package org.openpredict.exchange.beans.api;
+
+
+import lombok.Builder;
+
+/**
+ * Cancel all orders of the user - in one order book, or in all order books if symbol is not specified
+ */
+@Builder
+public final class ApiCancelAllOrders extends ApiCommand {
+
+    public static final int ALL_SYMBOLS = -1;
+
+    public final long uid;
+
+    @Builder.Default
+    public final int symbol = ALL_SYMBOLS;
+
+    @Override
+    public String toString() {
+        return "[CANCEL_ALL " + uid + (symbol == ALL_SYMBOLS ? "" : " " + symbol) + "]";
+    }
+}
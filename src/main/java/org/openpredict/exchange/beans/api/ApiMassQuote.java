@@ -0,0 +1,33 @@
+package org.openpredict.exchange.beans.api;
+
+
+import lombok.Builder;
+
+import java.util.Arrays;
+
+/**
+ * Replace all orders of the user in the order book by new two-sided ladder (GTC orders).<br/>
+ * Resting orders with the same side, price and remaining size are kept (queue priority is not lost),
+ * other orders are cancelled, new levels are placed with order ids starting from id (bids first, then asks).<br/>
+ * Empty ladder cancels all orders of the user in the order book.
+ */
+@Builder
+public final class ApiMassQuote extends ApiCommand {
+
+    // order id of the first new level
+    public final long id;
+
+    public final long uid;
+    public final int symbol;
+
+    public final long[] bidPrices;
+    public final long[] bidSizes;
+    public final long[] askPrices;
+    public final long[] askSizes;
+
+    @Override
+    public String toString() {
+        return "[QUOTE " + id + " B" + Arrays.toString(bidPrices) + ":" + Arrays.toString(bidSizes)
+                + " A" + Arrays.toString(askPrices) + ":" + Arrays.toString(askSizes) + "]";
+    }
+}
@@ -0,0 +1,20 @@
+package org.openpredict.exchange.beans.api;
+
+
+import lombok.Builder;
+
+@Builder
+public final class ApiReduceOrder extends ApiCommand {
+
+    public long id;
+
+    public long reduceSize;
+
+    public long uid;
+    public int symbol;
+
+    @Override
+    public String toString() {
+        return "[REDUCE " + id + " " + reduceSize + "]";
+    }
+}
@@ -0,0 +1,15 @@
+package org.openpredict.exchange.beans.api;
+
+
+import lombok.Builder;
+
+/**
+ * Number of users and user commands processed by each risk engine shard - shows skew of users partitioning.
+ */
+@Builder
+public final class ApiRiskLoadReport extends ApiCommand {
+    @Override
+    public String toString() {
+        return "[RISK_LOAD_REPORT]";
+    }
+}
@@ -0,0 +1,20 @@
+package org.openpredict.exchange.beans.api;
+
+
+import lombok.Builder;
+
+/**
+ * Move symbol (with all its orders) to another matching engine shard.
+ */
+@Builder
+public final class ApiRouteSymbol extends ApiCommand {
+
+    final public int symbol;
+
+    final public int shard;
+
+    @Override
+    public String toString() {
+        return "[ROUTE_SYMBOL " + symbol + " ME" + shard + "]";
+    }
+}
@@ -6,9 +6,11 @@ import lombok.Builder;
 @Builder
 public final class ApiStateHashRequest extends ApiCommand {
 
+    // verification mode: recalculate hashes by full state traversal and compare with rolling hashes
+    public boolean fullScan;
 
     @Override
     public String toString() {
-        return "[HASH]";
+        return "[HASH]" + (fullScan ? " full scan" : "");
     }
 }
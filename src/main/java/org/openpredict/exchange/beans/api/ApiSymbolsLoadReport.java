@@ -0,0 +1,15 @@
+package org.openpredict.exchange.beans.api;
+
+
+import lombok.Builder;
+
+/**
+ * Number of matching commands processed for each symbol, reported by the matching engine shard owning the symbol.
+ */
+@Builder
+public final class ApiSymbolsLoadReport extends ApiCommand {
+    @Override
+    public String toString() {
+        return "[SYMBOLS_LOAD_REPORT]";
+    }
+}
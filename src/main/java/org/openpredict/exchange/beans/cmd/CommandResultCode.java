@@ -23,8 +23,12 @@ public enum CommandResultCode {
     MATCHING_UNSUPPORTED_COMMAND(-3004),
     MATCHING_INVALID_ORDER_BOOK_ID(-3005),
     MATCHING_ORDER_BOOK_ALREADY_EXISTS(-3006),
+    MATCHING_PRICE_OUT_OF_BAND(-3007),
+    MATCHING_INVALID_ENGINE_PROFILE(-3008),
+    MATCHING_INVALID_SHARD(-3009),
 //    MATCHING_MOVE_REJECTED_DIFFERENT_PRICE(-3040),
     MATCHING_MOVE_FAILED_PRICE_ABOVE_RISK_LIMIT(-3041),
+    MATCHING_REDUCE_FAILED_WRONG_SIZE(-3051),
 
     USER_MGMT_USER_ALREADY_EXISTS(-4001),
 
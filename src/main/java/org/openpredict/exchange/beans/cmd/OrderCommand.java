@@ -6,9 +6,12 @@ import lombok.Builder;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 import org.openpredict.exchange.beans.L2MarketData;
+import org.openpredict.exchange.beans.L2MarketDataDelta;
+import org.openpredict.exchange.beans.L3MarketDataEvents;
 import org.openpredict.exchange.beans.MatcherTradeEvent;
 import org.openpredict.exchange.beans.OrderAction;
 import org.openpredict.exchange.beans.OrderType;
+import org.openpredict.exchange.core.orderbook.MatcherEventsPool;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -19,7 +22,7 @@ import static org.openpredict.exchange.beans.cmd.OrderCommandType.*;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-@ToString
+@ToString(exclude = {"eventsPool", "marketDataBuffer"})
 public class OrderCommand {
 
     public OrderCommandType command;
@@ -50,12 +53,30 @@ public class OrderCommand {
     // result code of command execution - can also be used for saving intermediate state
     public CommandResultCode resultCode;
 
-    // trade events chain
+    // trade events chain (pooled events are recycled when ring buffer slot is reused - results consumer should copy events it keeps)
     public MatcherTradeEvent matcherEvent;
 
+    // pool of matching engine processing the command, new events are taken from it (each event is returned to its owner pool)
+    public MatcherEventsPool eventsPool;
+
     // optional market data
     public L2MarketData marketData;
 
+    // top of the book published by matching engine for risk engine (referenced by marketData), object is reused
+    public L2MarketData marketDataBuffer;
+
+    // optional market data incremental update (price levels changed by this command, one per symbol for CANCEL_ALL of all symbols), object is reused
+    public L2MarketDataDelta marketDataDelta;
+
+    // optional order-by-order (L3) market data events caused by this command (one per symbol for CANCEL_ALL of all symbols), object is reused
+    public L3MarketDataEvents l3Events;
+
+    // mass quote - new bid/ask ladder of the user (levels with volumes), object is reused
+    public L2MarketData quotes;
+
+    // trades are aggregated into one LEVEL_TRADE event per price level (set by matching engine)
+    public boolean levelFills;
+
     // sequence of last available for this command
     //public long matcherEventSequence;
     // ---- potential false sharing section ------
@@ -83,6 +104,39 @@ public class OrderCommand {
         return cmd;
     }
 
+    public static OrderCommand cancelAll(int uid) {
+        OrderCommand cmd = new OrderCommand();
+        cmd.command = CANCEL_ALL;
+        cmd.orderId = -1;
+        cmd.symbol = -1;
+        cmd.uid = uid;
+        cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+        return cmd;
+    }
+
+    public static OrderCommand massQuote(long orderId, int uid, L2MarketData quotes) {
+        OrderCommand cmd = new OrderCommand();
+        cmd.command = MASS_QUOTE;
+        cmd.orderId = orderId;
+        cmd.uid = uid;
+        cmd.quotes = quotes;
+        // holds are normally taken by risk engine (see IOrderBook.massQuote), not limited here
+        cmd.price = Long.MAX_VALUE / 2;
+        cmd.size = Long.MAX_VALUE / 2;
+        cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+        return cmd;
+    }
+
+    public static OrderCommand reduce(long orderId, int uid, long reduceSize) {
+        OrderCommand cmd = new OrderCommand();
+        cmd.command = REDUCE_ORDER;
+        cmd.orderId = orderId;
+        cmd.uid = uid;
+        cmd.size = reduceSize;
+        cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+        return cmd;
+    }
+
     public static OrderCommand update(long orderId, int uid, long price) {
         OrderCommand cmd = new OrderCommand();
         cmd.command = MOVE_ORDER;
@@ -170,6 +224,20 @@ public class OrderCommand {
             newCmd.marketData = marketData.copy();
         }
 
+        if (marketDataDelta != null) {
+            newCmd.marketDataDelta = marketDataDelta.copy();
+        }
+
+        if (l3Events != null) {
+            newCmd.l3Events = l3Events.copy();
+        }
+
+        if (quotes != null) {
+            newCmd.quotes = quotes.copy();
+        }
+
+        newCmd.levelFills = levelFills;
+
 //        System.out.println(">>> newCmd: " + newCmd);
         return newCmd;
     }
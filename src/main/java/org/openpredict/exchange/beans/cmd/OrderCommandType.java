@@ -7,6 +7,9 @@ public enum OrderCommandType {
     PLACE_ORDER(1),
     CANCEL_ORDER(2),
     MOVE_ORDER(3),
+    CANCEL_ALL(4),
+    MASS_QUOTE(5),
+    REDUCE_ORDER(7),
 
     ORDER_BOOK_REQUEST(6),
 
@@ -16,9 +19,13 @@ public enum OrderCommandType {
     CLEARING_OPERATION(30),
 
     USER_REPORT(50),
+    SYMBOLS_LOAD_REPORT(51),
+    RISK_LOAD_REPORT(52),
 
     BINARY_DATA(90),
 
+    ROUTE_SYMBOL(95),
+
     PERSIST_STATE_MATCHING(110),
     PERSIST_STATE_RISK(111),
 
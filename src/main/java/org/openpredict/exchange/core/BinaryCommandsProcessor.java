@@ -8,6 +8,7 @@ import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
 import org.nustaq.serialization.FSTConfiguration;
 import org.openpredict.exchange.beans.CoreSymbolSpecification;
 import org.openpredict.exchange.beans.StateHash;
+import org.openpredict.exchange.beans.SymbolEngineProfile;
 import org.openpredict.exchange.beans.cmd.CommandResultCode;
 import org.openpredict.exchange.beans.cmd.OrderCommand;
 
@@ -36,7 +37,7 @@ public final class BinaryCommandsProcessor implements WriteBytesMarshallable, St
     private final static FSTConfiguration minBin = FSTConfiguration.createMinBinConfiguration();
 
     static {
-        minBin.registerCrossPlatformClassMappingUseSimpleName(CoreSymbolSpecification.class);
+        minBin.registerCrossPlatformClassMappingUseSimpleName(CoreSymbolSpecification.class, SymbolEngineProfile.class);
     }
 
     public BinaryCommandsProcessor(Function<CoreSymbolSpecification, CommandResultCode> symbolsConsumer, CommandResultCode acceptedResultCode) {
@@ -6,21 +6,27 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.nustaq.serialization.FSTConfiguration;
 import org.openpredict.exchange.beans.CoreSymbolSpecification;
+import org.openpredict.exchange.beans.L2MarketData;
+import org.openpredict.exchange.beans.SymbolEngineProfile;
 import org.openpredict.exchange.beans.api.*;
 import org.openpredict.exchange.beans.cmd.CommandResultCode;
 import org.openpredict.exchange.beans.cmd.OrderCommand;
 import org.openpredict.exchange.beans.cmd.OrderCommandType;
 
+import java.util.List;
+
 @RequiredArgsConstructor
 @Slf4j
 public final class ExchangeApi {
 
     private final ExchangeCore exchangeCore;
 
+    private static final ApiNoOp BATCH_ABORTED_NOOP = ApiNoOp.builder().build();
+
     private final static FSTConfiguration minBin = FSTConfiguration.createMinBinConfiguration();
 
     static {
-        minBin.registerCrossPlatformClassMappingUseSimpleName(CoreSymbolSpecification.class);
+        minBin.registerCrossPlatformClassMappingUseSimpleName(CoreSymbolSpecification.class, SymbolEngineProfile.class);
     }
 
 
@@ -35,6 +41,13 @@ public final class ExchangeApi {
             ringBuffer.publishEvent(NEW_ORDER_TRANSLATOR, (ApiPlaceOrder) cmd);
         } else if (cmd instanceof ApiCancelOrder) {
             ringBuffer.publishEvent(CANCEL_ORDER_TRANSLATOR, (ApiCancelOrder) cmd);
+        } else if (cmd instanceof ApiReduceOrder) {
+            ringBuffer.publishEvent(REDUCE_ORDER_TRANSLATOR, (ApiReduceOrder) cmd);
+        } else if (cmd instanceof ApiCancelAllOrders) {
+            ringBuffer.publishEvent(CANCEL_ALL_TRANSLATOR, (ApiCancelAllOrders) cmd);
+        } else if (cmd instanceof ApiMassQuote) {
+            validateMassQuote((ApiMassQuote) cmd);
+            ringBuffer.publishEvent(MASS_QUOTE_TRANSLATOR, (ApiMassQuote) cmd);
         } else if (cmd instanceof ApiOrderBookRequest) {
             ringBuffer.publishEvent(ORDER_BOOK_REQUEST_TRANSLATOR, (ApiOrderBookRequest) cmd);
         } else if (cmd instanceof ApiAddUser) {
@@ -43,6 +56,12 @@ public final class ExchangeApi {
             ringBuffer.publishEvent(ADJUST_USER_BALANCE_TRANSLATOR, (ApiAdjustUserBalance) cmd);
         } else if (cmd instanceof ApiUserReport) {
             ringBuffer.publishEvent(USER_REPORT_TRANSLATOR, (ApiUserReport) cmd);
+        } else if (cmd instanceof ApiSymbolsLoadReport) {
+            ringBuffer.publishEvent(SYMBOLS_LOAD_REPORT_TRANSLATOR, (ApiSymbolsLoadReport) cmd);
+        } else if (cmd instanceof ApiRiskLoadReport) {
+            ringBuffer.publishEvent(RISK_LOAD_REPORT_TRANSLATOR, (ApiRiskLoadReport) cmd);
+        } else if (cmd instanceof ApiRouteSymbol) {
+            ringBuffer.publishEvent(ROUTE_SYMBOL_TRANSLATOR, (ApiRouteSymbol) cmd);
         } else if (cmd instanceof ApiBinaryDataCommand) {
             publishBinaryData(ringBuffer, (ApiBinaryDataCommand) cmd);
         } else if (cmd instanceof ApiPersistState) {
@@ -58,6 +77,153 @@ public final class ExchangeApi {
         }
     }
 
+    /**
+     * Submit batch of commands - consecutive ring buffer sequences are reserved and published at once,
+     * so producers contention is paid once per batch instead of once per command.<br/>
+     * Commands are published in the same order, without allocations.<br/>
+     * Only single-slot commands are supported (binary data and persist state commands should be submitted separately).
+     * Long batch is published in several parts, each part takes not more than a quarter of ring buffer
+     * (otherwise publisher would wait until the whole pipeline is drained).<br/>
+     * All commands are validated before the first slot is claimed - if any of them is invalid, nothing is published.
+     *
+     * @param cmds - commands (random access list)
+     * @throws IllegalArgumentException if batch contains unsupported command type or invalid mass quote
+     */
+    public void submitCommands(final List<? extends ApiCommand> cmds) {
+        final int total = cmds.size();
+        for (int i = 0; i < total; i++) {
+            validateBatchCommand(cmds.get(i));
+        }
+
+        final RingBuffer<OrderCommand> ringBuffer = exchangeCore.getRingBuffer();
+        final int maxBatchSize = Math.max(1, ringBuffer.getBufferSize() / 4);
+
+        int idx = 0;
+        while (idx < total) {
+            final int batchSize = Math.min(total - idx, maxBatchSize);
+            final long highSeq = ringBuffer.next(batchSize);
+            final long lowSeq = highSeq - batchSize + 1;
+
+            long seq = lowSeq;
+            try {
+                for (; seq <= highSeq; seq++) {
+                    translateCommand(ringBuffer.get(seq), seq, cmds.get(idx++));
+                }
+            } catch (final RuntimeException ex) {
+                // should not happen for validated batch (guard only)
+                // sequences are already claimed and must be published - remaining slots become no-op commands
+                for (; seq <= highSeq; seq++) {
+                    NOOP_TRANSLATOR.translateTo(ringBuffer.get(seq), seq, BATCH_ABORTED_NOOP);
+                }
+                throw ex;
+            } finally {
+                ringBuffer.publish(lowSeq, highSeq);
+            }
+        }
+    }
+
+    private static void translateCommand(final OrderCommand cmd, final long seq, final ApiCommand apiCmd) {
+        if (apiCmd instanceof ApiMoveOrder) {
+            MOVE_ORDER_TRANSLATOR.translateTo(cmd, seq, (ApiMoveOrder) apiCmd);
+        } else if (apiCmd instanceof ApiPlaceOrder) {
+            NEW_ORDER_TRANSLATOR.translateTo(cmd, seq, (ApiPlaceOrder) apiCmd);
+        } else if (apiCmd instanceof ApiCancelOrder) {
+            CANCEL_ORDER_TRANSLATOR.translateTo(cmd, seq, (ApiCancelOrder) apiCmd);
+        } else if (apiCmd instanceof ApiReduceOrder) {
+            REDUCE_ORDER_TRANSLATOR.translateTo(cmd, seq, (ApiReduceOrder) apiCmd);
+        } else if (apiCmd instanceof ApiCancelAllOrders) {
+            CANCEL_ALL_TRANSLATOR.translateTo(cmd, seq, (ApiCancelAllOrders) apiCmd);
+        } else if (apiCmd instanceof ApiMassQuote) {
+            MASS_QUOTE_TRANSLATOR.translateTo(cmd, seq, (ApiMassQuote) apiCmd);
+        } else if (apiCmd instanceof ApiOrderBookRequest) {
+            ORDER_BOOK_REQUEST_TRANSLATOR.translateTo(cmd, seq, (ApiOrderBookRequest) apiCmd);
+        } else if (apiCmd instanceof ApiAddUser) {
+            ADD_USER_TRANSLATOR.translateTo(cmd, seq, (ApiAddUser) apiCmd);
+        } else if (apiCmd instanceof ApiAdjustUserBalance) {
+            ADJUST_USER_BALANCE_TRANSLATOR.translateTo(cmd, seq, (ApiAdjustUserBalance) apiCmd);
+        } else if (apiCmd instanceof ApiUserReport) {
+            USER_REPORT_TRANSLATOR.translateTo(cmd, seq, (ApiUserReport) apiCmd);
+        } else if (apiCmd instanceof ApiSymbolsLoadReport) {
+            SYMBOLS_LOAD_REPORT_TRANSLATOR.translateTo(cmd, seq, (ApiSymbolsLoadReport) apiCmd);
+        } else if (apiCmd instanceof ApiRiskLoadReport) {
+            RISK_LOAD_REPORT_TRANSLATOR.translateTo(cmd, seq, (ApiRiskLoadReport) apiCmd);
+        } else if (apiCmd instanceof ApiRouteSymbol) {
+            ROUTE_SYMBOL_TRANSLATOR.translateTo(cmd, seq, (ApiRouteSymbol) apiCmd);
+        } else if (apiCmd instanceof ApiStateHashRequest) {
+            STATE_HASH_TRANSLATOR.translateTo(cmd, seq, (ApiStateHashRequest) apiCmd);
+        } else if (apiCmd instanceof ApiReset) {
+            RESET_TRANSLATOR.translateTo(cmd, seq, (ApiReset) apiCmd);
+        } else if (apiCmd instanceof ApiNoOp) {
+            NOOP_TRANSLATOR.translateTo(cmd, seq, (ApiNoOp) apiCmd);
+        } else {
+            throw new IllegalArgumentException("Unsupported command type for batch: " + apiCmd.getClass().getSimpleName());
+        }
+    }
+
+    private static void validateBatchCommand(final ApiCommand apiCmd) {
+        if (apiCmd instanceof ApiMassQuote) {
+            validateMassQuote((ApiMassQuote) apiCmd);
+        } else if (!(apiCmd instanceof ApiMoveOrder
+                || apiCmd instanceof ApiPlaceOrder
+                || apiCmd instanceof ApiCancelOrder
+                || apiCmd instanceof ApiReduceOrder
+                || apiCmd instanceof ApiCancelAllOrders
+                || apiCmd instanceof ApiOrderBookRequest
+                || apiCmd instanceof ApiAddUser
+                || apiCmd instanceof ApiAdjustUserBalance
+                || apiCmd instanceof ApiUserReport
+                || apiCmd instanceof ApiSymbolsLoadReport
+                || apiCmd instanceof ApiRiskLoadReport
+                || apiCmd instanceof ApiRouteSymbol
+                || apiCmd instanceof ApiStateHashRequest
+                || apiCmd instanceof ApiReset
+                || apiCmd instanceof ApiNoOp)) {
+            throw new IllegalArgumentException("Unsupported command type for batch: " + (apiCmd != null ? apiCmd.getClass().getSimpleName() : null));
+        }
+    }
+
+    /**
+     * Mass quote is validated before publishing, because ring buffer slot can not be rejected after it is claimed:
+     * - prices and sizes arrays should have same length, not more than {@link L2MarketData#L2_SIZE} levels per side
+     * - sizes should be positive
+     * - quote should not be crossed (best bid below best ask)
+     */
+    private static void validateMassQuote(final ApiMassQuote api) {
+        final int bidSize = validateQuoteSide(api.bidPrices, api.bidSizes);
+        final int askSize = validateQuoteSide(api.askPrices, api.askSizes);
+
+        long bestBid = Long.MIN_VALUE;
+        for (int i = 0; i < bidSize; i++) {
+            bestBid = Math.max(bestBid, api.bidPrices[i]);
+        }
+        for (int i = 0; i < askSize; i++) {
+            if (api.askPrices[i] <= bestBid) {
+                throw new IllegalArgumentException("Crossed mass quote: ask " + api.askPrices[i] + " bid " + bestBid);
+            }
+        }
+    }
+
+    private static int validateQuoteSide(final long[] prices, final long[] sizes) {
+        if (prices == null || sizes == null) {
+            if (prices != sizes) {
+                throw new IllegalArgumentException("Mass quote prices and sizes should be both specified");
+            }
+            return 0;
+        }
+        if (prices.length != sizes.length) {
+            throw new IllegalArgumentException("Mass quote prices and sizes have different length");
+        }
+        if (prices.length > L2MarketData.L2_SIZE) {
+            throw new IllegalArgumentException("Mass quote can not have more than " + L2MarketData.L2_SIZE + " levels per side");
+        }
+        for (final long size : sizes) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("Mass quote size should be positive: " + size);
+            }
+        }
+        return prices.length;
+    }
+
     private void publishBinaryData(final RingBuffer<OrderCommand> ringBuffer, final ApiBinaryDataCommand apiCmd) {
 
         final byte[] bytes = minBin.asByteArray(apiCmd.data);
@@ -177,6 +343,56 @@ public final class ExchangeApi {
         cmd.resultCode = CommandResultCode.NEW;
     };
 
+    private static final EventTranslatorOneArg<OrderCommand, ApiReduceOrder> REDUCE_ORDER_TRANSLATOR = (cmd, seq, api) -> {
+        cmd.command = OrderCommandType.REDUCE_ORDER;
+        cmd.orderId = api.id;
+        cmd.price = -1;
+        cmd.size = api.reduceSize;
+        cmd.symbol = api.symbol;
+        cmd.uid = api.uid;
+        cmd.timestamp = api.timestamp;
+        cmd.resultCode = CommandResultCode.NEW;
+    };
+
+    private static final EventTranslatorOneArg<OrderCommand, ApiCancelAllOrders> CANCEL_ALL_TRANSLATOR = (cmd, seq, api) -> {
+        cmd.command = OrderCommandType.CANCEL_ALL;
+        cmd.orderId = -1;
+        cmd.price = -1;
+        cmd.size = -1;
+        cmd.symbol = api.symbol;
+        cmd.uid = api.uid;
+        cmd.timestamp = api.timestamp;
+        cmd.resultCode = CommandResultCode.NEW;
+    };
+
+    private static final EventTranslatorOneArg<OrderCommand, ApiMassQuote> MASS_QUOTE_TRANSLATOR = (cmd, seq, api) -> {
+        cmd.command = OrderCommandType.MASS_QUOTE;
+        cmd.orderId = api.id;
+        cmd.price = -1;
+        cmd.size = -1;
+        cmd.symbol = api.symbol;
+        cmd.uid = api.uid;
+        cmd.timestamp = api.timestamp;
+        cmd.resultCode = CommandResultCode.NEW;
+
+        // allocated once per ring buffer slot
+        if (cmd.quotes == null) {
+            cmd.quotes = new L2MarketData(L2MarketData.L2_SIZE, L2MarketData.L2_SIZE);
+        }
+        final L2MarketData quotes = cmd.quotes;
+        quotes.bidSize = copyQuoteSide(api.bidPrices, api.bidSizes, quotes.bidPrices, quotes.bidVolumes);
+        quotes.askSize = copyQuoteSide(api.askPrices, api.askSizes, quotes.askPrices, quotes.askVolumes);
+    };
+
+    private static int copyQuoteSide(final long[] prices, final long[] sizes, final long[] quotePrices, final long[] quoteVolumes) {
+        if (prices == null) {
+            return 0;
+        }
+        System.arraycopy(prices, 0, quotePrices, 0, prices.length);
+        System.arraycopy(sizes, 0, quoteVolumes, 0, sizes.length);
+        return prices.length;
+    }
+
     private static final EventTranslatorOneArg<OrderCommand, ApiOrderBookRequest> ORDER_BOOK_REQUEST_TRANSLATOR = (cmd, seq, api) -> {
         cmd.command = OrderCommandType.ORDER_BOOK_REQUEST;
         cmd.orderId = -1;
@@ -213,6 +429,37 @@ public final class ExchangeApi {
         cmd.resultCode = CommandResultCode.NEW;
     };
 
+    private static final EventTranslatorOneArg<OrderCommand, ApiSymbolsLoadReport> SYMBOLS_LOAD_REPORT_TRANSLATOR = (cmd, seq, api) -> {
+        cmd.command = OrderCommandType.SYMBOLS_LOAD_REPORT;
+        cmd.orderId = -1;
+        cmd.symbol = -1;
+        cmd.uid = -1;
+        cmd.price = -1;
+        cmd.timestamp = api.timestamp;
+        cmd.resultCode = CommandResultCode.NEW;
+    };
+
+    private static final EventTranslatorOneArg<OrderCommand, ApiRiskLoadReport> RISK_LOAD_REPORT_TRANSLATOR = (cmd, seq, api) -> {
+        cmd.command = OrderCommandType.RISK_LOAD_REPORT;
+        cmd.orderId = -1;
+        cmd.symbol = -1;
+        cmd.uid = -1;
+        cmd.price = -1;
+        cmd.timestamp = api.timestamp;
+        cmd.resultCode = CommandResultCode.NEW;
+    };
+
+    private static final EventTranslatorOneArg<OrderCommand, ApiRouteSymbol> ROUTE_SYMBOL_TRANSLATOR = (cmd, seq, api) -> {
+        cmd.command = OrderCommandType.ROUTE_SYMBOL;
+        cmd.orderId = -1;
+        cmd.symbol = api.symbol;
+        cmd.uid = -1;
+        cmd.price = -1;
+        cmd.size = api.shard;
+        cmd.timestamp = api.timestamp;
+        cmd.resultCode = CommandResultCode.NEW;
+    };
+
     private static final EventTranslatorOneArg<OrderCommand, ApiReset> RESET_TRANSLATOR = (cmd, seq, api) -> {
         cmd.command = OrderCommandType.RESET;
         cmd.orderId = -1;
@@ -239,6 +486,7 @@ public final class ExchangeApi {
         cmd.symbol = -1;
         cmd.uid = -1;
         cmd.price = -1;
+        cmd.size = api.fullScan ? 1 : 0;
         cmd.timestamp = api.timestamp;
         cmd.resultCode = CommandResultCode.NEW;
     };
@@ -4,26 +4,36 @@ import com.google.common.collect.Streams;
 import com.lmax.disruptor.*;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.EventHandlerGroup;
+import com.lmax.disruptor.dsl.EventProcessorFactory;
 import com.lmax.disruptor.dsl.ProducerType;
 import lombok.Builder;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ArrayUtils;
+import org.openpredict.exchange.beans.MatcherTradeEvent;
 import org.openpredict.exchange.beans.SymbolType;
 import org.openpredict.exchange.beans.cmd.CommandResultCode;
 import org.openpredict.exchange.beans.cmd.OrderCommand;
 import org.openpredict.exchange.beans.cmd.OrderCommandType;
 import org.openpredict.exchange.core.biprocessor.GroupingProcessor;
 import org.openpredict.exchange.core.biprocessor.MasterProcessor;
+import org.openpredict.exchange.core.biprocessor.PhasedSequenceBarrier;
+import org.openpredict.exchange.core.biprocessor.PhasedWaitStrategy;
 import org.openpredict.exchange.core.biprocessor.SlaveProcessor;
+import org.openpredict.exchange.core.biprocessor.WaitPhaseCounters;
 import org.openpredict.exchange.core.journalling.ISerializationProcessor;
 import org.openpredict.exchange.core.journalling.JournallingProcessor;
 import org.openpredict.exchange.core.orderbook.IOrderBook;
+import org.openpredict.exchange.core.orderbook.OrderBookObjectsPool;
+import org.openpredict.exchange.core.partitioning.IUidPartitioner;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -35,6 +45,14 @@ public final class ExchangeCore {
 
     private final RingBuffer<OrderCommand> cmdRingBuffer;
 
+    private final Map<String, WaitPhaseCounters> waitPhaseCounters = new LinkedHashMap<>();
+
+    /**
+     * Results consumer is called from the results handler thread for every command after it is processed.<br/>
+     * Command and its matcher events chain are valid only during the call: the ring buffer slot is reused later,
+     * and pooled matcher events are returned to the matching engine and overwritten.
+     * Consumer must copy the data it keeps (see {@link MatcherTradeEvent#copy()}).
+     */
     @Builder
     public ExchangeCore(final Consumer<OrderCommand> resultsConsumer,
                         final JournallingProcessor journallingHandler,
@@ -42,10 +60,15 @@ public final class ExchangeCore {
                         final int ringBufferSize,
                         final int matchingEnginesNum,
                         final int riskEnginesNum,
+                        final IUidPartitioner uidPartitioner,
                         final int msgsInGroupLimit,
                         final Utils.ThreadAffityMode threadAffityMode,
                         final DisruptorWaitStrategy waitStrategy,
-                        final Function<SymbolType, IOrderBook> orderBookFactory,
+                        final PipelineWaitStrategies stageWaitStrategies,
+                        final BiFunction<SymbolType, OrderBookObjectsPool, IOrderBook> orderBookFactory,
+                        final boolean marketDataDeltaEnabled,
+                        final boolean l3EventsEnabled,
+                        final boolean levelFillsEnabled,
                         final Long loadStateId) {
 
         this.disruptor = new Disruptor<>(
@@ -67,59 +90,112 @@ public final class ExchangeCore {
 
         disruptor.setDefaultExceptionHandler(exceptionHandler);
 
+        final PipelineWaitStrategies stageWait = stageWaitStrategies != null ? stageWaitStrategies : PipelineWaitStrategies.DEFAULT;
+
+        final OrderBooksExchanger orderBooksExchanger = matchingEnginesNum > 1 ? new OrderBooksExchanger(matchingEnginesNum) : null;
+
         // creating matching engine event handlers array // TODO parallel deserialization
-        final EventHandler<OrderCommand>[] matchingEngineHandlers = IntStream.range(0, matchingEnginesNum)
+        final List<EventHandler<OrderCommand>> matchingEngineHandlers = IntStream.range(0, matchingEnginesNum)
                 .mapToObj(shardId -> {
-                    final MatchingEngineRouter router = new MatchingEngineRouter(shardId, matchingEnginesNum, serializationProcessor, orderBookFactory, loadStateId);
+                    final MatchingEngineRouter router = new MatchingEngineRouter(shardId, matchingEnginesNum, serializationProcessor, orderBookFactory, loadStateId, marketDataDeltaEnabled, l3EventsEnabled, levelFillsEnabled, orderBooksExchanger);
                     return (EventHandler<OrderCommand>) (cmd, seq, eob) -> router.processOrder(cmd);
                 })
-                .toArray(ExchangeCore::newEventHandlersArray);
+                .collect(Collectors.toList());
 
         // creating risk engines array // TODO parallel deserialization
         final List<RiskEngine> riskEngines = IntStream.range(0, riskEnginesNum)
-                .mapToObj(shardId -> new RiskEngine(shardId, riskEnginesNum, serializationProcessor, loadStateId))
+                .mapToObj(shardId -> new RiskEngine(shardId, riskEnginesNum, uidPartitioner, serializationProcessor, loadStateId))
                 .collect(Collectors.toList());
 
         final List<MasterProcessor> procR1 = new ArrayList<>(riskEnginesNum);
         final List<SlaveProcessor> procR2 = new ArrayList<>(riskEnginesNum);
+        final List<EventProcessor> procME = new ArrayList<>(matchingEnginesNum);
+        final List<EventProcessor> procJ = new ArrayList<>(1);
+        final List<EventProcessor> procE = new ArrayList<>(1);
 
         // 1. grouping processor (G)
         final EventHandlerGroup<OrderCommand> afterGrouping =
-                disruptor.handleEventsWith((rb, bs) -> new GroupingProcessor(rb, rb.newBarrier(bs), msgsInGroupLimit));
+                disruptor.handleEventsWith((rb, bs) -> new GroupingProcessor(rb, rb.newBarrier(bs), msgsInGroupLimit,
+                        spinIfNotSet(stageWait.grouping), newWaitPhaseCounters("G")));
 
         // 2. [journalling (J)] in parallel with risk hold (R1) + matching engine (ME)
         if (journallingHandler != null) {
-            afterGrouping.handleEventsWith(journallingHandler::onEvent);
+            afterGrouping.handleEventsWith(batchProcessor("J", stageWait.journalling, journallingHandler::onEvent, exceptionHandler, procJ));
         }
 
         riskEngines.forEach(riskEngine -> afterGrouping.handleEventsWith(
                 (rb, bs) -> {
-                    final MasterProcessor r1 = new MasterProcessor(rb, rb.newBarrier(bs), riskEngine::preProcessCommand, exceptionHandler);
+                    final MasterProcessor r1 = new MasterProcessor(rb, rb.newBarrier(bs), riskEngine::preProcessCommand, exceptionHandler,
+                            spinIfNotSet(stageWait.riskHold), newWaitPhaseCounters("R1_" + procR1.size()));
                     procR1.add(r1);
                     return r1;
                 }));
 
-        disruptor.after(procR1.toArray(new MasterProcessor[0])).handleEventsWith(matchingEngineHandlers);
+        final EventHandlerGroup<OrderCommand> afterRiskHold = disruptor.after(procR1.toArray(new MasterProcessor[0]));
+        for (int i = 0; i < matchingEngineHandlers.size(); i++) {
+            afterRiskHold.handleEventsWith(batchProcessor("ME_" + i, stageWait.matchingEngine, matchingEngineHandlers.get(i), exceptionHandler, procME));
+        }
 
         // 3. risk release (R2) after matching engine (ME)
-        final EventHandlerGroup<OrderCommand> afterMatchingEngine = disruptor.after(matchingEngineHandlers);
+        final EventHandlerGroup<OrderCommand> afterMatchingEngine = disruptor.after(procME.toArray(new EventProcessor[0]));
 
         riskEngines.forEach(riskEngine -> afterMatchingEngine.handleEventsWith(
                 (rb, bs) -> {
-                    final SlaveProcessor r2 = new SlaveProcessor(rb, rb.newBarrier(bs), riskEngine::handlerRiskRelease, exceptionHandler);
+                    final SlaveProcessor r2 = new SlaveProcessor(rb, rb.newBarrier(bs), riskEngine::handlerRiskRelease, exceptionHandler,
+                            spinIfNotSet(stageWait.riskRelease), newWaitPhaseCounters("R2_" + procR2.size()));
                     procR2.add(r2);
                     return r2;
                 }));
 
         // 4. results handler (E) after matching engine (ME) + [journalling (J)]
-        (journallingHandler != null ? disruptor.after(ArrayUtils.add(matchingEngineHandlers, journallingHandler::onEvent)) : afterMatchingEngine)
-                .handleEventsWith((cmd, seq, eob) -> resultsConsumer.accept(cmd));
+        (journallingHandler != null ? disruptor.after(ArrayUtils.addAll(procME.toArray(new EventProcessor[0]), procJ.toArray(new EventProcessor[0]))) : afterMatchingEngine)
+                // matcher events are recycled when ring buffer slot is reused, consumer should copy events it wants to keep
+                .handleEventsWith(batchProcessor("E", stageWait.results, (cmd, seq, eob) -> resultsConsumer.accept(cmd), exceptionHandler, procE));
 
         // attach slave processors to master processor
         Streams.forEachPair(procR1.stream(), procR2.stream(), MasterProcessor::setSlaveProcessor);
 
     }
 
+    /**
+     * Standard batch processor for handler stage (ME, J, E).
+     * If stage wait strategy is specified - processor waits with own phased barrier, otherwise with disruptor-wide wait strategy.
+     */
+    private EventProcessorFactory<OrderCommand> batchProcessor(final String stageName,
+                                                               final PhasedWaitStrategy stageWaitStrategy,
+                                                               final EventHandler<OrderCommand> handler,
+                                                               final ExceptionHandler<OrderCommand> exceptionHandler,
+                                                               final List<EventProcessor> processors) {
+        return (rb, bs) -> {
+            final SequenceBarrier barrier = stageWaitStrategy != null
+                    ? new PhasedSequenceBarrier(rb, rb.newBarrier(bs), stageWaitStrategy, newWaitPhaseCounters(stageName))
+                    : rb.newBarrier(bs);
+            final BatchEventProcessor<OrderCommand> processor = new BatchEventProcessor<>(rb, barrier, handler);
+            processor.setExceptionHandler(exceptionHandler);
+            processors.add(processor);
+            return processor;
+        };
+    }
+
+    private static PhasedWaitStrategy spinIfNotSet(final PhasedWaitStrategy stageWaitStrategy) {
+        return stageWaitStrategy != null ? stageWaitStrategy : PhasedWaitStrategy.BUSY_SPIN;
+    }
+
+    private WaitPhaseCounters newWaitPhaseCounters(final String stageName) {
+        final WaitPhaseCounters counters = new WaitPhaseCounters();
+        waitPhaseCounters.put(stageName, counters);
+        return counters;
+    }
+
+    /**
+     * Time spent in waiting phases by each processor (G, R1_n, R2_n, and ME_n, J, E if their wait strategy is specified).
+     *
+     * @return stage name to counters map
+     */
+    public Map<String, WaitPhaseCounters> getWaitPhaseCounters() {
+        return Collections.unmodifiableMap(waitPhaseCounters);
+    }
+
     public void startup() {
         log.debug("Starting disruptor...");
         disruptor.start();
@@ -146,11 +222,6 @@ public final class ExchangeCore {
         log.info("Disruptor stopped");
     }
 
-    @SuppressWarnings(value = {"unchecked"})
-    private static EventHandler<OrderCommand>[] newEventHandlersArray(int size) {
-        return new EventHandler[size];
-    }
-
     @RequiredArgsConstructor
     public enum DisruptorWaitStrategy {
         BUSY_SPIN(BusySpinWaitStrategy::new),
@@ -0,0 +1,125 @@
+package org.openpredict.exchange.core;
+
+import org.openpredict.exchange.beans.L2MarketData;
+import org.openpredict.exchange.beans.L2MarketDataDelta;
+import org.openpredict.exchange.beans.OrderAction;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consumer-side order book aggregated by price levels, rebuilt from {@link L2MarketDataDelta} stream.
+ * <p>
+ * Exact if started from empty order book (or from full depth snapshot) and all deltas of the symbol are applied in order.
+ * Starting from limited depth snapshot is allowed, but levels beyond that depth remain unknown until changed.
+ * <p>
+ * Not thread safe.
+ */
+public final class L2MarketDataRebuilder {
+
+    // price -> volume, both maps sorted from the best price
+    private final TreeMap<Long, Long> asks = new TreeMap<>();
+    private final TreeMap<Long, Long> bids = new TreeMap<>(Collections.reverseOrder());
+
+    public void reset() {
+        asks.clear();
+        bids.clear();
+    }
+
+    /**
+     * Replace current state with snapshot
+     *
+     * @param snapshot - full snapshot
+     */
+    public void applySnapshot(final L2MarketData snapshot) {
+        reset();
+        for (int i = 0; i < snapshot.askSize; i++) {
+            asks.put(snapshot.askPrices[i], snapshot.askVolumes[i]);
+        }
+        for (int i = 0; i < snapshot.bidSize; i++) {
+            bids.put(snapshot.bidPrices[i], snapshot.bidVolumes[i]);
+        }
+    }
+
+    /**
+     * Apply price level changes
+     *
+     * @param delta - incremental update
+     */
+    public void apply(final L2MarketDataDelta delta) {
+        for (int i = 0; i < delta.size; i++) {
+            apply(delta.actions[i], delta.prices[i], delta.volumes[i]);
+        }
+    }
+
+    /**
+     * Apply single price level change
+     *
+     * @param action - side
+     * @param price  - price level
+     * @param volume - new total volume of the level (0 if level was removed)
+     */
+    public void apply(final OrderAction action, final long price, final long volume) {
+        final TreeMap<Long, Long> levels = action == OrderAction.ASK ? asks : bids;
+        if (volume == 0) {
+            levels.remove(price);
+        } else {
+            levels.put(price, volume);
+        }
+    }
+
+    /**
+     * @param action - side
+     * @param price  - price level
+     * @return total volume of the level (0 if level does not exist)
+     */
+    public long getLevelVolume(final OrderAction action, final long price) {
+        final Long volume = (action == OrderAction.ASK ? asks : bids).get(price);
+        return volume != null ? volume : 0L;
+    }
+
+    public int getTotalAskLevels() {
+        return asks.size();
+    }
+
+    public int getTotalBidLevels() {
+        return bids.size();
+    }
+
+    /**
+     * Produces garbage
+     *
+     * @param size - max number of levels for each side
+     * @return snapshot of current state
+     */
+    public L2MarketData getL2MarketDataSnapshot(final int size) {
+        final L2MarketData data = new L2MarketData(Math.min(size, asks.size()), Math.min(size, bids.size()));
+        fill(size, data);
+        return data;
+    }
+
+    /**
+     * Fill existing market data object (arrays should have enough capacity)
+     *
+     * @param size - max number of levels for each side
+     * @param data - target
+     */
+    public void fill(final int size, final L2MarketData data) {
+        data.askSize = fill(asks, size, data.askPrices, data.askVolumes);
+        data.bidSize = fill(bids, size, data.bidPrices, data.bidVolumes);
+    }
+
+    private static int fill(final TreeMap<Long, Long> levels, final int size, final long[] prices, final long[] volumes) {
+        int i = 0;
+        for (Map.Entry<Long, Long> level : levels.entrySet()) {
+            if (i == size) {
+                break;
+            }
+            prices[i] = level.getKey();
+            volumes[i] = level.getValue();
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,156 @@
+package org.openpredict.exchange.core;
+
+import net.openhft.chronicle.bytes.BytesIn;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+import org.openpredict.exchange.beans.L2MarketData;
+import org.openpredict.exchange.beans.L3EventType;
+import org.openpredict.exchange.beans.L3MarketDataEvents;
+import org.openpredict.exchange.beans.OrderAction;
+
+/**
+ * Consumer-side order book reconstructed from order-by-order (L3) feed of a single symbol.
+ * <p>
+ * Keeps resting orders (orderId -> side, price, remaining size) and aggregated price levels.
+ * Must be started from empty order book, events of the symbol should be applied in order.
+ * <p>
+ * Not thread safe.
+ */
+public final class L3MarketDataReplay implements L3MarketDataEvents.Handler {
+
+    private static final class ReplayOrder {
+        OrderAction action;
+        long uid;
+        long price;
+        long size;
+    }
+
+    private final LongObjectHashMap<ReplayOrder> orders = new LongObjectHashMap<>();
+
+    private final L2MarketDataRebuilder levels = new L2MarketDataRebuilder();
+
+    private long eventsCounter = 0;
+
+    public void reset() {
+        orders.clear();
+        levels.reset();
+        eventsCounter = 0;
+    }
+
+    /**
+     * Apply events attached to a command
+     *
+     * @param events - events
+     */
+    public void apply(final L3MarketDataEvents events) {
+        events.forEach(this);
+    }
+
+    /**
+     * Apply all remaining records of the feed
+     *
+     * @param feed - encoded records
+     */
+    public void apply(final BytesIn feed) {
+        while (feed.readRemaining() >= L3MarketDataEvents.RECORD_SIZE) {
+            L3MarketDataEvents.readRecord(feed, this);
+        }
+    }
+
+    @Override
+    public void onEvent(final L3EventType type, final OrderAction action, final long orderId, final long uid, final long price, final long size) {
+
+        eventsCounter++;
+
+        if (type == L3EventType.ADD) {
+            if (orders.containsKey(orderId)) {
+                throw new IllegalStateException("duplicate order " + orderId);
+            }
+            final ReplayOrder order = new ReplayOrder();
+            order.action = action;
+            order.uid = uid;
+            order.price = price;
+            order.size = size;
+            orders.put(orderId, order);
+            changeLevel(action, price, size);
+            return;
+        }
+
+        final ReplayOrder order = orders.get(orderId);
+        if (order == null) {
+            throw new IllegalStateException(type + " for unknown order " + orderId);
+        }
+
+        switch (type) {
+            case MODIFY:
+                changeLevel(order.action, order.price, -order.size);
+                order.price = price;
+                order.size = size;
+                changeLevel(order.action, price, size);
+                break;
+
+            case REDUCE:
+                changeLevel(order.action, order.price, size - order.size);
+                order.size = size;
+                break;
+
+            case DELETE:
+                orders.remove(orderId);
+                changeLevel(order.action, order.price, -order.size);
+                break;
+
+            case EXECUTE:
+                if (size > order.size) {
+                    throw new IllegalStateException("executed " + size + " exceeds remaining size " + order.size + " of order " + orderId);
+                }
+                order.size -= size;
+                changeLevel(order.action, order.price, -size);
+                if (order.size == 0) {
+                    orders.remove(orderId);
+                }
+                break;
+
+            default:
+                throw new IllegalStateException("unsupported event type " + type);
+        }
+    }
+
+    private void changeLevel(final OrderAction action, final long price, final long volumeChange) {
+        levels.apply(action, price, levels.getLevelVolume(action, price) + volumeChange);
+    }
+
+    public long getEventsCounter() {
+        return eventsCounter;
+    }
+
+    public int getOrdersNum() {
+        return orders.size();
+    }
+
+    /**
+     * @param orderId - order id
+     * @return remaining size of the resting order, or 0 if order is unknown
+     */
+    public long getRemainingSize(final long orderId) {
+        final ReplayOrder order = orders.get(orderId);
+        return order != null ? order.size : 0L;
+    }
+
+    /**
+     * @param orderId - order id
+     * @return price of the resting order, or -1 if order is unknown
+     */
+    public long getPrice(final long orderId) {
+        final ReplayOrder order = orders.get(orderId);
+        return order != null ? order.price : -1L;
+    }
+
+    /**
+     * Produces garbage
+     *
+     * @param size - max number of levels for each side
+     * @return aggregated snapshot
+     */
+    public L2MarketData getL2MarketDataSnapshot(final int size) {
+        return levels.getL2MarketDataSnapshot(size);
+    }
+}
@@ -5,7 +5,9 @@ import net.openhft.chronicle.bytes.Bytes;
 import net.openhft.chronicle.bytes.BytesOut;
 import net.openhft.chronicle.bytes.NativeBytes;
 import net.openhft.chronicle.bytes.WriteBytesMarshallable;
-import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+import org.eclipse.collections.impl.map.mutable.primitive.IntIntHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.IntLongHashMap;
 import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
 import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
 import org.openpredict.exchange.beans.*;
@@ -14,10 +16,12 @@ import org.openpredict.exchange.beans.cmd.OrderCommand;
 import org.openpredict.exchange.beans.cmd.OrderCommandType;
 import org.openpredict.exchange.core.journalling.ISerializationProcessor;
 import org.openpredict.exchange.core.orderbook.IOrderBook;
+import org.openpredict.exchange.core.orderbook.MatcherEventsPool;
 import org.openpredict.exchange.core.orderbook.OrderBookEventsHelper;
+import org.openpredict.exchange.core.orderbook.OrderBookObjectsPool;
 
 import java.util.Objects;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 
 import static net.openhft.chronicle.core.UnsafeMemory.UNSAFE;
 import static org.openpredict.exchange.beans.cmd.OrderCommandType.*;
@@ -26,35 +30,94 @@ import static org.openpredict.exchange.core.Utils.OFFSET_ORDER_ID;
 @Slf4j
 public final class MatchingEngineRouter implements WriteBytesMarshallable, StateHash {
 
+    // matching commands between object pools trims
+    public static final int OBJECTS_POOL_TRIM_INTERVAL = 1 << 20;
+
+    // L2 levels published for risk engine (last price cache)
+    private static final int RISK_MARKET_DATA_DEPTH = 8;
+
     // state
     private final BinaryCommandsProcessor binaryCommandsProcessor;
 
     // symbol->OB
     private final IntObjectHashMap<IOrderBook> orderBooks;
 
-    private final Function<SymbolType, IOrderBook> orderBookFactory;
+    // sum of order books rolling hashes bound to symbols, updated after each matching command (not serialized)
+    private long orderBooksHash = 0L;
+
+    private final BiFunction<SymbolType, OrderBookObjectsPool, IOrderBook> orderBookFactory;
+
+    // orders and buckets pools shared by all order books of this shard
+    private final OrderBookObjectsPool objectsPool = new OrderBookObjectsPool();
+    private int commandsSinceTrim = 0;
+
+    // matcher events pool, events are returned by grouping processor
+    private final MatcherEventsPool eventsPool = new MatcherEventsPool();
+
+    // collects cancel events of all order books for mass cancel
+    private final OrderCommand cancelAllCmd = new OrderCommand();
 
     private final int shardId;
+    private final int numShards;
+    // default symbol routing for power of 2 shards number (-1 otherwise)
     private final long shardMask;
 
+    // symbol->shard, only for symbols moved from default shard (same for all shards, changed by ROUTE_SYMBOL command)
+    private final IntIntHashMap symbolRoutes;
+
+    // symbol->number of processed matching commands, only for symbols owned by this shard (statistics, not serialized)
+    private final IntLongHashMap symbolsLoad = new IntLongHashMap();
+
+    // order books moving between shards (null for single shard)
+    private final OrderBooksExchanger orderBooksExchanger;
+
     private final ISerializationProcessor serializationProcessor;
 
+    // attach price level changes to each matching command
+    private final boolean marketDataDeltaEnabled;
+
+    // attach order-by-order events to each matching command
+    private final boolean l3EventsEnabled;
+
+    // one aggregated LEVEL_TRADE event per price level instead of TRADE event per matched order
+    private final boolean levelFillsEnabled;
+
     public MatchingEngineRouter(final int shardId,
                                 final long numShards,
                                 final ISerializationProcessor serializationProcessor,
-                                final Function<SymbolType, IOrderBook> orderBookFactory,
+                                final BiFunction<SymbolType, OrderBookObjectsPool, IOrderBook> orderBookFactory,
                                 final Long loadStateId) {
+        this(shardId, numShards, serializationProcessor, orderBookFactory, loadStateId, false, false, false, null);
+    }
 
-        if (Long.bitCount(numShards) != 1) {
-            throw new IllegalArgumentException("Invalid number of shards " + numShards + " - must be power of 2");
+    public MatchingEngineRouter(final int shardId,
+                                final long numShards,
+                                final ISerializationProcessor serializationProcessor,
+                                final BiFunction<SymbolType, OrderBookObjectsPool, IOrderBook> orderBookFactory,
+                                final Long loadStateId,
+                                final boolean marketDataDeltaEnabled,
+                                final boolean l3EventsEnabled,
+                                final boolean levelFillsEnabled,
+                                final OrderBooksExchanger orderBooksExchanger) {
+
+        if (numShards < 1 || shardId < 0 || shardId >= numShards) {
+            throw new IllegalArgumentException("Invalid shard " + shardId + " of " + numShards);
+        }
+        if (numShards > 1 && orderBooksExchanger == null) {
+            throw new IllegalArgumentException("Order books exchanger is required for " + numShards + " shards");
         }
         this.shardId = shardId;
-        this.shardMask = numShards - 1;
+        this.numShards = (int) numShards;
+        this.shardMask = Long.bitCount(numShards) == 1 ? numShards - 1 : -1;
+        this.orderBooksExchanger = orderBooksExchanger;
         this.serializationProcessor = serializationProcessor;
         this.orderBookFactory = orderBookFactory;
+        this.marketDataDeltaEnabled = marketDataDeltaEnabled;
+        this.l3EventsEnabled = l3EventsEnabled;
+        this.levelFillsEnabled = levelFillsEnabled;
 
         if (loadStateId != null) {
-            final Pair<BinaryCommandsProcessor, IntObjectHashMap<IOrderBook>> deserialized = serializationProcessor.loadData(
+            final Triple<IntIntHashMap, BinaryCommandsProcessor, IntObjectHashMap<IOrderBook>> deserialized = serializationProcessor.loadData(
                     loadStateId,
                     ISerializationProcessor.SerializedModuleType.MATCHING_ENGINE_ROUTER,
                     shardId,
@@ -62,18 +125,22 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable, State
                         if (shardId != bytesIn.readInt()) {
                             throw new IllegalStateException("wrong shardId");
                         }
-                        if (shardMask != bytesIn.readLong()) {
-                            throw new IllegalStateException("wrong shardMask");
+                        if (numShards != bytesIn.readInt()) {
+                            throw new IllegalStateException("wrong numShards");
                         }
+                        final IntIntHashMap routes = Utils.readIntIntHashMap(bytesIn);
                         final BinaryCommandsProcessor bcp = new BinaryCommandsProcessor(this::addSymbol, CommandResultCode.ACCEPTED, bytesIn);
-                        final IntObjectHashMap<IOrderBook> ob = Utils.readIntHashMap(bytesIn, IOrderBook::create);
-                        return Pair.of(bcp, ob);
+                        final IntObjectHashMap<IOrderBook> ob = Utils.readIntHashMap(bytesIn, bytes -> IOrderBook.create(bytes, objectsPool));
+                        return Triple.of(routes, bcp, ob);
                     });
 
-            this.binaryCommandsProcessor = deserialized.getLeft();
+            this.symbolRoutes = deserialized.getLeft();
+            this.binaryCommandsProcessor = deserialized.getMiddle();
             this.orderBooks = deserialized.getRight();
+            this.orderBooksHash = calculateOrderBooksHash();
 
         } else {
+            this.symbolRoutes = new IntIntHashMap();
             this.binaryCommandsProcessor = new BinaryCommandsProcessor(this::addSymbol, CommandResultCode.ACCEPTED);
             this.orderBooks = new IntObjectHashMap<>();
         }
@@ -83,10 +150,26 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable, State
 
         final OrderCommandType command = cmd.command;
 
-        if (command == MOVE_ORDER || command == CANCEL_ORDER || command == ORDER_BOOK_REQUEST || command == PLACE_ORDER) {
+        if (command == MOVE_ORDER || command == CANCEL_ORDER || command == ORDER_BOOK_REQUEST || command == PLACE_ORDER || command == MASS_QUOTE || command == REDUCE_ORDER) {
             // process specific symbol group only
             if (symbolForThisHandler(cmd.symbol)) {
                 processMatchingCommand(cmd);
+                if (++commandsSinceTrim == OBJECTS_POOL_TRIM_INTERVAL) {
+                    trimObjectsPool();
+                }
+            }
+        } else if (command == CANCEL_ALL) {
+            if (cmd.symbol >= 0) {
+                // process specific symbol group only
+                if (symbolForThisHandler(cmd.symbol)) {
+                    processMatchingCommand(cmd);
+                }
+            } else {
+                // process all symbols groups, only processor 0 writes result
+                cancelAllUserOrders(cmd);
+                if (shardId == 0) {
+                    cmd.resultCode = CommandResultCode.SUCCESS;
+                }
             }
         } else if (command == BINARY_DATA) {
             // process all symbols groups, only processor 0 writes result
@@ -94,6 +177,18 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable, State
             if (shardId == 0) {
                 cmd.resultCode = resultCode;
             }
+        } else if (command == ROUTE_SYMBOL) {
+            // process all symbols groups, only processor 0 writes result
+            final CommandResultCode resultCode = routeSymbol(cmd.symbol, cmd.size);
+            if (shardId == 0) {
+                cmd.resultCode = resultCode;
+            }
+        } else if (command == SYMBOLS_LOAD_REPORT) {
+            // process all symbols groups, only processor 0 writes result
+            attachSymbolsLoadReport(cmd);
+            if (shardId == 0) {
+                cmd.resultCode = CommandResultCode.SUCCESS;
+            }
         } else if (command == USER_REPORT) {
             // process all symbols groups, only processor 0 writes result
 
@@ -107,7 +202,11 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable, State
         } else if (command == RESET) {
             // process all symbols groups, only processor 0 writes result
             orderBooks.clear();
+            orderBooksHash = 0L;
+            symbolRoutes.clear();
+            symbolsLoad.clear();
             binaryCommandsProcessor.reset();
+            trimObjectsPool();
             if (shardId == 0) {
                 cmd.resultCode = CommandResultCode.SUCCESS;
             }
@@ -119,8 +218,16 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable, State
 
         } else if (command == STATE_HASH_REQUEST) {
             // common hash as sum of each module hash (for simplicity)
-            UNSAFE.getAndAddLong(cmd, OFFSET_ORDER_ID, stateHash());
-            if (shardId == 0) {
+            final int hash = stateHash();
+            UNSAFE.getAndAddLong(cmd, OFFSET_ORDER_ID, hash);
+            if (cmd.size == 1) {
+                // verification mode - every shard reports its own result, failure is sticky
+                final int fullScanHash = stateHashFullScan();
+                if (hash != fullScanHash) {
+                    log.error("ME{} rolling hash {} differs from full scan hash {}", shardId, hash, fullScanHash);
+                }
+                Utils.setResultVolatile(cmd, hash == fullScanHash, CommandResultCode.SUCCESS, CommandResultCode.STATE_HASH_FAILED);
+            } else if (shardId == 0) {
                 cmd.resultCode = CommandResultCode.SUCCESS;
             }
         }
@@ -141,8 +248,174 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable, State
         }
     }
 
-    private boolean symbolForThisHandler(final long symbol) {
-        return (shardMask == 0) || ((symbol & shardMask) == shardId);
+    /**
+     * Cancel all orders of the user in every order book of this shard.<br/>
+     * Cancel events of all order books are collected by private command and attached to the original command at once,
+     * because other shards can attach their events concurrently.
+     * L2 and L3 market data changes (if enabled) are collected into separate object for each affected order book
+     * and attached to the original command as chains, see {@link L2MarketDataDelta#next} and {@link L3MarketDataEvents#next}.
+     * <p>
+     * Events of each shard are returned into the pool of that shard, see {@link MatcherEventsPool#releaseToOwners(MatcherTradeEvent)}.
+     */
+    private void cancelAllUserOrders(final OrderCommand cmd) {
+        final OrderCommand workCmd = cancelAllCmd;
+        workCmd.command = CANCEL_ALL;
+        workCmd.uid = cmd.uid;
+        workCmd.orderId = cmd.orderId;
+        workCmd.timestamp = cmd.timestamp;
+        workCmd.eventsPool = eventsPool;
+
+        orderBooks.forEachKeyValue((symbol, orderBook) -> {
+            workCmd.symbol = symbol;
+            if (marketDataDeltaEnabled) {
+                // head of the chain is reused until some order book changes (passed to original command then)
+                if (workCmd.marketDataDelta == null || workCmd.marketDataDelta.size != 0) {
+                    final L2MarketDataDelta delta = new L2MarketDataDelta();
+                    delta.next = workCmd.marketDataDelta;
+                    workCmd.marketDataDelta = delta;
+                }
+                workCmd.marketDataDelta.symbol = symbol;
+            }
+            if (l3EventsEnabled) {
+                if (workCmd.l3Events == null || workCmd.l3Events.size() != 0) {
+                    final L3MarketDataEvents events = new L3MarketDataEvents();
+                    events.next = workCmd.l3Events;
+                    workCmd.l3Events = events;
+                }
+                workCmd.l3Events.symbol = symbol;
+            }
+
+            final long hashBefore = orderBook.getRollingHash();
+            if (orderBook.cancelAllOrders(workCmd) != 0) {
+                orderBooksHash += orderBookHash(symbol, orderBook.getRollingHash()) - orderBookHash(symbol, hashBefore);
+            }
+        });
+
+        final MatcherTradeEvent events = workCmd.matcherEvent;
+        workCmd.matcherEvent = null;
+        if (events != null) {
+            Utils.appendEventsVolatile(cmd, events);
+        }
+
+        // empty head is kept for the next mass cancel
+        final L2MarketDataDelta deltaHead = workCmd.marketDataDelta;
+        if (deltaHead != null) {
+            final L2MarketDataDelta deltas;
+            if (deltaHead.size == 0) {
+                deltas = deltaHead.next;
+                deltaHead.next = null;
+            } else {
+                deltas = deltaHead;
+                workCmd.marketDataDelta = null;
+            }
+            if (deltas != null) {
+                Utils.appendMarketDataDeltaVolatile(cmd, deltas);
+            }
+        }
+
+        final L3MarketDataEvents l3Head = workCmd.l3Events;
+        if (l3Head != null) {
+            final L3MarketDataEvents l3Events;
+            if (l3Head.size() == 0) {
+                l3Events = l3Head.next;
+                l3Head.next = null;
+            } else {
+                l3Events = l3Head;
+                workCmd.l3Events = null;
+            }
+            if (l3Events != null) {
+                Utils.appendL3EventsVolatile(cmd, l3Events);
+            }
+        }
+    }
+
+    private void trimObjectsPool() {
+        final int released = objectsPool.trim();
+        commandsSinceTrim = 0;
+        log.debug("ME{} objects pool trimmed by {} - {}", shardId, released, objectsPool);
+    }
+
+    /**
+     * @return orders and buckets pools shared by all order books of this shard (statistics only, not thread safe)
+     */
+    public OrderBookObjectsPool getObjectsPool() {
+        return objectsPool;
+    }
+
+    /**
+     * @return matcher events pool of this shard (statistics only)
+     */
+    public MatcherEventsPool getEventsPool() {
+        return eventsPool;
+    }
+
+    private boolean symbolForThisHandler(final int symbol) {
+        return (numShards == 1) || (shardForSymbol(symbol) == shardId);
+    }
+
+    private int shardForSymbol(final int symbol) {
+        final int defaultShard = defaultShardForSymbol(symbol);
+        return symbolRoutes.isEmpty() ? defaultShard : symbolRoutes.getIfAbsent(symbol, defaultShard);
+    }
+
+    private int defaultShardForSymbol(final int symbol) {
+        return shardMask != -1 ? (int) (symbol & shardMask) : Math.floorMod(symbol, numShards);
+    }
+
+    /**
+     * Move symbol to another shard. Every shard processes the command at the same position of commands sequence,
+     * so routing tables of all shards are always the same.<br/>
+     * Current and new owners are exchanging their copies of the order book (other shards are keeping empty order books of all symbols).
+     * Load counter of the symbol is reset.
+     *
+     * @param symbol      - symbol
+     * @param targetShard - new owner shard
+     * @return result code
+     */
+    private CommandResultCode routeSymbol(final int symbol, final long targetShard) {
+        if (targetShard < 0 || targetShard >= numShards) {
+            return CommandResultCode.MATCHING_INVALID_SHARD;
+        }
+        final IOrderBook orderBook = orderBooks.get(symbol);
+        if (orderBook == null) {
+            return CommandResultCode.MATCHING_INVALID_ORDER_BOOK_ID;
+        }
+        final int newOwner = (int) targetShard;
+        final int currentOwner = shardForSymbol(symbol);
+        if (newOwner == currentOwner) {
+            return CommandResultCode.SUCCESS;
+        }
+
+        if (shardId == currentOwner || shardId == newOwner) {
+            final NativeBytes<Void> bytes = Bytes.allocateElasticDirect(128 + orderBook.getOrdersNum() * 64L);
+            orderBook.writeMarshallable(bytes);
+            final NativeBytes<Void> received = orderBooksExchanger.exchange(shardId, shardId == currentOwner ? newOwner : currentOwner, bytes);
+            final IOrderBook movedOrderBook = IOrderBook.create(received, objectsPool);
+            received.release();
+
+            orderBooks.put(symbol, movedOrderBook);
+            orderBooksHash += orderBookHash(symbol, movedOrderBook.getRollingHash()) - orderBookHash(symbol, orderBook.getRollingHash());
+            symbolsLoad.remove(symbol);
+
+            log.debug("ME{} symbol {} moved from ME{} to ME{}, orders: {} -> {}",
+                    shardId, symbol, currentOwner, newOwner, orderBook.getOrdersNum(), movedOrderBook.getOrdersNum());
+        }
+
+        if (newOwner == defaultShardForSymbol(symbol)) {
+            symbolRoutes.remove(symbol);
+        } else {
+            symbolRoutes.put(symbol, newOwner);
+        }
+        return CommandResultCode.SUCCESS;
+    }
+
+    private void attachSymbolsLoadReport(final OrderCommand cmd) {
+        if (!symbolsLoad.isEmpty()) {
+            final NativeBytes<Void> bytes = Bytes.allocateElasticDirect(16 + symbolsLoad.size() * 12);
+            Utils.marshallIntLongHashMap(symbolsLoad, bytes);
+            final MatcherTradeEvent binaryEventsChain = OrderBookEventsHelper.createBinaryEventsChain(cmd.timestamp, shardId + 1, bytes);
+            Utils.appendEventsVolatile(cmd, binaryEventsChain);
+        }
     }
 
 
@@ -153,10 +426,24 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable, State
         final int symbolId = symbolSpecification.symbolId;
         if (orderBooks.get(symbolId) != null) {
             return CommandResultCode.MATCHING_ORDER_BOOK_ALREADY_EXISTS;
+        }
+
+        final SymbolEngineProfile profile = symbolSpecification.engineProfile;
+        final IOrderBook orderBook;
+        if (profile == null) {
+            orderBook = orderBookFactory.apply(symbolSpecification.type, objectsPool);
         } else {
-            orderBooks.put(symbolId, orderBookFactory.apply(symbolSpecification.type));
-            return CommandResultCode.SUCCESS;
+            // tuned order book for the symbol, parameters are persisted by order book itself
+            try {
+                orderBook = IOrderBook.create(profile, symbolSpecification.type, objectsPool);
+            } catch (final IllegalArgumentException ex) {
+                log.warn("Can not create order book for symbol {}: {}", symbolId, ex.getMessage());
+                return CommandResultCode.MATCHING_INVALID_ENGINE_PROFILE;
+            }
         }
+        orderBooks.put(symbolId, orderBook);
+        orderBooksHash += orderBookHash(symbolId, orderBook.getRollingHash());
+        return CommandResultCode.SUCCESS;
     }
 
     private void processMatchingCommand(final OrderCommand cmd) {
@@ -165,33 +452,94 @@ public final class MatchingEngineRouter implements WriteBytesMarshallable, State
         if (orderBook == null) {
             cmd.resultCode = CommandResultCode.MATCHING_INVALID_ORDER_BOOK_ID;
         } else {
+            if (marketDataDeltaEnabled && cmd.marketDataDelta == null) {
+                // allocated once per ring buffer slot, cleaned by grouping processor
+                cmd.marketDataDelta = new L2MarketDataDelta();
+            }
+            if (l3EventsEnabled && cmd.l3Events == null) {
+                cmd.l3Events = new L3MarketDataEvents();
+            }
+            if (cmd.marketDataDelta != null) {
+                cmd.marketDataDelta.symbol = cmd.symbol;
+            }
+            if (cmd.l3Events != null) {
+                cmd.l3Events.symbol = cmd.symbol;
+            }
+
+            symbolsLoad.addToValue(cmd.symbol, 1);
+
+            // events are taken from this shard pool
+            cmd.eventsPool = eventsPool;
+            cmd.levelFills = levelFillsEnabled;
+
+            final long hashBefore = orderBook.getRollingHash();
+
             cmd.resultCode = IOrderBook.processCommand(orderBook, cmd);
 
+            final long hashAfter = orderBook.getRollingHash();
+            if (hashAfter != hashBefore) {
+                orderBooksHash += orderBookHash(cmd.symbol, hashAfter) - orderBookHash(cmd.symbol, hashBefore);
+            }
+
             // posting market data for risk processor makes sense only if command execution is successful, otherwise it will be ignored (possible garbage from previous cycle)
             // TODO don't need for EXCHANGE mode order books?
             // TODO doing this for many order books simultaneously can introduce hiccups
             if ((cmd.serviceFlags & 1) != 0 && cmd.command != ORDER_BOOK_REQUEST && cmd.resultCode == CommandResultCode.SUCCESS) {
-                cmd.marketData = orderBook.getL2MarketDataSnapshot(8);
+                if (cmd.marketDataBuffer == null) {
+                    // allocated once per ring buffer slot
+                    cmd.marketDataBuffer = new L2MarketData(RISK_MARKET_DATA_DEPTH, RISK_MARKET_DATA_DEPTH);
+                }
+                orderBook.publishL2MarketDataSnapshot(cmd.marketDataBuffer);
+                cmd.marketData = cmd.marketDataBuffer;
             }
         }
     }
 
     @Override
     public void writeMarshallable(BytesOut bytes) {
-        bytes.writeInt(shardId).writeLong(shardMask);
+        bytes.writeInt(shardId).writeInt(numShards);
+        Utils.marshallIntIntHashMap(symbolRoutes, bytes);
         binaryCommandsProcessor.writeMarshallable(bytes);
 
         // write orderBooks
         Utils.marshallIntHashMap(orderBooks, bytes);
     }
 
+    /**
+     * Order book rolling hash bound to its symbol, so orders can not be swapped between order books unnoticed
+     */
+    private static long orderBookHash(final int symbol, final long rollingHash) {
+        return StateHash.mix(rollingHash + StateHash.mix(symbol));
+    }
+
+    private long calculateOrderBooksHash() {
+        final long[] hash = {0L};
+        orderBooks.forEachKeyValue((symbol, orderBook) -> hash[0] += orderBookHash(symbol, orderBook.calculateRollingHash()));
+        return hash[0];
+    }
+
+    /**
+     * Rolling state hash - O(1), does not depend on number of orders
+     */
     @Override
     public int stateHash() {
+        return stateHash(orderBooksHash);
+    }
+
+    /**
+     * Same hash recalculated by full traversal of all order books - for verification only
+     */
+    public int stateHashFullScan() {
+        return stateHash(calculateOrderBooksHash());
+    }
+
+    private int stateHash(final long orderBooksHash) {
         return Objects.hash(
                 shardId,
-                shardMask,
+                numShards,
+                symbolRoutes.hashCode(),
                 binaryCommandsProcessor.stateHash(),
-                Utils.stateHash(orderBooks));
+                StateHash.fold(orderBooksHash));
 
         //log.debug("HASH ME{} : hash={} a={} b={}", shardId, hash, a, b);
     }
@@ -0,0 +1,44 @@
+package org.openpredict.exchange.core;
+
+import net.openhft.chronicle.bytes.NativeBytes;
+
+import java.util.concurrent.Exchanger;
+
+/**
+ * Rendezvous point for two matching engine shards moving order book by ROUTE_SYMBOL command.<br/>
+ * Both shards serialize their copy of the order book and take the copy of the other shard:
+ * new owner receives all orders, previous owner receives empty order book (same implementation and parameters).
+ * Order books are passed serialized because objects are taken from pools of the owning shard.
+ * <p>
+ * All shards process commands in the same order, so any pair of shards meets at the same command and can not deadlock.
+ */
+public final class OrderBooksExchanger {
+
+    private final Exchanger<NativeBytes<Void>>[] exchangers;
+    private final int numShards;
+
+    @SuppressWarnings("unchecked")
+    public OrderBooksExchanger(final int numShards) {
+        this.numShards = numShards;
+        this.exchangers = new Exchanger[numShards * numShards];
+        for (int i = 0; i < exchangers.length; i++) {
+            exchangers[i] = new Exchanger<>();
+        }
+    }
+
+    /**
+     * @param shardId      - calling shard
+     * @param otherShardId - shard to exchange with
+     * @param orderBook    - serialized order book of calling shard
+     * @return serialized order book of the other shard (should be released by receiver)
+     */
+    public NativeBytes<Void> exchange(final int shardId, final int otherShardId, final NativeBytes<Void> orderBook) {
+        final int idx = Math.min(shardId, otherShardId) * numShards + Math.max(shardId, otherShardId);
+        try {
+            return exchangers[idx].exchange(orderBook);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while moving order book from ME" + shardId + " to ME" + otherShardId, ex);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.openpredict.exchange.core;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.ToString;
+import org.openpredict.exchange.core.biprocessor.PhasedWaitStrategy;
+
+/**
+ * Wait strategy of each pipeline stage.<br/>
+ * Not specified (null) stage keeps default behaviour: grouping and risk processors are busy spinning,
+ * matching engine, journalling and results handlers are waiting with disruptor-wide {@link ExchangeCore.DisruptorWaitStrategy}.
+ */
+@Builder
+@AllArgsConstructor
+@ToString
+public final class PipelineWaitStrategies {
+
+    public static final PipelineWaitStrategies DEFAULT = builder().build();
+
+    public final PhasedWaitStrategy grouping;       // G
+    public final PhasedWaitStrategy riskHold;       // R1
+    public final PhasedWaitStrategy matchingEngine; // ME
+    public final PhasedWaitStrategy riskRelease;    // R2
+    public final PhasedWaitStrategy journalling;    // J
+    public final PhasedWaitStrategy results;        // E
+
+    public static PipelineWaitStrategies allStages(final PhasedWaitStrategy waitStrategy) {
+        return new PipelineWaitStrategies(waitStrategy, waitStrategy, waitStrategy, waitStrategy, waitStrategy, waitStrategy);
+    }
+}
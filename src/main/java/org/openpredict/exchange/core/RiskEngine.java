@@ -10,7 +10,9 @@ import org.openpredict.exchange.beans.cmd.CommandResultCode;
 import org.openpredict.exchange.beans.cmd.OrderCommand;
 import org.openpredict.exchange.beans.cmd.OrderCommandType;
 import org.openpredict.exchange.core.journalling.ISerializationProcessor;
+import org.openpredict.exchange.core.orderbook.IOrderBook;
 import org.openpredict.exchange.core.orderbook.OrderBookEventsHelper;
+import org.openpredict.exchange.core.partitioning.IUidPartitioner;
 
 import java.util.Objects;
 
@@ -31,21 +33,37 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
     private final BinaryCommandsProcessor binaryCommandsProcessor;
     private final IntObjectHashMap<LastPriceCacheRecord> lastPriceCache;
 
+    // rolling hash of last price cache (not serialized)
+    private long lastPriceHash = 0L;
+
+    // statistics of commands (R1) and matcher events (R2) processed for users of this shard (not serialized)
+    private long uidCommandsCounter = 0L;
+    private long uidEventsCounter = 0L;
+
     // configuration
     private final int shardId;
-    private final long shardMask;
+    private final IUidPartitioner uidPartitioner;
+    private final boolean singleShard;
 
     private final ISerializationProcessor serializationProcessor;
 
-    public RiskEngine(final int shardId, final long numShards, final ISerializationProcessor serializationProcessor, final Long loadStateId) {
-        if (Long.bitCount(numShards) != 1) {
-            throw new IllegalArgumentException("Invalid number of shards " + numShards + " - must be power of 2");
+    /**
+     * @param uidPartitioner - users partitioning function, if null - taken from loaded state or default for number of shards
+     */
+    public RiskEngine(final int shardId,
+                      final int numShards,
+                      final IUidPartitioner uidPartitioner,
+                      final ISerializationProcessor serializationProcessor,
+                      final Long loadStateId) {
+        if (uidPartitioner != null && uidPartitioner.getNumShards() != numShards) {
+            throw new IllegalArgumentException("Uid partitioner is configured for " + uidPartitioner.getNumShards() + " shards, expected " + numShards);
         }
         this.shardId = shardId;
-        this.shardMask = numShards - 1;
+        this.singleShard = numShards == 1;
         this.serializationProcessor = serializationProcessor;
 
         if (loadStateId == null) {
+            this.uidPartitioner = uidPartitioner != null ? uidPartitioner : IUidPartitioner.createDefault(numShards);
             this.symbolSpecificationProvider = new SymbolSpecificationProvider();
             this.userProfileService = new UserProfileService();
             this.binaryCommandsProcessor = new BinaryCommandsProcessor(symbolSpecificationProvider::addSymbol, CommandResultCode.VALID_FOR_MATCHING_ENGINE);
@@ -61,20 +79,26 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
                         if (shardId != bytesIn.readInt()) {
                             throw new IllegalStateException("wrong shardId");
                         }
-                        if (shardMask != bytesIn.readLong()) {
-                            throw new IllegalStateException("wrong shardMask");
+                        final IUidPartitioner loadedUidPartitioner = IUidPartitioner.create(bytesIn);
+                        if (loadedUidPartitioner.getNumShards() != numShards) {
+                            throw new IllegalStateException("wrong number of shards: " + loadedUidPartitioner.getNumShards());
+                        }
+                        if (uidPartitioner != null && !uidPartitioner.equals(loadedUidPartitioner)) {
+                            throw new IllegalStateException("wrong uid partitioner: " + loadedUidPartitioner);
                         }
                         final SymbolSpecificationProvider symbolSpecificationProvider = new SymbolSpecificationProvider(bytesIn);
                         final UserProfileService userProfileService = new UserProfileService(bytesIn);
                         final BinaryCommandsProcessor binaryCommandsProcessor = new BinaryCommandsProcessor(symbolSpecificationProvider::addSymbol, CommandResultCode.VALID_FOR_MATCHING_ENGINE, bytesIn);
                         final IntObjectHashMap<LastPriceCacheRecord> lastPriceCache = Utils.readIntHashMap(bytesIn, LastPriceCacheRecord::new);
-                        return new State(symbolSpecificationProvider, userProfileService, binaryCommandsProcessor, lastPriceCache);
+                        return new State(loadedUidPartitioner, symbolSpecificationProvider, userProfileService, binaryCommandsProcessor, lastPriceCache);
                     });
 
+            this.uidPartitioner = state.uidPartitioner;
             this.symbolSpecificationProvider = state.symbolSpecificationProvider;
             this.userProfileService = state.userProfileService;
             this.binaryCommandsProcessor = state.binaryCommandsProcessor;
             this.lastPriceCache = state.lastPriceCache;
+            this.lastPriceHash = calculateLastPriceHash();
         }
     }
 
@@ -106,11 +130,12 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
 
     /**
      * Pre-process command handler
-     * 1. MOVE/CANCEL commands ignored, for specific uid marked as valid for matching engine
-     * 2. PLACE ORDER checked with risk ending for specific uid
+     * 1. MOVE/CANCEL/REDUCE/CANCEL_ALL commands ignored, for specific uid marked as valid for matching engine
+     * 2. PLACE ORDER checked with risk ending for specific uid (MASS_QUOTE - whole ladder at once)
      * 3. ADD USER, BALANCE_ADJUSTMENT processed for specific uid, not valid for matching engine
      * 4. BINARY_DATA commands processed for ANY uid and marked as valid for matching engine TODO which handler marks?
      * 5. RESET commands processed for any uid
+     * 6. RISK_LOAD_REPORT - every shard reports its own load (section shardId+1)
      *
      * @param cmd - command
      */
@@ -118,19 +143,27 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
 
         final OrderCommandType command = cmd.command;
 
-        if (command == MOVE_ORDER || command == CANCEL_ORDER || command == ORDER_BOOK_REQUEST) {
+        if (command == MOVE_ORDER || command == CANCEL_ORDER || command == REDUCE_ORDER || command == CANCEL_ALL) {
+            uidCommandForThisHandler(cmd.uid);
+            return false;
+
+        } else if (command == ORDER_BOOK_REQUEST) {
             return false;
 
         } else if (command == PLACE_ORDER) {
-            if (uidForThisHandler(cmd.uid)) {
+            if (uidCommandForThisHandler(cmd.uid)) {
                 cmd.resultCode = placeOrderRiskCheck(cmd);
             }
+        } else if (command == MASS_QUOTE) {
+            if (uidCommandForThisHandler(cmd.uid)) {
+                cmd.resultCode = massQuoteRiskCheck(cmd);
+            }
         } else if (command == ADD_USER) {
-            if (uidForThisHandler(cmd.uid)) {
+            if (uidCommandForThisHandler(cmd.uid)) {
                 cmd.resultCode = userProfileService.addEmptyUserProfile(cmd.uid);
             }
         } else if (command == BALANCE_ADJUSTMENT) {
-            if (uidForThisHandler(cmd.uid)) {
+            if (uidCommandForThisHandler(cmd.uid)) {
                 cmd.resultCode = userProfileService.balanceAdjustment(cmd.uid, cmd.symbol, cmd.price, cmd.orderId);
             }
         } else if (command == BINARY_DATA) {
@@ -138,7 +171,7 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
             binaryCommandsProcessor.binaryData(cmd);
 
         } else if (command == USER_REPORT) {
-            if (uidForThisHandler(cmd.uid)) {
+            if (uidCommandForThisHandler(cmd.uid)) {
                 final NativeBytes<Void> bytes = Bytes.allocateElasticDirect(128);
                 if (userProfileService.singleUserState(cmd.uid, bytes)) {
                     cmd.matcherEvent = OrderBookEventsHelper.createBinaryEventsChain(cmd.timestamp, 0, bytes);
@@ -149,6 +182,12 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
                 }
             }
 
+        } else if (command == RISK_LOAD_REPORT) {
+            attachLoadReport(cmd);
+            if (shardId == 0) {
+                cmd.resultCode = CommandResultCode.SUCCESS;
+            }
+
         } else if (command == RESET) {
             reset();
             if (shardId == 0) {
@@ -169,9 +208,17 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
 
         } else if (command == STATE_HASH_REQUEST) {
             // common hash as sum of each module hash (for simplicity)
-            UNSAFE.getAndAddLong(cmd, OFFSET_ORDER_ID, stateHash());
-
-            if (shardId == 0) {
+            final int hash = stateHash();
+            UNSAFE.getAndAddLong(cmd, OFFSET_ORDER_ID, hash);
+
+            if (cmd.size == 1) {
+                // verification mode - every shard reports its own result, failure is sticky
+                final int fullScanHash = stateHashFullScan();
+                if (hash != fullScanHash) {
+                    log.error("RE{} rolling hash {} differs from full scan hash {}", shardId, hash, fullScanHash);
+                }
+                Utils.setResultVolatile(cmd, hash == fullScanHash, CommandResultCode.ACCEPTED, CommandResultCode.STATE_HASH_FAILED);
+            } else if (shardId == 0) {
                 cmd.resultCode = CommandResultCode.ACCEPTED;
             }
         }
@@ -185,12 +232,92 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
      * @param cmd
      */
     public boolean handlerRiskRelease(final OrderCommand cmd) {
-        handlerRiskRelease(cmd.symbol, cmd.marketData, cmd.matcherEvent);
+        if (cmd.command == CANCEL_ALL) {
+            if (uidForThisHandler(cmd.uid)) {
+                releaseCancelledOrders(cmd.uid, cmd.matcherEvent);
+            }
+            if (cmd.marketData != null) {
+                handlerRiskRelease(cmd.symbol, cmd.marketData, null);
+            }
+        } else if (cmd.command == MASS_QUOTE) {
+            // holds of replaced orders are covered by the single release, their cancel events are skipped
+            if (uidEventForThisHandler(cmd.uid)) {
+                releaseQuotesHold(cmd);
+            }
+            handlerRiskRelease(cmd.symbol, cmd.marketData, cmd.matcherEvent, true);
+        } else {
+            handlerRiskRelease(cmd.symbol, cmd.marketData, cmd.matcherEvent);
+        }
         return false;
     }
 
+    /**
+     * Release holds of all orders cancelled by mass cancel command.<br/>
+     * All events belong to the same user (but can be related to different symbols),
+     * so user profile is taken and its rolling hash is updated only once.
+     *
+     * @param uid - user id
+     * @param mte - cancel events chain
+     */
+    private void releaseCancelledOrders(final long uid, MatcherTradeEvent mte) {
+
+        if (mte == null || mte.eventType == BINARY_EVENT) {
+            return;
+        }
+
+        final UserProfile up = userProfileService.getUserProfileOrThrowEx(uid);
+        CoreSymbolSpecification spec = null;
+        do {
+            if (mte.eventType != CANCEL) {
+                log.error("unsupported eventType: {}", mte.eventType);
+            } else {
+                uidEventsCounter++;
+                if (spec == null || spec.symbolId != mte.symbol) {
+                    spec = symbolSpecificationProvider.getSymbolSpecification(mte.symbol);
+                    if (spec == null) {
+                        throw new IllegalStateException("Symbol not found: " + mte.symbol);
+                    }
+                }
+                if (spec.type == SymbolType.CURRENCY_EXCHANGE_PAIR) {
+                    releaseExchangeHold(up, mte, spec);
+                } else {
+                    final SymbolPortfolioRecord spr = up.getPortfolioRecordOrThrowEx(mte.symbol);
+                    spr.pendingRelease(mte.activeOrderAction, mte.size);
+                    up.removeRecordIfEmpty(spr);
+                }
+            }
+            mte = mte.nextEvent;
+        } while (mte != null);
+
+        userProfileService.updateRollingHash(up);
+    }
+
     private boolean uidForThisHandler(final long uid) {
-        return (shardMask == 0) || ((uid & shardMask) == shardId);
+        return singleShard || (uidPartitioner.shardForUid(uid) == shardId);
+    }
+
+    private boolean uidCommandForThisHandler(final long uid) {
+        if (uidForThisHandler(uid)) {
+            uidCommandsCounter++;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private boolean uidEventForThisHandler(final long uid) {
+        if (uidForThisHandler(uid)) {
+            uidEventsCounter++;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void attachLoadReport(final OrderCommand cmd) {
+        final NativeBytes<Void> bytes = Bytes.allocateElasticDirect(32);
+        new RiskEngineLoad(userProfileService.getUsersNum(), uidCommandsCounter, uidEventsCounter).writeMarshallable(bytes);
+        Utils.appendEventsVolatile(cmd, OrderBookEventsHelper.createBinaryEventsChain(cmd.timestamp, shardId + 1, bytes));
     }
 
     private CommandResultCode placeOrderRiskCheck(final OrderCommand cmd) {
@@ -209,7 +336,9 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
         }
 
         // check if account has enough funds
-        if (!placeOrder(cmd, userProfile, spec)) {
+        final boolean canPlace = placeOrder(cmd, userProfile, spec);
+        userProfileService.updateRollingHash(userProfile);
+        if (!canPlace) {
             log.warn("{} NSF uid={}: Can not place {}", cmd.orderId, userProfile.uid, cmd);
             log.warn("{} accounts:{}", cmd.orderId, userProfile.accounts);
             return CommandResultCode.RISK_NSF;
@@ -220,6 +349,123 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
     }
 
 
+    /**
+     * Mass quote replaces all orders of the user in the order book, so risk check is done for the whole ladder at once.
+     * Hold is taken here and recorded in the command (price - bids, size - asks, see {@link IOrderBook#quoteHoldUnits}),
+     * matching engine compares it with the net change against resting orders of the user and returns the part to release,
+     * which is applied once by {@link #handlerRiskRelease(OrderCommand)}.
+     * <p>
+     * Futures: required margin is calculated as if pending orders of the symbol were already replaced by the ladder, whole ladder is held.<br/>
+     * Exchange: holds of resting orders are not known per symbol, so available funds are held up to the ladder amount
+     * and matching engine rejects the ladder if they do not cover the net change.
+     */
+    private CommandResultCode massQuoteRiskCheck(final OrderCommand cmd) {
+
+        // nothing is held unless the ladder is accepted
+        cmd.price = 0;
+        cmd.size = 0;
+
+        final UserProfile userProfile = userProfileService.getUserProfile(cmd.uid);
+        if (userProfile == null) {
+            log.warn("User profile {} not found", cmd.uid);
+            return CommandResultCode.AUTH_INVALID_USER;
+        }
+
+        final CoreSymbolSpecification spec = symbolSpecificationProvider.getSymbolSpecification(cmd.symbol);
+        if (spec == null) {
+            log.warn("Symbol {} not found", cmd.symbol);
+            return CommandResultCode.INVALID_SYMBOL;
+        }
+
+        final boolean canPlace = holdQuotes(cmd, userProfile, spec);
+        userProfileService.updateRollingHash(userProfile);
+        if (!canPlace) {
+            log.warn("{} NSF uid={}: Can not place mass quote {}", cmd.orderId, userProfile.uid, cmd.quotes);
+            return CommandResultCode.RISK_NSF;
+        }
+
+        userProfile.commandsCounter++;
+        return CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+    }
+
+    private boolean holdQuotes(final OrderCommand cmd,
+                               final UserProfile userProfile,
+                               final CoreSymbolSpecification spec) {
+
+        final L2MarketData quotes = cmd.quotes;
+        long bidHold = 0L;
+        for (int i = 0; i < quotes.bidSize; i++) {
+            bidHold += IOrderBook.quoteHoldUnits(spec.type, OrderAction.BID, quotes.bidPrices[i], quotes.bidVolumes[i]);
+        }
+        long askHold = 0L;
+        for (int i = 0; i < quotes.askSize; i++) {
+            askHold += IOrderBook.quoteHoldUnits(spec.type, OrderAction.ASK, quotes.askPrices[i], quotes.askVolumes[i]);
+        }
+
+        if (spec.type == SymbolType.CURRENCY_EXCHANGE_PAIR) {
+
+            final long freeQuote = userProfile.accounts.get(spec.quoteCurrency) + freeFuturesMargin(userProfile, spec.quoteCurrency);
+            final long freeBase = userProfile.accounts.get(spec.baseCurrency) + freeFuturesMargin(userProfile, spec.baseCurrency);
+            bidHold = Math.min(bidHold, Math.max(freeQuote, 0) / spec.quoteScaleK);
+            askHold = Math.min(askHold, Math.max(freeBase, 0) / spec.baseScaleK);
+
+            userProfile.accounts.addToValue(spec.quoteCurrency, -calculateAmountBid(bidHold, 1, spec));
+            userProfile.accounts.addToValue(spec.baseCurrency, -calculateAmountAsk(askHold, spec));
+
+        } else if (spec.type == SymbolType.FUTURES_CONTRACT) {
+
+            final SymbolPortfolioRecord portfolio = userProfile.getOrCreatePortfolioRecord(spec);
+            final long newRequiredDepositForSymbol = portfolio.calculateRequiredDepositForQuotes(spec, bidHold, askHold);
+            if (newRequiredDepositForSymbol != -1 && !canCoverFuturesDeposit(userProfile, spec, portfolio, newRequiredDepositForSymbol)) {
+                // try to cleanup portfolio if refusing to place
+                userProfile.removeRecordIfEmpty(portfolio);
+                return false;
+            }
+            portfolio.pendingHold(OrderAction.BID, bidHold);
+            portfolio.pendingHold(OrderAction.ASK, askHold);
+            userProfile.removeRecordIfEmpty(portfolio);
+
+        } else {
+            log.error("Symbol {} - unsupported type: {}", spec.symbolId, spec.type);
+            return false;
+        }
+
+        cmd.price = bidHold;
+        cmd.size = askHold;
+        return true;
+    }
+
+    /**
+     * Release the part of mass quote hold returned by matching engine (see {@link IOrderBook#massQuote}).
+     *
+     * @param cmd mass quote command
+     */
+    private void releaseQuotesHold(final OrderCommand cmd) {
+
+        final long bidRelease = cmd.price;
+        final long askRelease = cmd.size;
+        if (bidRelease == 0 && askRelease == 0) {
+            return;
+        }
+
+        final CoreSymbolSpecification spec = symbolSpecificationProvider.getSymbolSpecification(cmd.symbol);
+        if (spec == null) {
+            throw new IllegalStateException("Symbol not found: " + cmd.symbol);
+        }
+
+        final UserProfile up = userProfileService.getUserProfileOrThrowEx(cmd.uid);
+        if (spec.type == SymbolType.CURRENCY_EXCHANGE_PAIR) {
+            up.accounts.addToValue(spec.quoteCurrency, calculateAmountBid(bidRelease, 1, spec));
+            up.accounts.addToValue(spec.baseCurrency, calculateAmountAsk(askRelease, spec));
+        } else {
+            final SymbolPortfolioRecord spr = up.getPortfolioRecordOrThrowEx(cmd.symbol);
+            spr.pendingRelease(OrderAction.BID, bidRelease);
+            spr.pendingRelease(OrderAction.ASK, askRelease);
+            up.removeRecordIfEmpty(spr);
+        }
+        userProfileService.updateRollingHash(up);
+    }
+
     private boolean placeOrder(final OrderCommand cmd,
                                final UserProfile userProfile,
                                final CoreSymbolSpecification spec) {
@@ -255,16 +501,7 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
         final int currency = (cmd.action == OrderAction.BID) ? spec.quoteCurrency : spec.baseCurrency;
 
         // futures positions check for this currency
-        long freeFuturesMargin = 0L;
-        for (final SymbolPortfolioRecord portfolioRecord : userProfile.portfolio) {
-            if (portfolioRecord.currency == currency) {
-                final int recSymbol = portfolioRecord.symbol;
-                final CoreSymbolSpecification spec2 = symbolSpecificationProvider.getSymbolSpecification(recSymbol);
-                // add P&L subtract margin
-                freeFuturesMargin += portfolioRecord.estimateProfit(spec2, lastPriceCache.get(recSymbol));
-                freeFuturesMargin -= portfolioRecord.calculateRequiredDepositForFutures(spec2);
-            }
-        }
+        final long freeFuturesMargin = freeFuturesMargin(userProfile, currency);
 
         if (cmd.action == OrderAction.BID && cmd.reserveBidPrice < cmd.price) {
             // TODO refactor
@@ -291,6 +528,20 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
     }
 
 
+    private long freeFuturesMargin(final UserProfile userProfile, final int currency) {
+        long freeFuturesMargin = 0L;
+        for (final SymbolPortfolioRecord portfolioRecord : userProfile.portfolio) {
+            if (portfolioRecord.currency == currency) {
+                final int recSymbol = portfolioRecord.symbol;
+                final CoreSymbolSpecification spec2 = symbolSpecificationProvider.getSymbolSpecification(recSymbol);
+                // add P&L subtract margin
+                freeFuturesMargin += portfolioRecord.estimateProfit(spec2, lastPriceCache.get(recSymbol));
+                freeFuturesMargin -= portfolioRecord.calculateRequiredDepositForFutures(spec2);
+            }
+        }
+        return freeFuturesMargin;
+    }
+
     private long calculateAmount(OrderAction action, long size, long price, CoreSymbolSpecification spec) {
         return action == OrderAction.BID ? calculateAmountBid(size, price, spec) : calculateAmountAsk(size, spec);
     }
@@ -323,8 +574,15 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
         }
 
         // extra deposit is required
+        return canCoverFuturesDeposit(userProfile, spec, portfolio, newRequiredDepositForSymbol);
+    }
+
+    private boolean canCoverFuturesDeposit(final UserProfile userProfile,
+                                           final CoreSymbolSpecification spec,
+                                           final SymbolPortfolioRecord portfolio,
+                                           final long newRequiredDepositForSymbol) {
 
-        final int symbol = cmd.symbol;
+        final int symbol = spec.symbolId;
         // calculate free margin for all positions same currency
         long freeMargin = 0L;
         for (final SymbolPortfolioRecord portfolioRecord : userProfile.portfolio) {
@@ -347,7 +605,14 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
 
     public void handlerRiskRelease(final int symbol,
                                    final L2MarketData marketData,
-                                   MatcherTradeEvent mte) {
+                                   final MatcherTradeEvent mte) {
+        handlerRiskRelease(symbol, marketData, mte, false);
+    }
+
+    private void handlerRiskRelease(final int symbol,
+                                    final L2MarketData marketData,
+                                    MatcherTradeEvent mte,
+                                    final boolean skipCancels) {
 
         // skip events processing if no events (or if contains BINARY EVENT)
         if (marketData == null && (mte == null || mte.eventType == BINARY_EVENT)) {
@@ -362,7 +627,9 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
         if (mte != null && mte.eventType != BINARY_EVENT) {
             // TODO ?? check if processing order is not reversed
             do {
-                if (spec.type == SymbolType.CURRENCY_EXCHANGE_PAIR) {
+                if (skipCancels && mte.eventType == CANCEL) {
+                    // hold is released by the command
+                } else if (spec.type == SymbolType.CURRENCY_EXCHANGE_PAIR) {
                     handleMatcherEventExchange(mte, spec);
                 } else {
                     handleMatcherEventMargin(mte, spec);
@@ -373,9 +640,16 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
 
         // Process marked data
         if (marketData != null) {
-            final RiskEngine.LastPriceCacheRecord record = lastPriceCache.getIfAbsentPut(symbol, RiskEngine.LastPriceCacheRecord::new);
+            RiskEngine.LastPriceCacheRecord record = lastPriceCache.get(symbol);
+            if (record == null) {
+                record = new RiskEngine.LastPriceCacheRecord();
+                lastPriceCache.put(symbol, record);
+            } else {
+                lastPriceHash -= lastPriceHash(symbol, record);
+            }
             record.askPrice = (marketData.askSize != 0) ? marketData.askPrices[0] : Long.MAX_VALUE;
             record.bidPrice = (marketData.bidSize != 0) ? marketData.bidPrices[0] : 0;
+            lastPriceHash += lastPriceHash(symbol, record);
         }
     }
 
@@ -385,30 +659,56 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
 
         if (ev.eventType == TRADE) {
             // TODO group by user profile ??
-            if (uidForThisHandler(ev.activeOrderUid)) {
+            if (uidEventForThisHandler(ev.activeOrderUid)) {
                 // update taker's portfolio
                 final UserProfile taker = userProfileService.getUserProfileOrThrowEx(ev.activeOrderUid);
                 final SymbolPortfolioRecord takerSpr = taker.getPortfolioRecordOrThrowEx(ev.symbol);
                 takerSpr.updatePortfolioForMarginTrade(ev.activeOrderAction, size, ev.price, spec.takerFee);
                 taker.removeRecordIfEmpty(takerSpr);
+                userProfileService.updateRollingHash(taker);
             }
 
-            if (uidForThisHandler(ev.matchedOrderUid)) {
+            if (uidEventForThisHandler(ev.matchedOrderUid)) {
                 // update maker's portfolio
                 final UserProfile maker = userProfileService.getUserProfileOrThrowEx(ev.matchedOrderUid);
                 final SymbolPortfolioRecord makerSpr = maker.getPortfolioRecordOrThrowEx(ev.symbol);
                 makerSpr.updatePortfolioForMarginTrade(ev.activeOrderAction.opposite(), size, ev.price, spec.makerFee);
                 maker.removeRecordIfEmpty(makerSpr);
+                userProfileService.updateRollingHash(maker);
             }
 
-        } else if (ev.eventType == REJECTION || ev.eventType == CANCEL) {
+        } else if (ev.eventType == LEVEL_TRADE) {
 
-            if (uidForThisHandler(ev.activeOrderUid)) {
-                // for cancel/rejection only one party is involved
+            // all trades of the level have same price, so taker's portfolio is updated once
+            if (uidEventForThisHandler(ev.activeOrderUid)) {
+                final UserProfile taker = userProfileService.getUserProfileOrThrowEx(ev.activeOrderUid);
+                final SymbolPortfolioRecord takerSpr = taker.getPortfolioRecordOrThrowEx(ev.symbol);
+                takerSpr.updatePortfolioForMarginTrade(ev.activeOrderAction, size, ev.price, spec.takerFee);
+                taker.removeRecordIfEmpty(takerSpr);
+                userProfileService.updateRollingHash(taker);
+            }
+
+            final OrderAction makerAction = ev.activeOrderAction.opposite();
+            for (int i = 0; i < ev.makersNum; i++) {
+                final long makerUid = ev.getMakerFill(i, MatcherTradeEvent.MAKER_UID);
+                if (uidEventForThisHandler(makerUid)) {
+                    final UserProfile maker = userProfileService.getUserProfileOrThrowEx(makerUid);
+                    final SymbolPortfolioRecord makerSpr = maker.getPortfolioRecordOrThrowEx(ev.symbol);
+                    makerSpr.updatePortfolioForMarginTrade(makerAction, ev.getMakerFill(i, MatcherTradeEvent.MAKER_SIZE), ev.price, spec.makerFee);
+                    maker.removeRecordIfEmpty(makerSpr);
+                    userProfileService.updateRollingHash(maker);
+                }
+            }
+
+        } else if (ev.eventType == REJECTION || ev.eventType == CANCEL || ev.eventType == REDUCE) {
+
+            if (uidEventForThisHandler(ev.activeOrderUid)) {
+                // for cancel/rejection/reduce only one party is involved
                 final UserProfile up = userProfileService.getUserProfileOrThrowEx(ev.activeOrderUid);
                 final SymbolPortfolioRecord spr = up.getPortfolioRecordOrThrowEx(ev.symbol);
                 spr.pendingRelease(ev.activeOrderAction, size);
                 up.removeRecordIfEmpty(spr);
+                userProfileService.updateRollingHash(up);
             }
 
         } else {
@@ -424,51 +724,71 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
             // TODO group by user profile ??
 
             // perform account-to-account transfers
-            if (uidForThisHandler(ev.activeOrderUid)) {
+            if (uidEventForThisHandler(ev.activeOrderUid)) {
 //                log.debug("Processing release for taker");
-                processExchangeHoldRelease2(ev.activeOrderUid, ev.activeOrderAction == OrderAction.ASK, ev, spec);
+                processExchangeHoldRelease2(ev.activeOrderUid, ev.activeOrderAction == OrderAction.ASK, ev.size, ev.price, ev.bidderHoldPrice, spec);
             }
 
-            if (uidForThisHandler(ev.matchedOrderUid)) {
+            if (uidEventForThisHandler(ev.matchedOrderUid)) {
 //                log.debug("Processing release for maker");
-                processExchangeHoldRelease2(ev.matchedOrderUid, ev.activeOrderAction != OrderAction.ASK, ev, spec);
+                processExchangeHoldRelease2(ev.matchedOrderUid, ev.activeOrderAction != OrderAction.ASK, ev.size, ev.price, ev.bidderHoldPrice, spec);
+            }
+
+        } else if (ev.eventType == LEVEL_TRADE) {
+
+            // taker is processed once per price level
+            if (uidEventForThisHandler(ev.activeOrderUid)) {
+                processExchangeHoldRelease2(ev.activeOrderUid, ev.activeOrderAction == OrderAction.ASK, ev.size, ev.price, ev.bidderHoldPrice, spec);
+            }
+
+            final boolean makersSelling = ev.activeOrderAction != OrderAction.ASK;
+            for (int i = 0; i < ev.makersNum; i++) {
+                final long makerUid = ev.getMakerFill(i, MatcherTradeEvent.MAKER_UID);
+                if (uidEventForThisHandler(makerUid)) {
+                    processExchangeHoldRelease2(makerUid, makersSelling, ev.getMakerFill(i, MatcherTradeEvent.MAKER_SIZE), ev.price,
+                            ev.getMakerFill(i, MatcherTradeEvent.MAKER_RESERVE_BID_PRICE), spec);
+                }
             }
 
-        } else if (ev.eventType == REJECTION || ev.eventType == CANCEL) {
-            if (uidForThisHandler(ev.activeOrderUid)) {
+        } else if (ev.eventType == REJECTION || ev.eventType == CANCEL || ev.eventType == REDUCE) {
+            if (uidEventForThisHandler(ev.activeOrderUid)) {
 
 //                log.debug("CANCEL/REJ uid: {}", ev.activeOrderUid);
 
-                // for cancel/rejection only one party is involved
+                // for cancel/rejection/reduce only one party is involved
                 final UserProfile up = userProfileService.getUserProfileOrThrowEx(ev.activeOrderUid);
-                if (ev.activeOrderAction == OrderAction.ASK) {
-                    final long amountToReleaseInBaseCurrency = calculateAmountAsk(ev.size, spec);
-                    up.accounts.addToValue(spec.baseCurrency, amountToReleaseInBaseCurrency);
-//                    log.debug("REJ/CAN ASK: amountToRelease = {}  ACC:{}", amountToReleaseInBaseCurrency, userProfileService.getUserProfile(ev.activeOrderUid).accounts);
-                } else {
-                    final long amountToRelease = calculateAmountBid(ev.size, ev.bidderHoldPrice, spec);
-                    up.accounts.addToValue(spec.quoteCurrency, amountToRelease);
-//                    log.debug("REJ/CAN BID: amountToRelease = {}  ACC:{}", amountToRelease, userProfileService.getUserProfile(ev.activeOrderUid).accounts);
-                }
+                releaseExchangeHold(up, ev, spec);
+                userProfileService.updateRollingHash(up);
             }
         } else {
             log.error("unsupported eventType: {}", ev.eventType);
         }
     }
 
-    private void processExchangeHoldRelease2(long uid, boolean isSelling, MatcherTradeEvent ev, CoreSymbolSpecification spec) {
-        final long size = ev.size;
+    private void releaseExchangeHold(final UserProfile up, final MatcherTradeEvent ev, final CoreSymbolSpecification spec) {
+        if (ev.activeOrderAction == OrderAction.ASK) {
+            final long amountToReleaseInBaseCurrency = calculateAmountAsk(ev.size, spec);
+            up.accounts.addToValue(spec.baseCurrency, amountToReleaseInBaseCurrency);
+//            log.debug("REJ/CAN ASK: amountToRelease = {}  ACC:{}", amountToReleaseInBaseCurrency, userProfileService.getUserProfile(ev.activeOrderUid).accounts);
+        } else {
+            final long amountToRelease = calculateAmountBid(ev.size, ev.bidderHoldPrice, spec);
+            up.accounts.addToValue(spec.quoteCurrency, amountToRelease);
+//            log.debug("REJ/CAN BID: amountToRelease = {}  ACC:{}", amountToRelease, userProfileService.getUserProfile(ev.activeOrderUid).accounts);
+        }
+    }
+
+    private void processExchangeHoldRelease2(long uid, boolean isSelling, long size, long price, long bidderHoldPrice, CoreSymbolSpecification spec) {
         final UserProfile up = userProfileService.getUserProfileOrThrowEx(uid);
 
         if (isSelling) {
             // selling
 
-            final long obtainedAmountInQuoteCurrency = calculateAmountBid(size, ev.price, spec);
+            final long obtainedAmountInQuoteCurrency = calculateAmountBid(size, price, spec);
             up.accounts.addToValue(spec.quoteCurrency, obtainedAmountInQuoteCurrency);
 //            log.debug("{} sells - getting {} (in quote cur={}) size={} ACCOUNTS:{}", up.uid, obtainedAmountInQuoteCurrency, spec.quoteCurrency, size, userProfileService.getUserProfile(uid).accounts);
         } else {
             // buying, use bidderHoldPrice to calculate released amount based on price difference
-            final long amountDiffToReleaseInQuoteCurrency = calculateAmountBid(size, ev.bidderHoldPrice - ev.price, spec);
+            final long amountDiffToReleaseInQuoteCurrency = calculateAmountBid(size, bidderHoldPrice - price, spec);
             up.accounts.addToValue(spec.quoteCurrency, amountDiffToReleaseInQuoteCurrency);
 
             final long obtainedAmountInBaseCurrency = calculateAmountAsk(size, spec);
@@ -476,12 +796,14 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
 //            log.debug("{} buys - amountDiffToReleaseInQuoteCurrency={} ({}-{}) (in quote cur={})", up.uid, amountDiffToReleaseInQuoteCurrency, ev.bidderHoldPrice, ev.price, spec.quoteCurrency);
 //            log.debug("{} buys - getting {} (in base cur={}) size={} ACCOUNTS:{}", up.uid, obtainedAmountInBaseCurrency, spec.baseCurrency, size, userProfileService.getUserProfile(uid).accounts);
         }
+        userProfileService.updateRollingHash(up);
     }
 
     @Override
     public void writeMarshallable(BytesOut bytes) {
 
-        bytes.writeInt(shardId).writeLong(shardMask);
+        bytes.writeInt(shardId);
+        uidPartitioner.writeMarshallable(bytes);
 
         symbolSpecificationProvider.writeMarshallable(bytes);
         userProfileService.writeMarshallable(bytes);
@@ -494,25 +816,55 @@ public final class RiskEngine implements WriteBytesMarshallable, StateHash {
         symbolSpecificationProvider.reset();
         binaryCommandsProcessor.reset();
         lastPriceCache.clear();
+        lastPriceHash = 0L;
+        uidCommandsCounter = 0L;
+        uidEventsCounter = 0L;
+    }
+
+    private static long lastPriceHash(final int symbol, final LastPriceCacheRecord record) {
+        return StateHash.mix(StateHash.mix(StateHash.mix(symbol) + record.askPrice) + record.bidPrice);
+    }
+
+    private long calculateLastPriceHash() {
+        final long[] hash = {0L};
+        lastPriceCache.forEachKeyValue((symbol, record) -> hash[0] += lastPriceHash(symbol, record));
+        return hash[0];
     }
 
+    /**
+     * Rolling state hash - does not depend on number of users and symbols
+     */
     @Override
     public int stateHash() {
-
         return Objects.hash(
                 shardId,
-                shardMask,
+                uidPartitioner.stateHash(),
                 symbolSpecificationProvider.stateHash(),
                 userProfileService.stateHash(),
                 binaryCommandsProcessor.stateHash(),
-                Utils.stateHash(lastPriceCache));
+                StateHash.fold(lastPriceHash));
+    }
+
+    /**
+     * Same hash recalculated by full traversal of risk engine state - for verification only
+     */
+    public int stateHashFullScan() {
+
+        return Objects.hash(
+                shardId,
+                uidPartitioner.stateHash(),
+                symbolSpecificationProvider.stateHashFullScan(),
+                userProfileService.stateHashFullScan(),
+                binaryCommandsProcessor.stateHash(),
+                StateHash.fold(calculateLastPriceHash()));
 
-        //log.debug("HASH RE{}/{} hash={} -- ssp={} ups={} bcp={} lpc={}", shardId, shardMask, hash, symbolSpecificationProvider.stateHash(), userProfileService.stateHash(), binaryCommandsProcessor.stateHash(), lastPriceCache.hashCode());
+        //log.debug("HASH RE{}/{} hash={} -- ssp={} ups={} bcp={} lpc={}", shardId, uidPartitioner, hash, symbolSpecificationProvider.stateHash(), userProfileService.stateHash(), binaryCommandsProcessor.stateHash(), lastPriceCache.hashCode());
     }
 
     @AllArgsConstructor
     @Getter
     public class State {
+        private final IUidPartitioner uidPartitioner;
         private final SymbolSpecificationProvider symbolSpecificationProvider;
         private final UserProfileService userProfileService;
         private final BinaryCommandsProcessor binaryCommandsProcessor;
@@ -10,27 +10,45 @@ import org.openpredict.exchange.beans.CoreSymbolSpecification;
 import org.openpredict.exchange.beans.StateHash;
 import org.openpredict.exchange.beans.cmd.CommandResultCode;
 
-import java.util.Objects;
-
 @Slf4j
 public final class SymbolSpecificationProvider implements WriteBytesMarshallable, StateHash {
 
     // symbol->specs
     private final IntObjectHashMap<CoreSymbolSpecification> symbolSpecs;
 
+    // rolling hash: sum of specifications hashes (not serialized)
+    private long specsHash = 0L;
+
     public SymbolSpecificationProvider() {
         this.symbolSpecs = new IntObjectHashMap<>();
     }
 
     public SymbolSpecificationProvider(BytesIn bytes) {
         this.symbolSpecs = Utils.readIntHashMap(bytes, CoreSymbolSpecification::new);
+        this.specsHash = calculateSpecsHash();
     }
 
 
+    /**
+     * Register new symbol specification, if it is valid.<br/>
+     * Engine profile is validated same way as matching engine does, so symbol rejected by matching engine
+     * is not registered by risk engine.
+     *
+     * @param symbolSpecification - new symbol specification
+     * @return result code
+     */
     public CommandResultCode addSymbol(final CoreSymbolSpecification symbolSpecification) {
         if (getSymbolSpecification(symbolSpecification.symbolId) != null) {
             return CommandResultCode.SYMBOL_MGMT_SYMBOL_ALREADY_EXISTS;
         } else {
+            if (symbolSpecification.engineProfile != null) {
+                try {
+                    symbolSpecification.engineProfile.validate();
+                } catch (final IllegalArgumentException ex) {
+                    log.warn("Invalid engine profile of symbol {}: {}", symbolSpecification.symbolId, ex.getMessage());
+                    return CommandResultCode.MATCHING_INVALID_ENGINE_PROFILE;
+                }
+            }
             registerSymbol(symbolSpecification.symbolId, symbolSpecification);
             return CommandResultCode.VALID_FOR_MATCHING_ENGINE;
         }
@@ -53,7 +71,11 @@ public final class SymbolSpecificationProvider implements WriteBytesMarshallable
      * @param spec
      */
     public void registerSymbol(int symbol, CoreSymbolSpecification spec) {
-        symbolSpecs.put(symbol, spec);
+        final CoreSymbolSpecification previous = symbolSpecs.put(symbol, spec);
+        if (previous != null) {
+            specsHash -= specHash(symbol, previous);
+        }
+        specsHash += specHash(symbol, spec);
     }
 
     /**
@@ -61,6 +83,7 @@ public final class SymbolSpecificationProvider implements WriteBytesMarshallable
      */
     public void reset() {
         symbolSpecs.clear();
+        specsHash = 0L;
     }
 
     @Override
@@ -71,7 +94,24 @@ public final class SymbolSpecificationProvider implements WriteBytesMarshallable
 
     @Override
     public int stateHash() {
-        return Objects.hash(Utils.stateHash(symbolSpecs));
+        return StateHash.fold(specsHash);
+    }
+
+    /**
+     * Same hash recalculated by full traversal of all specifications - for verification only
+     */
+    public int stateHashFullScan() {
+        return StateHash.fold(calculateSpecsHash());
+    }
+
+    private long calculateSpecsHash() {
+        final long[] hash = {0L};
+        symbolSpecs.forEachKeyValue((symbol, spec) -> hash[0] += specHash(symbol, spec));
+        return hash[0];
+    }
+
+    private static long specHash(final int symbol, final CoreSymbolSpecification spec) {
+        return StateHash.mix(StateHash.mix(symbol) + spec.stateHash());
     }
 
 }
@@ -4,13 +4,14 @@ import lombok.extern.slf4j.Slf4j;
 import net.openhft.chronicle.bytes.BytesIn;
 import net.openhft.chronicle.bytes.BytesOut;
 import net.openhft.chronicle.bytes.WriteBytesMarshallable;
+import org.eclipse.collections.api.block.procedure.Procedure;
+import org.eclipse.collections.api.block.procedure.primitive.IntLongProcedure;
 import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
 import org.openpredict.exchange.beans.StateHash;
+import org.openpredict.exchange.beans.SymbolPortfolioRecord;
 import org.openpredict.exchange.beans.UserProfile;
 import org.openpredict.exchange.beans.cmd.CommandResultCode;
 
-import java.util.Objects;
-
 /**
  * Stateful (!) User profile service
  * <p>
@@ -24,12 +25,20 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
      */
     private final LongObjectHashMap<UserProfile> userProfiles;
 
+    // rolling hash: sum of profiles accounts hashes and applied external transactions hashes (not serialized)
+    private long profilesHash = 0L;
+
+    // reusable hasher (risk engine thread only)
+    private final ProfileHasher hasher = new ProfileHasher();
+
     public UserProfileService() {
         this.userProfiles = new LongObjectHashMap<>();
     }
 
     public UserProfileService(BytesIn bytes) {
         this.userProfiles = Utils.readLongHashMap(bytes, UserProfile::new);
+        userProfiles.forEachValue(up -> up.accountsHash = hasher.accountsHash(up));
+        this.profilesHash = calculateProfilesHash();
     }
 
     /**
@@ -38,6 +47,10 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
      * @param uid
      * @return
      */
+    public int getUsersNum() {
+        return userProfiles.size();
+    }
+
     public UserProfile getUserProfile(long uid) {
         return userProfiles.get(uid);
     }
@@ -87,6 +100,8 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
 
         userProfile.externalTransactions.add(fundingTransactionId);
         userProfile.accounts.addToValue(currency, amount);
+        profilesHash += transactionHash(uid, fundingTransactionId);
+        updateRollingHash(userProfile);
 
         //log.debug("FUND: {}", userProfile);
         return CommandResultCode.SUCCESS;
@@ -100,7 +115,9 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
      */
     public CommandResultCode addEmptyUserProfile(long uid) {
         if (userProfiles.get(uid) == null) {
-            userProfiles.put(uid, new UserProfile(uid));
+            final UserProfile userProfile = new UserProfile(uid);
+            userProfiles.put(uid, userProfile);
+            updateRollingHash(userProfile);
             return CommandResultCode.SUCCESS;
         } else {
             log.debug("Can not add user, already exists: {}", uid);
@@ -125,8 +142,21 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
         }
     }
 
+    /**
+     * Update rolling hash after user profile accounts or portfolio were changed.
+     * Cost depends only on number of accounts and portfolio records of the user.
+     *
+     * @param userProfile - changed profile
+     */
+    public void updateRollingHash(final UserProfile userProfile) {
+        final long accountsHash = hasher.accountsHash(userProfile);
+        profilesHash += accountsHash - userProfile.accountsHash;
+        userProfile.accountsHash = accountsHash;
+    }
+
     public void reset() {
         userProfiles.clear();
+        profilesHash = 0L;
     }
 
     @Override
@@ -138,7 +168,59 @@ public final class UserProfileService implements WriteBytesMarshallable, StateHa
 
     @Override
     public int stateHash() {
-        return Objects.hash(Utils.stateHash(userProfiles));
+        return StateHash.fold(profilesHash);
+    }
+
+    /**
+     * Same hash recalculated by full traversal of all user profiles - for verification only
+     */
+    public int stateHashFullScan() {
+        return StateHash.fold(calculateProfilesHash());
+    }
+
+    private long calculateProfilesHash() {
+        final ProfileHasher fullScanHasher = new ProfileHasher();
+        final long[] hash = {0L};
+        userProfiles.forEachValue(up -> {
+            hash[0] += fullScanHasher.accountsHash(up);
+            up.externalTransactions.forEach(txId -> hash[0] += transactionHash(up.uid, txId));
+        });
+        return hash[0];
+    }
+
+    private static long transactionHash(final long uid, final long fundingTransactionId) {
+        return StateHash.mix(StateHash.mix(~uid) ^ fundingTransactionId);
+    }
+
+    /**
+     * Hashes user accounts and portfolio records without producing garbage
+     */
+    private static final class ProfileHasher implements IntLongProcedure, Procedure<SymbolPortfolioRecord> {
+
+        private long hash;
+
+        long accountsHash(final UserProfile userProfile) {
+            hash = 0L;
+            userProfile.accounts.forEachKeyValue(this);
+            userProfile.portfolio.forEachValue(this);
+            return StateHash.mix(StateHash.mix(userProfile.uid) + hash);
+        }
+
+        @Override
+        public void value(final int currency, final long balance) {
+            hash += StateHash.mix(StateHash.mix(currency) + balance);
+        }
+
+        @Override
+        public void value(final SymbolPortfolioRecord record) {
+            long h = StateHash.mix(((long) record.symbol << 32) ^ record.currency);
+            h = StateHash.mix(h + record.position.getMultiplier());
+            h = StateHash.mix(h + record.openVolume);
+            h = StateHash.mix(h + record.openPriceSum);
+            h = StateHash.mix(h + record.profit);
+            h = StateHash.mix(h + record.pendingSellSize);
+            hash += StateHash.mix(h + record.pendingBuySize);
+        }
     }
 
 }
\ No newline at end of file
@@ -6,17 +6,23 @@ import net.openhft.chronicle.bytes.BytesIn;
 import net.openhft.chronicle.bytes.BytesOut;
 import net.openhft.chronicle.bytes.NativeBytes;
 import net.openhft.chronicle.bytes.WriteBytesMarshallable;
+import org.eclipse.collections.api.map.primitive.MutableIntIntMap;
 import org.eclipse.collections.api.map.primitive.MutableIntLongMap;
 import org.eclipse.collections.api.map.primitive.MutableLongIntMap;
+import org.eclipse.collections.impl.map.mutable.primitive.IntIntHashMap;
 import org.eclipse.collections.impl.map.mutable.primitive.IntLongHashMap;
 import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
 import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
 import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
 import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.openpredict.exchange.beans.L2MarketDataDelta;
+import org.openpredict.exchange.beans.L3MarketDataEvents;
 import org.openpredict.exchange.beans.MatcherTradeEvent;
 import org.openpredict.exchange.beans.StateHash;
 import org.openpredict.exchange.beans.cmd.CommandResultCode;
 import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.core.collections.LongObjectTreeMap;
+import org.openpredict.exchange.core.collections.LongRingWindowMap;
 
 import java.nio.ByteBuffer;
 import java.nio.LongBuffer;
@@ -37,6 +43,8 @@ public final class Utils {
     final static long OFFSET_PRICE;
     final static long OFFSET_UID;
     final static long OFFSET_EVENT;
+    final static long OFFSET_MARKET_DATA_DELTA;
+    final static long OFFSET_L3_EVENTS;
 
     static {
         try {
@@ -45,6 +53,8 @@ public final class Utils {
             OFFSET_UID = UNSAFE.objectFieldOffset(OrderCommand.class.getDeclaredField("uid"));
             OFFSET_RESULT_CODE = UNSAFE.objectFieldOffset(OrderCommand.class.getDeclaredField("resultCode"));
             OFFSET_EVENT = UNSAFE.objectFieldOffset(OrderCommand.class.getDeclaredField("matcherEvent"));
+            OFFSET_MARKET_DATA_DELTA = UNSAFE.objectFieldOffset(OrderCommand.class.getDeclaredField("marketDataDelta"));
+            OFFSET_L3_EVENTS = UNSAFE.objectFieldOffset(OrderCommand.class.getDeclaredField("l3Events"));
         } catch (NoSuchFieldException ex) {
             throw new IllegalStateException(ex);
         }
@@ -91,7 +101,7 @@ public final class Utils {
         long[] longArray = new long[longLength];
         //log.debug("byte[{}]={}", bytes.length, bytes);
 
-        final ByteBuffer allocate = ByteBuffer.allocate(bytes.length * 2);
+        final ByteBuffer allocate = ByteBuffer.allocate(longLength * 8);
         final LongBuffer longBuffer = allocate.asLongBuffer();
         allocate.put(bytes);
         longBuffer.get(longArray);
@@ -149,6 +159,38 @@ public final class Utils {
         } while (!UNSAFE.compareAndSwapObject(cmd, OFFSET_EVENT, tail.nextEvent, eventHead));
     }
 
+    public static void appendMarketDataDeltaVolatile(final OrderCommand cmd,
+                                                     final L2MarketDataDelta deltaHead) {
+
+        L2MarketDataDelta tail = deltaHead;
+        while (tail.next != null) {
+            tail = tail.next;
+        }
+
+        do {
+            // read current head and attach to the tail of new
+            tail.next = (L2MarketDataDelta) UNSAFE.getObjectVolatile(cmd, OFFSET_MARKET_DATA_DELTA);
+
+            // do a CAS operation
+        } while (!UNSAFE.compareAndSwapObject(cmd, OFFSET_MARKET_DATA_DELTA, tail.next, deltaHead));
+    }
+
+    public static void appendL3EventsVolatile(final OrderCommand cmd,
+                                              final L3MarketDataEvents eventsHead) {
+
+        L3MarketDataEvents tail = eventsHead;
+        while (tail.next != null) {
+            tail = tail.next;
+        }
+
+        do {
+            // read current head and attach to the tail of new
+            tail.next = (L3MarketDataEvents) UNSAFE.getObjectVolatile(cmd, OFFSET_L3_EVENTS);
+
+            // do a CAS operation
+        } while (!UNSAFE.compareAndSwapObject(cmd, OFFSET_L3_EVENTS, tail.next, eventsHead));
+    }
+
 
     public static void marshallBitSet(final BitSet bitSet, final BytesOut bytes) {
         marshallLongArray(bitSet.toLongArray(), bytes);
@@ -199,6 +241,27 @@ public final class Utils {
         return hashMap;
     }
 
+    public static void marshallIntIntHashMap(final MutableIntIntMap hashMap, final BytesOut bytes) {
+
+        bytes.writeInt(hashMap.size());
+
+        hashMap.forEachKeyValue((k, v) -> {
+            bytes.writeInt(k);
+            bytes.writeInt(v);
+        });
+    }
+
+    public static IntIntHashMap readIntIntHashMap(final BytesIn bytes) {
+        int length = bytes.readInt();
+        final IntIntHashMap hashMap = new IntIntHashMap(length);
+        for (int i = 0; i < length; i++) {
+            int k = bytes.readInt();
+            int v = bytes.readInt();
+            hashMap.put(k, v);
+        }
+        return hashMap;
+    }
+
     public static void marshallIntLongHashMap(final MutableIntLongMap hashMap, final BytesOut bytes) {
 
         bytes.writeInt(hashMap.size());
@@ -298,6 +361,43 @@ public final class Utils {
     }
 
 
+    public static <T extends WriteBytesMarshallable> void marshallLongTreeMap(final LongObjectTreeMap<T> map, final BytesOut bytes) {
+        bytes.writeInt(map.size());
+
+        map.forEach((k, v) -> {
+            bytes.writeLong(k);
+            v.writeMarshallable(bytes);
+        });
+    }
+
+    public static <T> LongObjectTreeMap<T> readLongTreeMap(final BytesIn bytes, Function<BytesIn, T> creator) {
+        int length = bytes.readInt();
+        final LongObjectTreeMap<T> map = new LongObjectTreeMap<>(length);
+        for (int i = 0; i < length; i++) {
+            map.put(bytes.readLong(), creator.apply(bytes));
+        }
+        return map;
+    }
+
+    public static <T extends WriteBytesMarshallable> void marshallLongRingWindowMap(final LongRingWindowMap<T> map, final BytesOut bytes) {
+        bytes.writeInt(map.size());
+
+        map.forEach((k, v) -> {
+            bytes.writeLong(k);
+            v.writeMarshallable(bytes);
+        });
+    }
+
+    public static <T> LongRingWindowMap<T> readLongRingWindowMap(final BytesIn bytes, final int range, final long base, Function<BytesIn, T> creator) {
+        int length = bytes.readInt();
+        final LongRingWindowMap<T> map = new LongRingWindowMap<>(range, base);
+        for (int i = 0; i < length; i++) {
+            map.put(bytes.readLong(), creator.apply(bytes));
+        }
+        return map;
+    }
+
+
     public static int stateHash(final BitSet bitSet) {
         return Arrays.hashCode(bitSet.toLongArray());
     }
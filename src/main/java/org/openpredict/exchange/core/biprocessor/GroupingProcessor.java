@@ -17,8 +17,10 @@ package org.openpredict.exchange.core.biprocessor;
 
 import com.lmax.disruptor.*;
 import lombok.extern.slf4j.Slf4j;
+import org.openpredict.exchange.beans.MatcherTradeEvent;
 import org.openpredict.exchange.beans.cmd.OrderCommand;
 import org.openpredict.exchange.beans.cmd.OrderCommandType;
+import org.openpredict.exchange.core.orderbook.MatcherEventsPool;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -38,10 +40,14 @@ public final class GroupingProcessor implements EventProcessor {
 
     private final long msgsInGroupLimit;
 
-    public GroupingProcessor(final RingBuffer<OrderCommand> ringBuffer, final SequenceBarrier sequenceBarrier, final long msgsInGroupLimit) {
+    public GroupingProcessor(final RingBuffer<OrderCommand> ringBuffer,
+                             final SequenceBarrier sequenceBarrier,
+                             final long msgsInGroupLimit,
+                             final PhasedWaitStrategy waitStrategy,
+                             final WaitPhaseCounters waitPhaseCounters) {
         this.ringBuffer = ringBuffer;
         this.sequenceBarrier = sequenceBarrier;
-        this.waitSpinningHelper = new WaitSpinningHelper(ringBuffer, sequenceBarrier, GROUP_SPIN_LIMIT);
+        this.waitSpinningHelper = new WaitSpinningHelper(ringBuffer, sequenceBarrier, GROUP_SPIN_LIMIT, waitStrategy, waitPhaseCounters);
         this.msgsInGroupLimit = msgsInGroupLimit;
     }
 
@@ -113,7 +119,9 @@ public final class GroupingProcessor implements EventProcessor {
 
                         // RESET should trigger R2 stage
                         // PERSIST_STATE_MATCHING should also trigger R2 stage
-                        if (cmd.command == OrderCommandType.RESET || cmd.command == OrderCommandType.PERSIST_STATE_MATCHING) {
+                        // ROUTE_SYMBOL is blocking matching engines while order book is moving, so previous commands are released first
+                        if (cmd.command == OrderCommandType.RESET || cmd.command == OrderCommandType.PERSIST_STATE_MATCHING
+                                || cmd.command == OrderCommandType.ROUTE_SYMBOL) {
                             groupCounter++;
                             msgsInGroup = 0;
                         }
@@ -128,7 +136,19 @@ public final class GroupingProcessor implements EventProcessor {
 
                         // cleaning attached objects
                         cmd.marketData = null;
-                        cmd.matcherEvent = null;
+                        // results consumer and risk release stage have seen previous events - return them to matching engine pool
+                        final MatcherTradeEvent events = cmd.matcherEvent;
+                        if (events != null) {
+                            cmd.matcherEvent = null;
+                            MatcherEventsPool.releaseToOwners(events);
+                        }
+                        cmd.eventsPool = null;
+                        if (cmd.marketDataDelta != null) {
+                            cmd.marketDataDelta.reset();
+                        }
+                        if (cmd.l3Events != null) {
+                            cmd.l3Events.reset();
+                        }
 
                         if (cmd.command == OrderCommandType.NOP) {
                             // just set next group and pass
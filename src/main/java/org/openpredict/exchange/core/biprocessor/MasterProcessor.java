@@ -45,10 +45,12 @@ public final class MasterProcessor implements EventProcessor {
     public MasterProcessor(final RingBuffer<OrderCommand> ringBuffer,
                            final SequenceBarrier sequenceBarrier,
                            final SimpleEventHandler<OrderCommand> eventHandler,
-                           final ExceptionHandler<OrderCommand> exceptionHandler) {
+                           final ExceptionHandler<OrderCommand> exceptionHandler,
+                           final PhasedWaitStrategy waitStrategy,
+                           final WaitPhaseCounters waitPhaseCounters) {
         this.dataProvider = ringBuffer;
         this.sequenceBarrier = sequenceBarrier;
-        this.waitSpinningHelper = new WaitSpinningHelper(ringBuffer, sequenceBarrier, MASTER_SPIN_LIMIT);
+        this.waitSpinningHelper = new WaitSpinningHelper(ringBuffer, sequenceBarrier, MASTER_SPIN_LIMIT, waitStrategy, waitPhaseCounters);
         this.eventHandler = eventHandler;
         this.exceptionHandler = exceptionHandler;
     }
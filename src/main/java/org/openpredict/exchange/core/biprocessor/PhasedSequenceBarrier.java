@@ -0,0 +1,60 @@
+package org.openpredict.exchange.core.biprocessor;
+
+import com.lmax.disruptor.AlertException;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.SequenceBarrier;
+
+/**
+ * Sequence barrier for standard disruptor event processors (matching engine, journalling, results),
+ * waiting with processor own {@link PhasedWaitStrategy} instead of disruptor-wide wait strategy.<br/>
+ * Parking is time-limited, so publishers do not need to signal blocked processors.
+ */
+public final class PhasedSequenceBarrier implements SequenceBarrier {
+
+    private static final int BARRIER_SPIN_LIMIT = 1000;
+
+    private final SequenceBarrier sequenceBarrier;
+    private final WaitSpinningHelper waitSpinningHelper;
+
+    public <T> PhasedSequenceBarrier(final RingBuffer<T> ringBuffer,
+                                     final SequenceBarrier sequenceBarrier,
+                                     final PhasedWaitStrategy waitStrategy,
+                                     final WaitPhaseCounters counters) {
+        this.sequenceBarrier = sequenceBarrier;
+        this.waitSpinningHelper = new WaitSpinningHelper(ringBuffer, sequenceBarrier, BARRIER_SPIN_LIMIT, waitStrategy, counters);
+    }
+
+    @Override
+    public long waitFor(final long sequence) throws AlertException {
+        long availableSequence;
+        do {
+            availableSequence = waitSpinningHelper.tryWaitFor(sequence);
+        } while (availableSequence < sequence);
+        return availableSequence;
+    }
+
+    @Override
+    public long getCursor() {
+        return sequenceBarrier.getCursor();
+    }
+
+    @Override
+    public boolean isAlerted() {
+        return sequenceBarrier.isAlerted();
+    }
+
+    @Override
+    public void alert() {
+        sequenceBarrier.alert();
+    }
+
+    @Override
+    public void clearAlert() {
+        sequenceBarrier.clearAlert();
+    }
+
+    @Override
+    public void checkAlert() throws AlertException {
+        sequenceBarrier.checkAlert();
+    }
+}
@@ -0,0 +1,46 @@
+package org.openpredict.exchange.core.biprocessor;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * Phased waiting of pipeline processor for the next sequence: busy spin -> yield -> park with exponential backoff.<br/>
+ * Phases are switched by time elapsed since processor became idle, and it returns to spinning as soon as any sequence is available.
+ * <p>
+ * BUSY_SPIN - lowest latency, burns dedicated core (trading session);
+ * BACKOFF - releases core after short idle period (shared hosts), first message after idle period is delayed up to maxParkNanos.
+ */
+@EqualsAndHashCode
+@ToString
+public final class PhasedWaitStrategy {
+
+    public static final PhasedWaitStrategy BUSY_SPIN = new PhasedWaitStrategy(Long.MAX_VALUE, 0, 0, 0);
+    public static final PhasedWaitStrategy YIELDING = new PhasedWaitStrategy(50_000, Long.MAX_VALUE, 0, 0);
+    public static final PhasedWaitStrategy BACKOFF = new PhasedWaitStrategy(10_000, 100_000, 1_000, 1_000_000);
+
+    // time of busy spinning after processor became idle
+    public final long spinNanos;
+
+    // time of yielding after spinning phase
+    public final long yieldNanos;
+
+    // first park time, doubled for every next park
+    public final long minParkNanos;
+
+    // park time limit (also a limit for delay of processing after idle period)
+    public final long maxParkNanos;
+
+    @Builder
+    public PhasedWaitStrategy(long spinNanos, long yieldNanos, long minParkNanos, long maxParkNanos) {
+        if (spinNanos < 0 || yieldNanos < 0 || minParkNanos < 0 || maxParkNanos < minParkNanos) {
+            throw new IllegalArgumentException("invalid wait phases: spin=" + spinNanos + " yield=" + yieldNanos
+                    + " park=" + minParkNanos + ".." + maxParkNanos);
+        }
+        this.spinNanos = spinNanos;
+        this.yieldNanos = yieldNanos;
+        this.minParkNanos = Math.max(minParkNanos, 1);
+        this.maxParkNanos = Math.max(maxParkNanos, 1);
+    }
+
+}
@@ -39,10 +39,12 @@ public final class SlaveProcessor implements EventProcessor {
     public SlaveProcessor(final RingBuffer<OrderCommand> ringBuffer,
                           final SequenceBarrier sequenceBarrier,
                           final SimpleEventHandler<? super OrderCommand> eventHandler,
-                          final ExceptionHandler<? super OrderCommand> exceptionHandler) {
+                          final ExceptionHandler<? super OrderCommand> exceptionHandler,
+                          final PhasedWaitStrategy waitStrategy,
+                          final WaitPhaseCounters waitPhaseCounters) {
         this.dataProvider = ringBuffer;
         this.sequenceBarrier = sequenceBarrier;
-        this.waitSpinningHelper = new WaitSpinningHelper(ringBuffer, sequenceBarrier, 0);
+        this.waitSpinningHelper = new WaitSpinningHelper(ringBuffer, sequenceBarrier, 0, waitStrategy, waitPhaseCounters);
         this.eventHandler = eventHandler;
         this.exceptionHandler = exceptionHandler;
     }
@@ -0,0 +1,31 @@
+package org.openpredict.exchange.core.biprocessor;
+
+import lombok.Getter;
+
+/**
+ * Time spent by one processor in each waiting phase.<br/>
+ * Updated by processor thread only, other threads can read approximate values.
+ */
+@Getter
+public final class WaitPhaseCounters {
+
+    long spinNanos = 0;
+    long yieldNanos = 0;
+    long parkNanos = 0;
+
+    long yields = 0;
+    long parks = 0;
+
+    // number of idle periods (waiting started after available sequences were processed)
+    long idlePeriods = 0;
+
+    public long getTotalNanos() {
+        return spinNanos + yieldNanos + parkNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("spin=%dus yield=%dus park=%dus yields=%d parks=%d idlePeriods=%d",
+                spinNanos / 1000, yieldNanos / 1000, parkNanos / 1000, yields, parks, idlePeriods);
+    }
+}
@@ -6,7 +6,13 @@ import com.lmax.disruptor.SequenceBarrier;
 import com.lmax.disruptor.Sequencer;
 
 import java.lang.reflect.Field;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Single waiting step for processors which are doing other work between attempts (group switching, slave processor cycles).<br/>
+ * Each call returns after at most spinLimit spins, one yield or one park - depending on the phase of current idle period
+ * (see {@link PhasedWaitStrategy}). Time spent in each phase is added to counters.
+ */
 public final class WaitSpinningHelper {
 
     private final SequenceBarrier sequenceBarrier;
@@ -14,25 +20,71 @@ public final class WaitSpinningHelper {
 
     private final int spinLimit;
 
-    public <T> WaitSpinningHelper(RingBuffer<T> ringBuffer, SequenceBarrier sequenceBarrier, int spinLimit) {
+    private final PhasedWaitStrategy waitStrategy;
+    private final WaitPhaseCounters counters;
+
+    // current idle period
+    private boolean idle = false;
+    private long idleSinceNs;
+    private long parkNanos;
+
+    public <T> WaitSpinningHelper(RingBuffer<T> ringBuffer,
+                                  SequenceBarrier sequenceBarrier,
+                                  int spinLimit,
+                                  PhasedWaitStrategy waitStrategy,
+                                  WaitPhaseCounters counters) {
         this.sequenceBarrier = sequenceBarrier;
         this.spinLimit = spinLimit;
         this.sequencer = extractSequencer(ringBuffer);
+        this.waitStrategy = waitStrategy;
+        this.counters = counters;
     }
 
     public long tryWaitFor(final long seq) throws AlertException {
         sequenceBarrier.checkAlert();
 
-        // TODO optimize
-        long spin = spinLimit;
-        long availableSequence;
-        do {
+        long availableSequence = sequenceBarrier.getCursor();
+        if (availableSequence >= seq) {
+            idle = false;
+            return sequencer.getHighestPublishedSequence(seq, availableSequence);
+        }
+
+        final long t = System.nanoTime();
+        if (!idle) {
+            idle = true;
+            idleSinceNs = t;
+            parkNanos = waitStrategy.minParkNanos;
+            counters.idlePeriods++;
+        }
+
+        final long idleNs = t - idleSinceNs;
+        if (idleNs < waitStrategy.spinNanos) {
+            long spin = spinLimit;
+            while (availableSequence < seq && spin-- > 0) {
+                availableSequence = sequenceBarrier.getCursor();
+            }
+            counters.spinNanos += System.nanoTime() - t;
+
+        } else if (idleNs - waitStrategy.spinNanos < waitStrategy.yieldNanos) {
+            Thread.yield();
+            availableSequence = sequenceBarrier.getCursor();
+            counters.yields++;
+            counters.yieldNanos += System.nanoTime() - t;
+
+        } else {
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos << 1, waitStrategy.maxParkNanos);
             availableSequence = sequenceBarrier.getCursor();
-        } while (availableSequence < seq && spin-- > 0);
+            counters.parks++;
+            counters.parkNanos += System.nanoTime() - t;
+        }
+
+        if (availableSequence < seq) {
+            return availableSequence;
+        }
 
-        return (availableSequence < seq)
-                ? availableSequence
-                : sequencer.getHighestPublishedSequence(seq, availableSequence);
+        idle = false;
+        return sequencer.getHighestPublishedSequence(seq, availableSequence);
     }
 
 
@@ -0,0 +1,177 @@
+package org.openpredict.exchange.core.collections;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size two-level bitset.<br/>
+ * Each bit of the summary level marks a non-empty word of the bits level (one summary word per 64 words),
+ * so next/previous set bit search skips up to 4096 empty bits with a single summary word check.
+ * For 32768 bits the whole search takes at most two bit words and eight summary words.
+ * <p>
+ * Not thread safe.
+ */
+public final class HierarchicalBitSet {
+
+    private final int size;
+    private final long[] words;
+    private final long[] summary;
+
+    /**
+     * @param size number of bits, must be aligned by 64
+     */
+    public HierarchicalBitSet(final int size) {
+        if ((size & 63) != 0 || size <= 0) {
+            throw new IllegalArgumentException("invalid size=" + size);
+        }
+        this.size = size;
+        this.words = new long[size >> 6];
+        this.summary = new long[(words.length + 63) >> 6];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean get(final int idx) {
+        return (words[idx >> 6] & (1L << idx)) != 0;
+    }
+
+    public void set(final int idx) {
+        final int wordIdx = idx >> 6;
+        words[wordIdx] |= 1L << idx;
+        summary[wordIdx >> 6] |= 1L << wordIdx;
+    }
+
+    public void clear(final int idx) {
+        final int wordIdx = idx >> 6;
+        final long word = words[wordIdx] & ~(1L << idx);
+        words[wordIdx] = word;
+        if (word == 0) {
+            summary[wordIdx >> 6] &= ~(1L << wordIdx);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0);
+        Arrays.fill(summary, 0);
+    }
+
+    /**
+     * Clear all bits within the range, whole words are cleared at once.
+     *
+     * @param fromIdx first index (inclusive)
+     * @param toIdx   last index (exclusive)
+     */
+    public void clear(final int fromIdx, final int toIdx) {
+        if (fromIdx >= toIdx) {
+            return;
+        }
+        final int firstWordIdx = fromIdx >> 6;
+        final int lastWordIdx = (toIdx - 1) >> 6;
+        final long firstMask = -1L << fromIdx;
+        final long lastMask = -1L >>> -toIdx;
+
+        if (firstWordIdx == lastWordIdx) {
+            clearWordBits(firstWordIdx, firstMask & lastMask);
+            return;
+        }
+
+        clearWordBits(firstWordIdx, firstMask);
+        for (int wordIdx = firstWordIdx + 1; wordIdx < lastWordIdx; wordIdx++) {
+            if (words[wordIdx] != 0) {
+                words[wordIdx] = 0;
+                summary[wordIdx >> 6] &= ~(1L << wordIdx);
+            }
+        }
+        clearWordBits(lastWordIdx, lastMask);
+    }
+
+    private void clearWordBits(final int wordIdx, final long mask) {
+        final long word = words[wordIdx] & ~mask;
+        words[wordIdx] = word;
+        if (word == 0) {
+            summary[wordIdx >> 6] &= ~(1L << wordIdx);
+        }
+    }
+
+    public boolean isEmpty() {
+        for (long s : summary) {
+            if (s != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param fromIdx index to start from (inclusive)
+     * @return index of the first set bit that occurs on or after fromIdx, or -1 if there is no such bit
+     */
+    public int nextSetBit(final int fromIdx) {
+        if (fromIdx >= size) {
+            return -1;
+        }
+        int wordIdx = fromIdx >> 6;
+        final long word = words[wordIdx] & (-1L << fromIdx);
+        if (word != 0) {
+            return (wordIdx << 6) + Long.numberOfTrailingZeros(word);
+        }
+
+        // searching next non-empty word using summary
+        wordIdx++;
+        int summaryIdx = wordIdx >> 6;
+        if (summaryIdx == summary.length) {
+            return -1;
+        }
+        long s = summary[summaryIdx] & (-1L << wordIdx);
+        while (s == 0) {
+            if (++summaryIdx == summary.length) {
+                return -1;
+            }
+            s = summary[summaryIdx];
+        }
+        wordIdx = (summaryIdx << 6) + Long.numberOfTrailingZeros(s);
+        return (wordIdx << 6) + Long.numberOfTrailingZeros(words[wordIdx]);
+    }
+
+    /**
+     * @param fromIdx index to start from (inclusive)
+     * @return index of the nearest set bit that occurs on or before fromIdx, or -1 if there is no such bit
+     */
+    public int previousSetBit(final int fromIdx) {
+        if (fromIdx < 0) {
+            return -1;
+        }
+        int wordIdx = fromIdx >> 6;
+        final long word = words[wordIdx] & (-1L >>> (63 - (fromIdx & 63)));
+        if (word != 0) {
+            return (wordIdx << 6) + 63 - Long.numberOfLeadingZeros(word);
+        }
+
+        // searching previous non-empty word using summary
+        wordIdx--;
+        if (wordIdx < 0) {
+            return -1;
+        }
+        int summaryIdx = wordIdx >> 6;
+        long s = summary[summaryIdx] & (-1L >>> (63 - (wordIdx & 63)));
+        while (s == 0) {
+            if (--summaryIdx < 0) {
+                return -1;
+            }
+            s = summary[summaryIdx];
+        }
+        wordIdx = (summaryIdx << 6) + 63 - Long.numberOfLeadingZeros(s);
+        return (wordIdx << 6) + 63 - Long.numberOfLeadingZeros(words[wordIdx]);
+    }
+
+    // testing only - validate summary level is consistent with bits level
+    public void validate() {
+        for (int wordIdx = 0; wordIdx < words.length; wordIdx++) {
+            final boolean marked = (summary[wordIdx >> 6] & (1L << wordIdx)) != 0;
+            if (marked != (words[wordIdx] != 0)) {
+                throw new IllegalStateException("summary bit is inconsistent for word " + wordIdx);
+            }
+        }
+    }
+}
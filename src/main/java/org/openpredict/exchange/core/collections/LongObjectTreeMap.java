@@ -0,0 +1,574 @@
+package org.openpredict.exchange.core.collections;
+
+import org.eclipse.collections.api.block.procedure.primitive.LongObjectProcedure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Garbage-free navigable map with primitive long keys.<br/>
+ * Implemented as AA-tree (simplified red-black tree) stored in parallel arrays,
+ * nodes are referenced by int index, removed nodes are recycled through the free list.<br/>
+ * No boxing and no allocation on put/remove, except when internal arrays need to grow.<br/>
+ * <p>
+ * Null values are not permitted (null is used as 'not found' result).<br/>
+ * Not thread safe.
+ */
+public final class LongObjectTreeMap<V> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // index 0 is reserved for the sentinel node (level 0, links to itself)
+    private static final int NIL = 0;
+
+    private long[] keys;
+    private Object[] values;
+    private int[] left;
+    private int[] right;
+    private int[] level;
+
+    private int root = NIL;
+    private int size = 0;
+
+    // highest index ever allocated
+    private int top = 0;
+    // head of the free nodes list (linked through left[])
+    private int freeHead = NIL;
+
+    public LongObjectTreeMap() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public LongObjectTreeMap(int initialCapacity) {
+        final int capacity = Math.max(initialCapacity, 1) + 1;
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.level = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public V get(final long key) {
+        int t = root;
+        while (t != NIL) {
+            final long k = keys[t];
+            if (key < k) {
+                t = left[t];
+            } else if (key > k) {
+                t = right[t];
+            } else {
+                return value(t);
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(final long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associate value with the key
+     *
+     * @param key   - key
+     * @param value - value (not null)
+     * @return previous value or null if there was no mapping for the key
+     */
+    public V put(final long key, final V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not permitted");
+        }
+        final V prev = get(key);
+        if (prev != null) {
+            // replacing value does not require rebalancing
+            replaceValue(key, value);
+            return prev;
+        }
+        root = insert(root, key, value);
+        size++;
+        return null;
+    }
+
+    /**
+     * Get value or create a new one using provided factory
+     *
+     * @param key     - key
+     * @param factory - value factory (should not return null)
+     * @return existing or new value
+     */
+    public V getIfAbsentPut(final long key, final LongFunction<? extends V> factory) {
+        final V existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        final V value = factory.apply(key);
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * Remove mapping
+     *
+     * @param key - key
+     * @return removed value or null if there was no mapping for the key
+     */
+    public V remove(final long key) {
+        final V prev = get(key);
+        if (prev != null) {
+            root = delete(root, key);
+            size--;
+        }
+        return prev;
+    }
+
+    /**
+     * Remove all mappings within the keys range.<br/>
+     * If range covers all keys, tree is dropped at once, otherwise keys are removed one by one.
+     *
+     * @param fromKey          first key (inclusive)
+     * @param toKey            last key (inclusive)
+     * @param removedProcedure receives removed entries in ascending key order
+     */
+    public void removeRange(final long fromKey, final long toKey, final LongObjectProcedure<? super V> removedProcedure) {
+        if (size == 0 || fromKey > toKey) {
+            return;
+        }
+        if (fromKey <= keys[firstNode()] && toKey >= keys[lastNode()]) {
+            forEach(root, removedProcedure);
+            clear();
+            return;
+        }
+        int t;
+        while ((t = ceilingNode(fromKey)) != NIL && keys[t] <= toKey) {
+            final long key = keys[t];
+            removedProcedure.value(key, value(t));
+            root = delete(root, key);
+            size--;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, top + 1, null);
+        root = NIL;
+        size = 0;
+        top = 0;
+        freeHead = NIL;
+    }
+
+    public long firstKey(final long ifEmpty) {
+        final int t = firstNode();
+        return t != NIL ? keys[t] : ifEmpty;
+    }
+
+    public long lastKey(final long ifEmpty) {
+        final int t = lastNode();
+        return t != NIL ? keys[t] : ifEmpty;
+    }
+
+    public long ceilingKey(final long key, final long ifAbsent) {
+        final int t = ceilingNode(key);
+        return t != NIL ? keys[t] : ifAbsent;
+    }
+
+    public long floorKey(final long key, final long ifAbsent) {
+        final int t = floorNode(key);
+        return t != NIL ? keys[t] : ifAbsent;
+    }
+
+    public long higherKey(final long key, final long ifAbsent) {
+        final int t = higherNode(key);
+        return t != NIL ? keys[t] : ifAbsent;
+    }
+
+    public long lowerKey(final long key, final long ifAbsent) {
+        final int t = lowerNode(key);
+        return t != NIL ? keys[t] : ifAbsent;
+    }
+
+    public V firstValue() {
+        return value(firstNode());
+    }
+
+    public V lastValue() {
+        return value(lastNode());
+    }
+
+    /**
+     * @return value with the least key greater than or equal to the given key, or null if there is no such key
+     */
+    public V ceilingValue(final long key) {
+        return value(ceilingNode(key));
+    }
+
+    /**
+     * @return value with the greatest key less than or equal to the given key, or null if there is no such key
+     */
+    public V floorValue(final long key) {
+        return value(floorNode(key));
+    }
+
+    /**
+     * @return value with the least key strictly greater than the given key, or null if there is no such key
+     */
+    public V higherValue(final long key) {
+        return value(higherNode(key));
+    }
+
+    /**
+     * @return value with the greatest key strictly less than the given key, or null if there is no such key
+     */
+    public V lowerValue(final long key) {
+        return value(lowerNode(key));
+    }
+
+    /**
+     * Execute action for each key-value pair in ascending keys order
+     *
+     * @param procedure action
+     */
+    public void forEach(final LongObjectProcedure<? super V> procedure) {
+        forEach(root, procedure);
+    }
+
+    /**
+     * Execute action for each value in ascending keys order
+     *
+     * @param consumer action
+     */
+    public void forEachValue(final Consumer<? super V> consumer) {
+        forEach(root, (k, v) -> consumer.accept(v));
+    }
+
+    /**
+     * Produces garbage
+     *
+     * @return new list of values in ascending keys order
+     */
+    public List<V> values() {
+        final List<V> list = new ArrayList<>(size);
+        forEachValue(list::add);
+        return list;
+    }
+
+    /**
+     * Produces garbage
+     *
+     * @return new list of values in descending keys order
+     */
+    public List<V> valuesDescending() {
+        final List<V> list = new ArrayList<>(size);
+        forEachDescending(root, list);
+        return list;
+    }
+
+    // testing only - validate tree invariants
+    public void validate() {
+        final int count = validate(root, Long.MIN_VALUE, Long.MAX_VALUE);
+        if (count != size) {
+            throw new IllegalStateException("size=" + size + " but found " + count + " nodes");
+        }
+    }
+
+    // ------------------------------ internals -------------------------------
+
+    @SuppressWarnings("unchecked")
+    private V value(final int node) {
+        return (V) values[node];
+    }
+
+    private void replaceValue(final long key, final V value) {
+        int t = root;
+        while (keys[t] != key) {
+            t = key < keys[t] ? left[t] : right[t];
+        }
+        values[t] = value;
+    }
+
+    private int insert(int t, final long key, final V value) {
+        if (t == NIL) {
+            return allocateNode(key, value);
+        }
+        // note: arrays can be reallocated during recursive call, so child index is stored after the call
+        if (key < keys[t]) {
+            final int child = insert(left[t], key, value);
+            left[t] = child;
+        } else {
+            final int child = insert(right[t], key, value);
+            right[t] = child;
+        }
+        t = skew(t);
+        t = split(t);
+        return t;
+    }
+
+    private int delete(int t, final long key) {
+        if (t == NIL) {
+            return NIL;
+        }
+
+        final long k = keys[t];
+        if (key > k) {
+            right[t] = delete(right[t], key);
+        } else if (key < k) {
+            left[t] = delete(left[t], key);
+        } else {
+            if (left[t] == NIL && right[t] == NIL) {
+                freeNode(t);
+                return NIL;
+            } else if (left[t] == NIL) {
+                // take successor content (read before removing, node can be reused)
+                int s = right[t];
+                while (left[s] != NIL) {
+                    s = left[s];
+                }
+                final long sKey = keys[s];
+                final Object sValue = values[s];
+                right[t] = delete(right[t], sKey);
+                keys[t] = sKey;
+                values[t] = sValue;
+            } else {
+                // take predecessor content
+                int p = left[t];
+                while (right[p] != NIL) {
+                    p = right[p];
+                }
+                final long pKey = keys[p];
+                final Object pValue = values[p];
+                left[t] = delete(left[t], pKey);
+                keys[t] = pKey;
+                values[t] = pValue;
+            }
+        }
+
+        // rebalance
+        decreaseLevel(t);
+        t = skew(t);
+        right[t] = skew(right[t]);
+        if (right[t] != NIL) {
+            right[right[t]] = skew(right[right[t]]);
+        }
+        t = split(t);
+        right[t] = split(right[t]);
+        return t;
+    }
+
+    private void decreaseLevel(final int t) {
+        final int shouldBe = Math.min(level[left[t]], level[right[t]]) + 1;
+        if (shouldBe < level[t]) {
+            level[t] = shouldBe;
+            if (shouldBe < level[right[t]]) {
+                level[right[t]] = shouldBe;
+            }
+        }
+    }
+
+    private int skew(final int t) {
+        if (t == NIL) {
+            return NIL;
+        }
+        final int l = left[t];
+        if (l != NIL && level[l] == level[t]) {
+            // rotate right
+            left[t] = right[l];
+            right[l] = t;
+            return l;
+        }
+        return t;
+    }
+
+    private int split(final int t) {
+        if (t == NIL) {
+            return NIL;
+        }
+        final int r = right[t];
+        if (r != NIL && right[r] != NIL && level[right[r]] == level[t]) {
+            // rotate left and promote
+            right[t] = left[r];
+            left[r] = t;
+            level[r]++;
+            return r;
+        }
+        return t;
+    }
+
+    private int allocateNode(final long key, final V value) {
+        final int node;
+        if (freeHead != NIL) {
+            node = freeHead;
+            freeHead = left[node];
+        } else {
+            node = ++top;
+            if (node == keys.length) {
+                grow();
+            }
+        }
+        keys[node] = key;
+        values[node] = value;
+        left[node] = NIL;
+        right[node] = NIL;
+        level[node] = 1;
+        return node;
+    }
+
+    private void freeNode(final int node) {
+        values[node] = null;
+        right[node] = NIL;
+        left[node] = freeHead;
+        freeHead = node;
+    }
+
+    private void grow() {
+        final int newCapacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+        left = Arrays.copyOf(left, newCapacity);
+        right = Arrays.copyOf(right, newCapacity);
+        level = Arrays.copyOf(level, newCapacity);
+    }
+
+    private int firstNode() {
+        int t = root;
+        if (t == NIL) {
+            return NIL;
+        }
+        while (left[t] != NIL) {
+            t = left[t];
+        }
+        return t;
+    }
+
+    private int lastNode() {
+        int t = root;
+        if (t == NIL) {
+            return NIL;
+        }
+        while (right[t] != NIL) {
+            t = right[t];
+        }
+        return t;
+    }
+
+    private int ceilingNode(final long key) {
+        int t = root;
+        int best = NIL;
+        while (t != NIL) {
+            final long k = keys[t];
+            if (k == key) {
+                return t;
+            } else if (k > key) {
+                best = t;
+                t = left[t];
+            } else {
+                t = right[t];
+            }
+        }
+        return best;
+    }
+
+    private int floorNode(final long key) {
+        int t = root;
+        int best = NIL;
+        while (t != NIL) {
+            final long k = keys[t];
+            if (k == key) {
+                return t;
+            } else if (k < key) {
+                best = t;
+                t = right[t];
+            } else {
+                t = left[t];
+            }
+        }
+        return best;
+    }
+
+    private int higherNode(final long key) {
+        int t = root;
+        int best = NIL;
+        while (t != NIL) {
+            if (keys[t] > key) {
+                best = t;
+                t = left[t];
+            } else {
+                t = right[t];
+            }
+        }
+        return best;
+    }
+
+    private int lowerNode(final long key) {
+        int t = root;
+        int best = NIL;
+        while (t != NIL) {
+            if (keys[t] < key) {
+                best = t;
+                t = right[t];
+            } else {
+                t = left[t];
+            }
+        }
+        return best;
+    }
+
+    private void forEach(final int t, final LongObjectProcedure<? super V> procedure) {
+        if (t == NIL) {
+            return;
+        }
+        forEach(left[t], procedure);
+        procedure.value(keys[t], value(t));
+        forEach(right[t], procedure);
+    }
+
+    private void forEachDescending(final int t, final List<V> list) {
+        if (t == NIL) {
+            return;
+        }
+        forEachDescending(right[t], list);
+        list.add(value(t));
+        forEachDescending(left[t], list);
+    }
+
+    private int validate(final int t, final long minKey, final long maxKey) {
+        if (t == NIL) {
+            return 0;
+        }
+        final long k = keys[t];
+        if (k < minKey || k > maxKey) {
+            throw new IllegalStateException("key " + k + " is out of range [" + minKey + "," + maxKey + "]");
+        }
+        if (values[t] == null) {
+            throw new IllegalStateException("null value for key " + k);
+        }
+        // AA-tree invariants
+        if (left[t] == NIL && right[t] == NIL && level[t] != 1) {
+            throw new IllegalStateException("leaf node level is not 1, key " + k);
+        }
+        if (level[left[t]] != level[t] - 1) {
+            throw new IllegalStateException("left child level is not one less than parent, key " + k);
+        }
+        if (level[right[t]] != level[t] && level[right[t]] != level[t] - 1) {
+            throw new IllegalStateException("right child level is incorrect, key " + k);
+        }
+        if (right[t] != NIL && level[right[right[t]]] >= level[t]) {
+            throw new IllegalStateException("right grandchild level is not less than grandparent, key " + k);
+        }
+        if (level[t] > 1 && (left[t] == NIL || right[t] == NIL)) {
+            throw new IllegalStateException("node with level>1 must have two children, key " + k);
+        }
+        return 1
+                + validate(left[t], minKey, k - 1)
+                + validate(right[t], k + 1, maxKey);
+    }
+
+}
@@ -0,0 +1,375 @@
+package org.openpredict.exchange.core.collections;
+
+import org.eclipse.collections.api.block.procedure.primitive.LongObjectProcedure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Map for long keys within a sliding window [base, base + range).<br/>
+ * Slots and bit words are addressed by key modulo range (ring), so moving the window does not shift anything:
+ * only the slots leaving the window are cleared, and the slots entering the window are the same physical slots.<br/>
+ * Occupied slots are tracked by a two-level bitset, that allows fast ceiling/floor key search.
+ * <p>
+ * Null values are not permitted (null is used as 'not found' result).<br/>
+ * Not thread safe.
+ */
+public final class LongRingWindowMap<V> {
+
+    private final int range;
+
+    private final HierarchicalBitSet bits;
+    private final Object[] slots;
+
+    private long base;
+    private int size = 0;
+
+    /**
+     * @param range window size, must be aligned by 64
+     * @param base  initial base key
+     */
+    public LongRingWindowMap(final int range, final long base) {
+        if ((range & 63) != 0 || range <= 0) {
+            throw new IllegalArgumentException("invalid range=" + range);
+        }
+        this.range = range;
+        this.bits = new HierarchicalBitSet(range);
+        this.slots = new Object[range];
+        this.base = base;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getBase() {
+        return base;
+    }
+
+    public int getRange() {
+        return range;
+    }
+
+    public boolean isInWindow(final long key) {
+        return key >= base && key - base < range;
+    }
+
+    /**
+     * @param key - key
+     * @return value or null if not found or key is outside of the window
+     */
+    public V get(final long key) {
+        return isInWindow(key) ? value(slot(key)) : null;
+    }
+
+    /**
+     * Associate value with the key
+     *
+     * @param key   - key (must be inside the window)
+     * @param value - value (not null)
+     * @return previous value or null if there was no mapping for the key
+     */
+    public V put(final long key, final V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not permitted");
+        }
+        if (!isInWindow(key)) {
+            throw new IllegalArgumentException("key " + key + " is outside of window [" + base + "," + (base + range) + ")");
+        }
+        final int slot = slot(key);
+        final V prev = value(slot);
+        slots[slot] = value;
+        if (prev == null) {
+            bits.set(slot);
+            size++;
+        }
+        return prev;
+    }
+
+    /**
+     * Remove mapping
+     *
+     * @param key - key
+     * @return removed value or null if there was no mapping for the key
+     */
+    public V remove(final long key) {
+        if (!isInWindow(key)) {
+            return null;
+        }
+        final int slot = slot(key);
+        final V prev = value(slot);
+        if (prev != null) {
+            slots[slot] = null;
+            bits.clear(slot);
+            size--;
+        }
+        return prev;
+    }
+
+    /**
+     * Remove all mappings within the keys range (clipped by the window).<br/>
+     * Removed entries are passed to removedProcedure, then bits are cleared word by word.
+     *
+     * @param fromKey          first key (inclusive)
+     * @param toKey            last key (inclusive)
+     * @param removedProcedure receives removed entries in ascending key order
+     */
+    public void removeRange(long fromKey, long toKey, final LongObjectProcedure<? super V> removedProcedure) {
+        final long last = base + range - 1;
+        if (fromKey < base) {
+            fromKey = base;
+        }
+        if (toKey > last) {
+            toKey = last;
+        }
+        if (fromKey > toKey || size == 0) {
+            return;
+        }
+
+        long key = fromKey;
+        while ((key = ceilingKey(key, Long.MAX_VALUE)) <= toKey) {
+            final int slot = slot(key);
+            removedProcedure.value(key, value(slot));
+            slots[slot] = null;
+            size--;
+            key++;
+        }
+
+        final int fromSlot = slot(fromKey);
+        final int toSlot = slot(toKey);
+        if (fromSlot <= toSlot) {
+            bits.clear(fromSlot, toSlot + 1);
+        } else {
+            // range is wrapped around the end of the ring
+            bits.clear(fromSlot, range);
+            bits.clear(0, toSlot + 1);
+        }
+    }
+
+    /**
+     * Move window to the new base.<br/>
+     * Entries leaving the window are removed and passed to evictedProcedure.
+     * Complexity is proportional to the number of entries leaving the window, not to the window range.
+     *
+     * @param newBase          new base key
+     * @param evictedProcedure receives removed entries in ascending key order
+     */
+    public void moveBase(final long newBase, final LongObjectProcedure<? super V> evictedProcedure) {
+        if (size != 0 && newBase != base) {
+            final long from;
+            final long to;
+            if (newBase > base) {
+                // moving up - low keys are leaving
+                from = base;
+                to = newBase - base < range ? newBase : base + range;
+            } else {
+                // moving down - high keys are leaving
+                from = base - newBase < range ? newBase + range : base;
+                to = base + range;
+            }
+
+            long key = from;
+            while ((key = ceilingKey(key, Long.MAX_VALUE)) < to) {
+                evictedProcedure.value(key, remove(key));
+                key++;
+            }
+        }
+        base = newBase;
+    }
+
+    public void clear() {
+        int slot = 0;
+        while ((slot = bits.nextSetBit(slot)) != -1) {
+            slots[slot] = null;
+            slot++;
+        }
+        bits.clear();
+        size = 0;
+    }
+
+    public long firstKey(final long ifEmpty) {
+        return ceilingKey(base, ifEmpty);
+    }
+
+    public long lastKey(final long ifEmpty) {
+        return floorKey(base + range - 1, ifEmpty);
+    }
+
+    /**
+     * @return the least key within the window greater than or equal to the given key, or ifAbsent if there is no such key
+     */
+    public long ceilingKey(long key, final long ifAbsent) {
+        final long end = base + range;
+        if (key < base) {
+            key = base;
+        } else if (key >= end) {
+            return ifAbsent;
+        }
+
+        final int startSlot = slot(key);
+        final long bitsToScan = end - key;
+
+        int distance;
+        final int found = bits.nextSetBit(startSlot);
+        if (found != -1) {
+            distance = found - startSlot;
+        } else {
+            // wrap around
+            final int wrapped = bits.nextSetBit(0);
+            if (wrapped == -1 || wrapped >= startSlot) {
+                return ifAbsent;
+            }
+            distance = wrapped + range - startSlot;
+        }
+
+        // found slot can belong to the key from the beginning of the window
+        return distance < bitsToScan ? key + distance : ifAbsent;
+    }
+
+    /**
+     * @return the greatest key within the window less than or equal to the given key, or ifAbsent if there is no such key
+     */
+    public long floorKey(long key, final long ifAbsent) {
+        final long last = base + range - 1;
+        if (key > last) {
+            key = last;
+        } else if (key < base) {
+            return ifAbsent;
+        }
+
+        final int startSlot = slot(key);
+        final long bitsToScan = key - base + 1;
+
+        int distance;
+        final int found = bits.previousSetBit(startSlot);
+        if (found != -1) {
+            distance = startSlot - found;
+        } else {
+            // wrap around
+            final int wrapped = bits.previousSetBit(range - 1);
+            if (wrapped == -1 || wrapped <= startSlot) {
+                return ifAbsent;
+            }
+            distance = startSlot + range - wrapped;
+        }
+
+        // found slot can belong to the key from the end of the window
+        return distance < bitsToScan ? key - distance : ifAbsent;
+    }
+
+    public long higherKey(final long key, final long ifAbsent) {
+        return key == Long.MAX_VALUE ? ifAbsent : ceilingKey(key + 1, ifAbsent);
+    }
+
+    public long lowerKey(final long key, final long ifAbsent) {
+        return key == Long.MIN_VALUE ? ifAbsent : floorKey(key - 1, ifAbsent);
+    }
+
+    public V firstValue() {
+        return valueForKey(firstKey(Long.MIN_VALUE));
+    }
+
+    public V lastValue() {
+        return valueForKey(lastKey(Long.MIN_VALUE));
+    }
+
+    /**
+     * @return value with the least key greater than or equal to the given key, or null if there is no such key
+     */
+    public V ceilingValue(final long key) {
+        return valueForKey(ceilingKey(key, Long.MIN_VALUE));
+    }
+
+    /**
+     * @return value with the greatest key less than or equal to the given key, or null if there is no such key
+     */
+    public V floorValue(final long key) {
+        return valueForKey(floorKey(key, Long.MIN_VALUE));
+    }
+
+    /**
+     * @return value with the least key strictly greater than the given key, or null if there is no such key
+     */
+    public V higherValue(final long key) {
+        return valueForKey(higherKey(key, Long.MIN_VALUE));
+    }
+
+    /**
+     * @return value with the greatest key strictly less than the given key, or null if there is no such key
+     */
+    public V lowerValue(final long key) {
+        return valueForKey(lowerKey(key, Long.MIN_VALUE));
+    }
+
+    /**
+     * Execute action for each key-value pair in ascending keys order
+     *
+     * @param procedure action
+     */
+    public void forEach(final LongObjectProcedure<? super V> procedure) {
+        long key = base;
+        while ((key = ceilingKey(key, Long.MAX_VALUE)) != Long.MAX_VALUE) {
+            procedure.value(key, value(slot(key)));
+            key++;
+        }
+    }
+
+    /**
+     * Execute action for each value in ascending keys order
+     *
+     * @param consumer action
+     */
+    public void forEachValue(final Consumer<? super V> consumer) {
+        forEach((k, v) -> consumer.accept(v));
+    }
+
+    /**
+     * Produces garbage
+     *
+     * @return new list of values in ascending keys order
+     */
+    public List<V> values() {
+        final List<V> list = new ArrayList<>(size);
+        forEachValue(list::add);
+        return list;
+    }
+
+    // testing only - validate bitset and slots consistency
+    public void validate() {
+        bits.validate();
+        int count = 0;
+        for (int slot = 0; slot < range; slot++) {
+            final boolean bit = bits.get(slot);
+            if (bit != (slots[slot] != null)) {
+                throw new IllegalStateException("bit and slot state differs for slot " + slot);
+            }
+            if (bit) {
+                count++;
+            }
+        }
+        if (count != size) {
+            throw new IllegalStateException("size=" + size + " but found " + count + " entries");
+        }
+    }
+
+    // ------------------------------ internals -------------------------------
+
+    private int slot(final long key) {
+        return (int) Math.floorMod(key, (long) range);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(final int slot) {
+        return (V) slots[slot];
+    }
+
+    private V valueForKey(final long key) {
+        return key != Long.MIN_VALUE ? value(slot(key)) : null;
+    }
+
+}
@@ -0,0 +1,125 @@
+package org.openpredict.exchange.core.collections;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LIFO pool of reusable objects.<br/>
+ * New object is created by the factory when pool is empty (miss), released objects above maxIdle are left to GC (discarded).
+ * <p>
+ * Trim policy: idle objects that were not requested during the whole interval between two {@link #trim()} calls
+ * (lowest number of idle objects observed within the interval) are released to GC, but at least minIdle objects are kept.
+ * Storage array shrinks accordingly, so pool memory follows the actual demand.
+ * <p>
+ * Not thread safe.
+ */
+@Getter
+public final class ObjectsPool<T> {
+
+    private static final int MIN_STORAGE_SIZE = 16;
+
+    @Getter(AccessLevel.NONE)
+    private final Supplier<T> factory;
+
+    private final int minIdle;
+    private final int maxIdle;
+
+    @Getter(AccessLevel.NONE)
+    private Object[] stack;
+    private int size = 0;
+
+    // lowest size since last trim
+    private int lowWaterMark = 0;
+    // highest size ever
+    private int highWaterMark = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long discarded = 0;
+    private long trimmed = 0;
+
+    /**
+     * @param factory creates new object when pool is empty
+     * @param minIdle number of idle objects to keep on trim
+     * @param maxIdle max number of idle objects
+     */
+    public ObjectsPool(final Supplier<T> factory, final int minIdle, final int maxIdle) {
+        if (minIdle < 0 || maxIdle < minIdle || maxIdle == 0) {
+            throw new IllegalArgumentException(String.format("invalid minIdle=%d maxIdle=%d", minIdle, maxIdle));
+        }
+        this.factory = factory;
+        this.minIdle = minIdle;
+        this.maxIdle = maxIdle;
+        this.stack = new Object[Math.min(MIN_STORAGE_SIZE, maxIdle)];
+    }
+
+    /**
+     * @return pooled object, or new object if pool is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        if (size == 0) {
+            misses++;
+            return factory.get();
+        }
+        hits++;
+        final T obj = (T) stack[--size];
+        stack[size] = null;
+        if (size < lowWaterMark) {
+            lowWaterMark = size;
+        }
+        return obj;
+    }
+
+    /**
+     * Return object to the pool
+     *
+     * @param obj - object that is not used anymore
+     */
+    public void release(final T obj) {
+        if (size == maxIdle) {
+            discarded++;
+            return;
+        }
+        if (size == stack.length) {
+            stack = Arrays.copyOf(stack, (int) Math.min((long) size * 2, maxIdle));
+        }
+        stack[size++] = obj;
+        if (size > highWaterMark) {
+            highWaterMark = size;
+        }
+    }
+
+    /**
+     * Release idle objects that were not requested since the previous trim, shrink storage.
+     *
+     * @return number of released objects
+     */
+    public int trim() {
+        final int surplus = Math.min(lowWaterMark, size - minIdle);
+        if (surplus > 0) {
+            Arrays.fill(stack, size - surplus, size, null);
+            size -= surplus;
+            trimmed += surplus;
+        }
+        final int storageSize = Math.min(Math.max(size * 2, MIN_STORAGE_SIZE), maxIdle);
+        if (stack.length > storageSize) {
+            stack = Arrays.copyOf(stack, storageSize);
+        }
+        lowWaterMark = size;
+        return Math.max(surplus, 0);
+    }
+
+    // testing only
+    public int storageSize() {
+        return stack.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d high=%d hits=%d misses=%d discarded=%d trimmed=%d", size, highWaterMark, hits, misses, discarded, trimmed);
+    }
+}
@@ -52,7 +52,7 @@ public class JournallingProcessor {
         buffer.putLong(cmd.uid); // 8 bytes can be compressed as dictionary
 
         // 12 bytes
-        if (cmd.command == OrderCommandType.MOVE_ORDER || cmd.command == OrderCommandType.PLACE_ORDER) {
+        if (cmd.command == OrderCommandType.MOVE_ORDER || cmd.command == OrderCommandType.PLACE_ORDER || cmd.command == OrderCommandType.REDUCE_ORDER) {
             buffer.putLong(cmd.price); // 8 bytes - can be compressed as delta
             buffer.putLong(cmd.size); // 8 bytes - can be compressed
         }
@@ -0,0 +1,310 @@
+package org.openpredict.exchange.core.orderbook;
+
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+import net.openhft.chronicle.bytes.NativeBytesStore;
+import org.openpredict.exchange.beans.Order;
+import org.openpredict.exchange.beans.OrderAction;
+import org.openpredict.exchange.beans.OrderType;
+import org.openpredict.exchange.beans.cmd.OrderCommandType;
+
+import static net.openhft.chronicle.core.UnsafeMemory.UNSAFE;
+
+/**
+ * Off-heap storage for resting orders.<br/>
+ * Each order occupies fixed-width slot in native memory and referenced by int handle (slot number).
+ * Handle 0 is reserved as null reference, so the first slot is never used.<br/>
+ * Released slots are reused through free list (linked by 'next' field).
+ * Memory is growing by doubling and copying all slots.
+ * <p>
+ * Slot layout (bytes):<br/>
+ * 0 orderId, 8 price, 16 size, 24 filled, 32 reserveBidPrice, 40 uid, 48 timestamp,
+ * 56 userCookie, 60 symbol, 64 prev handle, 68 next handle, 72 action, 73 orderType, 80 queueSeq.
+ * <p>
+ * Not thread safe.
+ */
+public final class DirectOrdersStore {
+
+    public static final int NULL_HANDLE = 0;
+
+    public static final int SLOT_SIZE = 88;
+
+    private static final int OFFSET_ORDER_ID = 0;
+    private static final int OFFSET_PRICE = 8;
+    private static final int OFFSET_SIZE = 16;
+    private static final int OFFSET_FILLED = 24;
+    private static final int OFFSET_RESERVE_BID_PRICE = 32;
+    private static final int OFFSET_UID = 40;
+    private static final int OFFSET_TIMESTAMP = 48;
+    private static final int OFFSET_USER_COOKIE = 56;
+    private static final int OFFSET_SYMBOL = 60;
+    private static final int OFFSET_PREV = 64;
+    private static final int OFFSET_NEXT = 68;
+    private static final int OFFSET_ACTION = 72;
+    private static final int OFFSET_ORDER_TYPE = 73;
+    private static final int OFFSET_QUEUE_SEQ = 80;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    private NativeBytesStore<Void> memory;
+
+    // total slots number, including reserved one
+    private int capacity;
+
+    // slots above this mark were never used
+    private int highWaterMark = 1;
+
+    private int freeListHead = NULL_HANDLE;
+
+    private int size = 0;
+
+    public DirectOrdersStore() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public DirectOrdersStore(final int initialCapacity) {
+        if (initialCapacity < 2) {
+            throw new IllegalArgumentException("invalid initialCapacity=" + initialCapacity);
+        }
+        this.capacity = initialCapacity;
+        this.memory = NativeBytesStore.nativeStoreWithFixedCapacity((long) initialCapacity * SLOT_SIZE);
+    }
+
+    /**
+     * @return number of allocated slots (resting orders)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return native memory reserved for slots (bytes)
+     */
+    public long getReservedBytes() {
+        return memory.capacity();
+    }
+
+    /**
+     * Allocate new slot
+     *
+     * @return handle
+     */
+    public int allocate() {
+        final int handle;
+        if (freeListHead != NULL_HANDLE) {
+            handle = freeListHead;
+            freeListHead = getNext(handle);
+        } else {
+            if (highWaterMark == capacity) {
+                grow();
+            }
+            handle = highWaterMark++;
+        }
+        size++;
+        return handle;
+    }
+
+    /**
+     * Allocate new slot and fill it with order fields
+     *
+     * @return handle
+     */
+    public int allocate(final long orderId, final int symbol, final long price, final long size, final long filled, final long reserveBidPrice,
+                        final OrderAction action, final OrderType orderType, final long uid, final long timestamp, final int userCookie,
+                        final long queueSeq) {
+        final int handle = allocate();
+        final long offset = offset(handle);
+        memory.writeLong(offset + OFFSET_ORDER_ID, orderId);
+        memory.writeLong(offset + OFFSET_PRICE, price);
+        memory.writeLong(offset + OFFSET_SIZE, size);
+        memory.writeLong(offset + OFFSET_FILLED, filled);
+        memory.writeLong(offset + OFFSET_RESERVE_BID_PRICE, reserveBidPrice);
+        memory.writeLong(offset + OFFSET_UID, uid);
+        memory.writeLong(offset + OFFSET_TIMESTAMP, timestamp);
+        memory.writeInt(offset + OFFSET_USER_COOKIE, userCookie);
+        memory.writeInt(offset + OFFSET_SYMBOL, symbol);
+        memory.writeInt(offset + OFFSET_PREV, NULL_HANDLE);
+        memory.writeInt(offset + OFFSET_NEXT, NULL_HANDLE);
+        memory.writeByte(offset + OFFSET_ACTION, action.getCode());
+        memory.writeByte(offset + OFFSET_ORDER_TYPE, orderType.getCode());
+        memory.writeLong(offset + OFFSET_QUEUE_SEQ, queueSeq);
+        return handle;
+    }
+
+    /**
+     * Allocate new slot and fill it with order fields
+     *
+     * @return handle
+     */
+    public int allocate(final Order order) {
+        return allocate(order.orderId, order.symbol, order.price, order.size, order.filled, order.reserveBidPrice,
+                order.action, order.orderType, order.uid, order.timestamp, order.userCookie, order.queueSeq);
+    }
+
+    /**
+     * Release slot, handle can be returned by one of next allocate calls
+     *
+     * @param handle - handle
+     */
+    public void free(final int handle) {
+        setNext(handle, freeListHead);
+        freeListHead = handle;
+        size--;
+    }
+
+    public long getOrderId(final int handle) {
+        return memory.readLong(offset(handle) + OFFSET_ORDER_ID);
+    }
+
+    public long getPrice(final int handle) {
+        return memory.readLong(offset(handle) + OFFSET_PRICE);
+    }
+
+    public void setPrice(final int handle, final long price) {
+        memory.writeLong(offset(handle) + OFFSET_PRICE, price);
+    }
+
+    public long getSize(final int handle) {
+        return memory.readLong(offset(handle) + OFFSET_SIZE);
+    }
+
+    public void setSize(final int handle, final long size) {
+        memory.writeLong(offset(handle) + OFFSET_SIZE, size);
+    }
+
+    public long getFilled(final int handle) {
+        return memory.readLong(offset(handle) + OFFSET_FILLED);
+    }
+
+    public void setFilled(final int handle, final long filled) {
+        memory.writeLong(offset(handle) + OFFSET_FILLED, filled);
+    }
+
+    public long getReserveBidPrice(final int handle) {
+        return memory.readLong(offset(handle) + OFFSET_RESERVE_BID_PRICE);
+    }
+
+    public long getUid(final int handle) {
+        return memory.readLong(offset(handle) + OFFSET_UID);
+    }
+
+    public OrderAction getAction(final int handle) {
+        return OrderAction.of(memory.readByte(offset(handle) + OFFSET_ACTION));
+    }
+
+    public long getQueueSeq(final int handle) {
+        return memory.readLong(offset(handle) + OFFSET_QUEUE_SEQ);
+    }
+
+    public void setQueueSeq(final int handle, final long queueSeq) {
+        memory.writeLong(offset(handle) + OFFSET_QUEUE_SEQ, queueSeq);
+    }
+
+    public int getPrev(final int handle) {
+        return memory.readInt(offset(handle) + OFFSET_PREV);
+    }
+
+    public void setPrev(final int handle, final int prev) {
+        memory.writeInt(offset(handle) + OFFSET_PREV, prev);
+    }
+
+    public int getNext(final int handle) {
+        return memory.readInt(offset(handle) + OFFSET_NEXT);
+    }
+
+    public void setNext(final int handle, final int next) {
+        memory.writeInt(offset(handle) + OFFSET_NEXT, next);
+    }
+
+    /**
+     * Copy slot fields into existing order object (does not allocate)
+     *
+     * @param handle - handle
+     * @param order  - target
+     * @return target order
+     */
+    public Order copyTo(final int handle, final Order order) {
+        final long offset = offset(handle);
+        order.command = OrderCommandType.PLACE_ORDER;
+        order.orderId = memory.readLong(offset + OFFSET_ORDER_ID);
+        order.symbol = memory.readInt(offset + OFFSET_SYMBOL);
+        order.price = memory.readLong(offset + OFFSET_PRICE);
+        order.size = memory.readLong(offset + OFFSET_SIZE);
+        order.filled = memory.readLong(offset + OFFSET_FILLED);
+        order.reserveBidPrice = memory.readLong(offset + OFFSET_RESERVE_BID_PRICE);
+        order.action = OrderAction.of(memory.readByte(offset + OFFSET_ACTION));
+        order.orderType = OrderType.of(memory.readByte(offset + OFFSET_ORDER_TYPE));
+        order.uid = memory.readLong(offset + OFFSET_UID);
+        order.timestamp = memory.readLong(offset + OFFSET_TIMESTAMP);
+        order.userCookie = memory.readInt(offset + OFFSET_USER_COOKIE);
+        order.queueSeq = memory.readLong(offset + OFFSET_QUEUE_SEQ);
+        return order;
+    }
+
+    /**
+     * Produces garbage
+     *
+     * @param handle - handle
+     * @return new order object with slot fields
+     */
+    public Order toOrder(final int handle) {
+        return copyTo(handle, new Order());
+    }
+
+    /**
+     * Write slot in the same format as {@link Order#writeMarshallable(BytesOut)}
+     */
+    public void writeOrder(final int handle, final BytesOut bytes) {
+        final long offset = offset(handle);
+        bytes.writeLong(memory.readLong(offset + OFFSET_ORDER_ID));
+        bytes.writeInt(memory.readInt(offset + OFFSET_SYMBOL));
+        bytes.writeLong(memory.readLong(offset + OFFSET_PRICE));
+        bytes.writeLong(memory.readLong(offset + OFFSET_SIZE));
+        bytes.writeLong(memory.readLong(offset + OFFSET_RESERVE_BID_PRICE));
+        bytes.writeByte(memory.readByte(offset + OFFSET_ACTION));
+        bytes.writeByte(memory.readByte(offset + OFFSET_ORDER_TYPE));
+        bytes.writeLong(memory.readLong(offset + OFFSET_UID));
+        bytes.writeLong(memory.readLong(offset + OFFSET_TIMESTAMP));
+        bytes.writeInt(memory.readInt(offset + OFFSET_USER_COOKIE));
+        bytes.writeLong(memory.readLong(offset + OFFSET_FILLED));
+        bytes.writeLong(memory.readLong(offset + OFFSET_QUEUE_SEQ));
+    }
+
+    /**
+     * Allocate new slot and read order written by {@link Order#writeMarshallable(BytesOut)}
+     *
+     * @return handle
+     */
+    public int readOrder(final BytesIn bytes) {
+        final long orderId = bytes.readLong();
+        final int symbol = bytes.readInt();
+        final long price = bytes.readLong();
+        final long size = bytes.readLong();
+        final long reserveBidPrice = bytes.readLong();
+        final OrderAction action = OrderAction.of(bytes.readByte());
+        final OrderType orderType = OrderType.of(bytes.readByte());
+        final long uid = bytes.readLong();
+        final long timestamp = bytes.readLong();
+        final int userCookie = bytes.readInt();
+        final long filled = bytes.readLong();
+        final long queueSeq = bytes.readLong();
+        return allocate(orderId, symbol, price, size, filled, reserveBidPrice, action, orderType, uid, timestamp, userCookie, queueSeq);
+    }
+
+    private void grow() {
+        final int newCapacity = capacity * 2;
+        if (newCapacity < 0) {
+            throw new IllegalStateException("can not grow orders store beyond capacity " + capacity);
+        }
+        final NativeBytesStore<Void> newMemory = NativeBytesStore.nativeStoreWithFixedCapacity((long) newCapacity * SLOT_SIZE);
+        UNSAFE.copyMemory(memory.addressForRead(0), newMemory.addressForWrite(0), (long) capacity * SLOT_SIZE);
+        memory.release();
+        memory = newMemory;
+        capacity = newCapacity;
+    }
+
+    private static long offset(final int handle) {
+        return (long) handle * SLOT_SIZE;
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.openpredict.exchange.core.orderbook;
+
+import lombok.Getter;
+import lombok.ToString;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+import net.openhft.chronicle.bytes.WriteBytesMarshallable;
+
+import java.util.Arrays;
+
+/**
+ * Hot price range statistics and resize policy for {@link OrderBookFastImpl}.<br/>
+ * Collects distribution of placed orders prices (distance from the mid price, log2 histogram)
+ * and how often placing and matching spill into the FAR section.
+ * Every samplePeriod placements the period is evaluated and recommended hot range is calculated:
+ * <ul>
+ * <li>4x of the distance covering 99% of placements (rounded up to power of two), so orders stay in HOT section
+ * while base price is lagging behind the mid price up to 1/4 of the range;</li>
+ * <li>range is doubled if more than 1% of placements or matched levels were in FAR section anyway;</li>
+ * <li>range is halved only if recommended range is at least 4x smaller and there were no FAR hits during the period.</li>
+ * </ul>
+ * Order book applies the decision at the safe point (after placing an order), statistics are persisted with the order book,
+ * so restored book makes the same decisions.
+ * <p>
+ * Not thread safe.
+ */
+@Getter
+@ToString(exclude = "distanceHistogram")
+public final class HotRangeTuner implements WriteBytesMarshallable {
+
+    public static final int MIN_HOT_WIDTH = 1024;
+    public static final int MAX_HOT_WIDTH = 1 << 20;
+    public static final int DEFAULT_SAMPLE_PERIOD = 1 << 16;
+
+    // far hits above this ratio will cause range growth
+    private static final int FAR_HITS_RATIO_PERCENT = 1;
+
+    public enum Decision {
+        KEEP,
+        GROW_DISTRIBUTION,
+        GROW_FAR_HITS,
+        SHRINK
+    }
+
+    private final int samplePeriod;
+
+    // placements by distance from the mid price, bin N holds distances in [2^(N-1), 2^N)
+    private final long[] distanceHistogram = new long[64];
+
+    // current period
+    private int periodPlacements = 0;
+    private int periodFarPlacements = 0;
+    private int periodHotMatches = 0;
+    private int periodFarMatches = 0;
+
+    // totals
+    private long placedHot = 0;
+    private long placedFar = 0;
+    private long matchedHotLevels = 0;
+    private long matchedFarLevels = 0;
+    private long rebalances = 0;
+    private long resizes = 0;
+
+    // last evaluated period
+    private long lastDistanceP99 = 0;
+    private int lastRecommendedRange = 0;
+    private Decision lastDecision = Decision.KEEP;
+
+    public HotRangeTuner() {
+        this(DEFAULT_SAMPLE_PERIOD);
+    }
+
+    /**
+     * @param samplePeriod number of placements between evaluations
+     */
+    public HotRangeTuner(final int samplePeriod) {
+        if (samplePeriod <= 0) {
+            throw new IllegalArgumentException("invalid samplePeriod=" + samplePeriod);
+        }
+        this.samplePeriod = samplePeriod;
+    }
+
+    public HotRangeTuner(final BytesIn bytes) {
+        this.samplePeriod = bytes.readInt();
+        for (int i = 0; i < distanceHistogram.length; i++) {
+            distanceHistogram[i] = bytes.readLong();
+        }
+        this.periodPlacements = bytes.readInt();
+        this.periodFarPlacements = bytes.readInt();
+        this.periodHotMatches = bytes.readInt();
+        this.periodFarMatches = bytes.readInt();
+        this.placedHot = bytes.readLong();
+        this.placedFar = bytes.readLong();
+        this.matchedHotLevels = bytes.readLong();
+        this.matchedFarLevels = bytes.readLong();
+        this.rebalances = bytes.readLong();
+        this.resizes = bytes.readLong();
+        this.lastDistanceP99 = bytes.readLong();
+        this.lastRecommendedRange = bytes.readInt();
+        this.lastDecision = Decision.values()[bytes.readByte()];
+    }
+
+    /**
+     * Record placed order
+     *
+     * @param distance - absolute distance from the mid price
+     * @param far      - true if order was placed into FAR section
+     * @return true if period is completed and evaluation is due
+     */
+    public boolean onPlace(final long distance, final boolean far) {
+        distanceHistogram[64 - Long.numberOfLeadingZeros(distance)]++;
+        if (far) {
+            placedFar++;
+            periodFarPlacements++;
+        } else {
+            placedHot++;
+        }
+        return ++periodPlacements >= samplePeriod;
+    }
+
+    /**
+     * Record matched levels of a single sweep
+     *
+     * @param hotLevels - levels matched in HOT section
+     * @param farLevels - levels matched in FAR section
+     */
+    public void onSweep(final int hotLevels, final int farLevels) {
+        matchedHotLevels += hotLevels;
+        matchedFarLevels += farLevels;
+        periodHotMatches += hotLevels;
+        periodFarMatches += farLevels;
+    }
+
+    public void onRebalance() {
+        rebalances++;
+    }
+
+    /**
+     * Evaluate completed period and start the new one
+     *
+     * @param currentRange - current hot range
+     * @return new hot range (same as current if no resize required)
+     */
+    public int evaluate(final int currentRange) {
+
+        final long threshold = (periodPlacements * 99L + 99) / 100;
+        long accumulated = 0;
+        int bin = 0;
+        while (bin < 63 && (accumulated += distanceHistogram[bin]) < threshold) {
+            bin++;
+        }
+        lastDistanceP99 = bin == 0 ? 0 : Math.min(1L << bin, MAX_HOT_WIDTH);
+        lastRecommendedRange = (int) Math.min(Math.max(Long.highestOneBit(lastDistanceP99 * 4 - 1) << 1, MIN_HOT_WIDTH), MAX_HOT_WIDTH);
+
+        final boolean farHits = periodFarPlacements * 100L > periodPlacements * (long) FAR_HITS_RATIO_PERCENT
+                || periodFarMatches * 100L > (periodHotMatches + periodFarMatches) * (long) FAR_HITS_RATIO_PERCENT;
+
+        int newRange = currentRange;
+        if (lastRecommendedRange > currentRange) {
+            newRange = lastRecommendedRange;
+            lastDecision = Decision.GROW_DISTRIBUTION;
+        } else if (farHits && currentRange < MAX_HOT_WIDTH) {
+            newRange = Math.min(currentRange * 2, MAX_HOT_WIDTH);
+            lastDecision = Decision.GROW_FAR_HITS;
+        } else if (!farHits && periodFarMatches == 0 && lastRecommendedRange * 4L <= currentRange) {
+            newRange = Math.max(currentRange / 2, MIN_HOT_WIDTH);
+            lastDecision = Decision.SHRINK;
+        } else {
+            lastDecision = Decision.KEEP;
+        }
+
+        if (newRange != currentRange) {
+            resizes++;
+        }
+
+        Arrays.fill(distanceHistogram, 0);
+        periodPlacements = 0;
+        periodFarPlacements = 0;
+        periodHotMatches = 0;
+        periodFarMatches = 0;
+
+        return newRange;
+    }
+
+    @Override
+    public void writeMarshallable(BytesOut bytes) {
+        bytes.writeInt(samplePeriod);
+        for (long v : distanceHistogram) {
+            bytes.writeLong(v);
+        }
+        bytes.writeInt(periodPlacements);
+        bytes.writeInt(periodFarPlacements);
+        bytes.writeInt(periodHotMatches);
+        bytes.writeInt(periodFarMatches);
+        bytes.writeLong(placedHot);
+        bytes.writeLong(placedFar);
+        bytes.writeLong(matchedHotLevels);
+        bytes.writeLong(matchedFarLevels);
+        bytes.writeLong(rebalances);
+        bytes.writeLong(resizes);
+        bytes.writeLong(lastDistanceP99);
+        bytes.writeInt(lastRecommendedRange);
+        bytes.writeByte((byte) lastDecision.ordinal());
+    }
+}
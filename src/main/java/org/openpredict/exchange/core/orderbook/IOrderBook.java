@@ -5,8 +5,13 @@ import net.openhft.chronicle.bytes.BytesIn;
 import net.openhft.chronicle.bytes.WriteBytesMarshallable;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.openpredict.exchange.beans.L2MarketData;
+import org.openpredict.exchange.beans.MatcherEventType;
+import org.openpredict.exchange.beans.MatcherTradeEvent;
 import org.openpredict.exchange.beans.Order;
+import org.openpredict.exchange.beans.OrderAction;
+import org.openpredict.exchange.beans.OrderType;
 import org.openpredict.exchange.beans.StateHash;
+import org.openpredict.exchange.beans.SymbolEngineProfile;
 import org.openpredict.exchange.beans.SymbolType;
 import org.openpredict.exchange.beans.cmd.CommandResultCode;
 import org.openpredict.exchange.beans.cmd.OrderCommand;
@@ -15,6 +20,7 @@ import org.openpredict.exchange.beans.cmd.OrderCommandType;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 
 public interface IOrderBook extends WriteBytesMarshallable, StateHash {
 
@@ -51,6 +57,143 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
      */
     CommandResultCode moveOrder(OrderCommand cmd);
 
+    /**
+     * Reduce order size in place - order keeps its queue position, no matching attempt.<br/>
+     * Order is cancelled if reduced by its remaining size or more.
+     * <p>
+     * orderId - order Id
+     * size    - size to reduce by
+     *
+     * @return command code (success, unknown order, or wrong size)
+     */
+    CommandResultCode reduceOrder(OrderCommand cmd);
+
+    /**
+     * Cancel all orders of the user in one pass (see {@link #forEachUserOrder}).<br/>
+     * Cancel event is produced for each order, orderId of the command is not changed.
+     * <p>
+     * uid - user id
+     *
+     * @return number of cancelled orders
+     */
+    default int cancelAllOrders(OrderCommand cmd) {
+        final long orderId = cmd.orderId;
+        final int[] cancelled = {0};
+        forEachUserOrder(cmd.uid, order -> {
+            cmd.orderId = order.orderId;
+            if (cancelOrder(cmd)) {
+                cancelled[0]++;
+            }
+        });
+        cmd.orderId = orderId;
+        return cancelled[0];
+    }
+
+
+    /**
+     * Replace all orders of the user by new two-sided ladder (mass quote) in one pass.
+     * <p>
+     * quotes  - new bid/ask levels
+     * orderId - order id of the first new level (bids first, then asks)
+     * price   - bid side hold taken by risk engine (see {@link #quoteHoldUnits})
+     * size    - ask side hold taken by risk engine
+     * <p>
+     * Net hold change is calculated once for each side - new levels minus all resting orders of the user.
+     * If the hold taken by risk engine does not cover it, RISK_NSF is returned and the order book is not changed.
+     * Otherwise resting order with same side, price and remaining size is kept (no events), so it does not lose queue priority,
+     * other orders of the user are cancelled, then remaining levels are placed as GTC orders (can be matched).
+     * <p>
+     * On return price and size contain the part of the hold risk engine should release (hold minus net change) -
+     * cancel events of replaced orders are covered by it. Other command fields are restored.
+     *
+     * @return command code (success, or RISK_NSF)
+     */
+    default CommandResultCode massQuote(OrderCommand cmd) {
+        final L2MarketData quotes = cmd.quotes;
+        final int bidSize = quotes.bidSize;
+        final int levels = bidSize + quotes.askSize;
+        final SymbolType symbolType = getSymbolType();
+
+        // net hold change for bids and asks
+        final long[] netHold = {0L, 0L};
+        for (int i = 0; i < bidSize; i++) {
+            netHold[0] += quoteHoldUnits(symbolType, OrderAction.BID, quotes.bidPrices[i], quotes.bidVolumes[i]);
+        }
+        for (int i = 0; i < quotes.askSize; i++) {
+            netHold[1] += quoteHoldUnits(symbolType, OrderAction.ASK, quotes.askPrices[i], quotes.askVolumes[i]);
+        }
+        forEachUserOrder(cmd.uid, order -> {
+            final int side = order.action == OrderAction.BID ? 0 : 1;
+            netHold[side] -= quoteHoldUnits(symbolType, order.action, order.reserveBidPrice, order.size - order.filled);
+        });
+
+        final long bidHold = cmd.price;
+        final long askHold = cmd.size;
+        if (netHold[0] > bidHold || netHold[1] > askHold) {
+            // whole hold is released
+            return CommandResultCode.RISK_NSF;
+        }
+
+        final long orderId = cmd.orderId;
+        final long reserveBidPrice = cmd.reserveBidPrice;
+        final OrderAction action = cmd.action;
+        final OrderType orderType = cmd.orderType;
+
+        // one bit per level (not more than 2 * L2_SIZE levels)
+        final long[] keptLevels = {0L};
+        forEachUserOrder(cmd.uid, order -> {
+            final long remainingSize = order.size - order.filled;
+            for (int level = 0; level < levels; level++) {
+                final boolean bid = level < bidSize;
+                final int i = bid ? level : level - bidSize;
+                if ((keptLevels[0] & (1L << level)) == 0
+                        && order.action == (bid ? OrderAction.BID : OrderAction.ASK)
+                        && order.price == (bid ? quotes.bidPrices[i] : quotes.askPrices[i])
+                        && remainingSize == (bid ? quotes.bidVolumes[i] : quotes.askVolumes[i])) {
+                    keptLevels[0] |= 1L << level;
+                    return;
+                }
+            }
+            cmd.orderId = order.orderId;
+            cancelOrder(cmd);
+        });
+
+        cmd.orderType = OrderType.GTC;
+        for (int level = 0; level < levels; level++) {
+            if ((keptLevels[0] & (1L << level)) == 0) {
+                final boolean bid = level < bidSize;
+                final int i = bid ? level : level - bidSize;
+                cmd.orderId = orderId + level;
+                cmd.action = bid ? OrderAction.BID : OrderAction.ASK;
+                cmd.price = bid ? quotes.bidPrices[i] : quotes.askPrices[i];
+                cmd.reserveBidPrice = cmd.price;
+                cmd.size = bid ? quotes.bidVolumes[i] : quotes.askVolumes[i];
+                newOrder(cmd);
+            }
+        }
+
+        cmd.orderId = orderId;
+        cmd.price = bidHold - netHold[0];
+        cmd.size = askHold - netHold[1];
+        cmd.reserveBidPrice = reserveBidPrice;
+        cmd.action = action;
+        cmd.orderType = orderType;
+        return CommandResultCode.SUCCESS;
+    }
+
+    /**
+     * Units of mass quote holds exchanged between risk engine and order book:
+     * exchange bids - price * size (quote currency amount divided by quoteScaleK), otherwise - size.
+     *
+     * @param symbolType symbol type
+     * @param action     order action
+     * @param price      bid hold price (ignored for asks and futures)
+     * @param size       size
+     * @return hold units
+     */
+    static long quoteHoldUnits(final SymbolType symbolType, final OrderAction action, final long price, final long size) {
+        return (symbolType == SymbolType.CURRENCY_EXCHANGE_PAIR && action == OrderAction.BID) ? price * size : size;
+    }
 
     int getOrdersNum();
 
@@ -82,10 +225,12 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
      */
     OrderBookImplType getImplementationType();
 
+    SymbolType getSymbolType();
+
 
     /**
      * Search for all orders for specified user.<br/>
-     * Slow, because order book do not maintain uid->order index.<br/>
+     * Slow, unless order book maintains uid->orders index (see {@link UserOrdersIndex}).<br/>
      * Produces garbage.<br/>
      * Orders must be processed before doing any other mutable call.<br/>
      *
@@ -94,6 +239,114 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
      */
     List<Order> findUserOrders(long uid);
 
+    /**
+     * Execute action for each order of the user.<br/>
+     * Uses uid->orders index if order book maintains it (see {@link UserOrdersIndex}), otherwise same as {@link #findUserOrders}.<br/>
+     * Action can cancel the order it receives.
+     *
+     * @param uid      user id
+     * @param consumer action
+     */
+    default void forEachUserOrder(long uid, Consumer<Order> consumer) {
+        findUserOrders(uid).forEach(consumer);
+    }
+
+    /**
+     * Rolling state hash - sum of {@link #orderHash} of all resting orders, maintained on each order book mutation.<br/>
+     * Queue positions are covered by {@link Order#queueSeq} - order book assigns increasing sequence each time order is queued.
+     *
+     * @return rolling hash
+     */
+    long getRollingHash();
+
+    /**
+     * Rolling state hash recalculated by full traversal of the order book.<br/>
+     * Result differs from {@link #getRollingHash()} if queue sequences are not increasing within any price level.<br/>
+     * Verification only - slow, produces garbage.
+     *
+     * @return rolling hash
+     */
+    default long calculateRollingHash() {
+        // total hash, last queue sequence in the current bucket
+        final long[] state = {0L, 0L};
+        final Consumer<Order> hasher = order -> {
+            state[0] += orderHash(order.orderId, order.uid, order.price, order.action, order.queueSeq, order.size - order.filled);
+            if (order.queueSeq <= state[1]) {
+                // queue order is broken
+                state[0] = StateHash.mix(state[0]);
+            }
+            state[1] = order.queueSeq;
+        };
+        final Consumer<IOrdersBucket> bucketHasher = bucket -> {
+            state[1] = 0L;
+            bucket.forEachOrder(hasher);
+        };
+        getAllAskBuckets().forEach(bucketHasher);
+        getAllBidBuckets().forEach(bucketHasher);
+        return state[0];
+    }
+
+    /**
+     * Resting order hash, linear by remaining size - so partial fills can be applied without knowing order state.
+     */
+    static long orderHash(long orderId, long uid, long price, OrderAction action, long queueSeq, long remainingSize) {
+        return orderBaseHash(orderId, uid, price, action, queueSeq) + remainingSize * orderSizeWeight(orderId);
+    }
+
+    /**
+     * Part of the order hash which leaves rolling hash when order is completely filled - order book removes it in fully matched order callback.
+     */
+    static long orderBaseHash(long orderId, long uid, long price, OrderAction action, long queueSeq) {
+        return StateHash.mix(StateHash.mix(StateHash.mix(StateHash.mix(orderId) ^ uid) ^ (price * 2 + action.getCode())) ^ queueSeq);
+    }
+
+    static long orderSizeWeight(long orderId) {
+        return StateHash.mix(~orderId) | 1L;
+    }
+
+    /**
+     * Number of maker fills in the events chain head, should be captured together with the head before matching:
+     * level trade events aggregate fills, so matching can append makers to the head event.
+     *
+     * @param head - events chain head
+     * @return makers number of LEVEL_TRADE event, 0 otherwise
+     */
+    static int levelMakersNum(final MatcherTradeEvent head) {
+        return head != null && head.eventType == MatcherEventType.LEVEL_TRADE ? head.makersNum : 0;
+    }
+
+    /**
+     * Rolling hash change caused by matching: filled size leaves the hash.
+     * Base hash of completely filled (maker) orders is removed by order book, as events do not carry queue sequence.
+     *
+     * @param events          - events chain head
+     * @param stop            - head of the chain before matching, or null
+     * @param stopMakersNum   - makers number of stop event before matching (see {@link #levelMakersNum}), makers appended after are counted
+     * @return rolling hash delta
+     */
+    static long tradesHashDelta(final MatcherTradeEvent events, final MatcherTradeEvent stop, final int stopMakersNum) {
+        long delta = 0L;
+        for (MatcherTradeEvent evt = events; evt != stop; evt = evt.nextEvent) {
+            if (evt.eventType == MatcherEventType.TRADE) {
+                delta -= evt.size * orderSizeWeight(evt.matchedOrderId);
+            } else if (evt.eventType == MatcherEventType.LEVEL_TRADE) {
+                delta += levelTradeHashDelta(evt, 0);
+            }
+        }
+        if (stop != null && stop.eventType == MatcherEventType.LEVEL_TRADE) {
+            delta += levelTradeHashDelta(stop, stopMakersNum);
+        }
+        return delta;
+    }
+
+    static long levelTradeHashDelta(final MatcherTradeEvent evt, final int fromMaker) {
+        long delta = 0L;
+        for (int i = fromMaker; i < evt.makersNum; i++) {
+            delta -= evt.getMakerFill(i, MatcherTradeEvent.MAKER_SIZE) * orderSizeWeight(evt.getMakerFill(i, MatcherTradeEvent.MAKER_ORDER_ID));
+        }
+        return delta;
+    }
+
     /**
      * State hash for order books is implementation-agnostic
      * Look {@link org.openpredict.exchange.core.orderbook.IOrderBook#validateInternalState} for complete state validation for de-serialized objects
@@ -156,14 +409,14 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
     }
 
     /**
-     * Request to publish L2 market data into outgoing disruptor message
+     * Publish L2 market data into pre-allocated object, number of levels is limited by its arrays length.<br/>
+     * Does not allocate, order books maintaining depth cache just copy the arrays.
      *
-     * @param data - pre-allocated object from ring buffer
+     * @param data - pre-allocated object (normally attached to ring buffer slot)
      */
     default void publishL2MarketDataSnapshot(L2MarketData data) {
-        int size = L2MarketData.L2_SIZE;
-        fillAsks(size, data);
-        fillBids(size, data);
+        fillAsks(data.askPrices.length, data);
+        fillBids(data.bidPrices.length, data);
     }
 
     void fillAsks(final int size, L2MarketData data);
@@ -188,6 +441,21 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
             boolean isCancelled = orderBook.cancelOrder(cmd);
             return isCancelled ? CommandResultCode.SUCCESS : CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
 
+        } else if (commandType == OrderCommandType.REDUCE_ORDER) {
+
+            return orderBook.reduceOrder(cmd);
+
+        } else if (commandType == OrderCommandType.CANCEL_ALL) {
+
+            orderBook.cancelAllOrders(cmd);
+            return CommandResultCode.SUCCESS;
+
+        } else if (commandType == OrderCommandType.MASS_QUOTE) {
+
+            return (cmd.resultCode == CommandResultCode.VALID_FOR_MATCHING_ENGINE)
+                    ? orderBook.massQuote(cmd)
+                    : cmd.resultCode; // no change
+
         } else if (commandType == OrderCommandType.PLACE_ORDER) {
 
             return (cmd.resultCode == CommandResultCode.VALID_FOR_MATCHING_ENGINE)
@@ -214,17 +482,68 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
                 return new OrderBookNaiveImpl(symbolType);
             case FAST:
                 return new OrderBookFastImpl(OrderBookFastImpl.DEFAULT_HOT_WIDTH, symbolType);
+            case DIRECT:
+                return new OrderBookDirectImpl(symbolType);
+            case LADDER:
+                return new OrderBookLadderImpl(symbolType);
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Create order book tuned according to symbol engine profile (non-positive parameters mean implementation defaults).<br/>
+     * Parameters not supported by the implementation must not be set (see {@link SymbolEngineProfile#validate()}).
+     *
+     * @param profile     - engine profile
+     * @param symbolType  - symbol type
+     * @param objectsPool - orders and buckets pool of the matching engine shard (not used by NAIVE and DIRECT)
+     * @return new order book
+     * @throws IllegalArgumentException if profile contains parameters not supported by the implementation
+     */
+    static IOrderBook create(final SymbolEngineProfile profile, final SymbolType symbolType, final OrderBookObjectsPool objectsPool) {
+        profile.validate();
+        switch (profile.implementation) {
+            case NAIVE:
+                return new OrderBookNaiveImpl(symbolType);
+            case FAST:
+                return new OrderBookFastImpl(
+                        profile.hotWidth > 0 ? profile.hotWidth : OrderBookFastImpl.DEFAULT_HOT_WIDTH,
+                        symbolType,
+                        profile.indexUserOrders,
+                        profile.adaptiveHotWidth ? new HotRangeTuner() : null,
+                        Math.max(profile.expectedDepth, 0),
+                        objectsPool);
+            case DIRECT:
+                return new OrderBookDirectImpl(symbolType);
+            case LADDER:
+                return new OrderBookLadderImpl(
+                        profile.floorPrice,
+                        profile.tickSize > 0 ? profile.tickSize : OrderBookLadderImpl.DEFAULT_TICK_SIZE,
+                        profile.hotWidth > 0 ? profile.hotWidth : OrderBookLadderImpl.DEFAULT_LEVELS_NUM,
+                        Math.max(profile.expectedDepth, 0),
+                        profile.indexUserOrders,
+                        symbolType,
+                        objectsPool);
             default:
                 throw new IllegalArgumentException();
         }
     }
 
     static IOrderBook create(BytesIn bytes) {
+        return create(bytes, new OrderBookObjectsPool());
+    }
+
+    static IOrderBook create(BytesIn bytes, final OrderBookObjectsPool objectsPool) {
         switch (OrderBookImplType.of(bytes.readByte())) {
             case NAIVE:
                 return new OrderBookNaiveImpl(bytes);
             case FAST:
-                return new OrderBookFastImpl(bytes);
+                return new OrderBookFastImpl(bytes, objectsPool);
+            case DIRECT:
+                return new OrderBookDirectImpl(bytes);
+            case LADDER:
+                return new OrderBookLadderImpl(bytes, objectsPool);
             default:
                 throw new IllegalArgumentException();
         }
@@ -234,7 +553,9 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
     @Getter
     enum OrderBookImplType {
         NAIVE(0),
-        FAST(1);
+        FAST(1),
+        DIRECT(2),
+        LADDER(3);
 
         private byte code;
 
@@ -248,6 +569,10 @@ public interface IOrderBook extends WriteBytesMarshallable, StateHash {
                     return NAIVE;
                 case 1:
                     return FAST;
+                case 2:
+                    return DIRECT;
+                case 3:
+                    return LADDER;
                 default:
                     throw new IllegalArgumentException("unknown OrderBookImplType:" + code);
             }
@@ -30,6 +30,25 @@ public interface IOrdersBucket extends Comparable<IOrdersBucket>, WriteBytesMars
      */
     Order remove(long orderId, long uid);
 
+    /**
+     * Remove order which is known to be placed into this bucket (uid is already verified by the caller).
+     * Default implementation performs lookup by orderId.
+     *
+     * @param order - order
+     */
+    default void removeOrder(Order order) {
+        remove(order.orderId, order.uid);
+    }
+
+    /**
+     * Reduce size of the order which is known to be placed into this bucket, order keeps its queue position.
+     * Order object is updated as well (bucket can keep a copy).
+     *
+     * @param order    - order
+     * @param reduceBy - size to reduce by, less than remaining size
+     */
+    void reduceOrder(Order order, long reduceBy);
+
     /**
      * Match specified volume,
      * ignore orders from uid
@@ -101,6 +120,8 @@ public interface IOrdersBucket extends Comparable<IOrdersBucket>, WriteBytesMars
                 return new OrdersBucketNaiveImpl();
             case FAST:
                 return new OrdersBucketFastImpl();
+            case LINKED:
+                return new OrdersBucketLinkedImpl();
             default:
                 throw new IllegalArgumentException();
         }
@@ -112,6 +133,8 @@ public interface IOrdersBucket extends Comparable<IOrdersBucket>, WriteBytesMars
                 return new OrdersBucketNaiveImpl(bytes);
             case FAST:
                 return new OrdersBucketFastImpl(bytes);
+            case LINKED:
+                return new OrdersBucketLinkedImpl(bytes);
             default:
                 throw new IllegalArgumentException();
         }
@@ -120,7 +143,9 @@ public interface IOrdersBucket extends Comparable<IOrdersBucket>, WriteBytesMars
     @Getter
     enum OrderBucketImplType {
         NAIVE(0),
-        FAST(1);
+        FAST(1),
+        LINKED(2),
+        DIRECT(3); // requires orders store, created by OrderBookDirectImpl only
 
         private byte code;
 
@@ -134,6 +159,10 @@ public interface IOrdersBucket extends Comparable<IOrdersBucket>, WriteBytesMars
                     return NAIVE;
                 case 1:
                     return FAST;
+                case 2:
+                    return LINKED;
+                case 3:
+                    return DIRECT;
                 default:
                     throw new IllegalArgumentException("unknown OrderBucketImplType:" + code);
             }
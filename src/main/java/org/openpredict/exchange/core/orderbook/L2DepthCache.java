@@ -0,0 +1,154 @@
+package org.openpredict.exchange.core.orderbook;
+
+/**
+ * Incrementally maintained top price levels of one side of an order book.<br/>
+ * Keeps min(depth, total levels) best levels sorted starting from the best price,
+ * so publishing L2 market data is just an arrays copy.
+ * <p>
+ * Order book should call {@link #update(long, long)} right after each change of the bucket volume
+ * (including bucket removal), so the book is always consistent with the cache except that single change.
+ * When one of cached levels disappears, the next level is requested from the order book.
+ * <p>
+ * Not thread safe.
+ */
+public final class L2DepthCache {
+
+    @FunctionalInterface
+    public interface NextLevelSupplier {
+        /**
+         * @param price - price
+         * @return best bucket that is strictly worse than the price, or null if there is no such bucket
+         */
+        IOrdersBucket nextLevel(long price);
+    }
+
+    private final boolean ask;
+    private final int depth;
+    private final NextLevelSupplier supplier;
+
+    private final long[] prices;
+    private final long[] volumes;
+    private int size = 0;
+
+    /**
+     * @param ask      true for asks side (ascending prices), false for bids side (descending prices)
+     * @param depth    number of levels to maintain
+     * @param supplier source of the levels
+     */
+    public L2DepthCache(final boolean ask, final int depth, final NextLevelSupplier supplier) {
+        this.ask = ask;
+        this.depth = depth;
+        this.supplier = supplier;
+        this.prices = new long[depth];
+        this.volumes = new long[depth];
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Apply level volume change
+     *
+     * @param price  - price level
+     * @param volume - new total volume of the level (0 if level was removed)
+     */
+    public void update(final long price, final long volume) {
+
+        int pos = 0;
+        while (pos < size && isBetter(prices[pos], price)) {
+            pos++;
+        }
+
+        if (pos < size && prices[pos] == price) {
+            if (volume != 0) {
+                volumes[pos] = volume;
+                return;
+            }
+
+            // level removed
+            final boolean wasFull = size == depth;
+            size--;
+            System.arraycopy(prices, pos + 1, prices, pos, size - pos);
+            System.arraycopy(volumes, pos + 1, volumes, pos, size - pos);
+
+            if (wasFull) {
+                // there can be more levels in the order book
+                final IOrdersBucket next = supplier.nextLevel(size == 0 ? price : prices[size - 1]);
+                if (next != null) {
+                    prices[size] = next.getPrice();
+                    volumes[size] = next.getTotalVolume();
+                    size++;
+                }
+            }
+            return;
+        }
+
+        if (volume == 0 || pos == depth) {
+            // removed level was not cached, or new level is beyond depth
+            return;
+        }
+
+        // insert new level, the last one is dropped if there is no space
+        final int toMove = (size == depth ? size - 1 : size) - pos;
+        System.arraycopy(prices, pos, prices, pos + 1, toMove);
+        System.arraycopy(volumes, pos, volumes, pos + 1, toMove);
+        prices[pos] = price;
+        volumes[pos] = volume;
+        if (size < depth) {
+            size++;
+        }
+    }
+
+    /**
+     * Re-read all levels from order book
+     */
+    public void rebuild() {
+        size = 0;
+        long price = ask ? Long.MIN_VALUE : Long.MAX_VALUE;
+        IOrdersBucket bucket;
+        while (size < depth && (bucket = supplier.nextLevel(price)) != null) {
+            price = bucket.getPrice();
+            prices[size] = price;
+            volumes[size] = bucket.getTotalVolume();
+            size++;
+        }
+    }
+
+    /**
+     * Copy levels into arrays
+     *
+     * @param limit         - max number of levels (must not exceed depth)
+     * @param targetPrices  - prices array
+     * @param targetVolumes - volumes array
+     * @return number of levels copied
+     */
+    public int copyTo(final int limit, final long[] targetPrices, final long[] targetVolumes) {
+        final int n = Math.min(limit, size);
+        System.arraycopy(prices, 0, targetPrices, 0, n);
+        System.arraycopy(volumes, 0, targetVolumes, 0, n);
+        return n;
+    }
+
+    // testing only - compare with levels extracted from order book
+    public void validate(final int expectedSize, final long[] expectedPrices, final long[] expectedVolumes) {
+        final int n = Math.min(expectedSize, depth);
+        if (size != n) {
+            throw new IllegalStateException(String.format("%s depth cache size %d, expected %d", ask ? "ask" : "bid", size, n));
+        }
+        for (int i = 0; i < n; i++) {
+            if (prices[i] != expectedPrices[i] || volumes[i] != expectedVolumes[i]) {
+                throw new IllegalStateException(String.format("%s depth cache level %d: %d:%d, expected %d:%d",
+                        ask ? "ask" : "bid", i, prices[i], volumes[i], expectedPrices[i], expectedVolumes[i]));
+            }
+        }
+    }
+
+    private boolean isBetter(final long p1, final long p2) {
+        return ask ? p1 < p2 : p1 > p2;
+    }
+}
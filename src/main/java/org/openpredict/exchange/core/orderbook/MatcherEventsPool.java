@@ -0,0 +1,108 @@
+package org.openpredict.exchange.core.orderbook;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.openpredict.exchange.beans.MatcherTradeEvent;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pool of reusable matcher events owned by one matching engine shard.<br/>
+ * Events are taken by the matching engine thread and returned as whole chains by the grouping processor,
+ * when ring buffer slot is reused (so results consumer and risk release stage have already seen them).
+ * <p>
+ * Matching engine keeps private free chain, returned chains are pushed into lock-free stack (linked by nextEvent),
+ * and private free chain is refilled by taking the whole stack at once - no allocations and no ABA problem.
+ * <p>
+ * {@link #get()} - matching engine thread only, {@link #releaseChain(MatcherTradeEvent)} - any thread.
+ * <p>
+ * Each event remembers its owner pool, so chains collected from several shards (mass cancel)
+ * are split by {@link #releaseToOwners(MatcherTradeEvent)} and every part is returned where it was taken from.
+ */
+@Getter
+public final class MatcherEventsPool {
+
+    // private free events chain (matching engine thread)
+    @Getter(AccessLevel.NONE)
+    private MatcherTradeEvent free = null;
+
+    // chains returned by other threads
+    @Getter(AccessLevel.NONE)
+    private final AtomicReference<MatcherTradeEvent> returned = new AtomicReference<>();
+
+    // statistics, updated by matching engine thread
+    private long hits = 0;
+    private long misses = 0;
+    private long refills = 0;
+
+    /**
+     * Take event from the pool, or create new one if pool is empty.
+     * Matching engine thread only.
+     *
+     * @return event (fields are not cleaned, except nextEvent)
+     */
+    public MatcherTradeEvent get() {
+        MatcherTradeEvent evt = free;
+        if (evt == null) {
+            if (returned.get() != null) {
+                evt = returned.getAndSet(null);
+            }
+            if (evt == null) {
+                misses++;
+                final MatcherTradeEvent newEvent = new MatcherTradeEvent();
+                newEvent.ownerPool = this;
+                return newEvent;
+            }
+            refills++;
+        }
+        free = evt.nextEvent;
+        evt.nextEvent = null;
+        hits++;
+        return evt;
+    }
+
+    /**
+     * Return events chain to the pool. Can be called from any thread.
+     * Events must not be accessed after this call.
+     *
+     * @param head - first event of the chain
+     */
+    public void releaseChain(final MatcherTradeEvent head) {
+        MatcherTradeEvent tail = head;
+        while (tail.nextEvent != null) {
+            tail = tail.nextEvent;
+        }
+        MatcherTradeEvent top;
+        do {
+            top = returned.get();
+            tail.nextEvent = top;
+        } while (!returned.compareAndSet(top, head));
+    }
+
+    /**
+     * Return events chain to the owner pools, splitting it into parts with the same owner.
+     * Events without owner (not pooled) are dropped. Can be called from any thread.
+     *
+     * @param head - first event of the chain
+     */
+    public static void releaseToOwners(MatcherTradeEvent head) {
+        while (head != null) {
+            final MatcherEventsPool owner = head.ownerPool;
+            MatcherTradeEvent tail = head;
+            while (tail.nextEvent != null && tail.nextEvent.ownerPool == owner) {
+                tail = tail.nextEvent;
+            }
+            final MatcherTradeEvent next = tail.nextEvent;
+            if (owner != null) {
+                tail.nextEvent = null;
+                owner.releaseChain(head);
+            }
+            head = next;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d refills=%d", hits, misses, refills);
+    }
+}
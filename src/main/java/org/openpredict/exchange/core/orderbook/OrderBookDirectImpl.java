@@ -0,0 +1,570 @@
+package org.openpredict.exchange.core.orderbook;
+
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.openpredict.exchange.beans.*;
+import org.openpredict.exchange.beans.cmd.CommandResultCode;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.core.collections.LongObjectTreeMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.openpredict.exchange.beans.OrderAction.BID;
+import static org.openpredict.exchange.core.orderbook.DirectOrdersStore.NULL_HANDLE;
+
+/**
+ * Order book keeping resting orders off-heap.<br/>
+ * Orders are stored in fixed-width {@link DirectOrdersStore} slots and referenced by int handles:
+ * orderId index maps to handles, buckets queues are linked through the slots.
+ * Only buckets (one per price level) remain on-heap, so deep order books do not increase GC marking work.
+ * <p>
+ * Methods returning Order objects (getOrderById, findUserOrders, buckets access) produce copies.
+ */
+@Slf4j
+public final class OrderBookDirectImpl implements IOrderBook {
+
+    // both maps are sorted in ascending price order
+    private final LongObjectTreeMap<OrdersBucketDirectImpl> askBuckets;
+    private final LongObjectTreeMap<OrdersBucketDirectImpl> bidBuckets;
+
+    private final SymbolType symbolType;
+
+    private final DirectOrdersStore store;
+
+    // orderId -> order handle (0 = not found)
+    private final LongIntHashMap idMap = new LongIntHashMap();
+
+    private final ArrayDeque<OrdersBucketDirectImpl> bucketsPool = new ArrayDeque<>(1024);
+
+    // incrementally maintained top levels for L2 market data
+    private final L2DepthCache askDepth = new L2DepthCache(true, L2MarketData.L2_SIZE, this::nextDepthLevelAsk);
+    private final L2DepthCache bidDepth = new L2DepthCache(false, L2MarketData.L2_SIZE, this::nextDepthLevelBid);
+
+    // reusable objects (orders being moved are matched as active orders, cancel events)
+    private final Order workOrder = new Order();
+
+    private final IntProcedure removeFullyMatchedOrder = this::removeFullyMatchedOrder;
+
+    // sum of resting orders hashes, see IOrderBook.orderHash (not serialized)
+    private long rollingHash = 0L;
+
+    // last assigned queue sequence, see Order.queueSeq
+    private long lastQueueSeq = 0L;
+
+    public OrderBookDirectImpl(final SymbolType symbolType) {
+        this.symbolType = symbolType;
+        this.store = new DirectOrdersStore();
+        this.askBuckets = new LongObjectTreeMap<>();
+        this.bidBuckets = new LongObjectTreeMap<>();
+    }
+
+    public OrderBookDirectImpl(final BytesIn bytes) {
+        this.symbolType = SymbolType.of(bytes.readByte());
+        this.store = new DirectOrdersStore(Math.max(1024, bytes.readInt() + 1));
+        this.askBuckets = readBuckets(bytes);
+        this.bidBuckets = readBuckets(bytes);
+        this.lastQueueSeq = bytes.readLong();
+
+        // reconstruct ordersId-> handle index
+        askBuckets.forEachValue(bucket -> bucket.forEachHandle(h -> idMap.put(store.getOrderId(h), h)));
+        bidBuckets.forEachValue(bucket -> bucket.forEachHandle(h -> idMap.put(store.getOrderId(h), h)));
+        askDepth.rebuild();
+        bidDepth.rebuild();
+        rollingHash = calculateRollingHash();
+    }
+
+    @Override
+    public CommandResultCode newOrder(OrderCommand cmd) {
+
+        final OrderType orderType = cmd.orderType;
+        final long size = cmd.size;
+
+        // check if order is marketable (if there are opposite matching orders)
+        final MatcherTradeEvent eventsBefore = cmd.matcherEvent;
+        final int makersBefore = IOrderBook.levelMakersNum(eventsBefore);
+        final long filledSize = tryMatchInstantly(cmd, 0, cmd);
+        rollingHash += IOrderBook.tradesHashDelta(cmd.matcherEvent, eventsBefore, makersBefore);
+        if (filledSize == size) {
+            // order is fully matched - can just return
+            return CommandResultCode.SUCCESS;
+        }
+
+        if (orderType == OrderType.IOC) {
+            OrderBookEventsHelper.attachRejectEvent(cmd, size - filledSize);
+            return CommandResultCode.SUCCESS;
+        }
+
+        final long orderId = cmd.orderId;
+        if (idMap.containsKey(orderId)) {
+            // duplicate order id - can match, but can not place
+            OrderBookEventsHelper.attachRejectEvent(cmd, size - filledSize);
+            return CommandResultCode.MATCHING_DUPLICATE_ORDER_ID;
+        }
+
+        // normally placing regular GTC limit order
+        final long queueSeq = ++lastQueueSeq;
+        final int handle = store.allocate(orderId, cmd.symbol, cmd.price, size, filledSize, cmd.reserveBidPrice,
+                cmd.action, orderType, cmd.uid, cmd.timestamp, cmd.userCookie, queueSeq);
+
+        final OrdersBucketDirectImpl bucket = getOrCreateBucket(cmd.action, cmd.price);
+        bucket.putHandle(handle);
+        levelChanged(cmd, cmd.action, cmd.price, bucket.getTotalVolume());
+        OrderBookEventsHelper.sendL3Event(cmd, L3EventType.ADD, cmd.action, orderId, cmd.uid, cmd.price, size - filledSize);
+        idMap.put(orderId, handle);
+        rollingHash += IOrderBook.orderHash(orderId, cmd.uid, cmd.price, cmd.action, queueSeq, size - filledSize);
+
+        return CommandResultCode.SUCCESS;
+    }
+
+    /**
+     * Match the order instantly to opposite buckets, walking from the best price up to order limit price
+     * Fully matching orders are removed from orderId index and released
+     * Should any trades occur - they sent to tradesConsumer
+     *
+     * @param activeOrder - GTC or IOC order to match
+     * @param filled      - current 'filled' value for the order
+     * @param triggerCmd  -
+     * @return new filled size
+     */
+    private long tryMatchInstantly(
+            final OrderCommand activeOrder,
+            long filled,
+            final OrderCommand triggerCmd) {
+
+        final boolean isBidAction = activeOrder.action == BID;
+        final LongObjectTreeMap<OrdersBucketDirectImpl> matchingBuckets = isBidAction ? askBuckets : bidBuckets;
+        final long limitPrice = activeOrder.price;
+        final long orderSize = activeOrder.size;
+
+        OrdersBucketDirectImpl bucket = isBidAction ? matchingBuckets.firstValue() : matchingBuckets.lastValue();
+        while (bucket != null) {
+
+            final long price = bucket.getPrice();
+            if (isBidAction ? price > limitPrice : price < limitPrice) {
+                // not marketable anymore
+                break;
+            }
+
+            filled += bucket.match(orderSize - filled, activeOrder, triggerCmd, removeFullyMatchedOrder);
+
+            // remove empty buckets
+            final long volumeLeft = bucket.getTotalVolume();
+            if (volumeLeft == 0) {
+                matchingBuckets.remove(price);
+                bucketsPool.addLast(bucket);
+            }
+            levelChanged(triggerCmd, activeOrder.action.opposite(), price, volumeLeft);
+
+            if (filled == orderSize) {
+                // enough matched
+                break;
+            }
+
+            bucket = isBidAction ? matchingBuckets.higherValue(price) : matchingBuckets.lowerValue(price);
+        }
+
+        return filled;
+    }
+
+    private void removeFullyMatchedOrder(final int handle) {
+        final long orderId = store.getOrderId(handle);
+        idMap.remove(orderId);
+        rollingHash -= IOrderBook.orderBaseHash(orderId, store.getUid(handle), store.getPrice(handle), store.getAction(handle), store.getQueueSeq(handle));
+    }
+
+    /**
+     * Remove an order
+     * <p>
+     * orderId - order to remove
+     *
+     * @return true if order removed, false if not found (can be removed/matched earlier)
+     */
+    @Override
+    public boolean cancelOrder(OrderCommand cmd) {
+        final long orderId = cmd.orderId;
+
+        final int handle = idMap.get(orderId);
+        if (handle == NULL_HANDLE || store.getUid(handle) != cmd.uid) {
+            // order already matched and removed from orderbook previously
+            return false;
+        }
+
+        // now can remove it
+        idMap.remove(orderId);
+
+        store.copyTo(handle, workOrder);
+        removeFromBucket(cmd, handle, workOrder.action, workOrder.price);
+        store.free(handle);
+        rollingHash -= IOrderBook.orderHash(orderId, workOrder.uid, workOrder.price, workOrder.action, workOrder.queueSeq, workOrder.size - workOrder.filled);
+
+        // send cancel event
+        OrderBookEventsHelper.sendCancelEvent(cmd, workOrder);
+
+        return true;
+    }
+
+    /**
+     * Reduce order size in place, order slot is not unlinked from the bucket queue
+     */
+    @Override
+    public CommandResultCode reduceOrder(OrderCommand cmd) {
+        final long orderId = cmd.orderId;
+        final long reduceBy = cmd.size;
+
+        final int handle = idMap.get(orderId);
+        if (handle == NULL_HANDLE || store.getUid(handle) != cmd.uid) {
+            return CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
+        }
+        if (reduceBy <= 0) {
+            return CommandResultCode.MATCHING_REDUCE_FAILED_WRONG_SIZE;
+        }
+
+        final Order order = store.copyTo(handle, workOrder);
+        final long remainingSize = order.size - order.filled;
+        if (reduceBy >= remainingSize) {
+            cancelOrder(cmd);
+            return CommandResultCode.SUCCESS;
+        }
+
+        final OrdersBucketDirectImpl bucket = getBucketsByAction(order.action).get(order.price);
+        rollingHash -= IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, remainingSize);
+        bucket.reduceHandle(handle, reduceBy);
+        order.size -= reduceBy;
+        rollingHash += IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, remainingSize - reduceBy);
+
+        levelChanged(cmd, order.action, order.price, bucket.getTotalVolume());
+        OrderBookEventsHelper.sendReduceEvent(cmd, order, reduceBy);
+
+        return CommandResultCode.SUCCESS;
+    }
+
+    @Override
+    public CommandResultCode moveOrder(OrderCommand cmd) {
+
+        final long orderId = cmd.orderId;
+        final long newPrice = cmd.price;
+
+        final int handle = idMap.get(orderId);
+        if (handle == NULL_HANDLE || store.getUid(handle) != cmd.uid) {
+            // already matched, moved or cancelled
+            return CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
+        }
+
+        final Order order = store.copyTo(handle, workOrder);
+
+        // optimistic risk check mode for exchange bids
+        if (symbolType == SymbolType.CURRENCY_EXCHANGE_PAIR && order.action == BID && newPrice > order.reserveBidPrice) {
+            // order is not touched
+            return CommandResultCode.MATCHING_MOVE_FAILED_PRICE_ABOVE_RISK_LIMIT;
+        }
+
+        // take order out of the original bucket and clean bucket if its empty
+        removeFromBucket(cmd, handle, order.action, order.price);
+        rollingHash -= IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, order.size - order.filled);
+
+        order.price = newPrice;
+
+        // try match with new price
+        final MatcherTradeEvent eventsBefore = cmd.matcherEvent;
+        final int makersBefore = IOrderBook.levelMakersNum(eventsBefore);
+        final long filled = tryMatchInstantly(order, order.filled, cmd);
+        rollingHash += IOrderBook.tradesHashDelta(cmd.matcherEvent, eventsBefore, makersBefore);
+        if (filled == order.size) {
+            // order was fully matched (100% marketable) - removing from order book
+            idMap.remove(orderId);
+            store.free(handle);
+            OrderBookEventsHelper.sendL3Event(cmd, L3EventType.DELETE, order.action, orderId, order.uid, newPrice, 0);
+            return CommandResultCode.SUCCESS;
+        }
+
+        // if not filled completely - put it into corresponding bucket
+        store.setPrice(handle, newPrice);
+        store.setFilled(handle, filled);
+        order.queueSeq = ++lastQueueSeq;
+        store.setQueueSeq(handle, order.queueSeq);
+        final OrdersBucketDirectImpl newBucket = getOrCreateBucket(order.action, newPrice);
+        newBucket.putHandle(handle);
+        rollingHash += IOrderBook.orderHash(orderId, order.uid, newPrice, order.action, order.queueSeq, order.size - filled);
+        levelChanged(cmd, order.action, newPrice, newBucket.getTotalVolume());
+        OrderBookEventsHelper.sendL3Event(cmd, L3EventType.MODIFY, order.action, orderId, order.uid, newPrice, order.size - filled);
+
+        return CommandResultCode.SUCCESS;
+    }
+
+    private OrdersBucketDirectImpl getOrCreateBucket(final OrderAction action, final long price) {
+        final LongObjectTreeMap<OrdersBucketDirectImpl> buckets = getBucketsByAction(action);
+        OrdersBucketDirectImpl bucket = buckets.get(price);
+        if (bucket == null) {
+            bucket = bucketsPool.pollLast();
+            if (bucket == null) {
+                bucket = new OrdersBucketDirectImpl(store);
+            }
+            bucket.setPrice(price);
+            buckets.put(price, bucket);
+        }
+        return bucket;
+    }
+
+    private void removeFromBucket(final OrderCommand cmd, final int handle, final OrderAction action, final long price) {
+        final LongObjectTreeMap<OrdersBucketDirectImpl> buckets = getBucketsByAction(action);
+        final OrdersBucketDirectImpl bucket = buckets.get(price);
+        if (bucket == null) {
+            // not possible state
+            throw new IllegalStateException("Can not find bucket for order price=" + price + " for order " + store.getOrderId(handle));
+        }
+        bucket.removeHandle(handle);
+        final long volumeLeft = bucket.getTotalVolume();
+        if (volumeLeft == 0) {
+            buckets.remove(price);
+            bucketsPool.addLast(bucket);
+        }
+        levelChanged(cmd, action, price, volumeLeft);
+    }
+
+    private void levelChanged(final OrderCommand cmd, final OrderAction action, final long price, final long volume) {
+        (action == OrderAction.ASK ? askDepth : bidDepth).update(price, volume);
+        OrderBookEventsHelper.attachL2Update(cmd, action, price, volume);
+    }
+
+    // depth cache levels source (empty buckets are removed before level change is applied)
+    private IOrdersBucket nextDepthLevelAsk(final long price) {
+        return askBuckets.higherValue(price);
+    }
+
+    private IOrdersBucket nextDepthLevelBid(final long price) {
+        return bidBuckets.lowerValue(price);
+    }
+
+    /**
+     * Get bucket by order action
+     *
+     * @param action - action
+     * @return bucket - sorted map
+     */
+    private LongObjectTreeMap<OrdersBucketDirectImpl> getBucketsByAction(OrderAction action) {
+        return action == OrderAction.ASK ? askBuckets : bidBuckets;
+    }
+
+    /**
+     * Get copy of the order
+     *
+     * @param orderId -
+     * @return order
+     */
+    @Override
+    public Order getOrderById(long orderId) {
+        final int handle = idMap.get(orderId);
+        return handle != NULL_HANDLE ? store.toOrder(handle) : null;
+    }
+
+    /**
+     * Copies levels from incrementally maintained depth cache,
+     * only deeper requests require iterating the buckets.
+     */
+    @Override
+    public void fillAsks(final int size, L2MarketData data) {
+        if (size <= askDepth.getDepth()) {
+            data.askSize = askDepth.copyTo(size, data.askPrices, data.askVolumes);
+        } else {
+            fillAsksFromBuckets(size, data);
+        }
+    }
+
+    /**
+     * Copies levels from incrementally maintained depth cache,
+     * only deeper requests require iterating the buckets.
+     */
+    @Override
+    public void fillBids(final int size, L2MarketData data) {
+        if (size <= bidDepth.getDepth()) {
+            data.bidSize = bidDepth.copyTo(size, data.bidPrices, data.bidVolumes);
+        } else {
+            fillBidsFromBuckets(size, data);
+        }
+    }
+
+    public void fillAsksFromBuckets(final int size, L2MarketData data) {
+        if (size == 0) {
+            data.askSize = 0;
+            return;
+        }
+
+        int i = 0;
+        for (IOrdersBucket bucket = askBuckets.firstValue(); bucket != null; bucket = askBuckets.higherValue(bucket.getPrice())) {
+            data.askPrices[i] = bucket.getPrice();
+            data.askVolumes[i] = bucket.getTotalVolume();
+            if (++i == size) {
+                break;
+            }
+        }
+        data.askSize = i;
+    }
+
+    public void fillBidsFromBuckets(final int size, L2MarketData data) {
+        if (size == 0) {
+            data.bidSize = 0;
+            return;
+        }
+
+        int i = 0;
+        for (IOrdersBucket bucket = bidBuckets.lastValue(); bucket != null; bucket = bidBuckets.lowerValue(bucket.getPrice())) {
+            data.bidPrices[i] = bucket.getPrice();
+            data.bidVolumes[i] = bucket.getTotalVolume();
+            if (++i == size) {
+                break;
+            }
+        }
+        data.bidSize = i;
+    }
+
+    @Override
+    public int getTotalAskBuckets() {
+        return askBuckets.size();
+    }
+
+    @Override
+    public int getTotalBidBuckets() {
+        return bidBuckets.size();
+    }
+
+    @Override
+    public List<IOrdersBucket> getAllAskBuckets() {
+        return new ArrayList<>(askBuckets.values());
+    }
+
+    @Override
+    public List<IOrdersBucket> getAllBidBuckets() {
+        return new ArrayList<>(bidBuckets.valuesDescending());
+    }
+
+    @Override
+    public long getBestAsk() {
+        return askBuckets.firstKey(Long.MAX_VALUE);
+    }
+
+    @Override
+    public long getRollingHash() {
+        return rollingHash;
+    }
+
+    @Override
+    public long getBestBid() {
+        return bidBuckets.lastKey(0);
+    }
+
+    @Override
+    public void validateInternalState() {
+        askBuckets.validate();
+        bidBuckets.validate();
+        askBuckets.forEachValue(IOrdersBucket::validate);
+        bidBuckets.forEachValue(IOrdersBucket::validate);
+
+        if (idMap.size() != store.size()) {
+            throw new IllegalStateException(String.format("known orders %d != allocated slots %d", idMap.size(), store.size()));
+        }
+        idMap.forEachKeyValue((orderId, handle) -> {
+            if (store.getOrderId(handle) != orderId) {
+                throw new IllegalStateException("handle " + handle + " does not belong to order " + orderId);
+            }
+        });
+
+        // compare incrementally maintained depth with the buckets
+        final L2MarketData l2 = new L2MarketData(askDepth.getDepth(), bidDepth.getDepth());
+        fillAsksFromBuckets(askDepth.getDepth(), l2);
+        fillBidsFromBuckets(bidDepth.getDepth(), l2);
+        askDepth.validate(l2.askSize, l2.askPrices, l2.askVolumes);
+        bidDepth.validate(l2.bidSize, l2.bidPrices, l2.bidVolumes);
+
+        if (rollingHash != calculateRollingHash()) {
+            throw new IllegalStateException("rolling hash differs from orders");
+        }
+    }
+
+    @Override
+    public OrderBookImplType getImplementationType() {
+        return OrderBookImplType.DIRECT;
+    }
+
+    @Override
+    public SymbolType getSymbolType() {
+        return symbolType;
+    }
+
+    @Override
+    public List<Order> findUserOrders(final long uid) {
+        final List<Order> list = new ArrayList<>();
+        final IntProcedure collector = h -> {
+            if (store.getUid(h) == uid) {
+                list.add(store.toOrder(h));
+            }
+        };
+        askBuckets.forEachValue(bucket -> bucket.forEachHandle(collector));
+        bidBuckets.forEachValue(bucket -> bucket.forEachHandle(collector));
+        return list;
+    }
+
+    // for testing only
+    @Override
+    public int getOrdersNum() {
+        int askOrders = askBuckets.values().stream().mapToInt(IOrdersBucket::getNumOrders).sum();
+        int bidOrders = bidBuckets.values().stream().mapToInt(IOrdersBucket::getNumOrders).sum();
+        int knownOrders = idMap.size();
+
+        assert knownOrders == askOrders + bidOrders : "inconsistent known orders";
+
+        return knownOrders;
+    }
+
+    /**
+     * @return native memory reserved for resting orders (bytes)
+     */
+    public long getOffHeapBytes() {
+        return store.getReservedBytes();
+    }
+
+    @Override
+    public void writeMarshallable(BytesOut bytes) {
+        bytes.writeByte(getImplementationType().getCode());
+        bytes.writeByte(symbolType.getCode());
+        bytes.writeInt(store.size());
+        writeBuckets(askBuckets, bytes);
+        writeBuckets(bidBuckets, bytes);
+        bytes.writeLong(lastQueueSeq);
+    }
+
+    private static void writeBuckets(final LongObjectTreeMap<OrdersBucketDirectImpl> buckets, final BytesOut bytes) {
+        bytes.writeInt(buckets.size());
+        buckets.forEachValue(bucket -> bucket.writeMarshallable(bytes));
+    }
+
+    private LongObjectTreeMap<OrdersBucketDirectImpl> readBuckets(final BytesIn bytes) {
+        final LongObjectTreeMap<OrdersBucketDirectImpl> buckets = new LongObjectTreeMap<>();
+        final int length = bytes.readInt();
+        for (int i = 0; i < length; i++) {
+            if (IOrdersBucket.OrderBucketImplType.of(bytes.readByte()) != IOrdersBucket.OrderBucketImplType.DIRECT) {
+                throw new IllegalStateException("unexpected bucket type");
+            }
+            final OrdersBucketDirectImpl bucket = new OrdersBucketDirectImpl(store, bytes);
+            buckets.put(bucket.getPrice(), bucket);
+        }
+        return buckets;
+    }
+
+    @Override
+    public int hashCode() {
+        IOrdersBucket[] a = this.askBuckets.values().toArray(new IOrdersBucket[0]);
+        IOrdersBucket[] b = this.bidBuckets.valuesDescending().toArray(new IOrdersBucket[0]);
+        return IOrderBook.hash(a, b, symbolType);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return IOrderBook.equals(this, o);
+    }
+
+}
@@ -5,6 +5,9 @@ import net.openhft.chronicle.bytes.Bytes;
 import net.openhft.chronicle.bytes.NativeBytes;
 import net.openhft.chronicle.wire.Wire;
 import net.openhft.chronicle.wire.WireType;
+import org.openpredict.exchange.beans.L2MarketDataDelta;
+import org.openpredict.exchange.beans.L3EventType;
+import org.openpredict.exchange.beans.L3MarketDataEvents;
 import org.openpredict.exchange.beans.MatcherEventType;
 import org.openpredict.exchange.beans.MatcherTradeEvent;
 import org.openpredict.exchange.beans.Order;
@@ -23,11 +26,26 @@ public final class OrderBookEventsHelper {
     //private OrderCommand currentCmd;
 
     public static void sendTradeEvent(OrderCommand cmd, OrderCommand activeOrder, Order matchingOrder, boolean fm, boolean fma, long price, long v) {
+        sendTradeEvent(cmd, activeOrder, matchingOrder.orderId, matchingOrder.uid, matchingOrder.reserveBidPrice, fm, fma, price, v);
+    }
+
+    /**
+     * Same as {@link #sendTradeEvent(OrderCommand, OrderCommand, Order, boolean, boolean, long, long)},
+     * but matching order is provided as separate fields (for order books not keeping Order objects).
+     */
+    public static void sendTradeEvent(OrderCommand cmd, OrderCommand activeOrder,
+                                      long matchingOrderId, long matchingOrderUid, long matchingOrderReserveBidPrice,
+                                      boolean fm, boolean fma, long price, long v) {
 
 //        log.debug("** sendTradeEvent: active id:{} matched id:{}", activeOrder.orderId, matchingOrder.orderId);
 //        log.debug("** sendTradeEvent: price:{} v:{}", price, v);
 
-        final MatcherTradeEvent event = newMatcherEvent();
+        if (cmd.levelFills) {
+            sendLevelTradeEvent(cmd, activeOrder, matchingOrderId, matchingOrderUid, matchingOrderReserveBidPrice, fm, fma, price, v);
+            return;
+        }
+
+        final MatcherTradeEvent event = newMatcherEvent(cmd);
 
         event.eventType = MatcherEventType.TRADE;
 
@@ -37,8 +55,8 @@ public final class OrderBookEventsHelper {
         event.activeOrderAction = activeOrder.action;
 //        event.activeOrderSeq = activeOrder.seq;
 
-        event.matchedOrderId = matchingOrder.orderId;
-        event.matchedOrderUid = matchingOrder.uid;
+        event.matchedOrderId = matchingOrderId;
+        event.matchedOrderUid = matchingOrderUid;
         event.matchedOrderCompleted = fm;
 
         event.price = price;
@@ -47,17 +65,69 @@ public final class OrderBookEventsHelper {
         event.symbol = activeOrder.symbol;
 
         // set order reserved price for correct released EBids
-        event.bidderHoldPrice = activeOrder.action == OrderAction.BID ? activeOrder.reserveBidPrice : matchingOrder.reserveBidPrice;
+        event.bidderHoldPrice = activeOrder.action == OrderAction.BID ? activeOrder.reserveBidPrice : matchingOrderReserveBidPrice;
 
         event.nextEvent = cmd.matcherEvent;
         cmd.matcherEvent = event;
 
+        final L3MarketDataEvents l3Events = cmd.l3Events;
+        if (l3Events != null) {
+            l3Events.add(L3EventType.EXECUTE, activeOrder.action.opposite(), matchingOrderId, matchingOrderUid, price, v);
+        }
+
 //        log.debug(" currentCmd.matcherEvent={}", currentCmd.matcherEvent);
     }
 
+    /**
+     * Aggregated trade: matched order is appended to the LEVEL_TRADE event of the active order at the same price,
+     * new event is created for each price level only (active order matches each level once, so it is always the head).
+     */
+    private static void sendLevelTradeEvent(OrderCommand cmd, OrderCommand activeOrder,
+                                            long matchingOrderId, long matchingOrderUid, long matchingOrderReserveBidPrice,
+                                            boolean fm, boolean fma, long price, long v) {
+
+        MatcherTradeEvent event = cmd.matcherEvent;
+        if (event != null && event.eventType == MatcherEventType.LEVEL_TRADE && event.activeOrderId == activeOrder.orderId && event.price == price) {
+            event.size += v;
+        } else {
+            event = newMatcherEvent(cmd);
+
+            event.eventType = MatcherEventType.LEVEL_TRADE;
+
+            event.activeOrderId = activeOrder.orderId;
+            event.activeOrderUid = activeOrder.uid;
+            event.activeOrderAction = activeOrder.action;
+
+            event.matchedOrderId = 0;
+            event.matchedOrderUid = 0;
+            event.matchedOrderCompleted = false;
+
+            event.price = price;
+            event.size = v;
+            event.timestamp = activeOrder.timestamp;
+            event.symbol = activeOrder.symbol;
+
+            // makers reserved prices are kept in makerFills
+            event.bidderHoldPrice = activeOrder.action == OrderAction.BID ? activeOrder.reserveBidPrice : 0;
+
+            event.makersNum = 0;
+
+            event.nextEvent = cmd.matcherEvent;
+            cmd.matcherEvent = event;
+        }
+
+        event.activeOrderCompleted = fma;
+        event.addMakerFill(matchingOrderId, matchingOrderUid, v, matchingOrderReserveBidPrice, fm);
+
+        final L3MarketDataEvents l3Events = cmd.l3Events;
+        if (l3Events != null) {
+            l3Events.add(L3EventType.EXECUTE, activeOrder.action.opposite(), matchingOrderId, matchingOrderUid, price, v);
+        }
+    }
+
     public static void sendCancelEvent(OrderCommand cmd, Order order) {
 //        log.debug("Cancel ");
-        final MatcherTradeEvent event = newMatcherEvent();
+        final MatcherTradeEvent event = newMatcherEvent(cmd);
         event.eventType = MatcherEventType.CANCEL;
         event.activeOrderId = order.orderId;
         event.activeOrderUid = order.uid;
@@ -65,6 +135,7 @@ public final class OrderBookEventsHelper {
         event.activeOrderAction = order.action;
 //        event.activeOrderSeq = order.seq;
         event.matchedOrderId = 0;
+        event.matchedOrderUid = 0;
         event.matchedOrderCompleted = false;
         event.price = order.price;
         event.size = order.size - order.filled;
@@ -75,15 +146,81 @@ public final class OrderBookEventsHelper {
 
         event.nextEvent = cmd.matcherEvent;
         cmd.matcherEvent = event;
+
+        sendL3Event(cmd, L3EventType.DELETE, order.action, order.orderId, order.uid, order.price, order.size - order.filled);
     }
 
+    /**
+     * Send event for the order reduced in place (after reducing), risk engine releases reduced size only.
+     *
+     * @param cmd      - command
+     * @param order    - reduced order
+     * @param reduceBy - reduced size
+     */
+    public static void sendReduceEvent(OrderCommand cmd, Order order, long reduceBy) {
+        final MatcherTradeEvent event = newMatcherEvent(cmd);
+        event.eventType = MatcherEventType.REDUCE;
+        event.activeOrderId = order.orderId;
+        event.activeOrderUid = order.uid;
+        event.activeOrderCompleted = false;
+        event.activeOrderAction = order.action;
+        event.matchedOrderId = 0;
+        event.matchedOrderUid = 0;
+        event.matchedOrderCompleted = false;
+        event.price = order.price;
+        event.size = reduceBy;
+        event.timestamp = cmd.timestamp;
+        event.symbol = order.symbol;
+
+        event.bidderHoldPrice = order.reserveBidPrice; // set order reserved price for correct released EBids
+
+        event.nextEvent = cmd.matcherEvent;
+        cmd.matcherEvent = event;
+
+        sendL3Event(cmd, L3EventType.REDUCE, order.action, order.orderId, order.uid, order.price, order.size - order.filled);
+    }
+
+    /**
+     * Record order-by-order event, if command collects L3 market data.
+     * Trade, cancel and reduce events are recorded automatically (as EXECUTE, DELETE and REDUCE).
+     *
+     * @param cmd     - command
+     * @param type    - event type
+     * @param action  - order action
+     * @param orderId - order id
+     * @param uid     - order owner
+     * @param price   - order price (trade price for EXECUTE)
+     * @param size    - remaining order size (trade size for EXECUTE)
+     */
+    public static void sendL3Event(OrderCommand cmd, L3EventType type, OrderAction action, long orderId, long uid, long price, long size) {
+        final L3MarketDataEvents events = cmd.l3Events;
+        if (events != null) {
+            events.add(type, action, orderId, uid, price, size);
+        }
+    }
+
+
+    /**
+     * Record price level change, if command collects market data incremental update
+     *
+     * @param cmd    - command
+     * @param action - side
+     * @param price  - price level
+     * @param volume - new total volume of the level (0 if level was removed)
+     */
+    public static void attachL2Update(OrderCommand cmd, OrderAction action, long price, long volume) {
+        final L2MarketDataDelta delta = cmd.marketDataDelta;
+        if (delta != null) {
+            delta.add(action, price, volume);
+        }
+    }
 
     public static void attachRejectEvent(OrderCommand cmd, long rejectedSize) {
 
 //        log.debug("Rejected {}", cmd.orderId);
 //        log.debug("\n{}", getL2MarketDataSnapshot(10).dumpOrderBook());
 
-        final MatcherTradeEvent event = newMatcherEvent();
+        final MatcherTradeEvent event = newMatcherEvent(cmd);
 
         event.eventType = MatcherEventType.REJECTION;
 
@@ -94,6 +231,7 @@ public final class OrderBookEventsHelper {
 //        event.activeOrderSeq = cmd.seq;
 
         event.matchedOrderId = 0;
+        event.matchedOrderUid = 0;
         event.matchedOrderCompleted = false;
 
         event.price = cmd.price;
@@ -118,7 +256,8 @@ public final class OrderBookEventsHelper {
         MatcherTradeEvent lastEvent = null;
         for (int i = 0; i < dataArray.length; i += 7) {
 
-            final MatcherTradeEvent event = newMatcherEvent();
+            // binary events are rare, created by different threads and not pooled
+            final MatcherTradeEvent event = new MatcherTradeEvent();
 
             event.eventType = MatcherEventType.BINARY_EVENT;
 
@@ -198,8 +337,12 @@ public final class OrderBookEventsHelper {
     }
 
 
-    private static MatcherTradeEvent newMatcherEvent() {
-        return new MatcherTradeEvent();
+    /**
+     * Pooled events are reused, so every event producer must set all fields.
+     */
+    private static MatcherTradeEvent newMatcherEvent(final OrderCommand cmd) {
+        final MatcherEventsPool pool = cmd.eventsPool;
+        return pool != null ? pool.get() : new MatcherTradeEvent();
     }
 
 }
@@ -5,12 +5,15 @@ import lombok.extern.slf4j.Slf4j;
 import net.openhft.chronicle.bytes.BytesIn;
 import net.openhft.chronicle.bytes.BytesOut;
 import org.apache.commons.lang3.ArrayUtils;
+import org.eclipse.collections.api.block.procedure.primitive.LongObjectProcedure;
 import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
 import org.openpredict.exchange.beans.*;
 import org.openpredict.exchange.beans.cmd.CommandResultCode;
 import org.openpredict.exchange.beans.cmd.OrderCommand;
 import org.openpredict.exchange.beans.cmd.OrderCommandType;
 import org.openpredict.exchange.core.Utils;
+import org.openpredict.exchange.core.collections.LongObjectTreeMap;
+import org.openpredict.exchange.core.collections.LongRingWindowMap;
 
 import java.util.*;
 import java.util.function.Consumer;
@@ -26,12 +29,12 @@ public final class OrderBookFastImpl implements IOrderBook {
 
     private final SymbolType symbolType;
 
-    private final int hotPricesRange;
+    // can be changed by hotRangeTuner (windows are re-created)
+    private int hotPricesRange;
 
-    private BitSet hotAskBitSet;
-    private BitSet hotBidBitSet;
-    private final LongObjectHashMap<IOrdersBucket> hotAskBuckets;
-    private final LongObjectHashMap<IOrdersBucket> hotBidBuckets;
+    // ring-indexed windows, moving base price does not require shifting
+    private LongRingWindowMap<IOrdersBucket> hotAskBuckets;
+    private LongRingWindowMap<IOrdersBucket> hotBidBuckets;
     private long minAskPrice = Long.MAX_VALUE;
     private long maxBidPrice = 0;
 
@@ -41,43 +44,109 @@ public final class OrderBookFastImpl implements IOrderBook {
     private long rebalanceThresholdLow = -1;
     private long rebalanceThresholdHigh = -1;
 
-    // TODO garbage-free navigable map implementation
-    private final NavigableMap<Long, IOrdersBucket> farAskBuckets;
-    private final NavigableMap<Long, IOrdersBucket> farBidBuckets;
+    // garbage-free navigable maps, both sorted in ascending price order
+    private final LongObjectTreeMap<IOrdersBucket> farAskBuckets;
+    private final LongObjectTreeMap<IOrdersBucket> farBidBuckets;
 
-    // Hashtable for fast (cached) resolving OrderId -> Bucket
-    private final LongObjectHashMap<IOrdersBucket> idMapToBucket = new LongObjectHashMap<>();
+    // Hashtable for fast resolving OrderId -> Order (bucket is resolved by order action and price)
+    private final LongObjectHashMap<Order> idMap;
 
-    // Object pools
-    private final ArrayDeque<Order> ordersPool = new ArrayDeque<>(65536);
-    private final ArrayDeque<IOrdersBucket> bucketsPool = new ArrayDeque<>(65536);
+    // optional uid -> orders index (null if disabled)
+    private final UserOrdersIndex userOrdersIndex;
+
+    // optional hot range statistics and resize policy (null if hot range is fixed)
+    private final HotRangeTuner hotRangeTuner;
+
+    // incrementally maintained top levels for L2 market data
+    private final L2DepthCache askDepth = new L2DepthCache(true, L2MarketData.L2_SIZE, this::nextDepthLevelAsk);
+    private final L2DepthCache bidDepth = new L2DepthCache(false, L2MarketData.L2_SIZE, this::nextDepthLevelBid);
+
+    // expected number of resting orders (idMap initial capacity), 0 - default
+    private final int expectedOrders;
+
+    // Object pools (normally shared by all order books of the matching engine shard)
+    private final OrderBookObjectsPool objectsPool;
+
+    // sum of resting orders hashes, see IOrderBook.orderHash (not serialized)
+    private long rollingHash = 0L;
+
+    // last assigned queue sequence, see Order.queueSeq
+    private long lastQueueSeq = 0L;
+    private final LongObjectProcedure<IOrdersBucket> bucketsReleaser = this::releaseBucket;
+    // method reference is created once, not per matched bucket
+    private final Consumer<Order> removeFullyMatchedOrder = this::removeFullyMatchedOrder;
 
     public OrderBookFastImpl(final int hotPricesRange, final SymbolType symbolType) {
+        this(hotPricesRange, symbolType, false);
+    }
+
+    /**
+     * @param hotPricesRange   hot section width
+     * @param symbolType       symbol type
+     * @param indexUserOrders  maintain uid->orders index for fast findUserOrders
+     */
+    public OrderBookFastImpl(final int hotPricesRange, final SymbolType symbolType, final boolean indexUserOrders) {
+        this(hotPricesRange, symbolType, indexUserOrders, null);
+    }
+
+    /**
+     * @param hotPricesRange   initial hot section width
+     * @param symbolType       symbol type
+     * @param indexUserOrders  maintain uid->orders index for fast findUserOrders
+     * @param hotRangeTuner    hot section resize policy, or null for fixed width
+     */
+    public OrderBookFastImpl(final int hotPricesRange, final SymbolType symbolType, final boolean indexUserOrders, final HotRangeTuner hotRangeTuner) {
+        this(hotPricesRange, symbolType, indexUserOrders, hotRangeTuner, 0, new OrderBookObjectsPool());
+    }
+
+    /**
+     * @param hotPricesRange   initial hot section width
+     * @param symbolType       symbol type
+     * @param indexUserOrders  maintain uid->orders index for fast findUserOrders
+     * @param hotRangeTuner    hot section resize policy, or null for fixed width
+     * @param expectedOrders   expected number of resting orders (orderId index initial capacity), 0 - default
+     * @param objectsPool      orders and buckets pool
+     */
+    public OrderBookFastImpl(final int hotPricesRange,
+                             final SymbolType symbolType,
+                             final boolean indexUserOrders,
+                             final HotRangeTuner hotRangeTuner,
+                             final int expectedOrders,
+                             final OrderBookObjectsPool objectsPool) {
         // must be aligned by 64 bit, can not be lower than 1024
         if ((hotPricesRange & 63) != 0 || hotPricesRange < 1024) {
             throw new IllegalArgumentException("invalid hotPricesRange=" + hotPricesRange);
         }
+        if (expectedOrders < 0) {
+            throw new IllegalArgumentException("invalid expectedOrders=" + expectedOrders);
+        }
+        this.expectedOrders = expectedOrders;
+        this.idMap = expectedOrders != 0 ? new LongObjectHashMap<>(expectedOrders) : new LongObjectHashMap<>();
+        this.objectsPool = objectsPool;
         this.symbolType = symbolType;
         this.hotPricesRange = hotPricesRange;
-        this.hotAskBitSet = new BitSet(hotPricesRange);
-        this.hotBidBitSet = new BitSet(hotPricesRange);
-        this.hotAskBuckets = new LongObjectHashMap<>();
-        this.hotBidBuckets = new LongObjectHashMap<>();
-        this.farAskBuckets = new TreeMap<>();
-        this.farBidBuckets = new TreeMap<>(Collections.reverseOrder());
+        this.hotAskBuckets = new LongRingWindowMap<>(hotPricesRange, basePrice);
+        this.hotBidBuckets = new LongRingWindowMap<>(hotPricesRange, basePrice);
+        this.farAskBuckets = new LongObjectTreeMap<>();
+        this.farBidBuckets = new LongObjectTreeMap<>();
+        this.userOrdersIndex = indexUserOrders ? new UserOrdersIndex() : null;
+        this.hotRangeTuner = hotRangeTuner;
     }
 
     public OrderBookFastImpl(final BytesIn bytes) {
+        this(bytes, new OrderBookObjectsPool());
+    }
+
+    public OrderBookFastImpl(final BytesIn bytes, final OrderBookObjectsPool objectsPool) {
 
         this.symbolType = SymbolType.of(bytes.readByte());
 
         this.hotPricesRange = bytes.readInt();
-
-        this.hotAskBitSet = Utils.readBitSet(bytes);
-        this.hotBidBitSet = Utils.readBitSet(bytes);
-
-        this.hotAskBuckets = Utils.readLongHashMap(bytes, IOrdersBucket::create);
-        this.hotBidBuckets = Utils.readLongHashMap(bytes, IOrdersBucket::create);
+        this.userOrdersIndex = bytes.readBoolean() ? new UserOrdersIndex() : null;
+        this.hotRangeTuner = bytes.readBoolean() ? new HotRangeTuner(bytes) : null;
+        this.expectedOrders = bytes.readInt();
+        this.idMap = expectedOrders != 0 ? new LongObjectHashMap<>(expectedOrders) : new LongObjectHashMap<>();
+        this.objectsPool = objectsPool;
 
         this.minAskPrice = bytes.readLong();
         this.maxBidPrice = bytes.readLong();
@@ -85,16 +154,27 @@ public final class OrderBookFastImpl implements IOrderBook {
         this.basePrice = bytes.readLong();
         this.rebalanceThresholdLow = bytes.readLong();
         this.rebalanceThresholdHigh = bytes.readLong();
+        this.lastQueueSeq = bytes.readLong();
+
+        this.hotAskBuckets = Utils.readLongRingWindowMap(bytes, hotPricesRange, basePrice, IOrdersBucket::create);
+        this.hotBidBuckets = Utils.readLongRingWindowMap(bytes, hotPricesRange, basePrice, IOrdersBucket::create);
+
+        this.farAskBuckets = Utils.readLongTreeMap(bytes, IOrdersBucket::create);
+        this.farBidBuckets = Utils.readLongTreeMap(bytes, IOrdersBucket::create);
+
+        // reconstruct ordersId-> Order index
+        final Consumer<Order> indexer = order -> idMap.put(order.orderId, order);
+        hotAskBuckets.forEachValue(bucket -> bucket.forEachOrder(indexer));
+        hotBidBuckets.forEachValue(bucket -> bucket.forEachOrder(indexer));
+        farAskBuckets.forEachValue(bucket -> bucket.forEachOrder(indexer));
+        farBidBuckets.forEachValue(bucket -> bucket.forEachOrder(indexer));
+        if (userOrdersIndex != null) {
+            idMap.forEachValue(userOrdersIndex::add);
+        }
 
-        this.farAskBuckets = Utils.readLongMap(bytes, TreeMap::new, IOrdersBucket::create);
-        this.farBidBuckets = Utils.readLongMap(bytes, () -> new TreeMap<>(Collections.reverseOrder()), IOrdersBucket::create);
-
-        // reconstruct ordersId-> Bucket cache
-        // TODO check resulting performance
-        hotAskBuckets.forEach(bucket -> bucket.forEachOrder(order -> idMapToBucket.put(order.orderId, bucket)));
-        hotBidBuckets.forEach(bucket -> bucket.forEachOrder(order -> idMapToBucket.put(order.orderId, bucket)));
-        farAskBuckets.values().forEach(bucket -> bucket.forEachOrder(order -> idMapToBucket.put(order.orderId, bucket)));
-        farBidBuckets.values().forEach(bucket -> bucket.forEachOrder(order -> idMapToBucket.put(order.orderId, bucket)));
+        askDepth.rebuild();
+        bidDepth.rebuild();
+        rollingHash = calculateRollingHash();
 
         //validateInternalState();
     }
@@ -109,10 +189,6 @@ public final class OrderBookFastImpl implements IOrderBook {
         return (int) idx;
     }
 
-    private long indexToPrice(int idx) {
-        return idx + basePrice;
-    }
-
     @Override
     public CommandResultCode newOrder(OrderCommand cmd) {
 
@@ -120,7 +196,10 @@ public final class OrderBookFastImpl implements IOrderBook {
         final long size = cmd.size;
 
         // check if order is marketable there are matching orders
+        final MatcherTradeEvent eventsBefore = cmd.matcherEvent;
+        final int makersBefore = IOrderBook.levelMakersNum(eventsBefore);
         final long filledSize = tryMatchInstantly(cmd, 0, cmd);
+        rollingHash += IOrderBook.tradesHashDelta(cmd.matcherEvent, eventsBefore, makersBefore);
         if (filledSize == size) {
             // fully matched as marketable before actually place - can just return
             return CommandResultCode.SUCCESS;
@@ -132,7 +211,7 @@ public final class OrderBookFastImpl implements IOrderBook {
         }
 
         final long orderId = cmd.orderId;
-        if (idMapToBucket.containsKey(orderId)) {
+        if (idMap.containsKey(orderId)) {
             // duplicate order id - can match, but can not place
             OrderBookEventsHelper.attachRejectEvent(cmd, size - filledSize);
             return CommandResultCode.MATCHING_DUPLICATE_ORDER_ID;
@@ -141,15 +220,12 @@ public final class OrderBookFastImpl implements IOrderBook {
         final long price = cmd.price;
         if (basePrice == -1) {
             // first GTC limit order will define a base price (middle of the hotPricesRange range)
-            setBasePrice(calculateBasePrice(price));
+            moveBasePrice(calculateBasePrice(price));
         }
 
         // normally placing regular GTC order
 
-        Order orderRecord = ordersPool.pollLast();
-        if (orderRecord == null) {
-            orderRecord = new Order();
-        }
+        final Order orderRecord = objectsPool.getOrder();
 
         orderRecord.command = OrderCommandType.PLACE_ORDER;
         orderRecord.orderId = orderId;
@@ -162,14 +238,75 @@ public final class OrderBookFastImpl implements IOrderBook {
         orderRecord.uid = cmd.uid;
         orderRecord.timestamp = cmd.timestamp;
         orderRecord.filled = filledSize;
+        orderRecord.queueSeq = ++lastQueueSeq;
 
         final IOrdersBucket bucket = cmd.action == ASK ? getOrCreateNewBucketAck(price) : getOrCreateNewBucketBid(price);
         bucket.put(orderRecord);
-        idMapToBucket.put(orderId, bucket);
+        levelChanged(cmd, cmd.action, price, bucket.getTotalVolume());
+        OrderBookEventsHelper.sendL3Event(cmd, L3EventType.ADD, cmd.action, orderId, cmd.uid, price, size - filledSize);
+        idMap.put(orderId, orderRecord);
+        if (userOrdersIndex != null) {
+            userOrdersIndex.add(orderRecord);
+        }
+        rollingHash += IOrderBook.orderHash(orderId, cmd.uid, price, cmd.action, orderRecord.queueSeq, size - filledSize);
+
+        if (hotRangeTuner != null) {
+            samplePlacement(cmd.action, price);
+        }
 
         return CommandResultCode.SUCCESS;
     }
 
+    /**
+     * Record placed order price, re-size and re-center the hot window if tuner decided so.<br/>
+     * Called after order placement, when no matching or buckets iteration is in progress.
+     *
+     * @param action - placed order action
+     * @param price  - placed order price
+     */
+    private void samplePlacement(OrderAction action, long price) {
+        final int idx = priceToIndex(price);
+        final boolean far = action == ASK ? idx >= hotPricesRange : idx < 0;
+        final long midPrice = midPrice();
+        if (hotRangeTuner.onPlace(Math.abs(price - midPrice), far)) {
+            final int newRange = hotRangeTuner.evaluate(hotPricesRange);
+            if (newRange != hotPricesRange) {
+                log.debug("{} hot range {}->{} ({})", symbolType, hotPricesRange, newRange, hotRangeTuner);
+                resizeHotWindow(newRange, midPrice);
+            }
+        }
+    }
+
+    /**
+     * @return middle price between best ask and best bid (or just best price if other side is empty)
+     */
+    private long midPrice() {
+        if (minAskPrice == Long.MAX_VALUE) {
+            return maxBidPrice;
+        } else if (maxBidPrice == 0) {
+            return minAskPrice;
+        } else {
+            return (minAskPrice + maxBidPrice) >> 1;
+        }
+    }
+
+    /**
+     * Re-create hot windows with the new width, centered around the given price.<br/>
+     * All hot buckets are evicted into the FAR section, then buckets within the new window are loaded back.
+     *
+     * @param newRange    - new hot range (aligned by 64)
+     * @param centerPrice - center of the new hot window
+     */
+    private void resizeHotWindow(int newRange, long centerPrice) {
+        hotAskBuckets.forEach(farAskBuckets::put);
+        hotBidBuckets.forEach(farBidBuckets::put);
+        hotPricesRange = newRange;
+        final long newBasePrice = calculateBasePrice(centerPrice);
+        hotAskBuckets = new LongRingWindowMap<>(newRange, newBasePrice);
+        hotBidBuckets = new LongRingWindowMap<>(newRange, newBasePrice);
+        moveBasePrice(newBasePrice);
+    }
+
     /**
      * Calculate base price so the given price would be in the center of the hotPricesRange range.<br/>
      * Will also do the 'long' alignment for faster bitset shift operations.
@@ -198,7 +335,7 @@ public final class OrderBookFastImpl implements IOrderBook {
         // if price is too low - time to re-balance
         if (price <= rebalanceThresholdLow) {
             // decreasing base price
-            decreaseBasePrice(calculateBasePrice(price));
+            moveBasePrice(calculateBasePrice(price));
         }
 
         int idx = priceToIndex(price);
@@ -212,11 +349,7 @@ public final class OrderBookFastImpl implements IOrderBook {
             return ordersBucket;
         }
 
-        ordersBucket = bucketsPool.pollLast();
-        if (ordersBucket == null) {
-            ordersBucket = new OrdersBucketFastImpl();
-//            ordersBucket = new OrdersBucketNaiveImpl();
-        }
+        ordersBucket = objectsPool.getBucket();
 
         ordersBucket.setPrice(price);
         minAskPrice = Math.min(minAskPrice, price);
@@ -225,7 +358,6 @@ public final class OrderBookFastImpl implements IOrderBook {
             farAskBuckets.put(price, ordersBucket);
         } else {
             hotAskBuckets.put(price, ordersBucket);
-            hotAskBitSet.set(idx);
         }
 
         return ordersBucket;
@@ -235,7 +367,7 @@ public final class OrderBookFastImpl implements IOrderBook {
         //log.debug("getOrCreateNewBucketBid: p={} rebalanceThresholdHigh={}", price, rebalanceThresholdHigh);
         if (price >= rebalanceThresholdHigh) {
             // increasing base price
-            increaseBasePrice(calculateBasePrice(price));
+            moveBasePrice(calculateBasePrice(price));
         }
 
         int idx = priceToIndex(price);
@@ -248,11 +380,7 @@ public final class OrderBookFastImpl implements IOrderBook {
             return ordersBucket;
         }
 
-        ordersBucket = bucketsPool.pollLast();
-        if (ordersBucket == null) {
-            ordersBucket = new OrdersBucketFastImpl();
-//            ordersBucket = new OrdersBucketNaiveImpl();
-        }
+        ordersBucket = objectsPool.getBucket();
 
         ordersBucket.setPrice(price);
         maxBidPrice = Math.max(maxBidPrice, price);
@@ -261,7 +389,6 @@ public final class OrderBookFastImpl implements IOrderBook {
             farBidBuckets.put(price, ordersBucket);
         } else {
             hotBidBuckets.put(price, ordersBucket);
-            hotBidBitSet.set(idx);
         }
         return ordersBucket;
     }
@@ -270,6 +397,9 @@ public final class OrderBookFastImpl implements IOrderBook {
      * Match the activeOrder instantly to specified sorted buckets map
      * Fully matching orders are removed from orderId index
      * Should any trades occur - they sent to tradesConsumer
+     * <p>
+     * Opposite buckets are swept in a single pass: hot window first (bitset search continues from the last matched price),
+     * then far tree. Emptied buckets are removed in bulk after the sweep, and best price is updated only once.
      *
      * @param activeOrder - GTC or IOC activeOrder to match
      * @param filled      - current filled value of the activeOrder
@@ -281,51 +411,183 @@ public final class OrderBookFastImpl implements IOrderBook {
             long filled,
             final OrderCommand triggerCmd) {
 
-        long nextPrice;
         if (activeOrder.action == BID) {
-            if (minAskPrice > activeOrder.price) {
-                // no orders to match
-                return filled;
-            }
-            nextPrice = minAskPrice;
+            // no orders to match if best ask is above the limit
+            return minAskPrice > activeOrder.price ? filled : sweepAsks(activeOrder, filled, triggerCmd);
         } else {
-            if (maxBidPrice < activeOrder.price) {
-                // no orders to match
-                return filled;
-            }
-            nextPrice = maxBidPrice;
+            // no orders to match if best bid is below the limit
+            return maxBidPrice < activeOrder.price ? filled : sweepBids(activeOrder, filled, triggerCmd);
         }
+    }
 
-        while (filled < activeOrder.size) {
+    private long sweepAsks(final OrderCommand activeOrder, long filled, final OrderCommand triggerCmd) {
+
+        final long size = activeOrder.size;
+        final long limitPrice = activeOrder.price;
+        final long firstPrice = minAskPrice;
+        // emptied buckets are removed in bulk while they form unbroken sequence from the best price,
+        // any emptied bucket after a bucket with remaining own orders of the active order uid is removed individually
+        boolean emptiedPrefix = true;
+        long lastEmptiedPrice = -1;
+        int hotLevels = 0;
+
+        long price = firstPrice;
+        boolean hotSwept = priceToIndex(price) >= hotPricesRange;
+
+        // hot section - searching next set bit from the previous price
+        while (!hotSwept && filled < size) {
+            final long nextPrice = hotAskBuckets.ceilingKey(price, -1);
+            if (nextPrice == -1) {
+                hotSwept = true;
+            } else if (nextPrice > limitPrice) {
+                break;
+            } else {
+                price = nextPrice;
+                hotLevels++;
+                final IOrdersBucket bucket = hotAskBuckets.get(price);
+                filled += bucket.match(size - filled, activeOrder, triggerCmd, removeFullyMatchedOrder);
+                final long volumeLeft = bucket.getTotalVolume();
+                levelChanged(triggerCmd, ASK, price, volumeLeft);
+                if (volumeLeft != 0) {
+                    emptiedPrefix = false;
+                } else if (emptiedPrefix) {
+                    lastEmptiedPrice = price;
+                } else {
+                    removeAskBucket(price);
+                }
+                price++;
+            }
+        }
 
-            // search for next available bucket
-            final IOrdersBucket bucket = (activeOrder.action == BID) ? nextAvailableBucketAsk(nextPrice, activeOrder.price) : nextAvailableBucketBid(nextPrice, activeOrder.price);
-            if (bucket == null) {
+        // far section - only if nothing left in hot window
+        int farLevels = 0;
+        while (hotSwept && filled < size) {
+            final IOrdersBucket bucket = farAskBuckets.ceilingValue(price);
+            if (bucket == null || bucket.getPrice() > limitPrice) {
                 break;
             }
+            farLevels++;
+            price = bucket.getPrice();
+            filled += bucket.match(size - filled, activeOrder, triggerCmd, removeFullyMatchedOrder);
+            final long volumeLeft = bucket.getTotalVolume();
+            levelChanged(triggerCmd, ASK, price, volumeLeft);
+            if (volumeLeft != 0) {
+                emptiedPrefix = false;
+            } else if (emptiedPrefix) {
+                lastEmptiedPrice = price;
+            } else {
+                removeAskBucket(price);
+            }
+            price++;
+        }
+
+        if (lastEmptiedPrice != -1) {
+            // all buckets within [firstPrice, lastEmptiedPrice] are empty now
+            hotAskBuckets.removeRange(firstPrice, lastEmptiedPrice, bucketsReleaser);
+            if (farLevels != 0) {
+                farAskBuckets.removeRange(firstPrice, lastEmptiedPrice, bucketsReleaser);
+            }
+            if (priceToIndex(lastEmptiedPrice) >= hotPricesRange || updateMinAskPriceHot(lastEmptiedPrice)) {
+                updateMinAskPriceFar(lastEmptiedPrice);
+            }
+        }
 
-            final long tradePrice = bucket.getPrice();
-            // next iteration price
-            nextPrice = (activeOrder.action == BID) ? tradePrice + 1 : tradePrice - 1;
+        if (hotRangeTuner != null) {
+            hotRangeTuner.onSweep(hotLevels, farLevels);
+        }
+        return filled;
+    }
 
-            // matching orders within bucket
-            final long sizeLeft = activeOrder.size - filled;
-            // log.debug("bucket {} match size: {}", bucket.getPrice(), sizeLeft);
-            filled += bucket.match(sizeLeft, activeOrder, triggerCmd, this::removeFullyMatchedOrder);
+    private long sweepBids(final OrderCommand activeOrder, long filled, final OrderCommand triggerCmd) {
+
+        final long size = activeOrder.size;
+        final long limitPrice = activeOrder.price;
+        final long firstPrice = maxBidPrice;
+        // same as for asks - bulk removal only for unbroken sequence of emptied buckets
+        boolean emptiedPrefix = true;
+        long lastEmptiedPrice = -1;
+        int hotLevels = 0;
+
+        long price = firstPrice;
+        boolean hotSwept = priceToIndex(price) < 0;
+
+        // hot section - searching previous set bit from the previous price
+        while (!hotSwept && filled < size) {
+            final long nextPrice = hotBidBuckets.floorKey(price, -1);
+            if (nextPrice == -1) {
+                hotSwept = true;
+            } else if (nextPrice < limitPrice) {
+                break;
+            } else {
+                price = nextPrice;
+                hotLevels++;
+                final IOrdersBucket bucket = hotBidBuckets.get(price);
+                filled += bucket.match(size - filled, activeOrder, triggerCmd, removeFullyMatchedOrder);
+                final long volumeLeft = bucket.getTotalVolume();
+                levelChanged(triggerCmd, BID, price, volumeLeft);
+                if (volumeLeft != 0) {
+                    emptiedPrefix = false;
+                } else if (emptiedPrefix) {
+                    lastEmptiedPrice = price;
+                } else {
+                    removeBidBucket(price);
+                }
+                price--;
+            }
+        }
 
-            // remove bucket if its empty
-            if (bucket.getTotalVolume() == 0) {
-                removeBucket(activeOrder.action.opposite(), tradePrice);
+        // far section - only if nothing left in hot window
+        int farLevels = 0;
+        while (hotSwept && filled < size) {
+            final IOrdersBucket bucket = farBidBuckets.floorValue(price);
+            if (bucket == null || bucket.getPrice() < limitPrice) {
+                break;
+            }
+            farLevels++;
+            price = bucket.getPrice();
+            filled += bucket.match(size - filled, activeOrder, triggerCmd, removeFullyMatchedOrder);
+            final long volumeLeft = bucket.getTotalVolume();
+            levelChanged(triggerCmd, BID, price, volumeLeft);
+            if (volumeLeft != 0) {
+                emptiedPrefix = false;
+            } else if (emptiedPrefix) {
+                lastEmptiedPrice = price;
+            } else {
+                removeBidBucket(price);
             }
+            price--;
+        }
+
+        if (lastEmptiedPrice != -1) {
+            // all buckets within [lastEmptiedPrice, firstPrice] are empty now
+            hotBidBuckets.removeRange(lastEmptiedPrice, firstPrice, bucketsReleaser);
+            if (farLevels != 0) {
+                farBidBuckets.removeRange(lastEmptiedPrice, firstPrice, bucketsReleaser);
+            }
+            if (priceToIndex(lastEmptiedPrice) < 0 || updateMaxBidPriceHot(lastEmptiedPrice)) {
+                updateMaxBidPriceFar(lastEmptiedPrice);
+            }
+        }
+
+        if (hotRangeTuner != null) {
+            hotRangeTuner.onSweep(hotLevels, farLevels);
         }
         return filled;
     }
 
+    private void releaseBucket(long price, IOrdersBucket bucket) {
+        objectsPool.releaseBucket(bucket);
+    }
+
     private void removeFullyMatchedOrder(Order mOrder) {
         // forget if fully matched
-        idMapToBucket.remove(mOrder.orderId);
+        idMap.remove(mOrder.orderId);
+        rollingHash -= IOrderBook.orderBaseHash(mOrder.orderId, mOrder.uid, mOrder.price, mOrder.action, mOrder.queueSeq);
+        if (userOrdersIndex != null) {
+            userOrdersIndex.remove(mOrder);
+        }
         // saving free object back to pool
-        ordersPool.addLast(mOrder);
+        objectsPool.releaseOrder(mOrder);
     }
 
     /**
@@ -339,19 +601,17 @@ public final class OrderBookFastImpl implements IOrderBook {
         int idx = priceToIndex(currentPrice);
         // normally searching within hot buckets
         if (idx < hotPricesRange) {
-            int nextIdx = hotAskBitSet.nextSetBit(idx);
-            // log.debug("A next {} for currentPrice={} lastPrice={}", next, currentPrice, lastPrice);
-            if (nextIdx != -1) {
+            final IOrdersBucket bucket = hotAskBuckets.ceilingValue(currentPrice);
+            // log.debug("A next {} for currentPrice={} lastPrice={}", bucket, currentPrice, lastPrice);
+            if (bucket != null) {
                 // found a bucket, but if limit is reached - no need to check far orders, just return null
-                long nextPrice = nextIdx + basePrice;
-                return nextPrice <= lastPrice ? hotAskBuckets.get(nextPrice) : null;
+                return bucket.getPrice() <= lastPrice ? bucket : null;
             }
         }
 
-        // TODO independent searching can be slower comparing to processing a subtree (NLogN vs N) for superorders, though it's easier to remove buckets
         // nothing yet found and limit also not reached yet, therefore trying to search far buckets
-        Map.Entry<Long, IOrdersBucket> entry = farAskBuckets.ceilingEntry(currentPrice);
-        return (entry != null && entry.getKey() <= lastPrice) ? entry.getValue() : null;
+        final IOrdersBucket bucket = farAskBuckets.ceilingValue(currentPrice);
+        return (bucket != null && bucket.getPrice() <= lastPrice) ? bucket : null;
     }
 
     /**
@@ -365,20 +625,17 @@ public final class OrderBookFastImpl implements IOrderBook {
         int idx = priceToIndex(currentPrice);
         // normally searching within hot buckets
         if (idx >= 0) {
-            int nextIdx = hotBidBitSet.previousSetBit(idx);
-            // log.debug("B next {} for currentPrice={} lastPrice={}", next, currentPrice, lastPrice);
-            if (nextIdx >= 0) {
+            final IOrdersBucket bucket = hotBidBuckets.floorValue(currentPrice);
+            // log.debug("B next {} for currentPrice={} lastPrice={}", bucket, currentPrice, lastPrice);
+            if (bucket != null) {
                 // found a bucket, but if limit is reached - no need to check far orders, just return null
-                long nextPrice = nextIdx + basePrice;
-                return (nextPrice >= lastPrice) ? hotBidBuckets.get(nextPrice) : null;
+                return (bucket.getPrice() >= lastPrice) ? bucket : null;
             }
         }
 
-        // TODO independent searching can be slower comparing to processing a subtree (NLogN vs N) for superorders
         // nothing yet found and limit also not reached yet, therefore trying to search far buckets
-        // note: bid far buckets tree order is reversed, so searching ceiling key like for asks
-        Map.Entry<Long, IOrdersBucket> entry = farBidBuckets.ceilingEntry(currentPrice);
-        return (entry != null && entry.getKey() >= lastPrice) ? entry.getValue() : null;
+        final IOrdersBucket bucket = farBidBuckets.floorValue(currentPrice);
+        return (bucket != null && bucket.getPrice() >= lastPrice) ? bucket : null;
     }
 
 
@@ -392,49 +649,85 @@ public final class OrderBookFastImpl implements IOrderBook {
     @Override
     public boolean cancelOrder(OrderCommand cmd) {
 
-        // can not remove because uid is not verified yet
-        IOrdersBucket ordersBucket = idMapToBucket.get(cmd.orderId);
-        if (ordersBucket == null) {
-            // order already matched and removed from order book previously
+        final Order removedOrder = idMap.get(cmd.orderId);
+        if (removedOrder == null || removedOrder.uid != cmd.uid) {
+            // order already matched and removed from order book previously, or uid is different
             return false;
         }
 
-        // remove order and whole bucket if bucket is empty
-        Order removedOrder = ordersBucket.remove(cmd.orderId, cmd.uid);
-        if (removedOrder == null) {
-            // uid is different
-            return false;
+        // remove from maps
+        idMap.remove(cmd.orderId);
+        if (userOrdersIndex != null) {
+            userOrdersIndex.remove(removedOrder);
         }
+        rollingHash -= IOrderBook.orderHash(removedOrder.orderId, removedOrder.uid, removedOrder.price, removedOrder.action, removedOrder.queueSeq,
+                removedOrder.size - removedOrder.filled);
 
-        // remove from map
-        idMapToBucket.remove(cmd.orderId);
+        // unlink order from its bucket
+        final IOrdersBucket ordersBucket = getBucket(removedOrder.action, removedOrder.price);
+        ordersBucket.removeOrder(removedOrder);
 
         // remove bucket if cancelled order was the last one in the bucket
-        if (ordersBucket.getTotalVolume() == 0) {
-            removeBucket(removedOrder.action, ordersBucket.getPrice());
+        final long volumeLeft = ordersBucket.getTotalVolume();
+        if (volumeLeft == 0) {
+            removeBucket(removedOrder.action, removedOrder.price);
         }
+        levelChanged(cmd, removedOrder.action, removedOrder.price, volumeLeft);
 
         // send cancel event
         OrderBookEventsHelper.sendCancelEvent(cmd, removedOrder);
 
         // saving free object back to the pool
-        ordersPool.addLast(removedOrder);
+        objectsPool.releaseOrder(removedOrder);
 
         return true;
     }
 
+    /**
+     * Reduce order size in place - 1 hash table lookup and 1 bucket lookup, order is not unlinked from the bucket queue
+     */
+    @Override
+    public CommandResultCode reduceOrder(OrderCommand cmd) {
+        final long orderId = cmd.orderId;
+        final long reduceBy = cmd.size;
+
+        final Order order = idMap.get(orderId);
+        if (order == null || order.uid != cmd.uid) {
+            return CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
+        }
+        if (reduceBy <= 0) {
+            return CommandResultCode.MATCHING_REDUCE_FAILED_WRONG_SIZE;
+        }
+
+        final long remainingSize = order.size - order.filled;
+        if (reduceBy >= remainingSize) {
+            cancelOrder(cmd);
+            return CommandResultCode.SUCCESS;
+        }
+
+        final IOrdersBucket ordersBucket = getBucket(order.action, order.price);
+        rollingHash -= IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, remainingSize);
+        ordersBucket.reduceOrder(order, reduceBy);
+        rollingHash += IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, remainingSize - reduceBy);
+
+        levelChanged(cmd, order.action, order.price, ordersBucket.getTotalVolume());
+        OrderBookEventsHelper.sendReduceEvent(cmd, order, reduceBy);
+
+        return CommandResultCode.SUCCESS;
+    }
+
 
     /**
      * Move an order to different price
      * <p>
-     * Normally requires 4 hash table lookup operations.
-     * 1. Find bucket by orderId
+     * Normally requires 1 hash table lookup and 2 bucket lookup operations.
+     * 1. Find order by orderId
      * (optional reduce, validate price)
-     * 2. Find in remove order in the bucket (remove from internal queue and hash table)
+     * 2. Find bucket by order price and unlink order from the bucket queue
      * (optional remove bucket)
      * (set new price and try match instantly)
      * 3. Find bucket for new price
-     * 4. Insert order in the bucket (internal hash table and queue)
+     * 4. Link order into the bucket queue
      * <p>
      * orderId  - order id
      * newPrice - new price
@@ -446,55 +739,125 @@ public final class OrderBookFastImpl implements IOrderBook {
 
         final long orderId = cmd.orderId;
 
-        final IOrdersBucket bucket = idMapToBucket.get(orderId);
-        if (bucket == null) {
+        final Order order = idMap.get(orderId);
+        if (order == null || order.uid != cmd.uid) {
             return CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
         }
 
         // take order out of the original bucket
-        final Order order = bucket.remove(orderId, cmd.uid);
-        if (order == null) {
-            // uid is checked in the bucket.remove method
-            return CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
-        }
+        final IOrdersBucket bucket = getBucket(order.action, order.price);
+        bucket.removeOrder(order);
 
 //        log.debug("{} {} {}>{}", symbolType, order.action, cmd.price, order.price2);
 
         // optimistic risk check mode for exchange bids
         if (symbolType == SymbolType.CURRENCY_EXCHANGE_PAIR && order.action == BID && cmd.price > order.reserveBidPrice) {
             // put order back (yes it will be in the end of queue)
+            rollingHash -= IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, order.size - order.filled);
+            order.queueSeq = ++lastQueueSeq;
             bucket.put(order);
+            rollingHash += IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, order.size - order.filled);
+            OrderBookEventsHelper.sendL3Event(cmd, L3EventType.MODIFY, order.action, orderId, order.uid, order.price, order.size - order.filled);
             return CommandResultCode.MATCHING_MOVE_FAILED_PRICE_ABOVE_RISK_LIMIT;
         }
 
         // remove bucket if moved order was the last one in the bucket
-        if (bucket.getTotalVolume() == 0) {
-            removeBucket(order.action, bucket.getPrice());
+        final long volumeLeft = bucket.getTotalVolume();
+        if (volumeLeft == 0) {
+            removeBucket(order.action, order.price);
         }
+        levelChanged(cmd, order.action, order.price, volumeLeft);
+        rollingHash -= IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, order.size - order.filled);
 
         final long newPrice = cmd.price;
         order.price = newPrice;
 
         // try match with new price
+        final MatcherTradeEvent eventsBefore = cmd.matcherEvent;
+        final int makersBefore = IOrderBook.levelMakersNum(eventsBefore);
         long filled = tryMatchInstantly(order, order.filled, cmd);
+        rollingHash += IOrderBook.tradesHashDelta(cmd.matcherEvent, eventsBefore, makersBefore);
         if (filled == order.size) {
             // order was fully matched (100% marketable) - removing from order book
-            idMapToBucket.remove(orderId);
+            idMap.remove(orderId);
+            OrderBookEventsHelper.sendL3Event(cmd, L3EventType.DELETE, order.action, orderId, order.uid, newPrice, 0);
+            if (userOrdersIndex != null) {
+                userOrdersIndex.remove(order);
+            }
             // saving free object back to pool
-            ordersPool.addLast(order);
+            objectsPool.releaseOrder(order);
         } else {
             order.filled = filled;
 
             // if not filled completely - put it into corresponding bucket
             final IOrdersBucket otherBucket = (order.action == ASK) ? getOrCreateNewBucketAck(newPrice) : getOrCreateNewBucketBid(newPrice);
+            order.queueSeq = ++lastQueueSeq;
             otherBucket.put(order);
-            // override cache record
-            idMapToBucket.put(orderId, otherBucket);
+            levelChanged(cmd, order.action, newPrice, otherBucket.getTotalVolume());
+            rollingHash += IOrderBook.orderHash(orderId, order.uid, newPrice, order.action, order.queueSeq, order.size - filled);
+            OrderBookEventsHelper.sendL3Event(cmd, L3EventType.MODIFY, order.action, orderId, order.uid, newPrice, order.size - filled);
         }
         return CommandResultCode.SUCCESS;
     }
 
 
+    /**
+     * Should be called after each change of the bucket volume (including bucket removal)
+     *
+     * @param cmd    - command causing the change
+     * @param action - side
+     * @param price  - bucket price
+     * @param volume - new bucket volume (0 if bucket was removed)
+     */
+    private void levelChanged(OrderCommand cmd, OrderAction action, long price, long volume) {
+        (action == ASK ? askDepth : bidDepth).update(price, volume);
+        OrderBookEventsHelper.attachL2Update(cmd, action, price, volume);
+    }
+
+    /**
+     * Depth cache levels source, search never starts above the best price.
+     * Skips buckets emptied by the sweep in progress (they are removed after the sweep).
+     */
+    private IOrdersBucket nextDepthLevelAsk(long price) {
+        IOrdersBucket bucket;
+        do {
+            if (price == Long.MAX_VALUE) {
+                return null;
+            }
+            bucket = nextAvailableBucketAsk(Math.max(price + 1, minAskPrice), Long.MAX_VALUE);
+            price = bucket != null ? bucket.getPrice() : Long.MAX_VALUE;
+        } while (bucket != null && bucket.getTotalVolume() == 0);
+        return bucket;
+    }
+
+    private IOrdersBucket nextDepthLevelBid(long price) {
+        IOrdersBucket bucket;
+        do {
+            if (price == Long.MIN_VALUE) {
+                return null;
+            }
+            bucket = nextAvailableBucketBid(Math.min(price - 1, maxBidPrice), Long.MIN_VALUE);
+            price = bucket != null ? bucket.getPrice() : Long.MIN_VALUE;
+        } while (bucket != null && bucket.getTotalVolume() == 0);
+        return bucket;
+    }
+
+    /**
+     * Get existing bucket for specific action and price
+     *
+     * @param action
+     * @param price
+     * @return bucket or null if not found
+     */
+    private IOrdersBucket getBucket(OrderAction action, long price) {
+        final int idx = priceToIndex(price);
+        if (action == ASK) {
+            return idx < hotPricesRange ? hotAskBuckets.get(price) : farAskBuckets.get(price);
+        } else {
+            return idx >= 0 ? hotBidBuckets.get(price) : farBidBuckets.get(price);
+        }
+    }
+
     /**
      * Remove bucket for specific action and price
      *
@@ -514,11 +877,10 @@ public final class OrderBookFastImpl implements IOrderBook {
 
         if (idx < hotPricesRange) {
             // in hot area
-            hotAskBitSet.clear(idx);
-            bucketsPool.addLast(hotAskBuckets.remove(price));
+            objectsPool.releaseBucket(hotAskBuckets.remove(price));
         } else {
             // in far area
-            bucketsPool.addLast(farAskBuckets.remove(price));
+            objectsPool.releaseBucket(farAskBuckets.remove(price));
         }
 
         if (minAskPrice != price) {
@@ -526,26 +888,25 @@ public final class OrderBookFastImpl implements IOrderBook {
             return;
         }
 
-        if (idx >= hotPricesRange || updateMinAskPriceHot(idx)) {
+        if (idx >= hotPricesRange || updateMinAskPriceHot(price)) {
             updateMinAskPriceFar(price);
         }
     }
 
-    private boolean updateMinAskPriceHot(int idx) {
-        int nextIdx = hotAskBitSet.nextSetBit(idx);
-        if (nextIdx == -1) {
+    private boolean updateMinAskPriceHot(long price) {
+        final long nextPrice = hotAskBuckets.ceilingKey(price, -1);
+        if (nextPrice == -1) {
             // not found, have to also check far area
             return true;
         }
 
-        // found new minAskPrice in hot bitset
-        minAskPrice = nextIdx + basePrice;
+        // found new minAskPrice in hot section
+        minAskPrice = nextPrice;
         return false;
     }
 
     private void updateMinAskPriceFar(long price) {
-        Long p = farAskBuckets.higherKey(price);
-        minAskPrice = (p != null) ? p : Long.MAX_VALUE;
+        minAskPrice = farAskBuckets.higherKey(price, Long.MAX_VALUE);
     }
 
     private void removeBidBucket(long price) {
@@ -553,11 +914,10 @@ public final class OrderBookFastImpl implements IOrderBook {
 
         if (idx >= 0) {
             // in hot area
-            hotBidBitSet.clear(idx);
-            bucketsPool.addLast(hotBidBuckets.remove(price));
+            objectsPool.releaseBucket(hotBidBuckets.remove(price));
         } else {
             // in far area
-            bucketsPool.addLast(farBidBuckets.remove(price));
+            objectsPool.releaseBucket(farBidBuckets.remove(price));
         }
 
         if (maxBidPrice != price) {
@@ -567,145 +927,65 @@ public final class OrderBookFastImpl implements IOrderBook {
 
         // need to update maxBidPrice
         // if makes sense - first check hot area
-        if (idx < 0 || updateMaxBidPriceHot(idx)) {
+        if (idx < 0 || updateMaxBidPriceHot(price)) {
             updateMaxBidPriceFar(price);
         }
 
     }
 
-    private boolean updateMaxBidPriceHot(int idx) {
-        int nextIdx = hotBidBitSet.previousSetBit(idx);
-        if (nextIdx == -1) {
+    private boolean updateMaxBidPriceHot(long price) {
+        final long nextPrice = hotBidBuckets.floorKey(price, -1);
+        if (nextPrice == -1) {
             // not found, have to also check far area
             return true;
         }
 
-        // found new maxBidPrice in hot bitset
-        maxBidPrice = nextIdx + basePrice;
+        // found new maxBidPrice in hot section
+        maxBidPrice = nextPrice;
         return false;
     }
 
     private void updateMaxBidPriceFar(long price) {
-        Long p = farBidBuckets.higherKey(price); // higherKey() instead of lowerKey() - because of opposite sort order
-        maxBidPrice = (p != null) ? p : 0;
+        maxBidPrice = farBidBuckets.lowerKey(price, 0);
     }
 
     /**
-     * Re-balances HOT/FAR parts (bitsets and hashtables)
+     * Re-balances HOT/FAR parts
      * Triggered when BBO price moved significantly from the center price
      * <p>
-     * price going up: asks FAR -> HOT, bids HOT -> FAR
+     * Hot windows are ring-indexed, so only buckets leaving the window are evicted into the FAR section,
+     * and only buckets entering the window are loaded from the FAR section.
      *
      * @param newBasePrice new base price
      */
-    private void decreaseBasePrice(long newBasePrice) {
-        int shift = (int) (basePrice - newBasePrice);
-        //log.debug("decrease base price {}->{}", basePrice, newBasePrice);
-        if (maxBidPrice != 0) {
-            // shift hot bids bitset (base price lower -> index is higher for the same price)
-            hotBidBitSet = shiftBitSetUp(hotBidBitSet, shift);
-
-            // BID buckets from the FAR section need to be moved to the HOT section where price >= newBasePrice
-            NavigableMap<Long, IOrdersBucket> toHotBuckets = farBidBuckets.headMap(newBasePrice, true);
-
-            //log.debug("toHotBuckets={}", toHotBuckets);
-            moveBucketsToHot(toHotBuckets, hotBidBuckets, hotBidBitSet, newBasePrice);
-        }
-
-        if (minAskPrice != Long.MAX_VALUE) {
-            // evicting ASK buckets from the HOT section into the FAR section where price >= newBasePrice + hotPricesRange
-            int next = Math.max(hotPricesRange - shift, 0);
-            while ((next = hotAskBitSet.nextSetBit(next)) != -1) {
-                IOrdersBucket bucket = hotAskBuckets.remove(indexToPrice(next));
-                farAskBuckets.put(bucket.getPrice(), bucket);
-                next++;
-            }
-
-            // shift up and clear asks BitSet
-            hotAskBitSet = shiftBitSetUp(hotAskBitSet, shift);
+    private void moveBasePrice(long newBasePrice) {
+        //log.debug("move base price {}->{}", basePrice, newBasePrice);
+        if (hotRangeTuner != null) {
+            hotRangeTuner.onRebalance();
         }
-
+        moveBucketsToHot(hotAskBuckets, farAskBuckets, newBasePrice);
+        moveBucketsToHot(hotBidBuckets, farBidBuckets, newBasePrice);
         setBasePrice(newBasePrice);
     }
 
     /**
-     * Re-balances HOT/FAR parts (bitsets and hashtables)
-     * Triggered when BBO price moved significantly from the center price
-     * <p>
-     * price going down: asks HOT -> FAR, bids FAR -> HOT
+     * Moves hot window to the new base price, evicting leaving buckets into FAR tree
+     * and loading buckets entering the window from FAR tree
      *
+     * @param hot          hot buckets window
+     * @param far          far buckets tree
      * @param newBasePrice new base price
      */
-    private void increaseBasePrice(long newBasePrice) {
-        int shift = (int) (newBasePrice - basePrice);
-//        log.debug("increase base price {}->{}", basePrice, newBasePrice);
-        if (minAskPrice != Long.MAX_VALUE) {
-            // shift hot asks bitset
-            hotAskBitSet = shiftBitSetDown(hotAskBitSet, shift);
-
-            // moving ASK buckets from the FAR section to the HOT section where price < newBasePrice + hotPricesRange
-            NavigableMap<Long, IOrdersBucket> toHotBuckets = farAskBuckets.headMap(newBasePrice + hotPricesRange, false);
-            moveBucketsToHot(toHotBuckets, hotAskBuckets, hotAskBitSet, newBasePrice);
-        }
-
-        if (maxBidPrice != 0) {
-            // evicting BID buckets from the HOT section into the FAR section where price < newBasePrice
-            int next = priceToIndex(newBasePrice - 1); // newBasePrice is left in the hot (will have index 0), therefore -1
-            while ((next = hotBidBitSet.previousSetBit(next)) != -1) {
-                IOrdersBucket bucket = hotBidBuckets.remove(indexToPrice(next));
-//                log.debug("Evicting bucket to FAR: {}", bucket.getPrice());
-                farBidBuckets.put(bucket.getPrice(), bucket);
-                next--;
-            }
-
-            // shift down and clear bids BitSet
-            hotBidBitSet = shiftBitSetDown(hotBidBitSet, shift);
-        }
-
-        setBasePrice(newBasePrice);
-    }
-
-    // TODO slow - implement rolling bitset (extending BitSet)
-    private BitSet shiftBitSetDown(BitSet bitSet, int shift) {
-        int shiftLongs = shift >> 6;
-        long[] src = bitSet.toLongArray();
-        long[] dst = new long[hotPricesRange >> 6];
-        int lengthCopy = src.length - shiftLongs;
-        if (lengthCopy > 0) {
-            System.arraycopy(src, shiftLongs, dst, 0, lengthCopy);
-        }
-        return BitSet.valueOf(dst);
-    }
-
-    private BitSet shiftBitSetUp(BitSet bitSet, int shift) {
-        int shiftLongs = shift >> 6;
-        long[] src = bitSet.toLongArray();
-        long[] dst = new long[hotPricesRange >> 6];
-        int lengthCopy = Math.min(src.length, dst.length - shiftLongs);
-        if (lengthCopy > 0) {
-            System.arraycopy(src, 0, dst, shiftLongs, lengthCopy);
-        }
-        return BitSet.valueOf(dst);
-    }
-
-    /**
-     * Moves buckets from FAR subtree into HOT hashmap and update bitset according the new base price
-     *
-     * @param fromFar
-     * @param toHot
-     * @param newBitSet
-     * @param newBasePrice
-     */
-    private void moveBucketsToHot(SortedMap<Long, IOrdersBucket> fromFar, LongObjectHashMap<IOrdersBucket> toHot, BitSet newBitSet, long newBasePrice) {
-        Iterator<IOrdersBucket> iterator = fromFar.values().iterator();
-        while (iterator.hasNext()) {
-            IOrdersBucket next = iterator.next();
-            iterator.remove();
-            long price = next.getPrice();
-            toHot.put(price, next);
-            int idx = (int) (price - newBasePrice);
-            //log.debug("move to hot:{}  idx-set:{}", price, idx);
-            newBitSet.set(idx);
+    private void moveBucketsToHot(LongRingWindowMap<IOrdersBucket> hot, LongObjectTreeMap<IOrdersBucket> far, long newBasePrice) {
+        hot.moveBase(newBasePrice, far::put);
+
+        final long toPrice = newBasePrice + hotPricesRange;
+        IOrdersBucket bucket;
+        while ((bucket = far.ceilingValue(newBasePrice)) != null && bucket.getPrice() < toPrice) {
+            final long price = bucket.getPrice();
+            //log.debug("move to hot:{}", price);
+            far.remove(price);
+            hot.put(price, bucket);
         }
     }
 
@@ -718,8 +998,7 @@ public final class OrderBookFastImpl implements IOrderBook {
      */
     @Override
     public Order getOrderById(long orderId) {
-        IOrdersBucket bucket = idMapToBucket.get(orderId);
-        return (bucket != null) ? bucket.findOrder(orderId) : null;
+        return idMap.get(orderId);
     }
 
     @Override
@@ -732,8 +1011,39 @@ public final class OrderBookFastImpl implements IOrderBook {
         return Arrays.asList(getBidsAsArray());
     }
 
+    /**
+     * Copies levels from incrementally maintained depth cache,
+     * only deeper requests require scanning the buckets.
+     */
     @Override
     public void fillAsks(final int size, L2MarketData data) {
+        if (size <= askDepth.getDepth()) {
+            data.askSize = askDepth.copyTo(size, data.askPrices, data.askVolumes);
+        } else {
+            fillAsksFromBuckets(size, data);
+        }
+    }
+
+    /**
+     * Copies levels from incrementally maintained depth cache,
+     * only deeper requests require scanning the buckets.
+     */
+    @Override
+    public void fillBids(final int size, L2MarketData data) {
+        if (size <= bidDepth.getDepth()) {
+            data.bidSize = bidDepth.copyTo(size, data.bidPrices, data.bidVolumes);
+        } else {
+            fillBidsFromBuckets(size, data);
+        }
+    }
+
+    /**
+     * Rebuild asks part of L2 market data by scanning the buckets (hot window, then far tree)
+     *
+     * @param size - max number of levels
+     * @param data - target
+     */
+    public void fillAsksFromBuckets(final int size, L2MarketData data) {
         if (minAskPrice == Long.MAX_VALUE || size == 0) {
             data.askSize = 0;
             return;
@@ -742,21 +1052,18 @@ public final class OrderBookFastImpl implements IOrderBook {
         int i = 0;
         // scan hot section only if there are buckets in it
         if (minAskPrice < basePrice + hotPricesRange) {
-            int next = priceToIndex(minAskPrice);
-            while ((next = hotAskBitSet.nextSetBit(next)) != -1) {
-                IOrdersBucket bucket = hotAskBuckets.get(indexToPrice(next));
+            for (IOrdersBucket bucket = hotAskBuckets.ceilingValue(minAskPrice); bucket != null; bucket = hotAskBuckets.higherValue(bucket.getPrice())) {
                 data.askPrices[i] = bucket.getPrice();
                 data.askVolumes[i] = bucket.getTotalVolume();
                 if (++i == size) {
                     data.askSize = size;
                     return;
                 }
-                next++;
             }
         }
 
         // extracting buckets from far trees
-        for (IOrdersBucket bucket : farAskBuckets.values()) {
+        for (IOrdersBucket bucket = farAskBuckets.firstValue(); bucket != null; bucket = farAskBuckets.higherValue(bucket.getPrice())) {
             data.askPrices[i] = bucket.getPrice();
             data.askVolumes[i] = bucket.getTotalVolume();
             if (++i == size) {
@@ -769,8 +1076,13 @@ public final class OrderBookFastImpl implements IOrderBook {
         data.askSize = i;
     }
 
-    @Override
-    public void fillBids(final int size, L2MarketData data) {
+    /**
+     * Rebuild bids part of L2 market data by scanning the buckets (hot window, then far tree)
+     *
+     * @param size - max number of levels
+     * @param data - target
+     */
+    public void fillBidsFromBuckets(final int size, L2MarketData data) {
 
         if (maxBidPrice == 0 || size == 0) {
             data.bidSize = 0;
@@ -781,22 +1093,18 @@ public final class OrderBookFastImpl implements IOrderBook {
 
         // scan hot section only if there are buckets in it
         if (maxBidPrice >= basePrice) {
-            int next = priceToIndex(maxBidPrice);
-            while ((next = hotBidBitSet.previousSetBit(next)) != -1) {
-                IOrdersBucket bucket = hotBidBuckets.get(indexToPrice(next));
+            for (IOrdersBucket bucket = hotBidBuckets.floorValue(maxBidPrice); bucket != null; bucket = hotBidBuckets.lowerValue(bucket.getPrice())) {
                 data.bidPrices[i] = bucket.getPrice();
                 data.bidVolumes[i] = bucket.getTotalVolume();
                 if (++i == size) {
                     data.bidSize = size;
                     return;
                 }
-                next--;
             }
         }
 
-        // extracting buckets from far trees
-        // note: farBidBuckets is in reversed order
-        for (IOrdersBucket bucket : farBidBuckets.values()) {
+        // extracting buckets from far trees (bids in descending order)
+        for (IOrdersBucket bucket = farBidBuckets.lastValue(); bucket != null; bucket = farBidBuckets.lowerValue(bucket.getPrice())) {
             data.bidPrices[i] = bucket.getPrice();
             data.bidVolumes[i] = bucket.getTotalVolume();
             if (++i == size) {
@@ -833,8 +1141,8 @@ public final class OrderBookFastImpl implements IOrderBook {
     public void validateInternalState() {
 
         // check price in the bucket is the same as map key
-        hotAskBuckets.forEachKeyValue(this::checkBucketPriceIsTheSame);
-        hotBidBuckets.forEachKeyValue(this::checkBucketPriceIsTheSame);
+        hotAskBuckets.forEach(this::checkBucketPriceIsTheSame);
+        hotBidBuckets.forEach(this::checkBucketPriceIsTheSame);
         farAskBuckets.forEach(this::checkBucketPriceIsTheSame);
         farBidBuckets.forEach(this::checkBucketPriceIsTheSame);
 
@@ -847,47 +1155,44 @@ public final class OrderBookFastImpl implements IOrderBook {
         Set<Long> ordersIdsAF = dumpAllOrdersIds(farAskBuckets.values());
         checkNoSameOrdersInHotAndFar(ordersIdsAH, ordersIdsAF);
 
-        // check that hot bit sets are matching to corresponding hot bucket keys
-        if (!Arrays.equals(hotAskBitSet.stream().mapToLong(x -> x + basePrice).toArray(), hotAskBuckets.keySet().toSortedArray())) {
-            throw new IllegalStateException("ASK HOT buckets bit set differs from map!");
+        // check that hot windows bit sets are matching to corresponding slots
+        hotAskBuckets.validate();
+        hotBidBuckets.validate();
+        if (hotAskBuckets.getBase() != basePrice || hotBidBuckets.getBase() != basePrice) {
+            throw new IllegalStateException("HOT window base price differs from basePrice!");
         }
-        if (!Arrays.equals(hotBidBitSet.stream().mapToLong(x -> x + basePrice).toArray(), hotBidBuckets.keySet().toSortedArray())) {
-            throw new IllegalStateException("BID HOT buckets bit set differs from map!");
+
+        if (rollingHash != calculateRollingHash()) {
+            throw new IllegalStateException("rolling hash differs from orders");
         }
 
         // check buckets within ranges
         if (!hotAskBuckets.isEmpty()) {
-            if (hotAskBuckets.keySet().max() >= basePrice + hotPricesRange) {
-                throw new IllegalStateException("Hot ask bucket price exceeds the hotPricesRange range!");
-            }
-            if (hotAskBuckets.keySet().min() != minAskPrice) {
+            if (hotAskBuckets.firstKey(-1) != minAskPrice) {
                 throw new IllegalStateException("incorrect minAskPrice! (expected inside hot area)");
             }
         }
 
         if (!hotBidBuckets.isEmpty()) {
-            if (hotBidBuckets.keySet().min() < basePrice) {
-                throw new IllegalStateException("Hot bid bucket price is below the basePrice range!");
-            }
-            if (hotBidBuckets.keySet().max() != maxBidPrice) {
+            if (hotBidBuckets.lastKey(-1) != maxBidPrice) {
                 throw new IllegalStateException("incorrect maxBidPrice! (expected inside hot area)");
             }
         }
 
         if (!farAskBuckets.isEmpty()) {
-            if (farAskBuckets.firstKey() < basePrice + hotPricesRange) {
+            if (farAskBuckets.firstKey(Long.MAX_VALUE) < basePrice + hotPricesRange) {
                 throw new IllegalStateException("Far ask bucket price is inside hot area!");
             }
-            if (hotAskBuckets.isEmpty() && farAskBuckets.firstKey() != minAskPrice) {
+            if (hotAskBuckets.isEmpty() && farAskBuckets.firstKey(Long.MAX_VALUE) != minAskPrice) {
                 throw new IllegalStateException("incorrect minAskPrice (expected inside far area)!");
             }
         }
 
         if (!farBidBuckets.isEmpty()) {
-            if (farBidBuckets.firstKey() >= basePrice) {
+            if (farBidBuckets.lastKey(0) >= basePrice) {
                 throw new IllegalStateException("Far bid bucket price is inside hot area!");
             }
-            if (hotBidBuckets.isEmpty() && farBidBuckets.firstKey() != maxBidPrice) {
+            if (hotBidBuckets.isEmpty() && farBidBuckets.lastKey(0) != maxBidPrice) {
                 throw new IllegalStateException("incorrect maxBidPrice (expected inside far area)!");
             }
         }
@@ -900,41 +1205,90 @@ public final class OrderBookFastImpl implements IOrderBook {
         }
 
         // check known orders number is the same as total orders in all buckets TODO compare explicitly
-        int ah = hotAskBuckets.stream().mapToInt(IOrdersBucket::getNumOrders).sum();
-        int bh = hotBidBuckets.stream().mapToInt(IOrdersBucket::getNumOrders).sum();
+        int ah = hotAskBuckets.values().stream().mapToInt(IOrdersBucket::getNumOrders).sum();
+        int bh = hotBidBuckets.values().stream().mapToInt(IOrdersBucket::getNumOrders).sum();
         int af = farAskBuckets.values().stream().mapToInt(IOrdersBucket::getNumOrders).sum();
         int bf = farBidBuckets.values().stream().mapToInt(IOrdersBucket::getNumOrders).sum();
-        if (idMapToBucket.size() != af + ah + bf + bh) {
+        if (idMap.size() != af + ah + bf + bh) {
 //            log.debug("bh {}: {}", bh, dumpAllOrders(hotBidBuckets.values()));
 //            log.debug("bf {}: {}", bf, dumpAllOrders(farBidBuckets.values()));
-//            log.debug("ID {}: {}", idMapToBucket.size(), idMapToBucket.keySet());
-            throw new IllegalStateException(String.format("AH:%d + AF:%d + BH:%d + BF:%d != knownOrders %d ", ah, af, bh, bf, idMapToBucket.size()));
+//            log.debug("ID {}: {}", idMap.size(), idMap.keySet());
+            throw new IllegalStateException(String.format("AH:%d + AF:%d + BH:%d + BF:%d != knownOrders %d ", ah, af, bh, bf, idMap.size()));
         }
 
         // validateInternalState each bucket
-        hotAskBuckets.stream().forEach(IOrdersBucket::validate);
-        hotBidBuckets.stream().forEach(IOrdersBucket::validate);
+        hotAskBuckets.forEachValue(IOrdersBucket::validate);
+        hotBidBuckets.forEachValue(IOrdersBucket::validate);
+
+        if (userOrdersIndex != null) {
+            userOrdersIndex.validate(idMap);
+        }
+
+        // compare incrementally maintained depth with the buckets
+        final L2MarketData l2 = new L2MarketData(askDepth.getDepth(), bidDepth.getDepth());
+        fillAsksFromBuckets(askDepth.getDepth(), l2);
+        fillBidsFromBuckets(bidDepth.getDepth(), l2);
+        askDepth.validate(l2.askSize, l2.askPrices, l2.askVolumes);
+        bidDepth.validate(l2.bidSize, l2.bidPrices, l2.bidVolumes);
 
         // TODO validateInternalState - orderid maps
     }
 
+    public int getHotPricesRange() {
+        return hotPricesRange;
+    }
+
+    public long getBasePrice() {
+        return basePrice;
+    }
+
+    /**
+     * @return hot range statistics and resize policy, or null if hot range is fixed
+     */
+    public HotRangeTuner getHotRangeTuner() {
+        return hotRangeTuner;
+    }
+
+    @Override
+    public long getRollingHash() {
+        return rollingHash;
+    }
+
     @Override
     public OrderBookImplType getImplementationType() {
         return OrderBookImplType.FAST;
     }
 
+    @Override
+    public SymbolType getSymbolType() {
+        return symbolType;
+    }
+
+    @Override
+    public void forEachUserOrder(final long uid, final Consumer<Order> consumer) {
+        if (userOrdersIndex != null) {
+            userOrdersIndex.forEachUserOrder(uid, consumer);
+        } else {
+            IOrderBook.super.forEachUserOrder(uid, consumer);
+        }
+    }
+
     @Override
     public List<Order> findUserOrders(final long uid) {
         List<Order> list = new ArrayList<>();
+        if (userOrdersIndex != null) {
+            userOrdersIndex.forEachUserOrder(uid, list::add);
+            return list;
+        }
         Consumer<IOrdersBucket> bucketConsumer = bucket -> bucket.forEachOrder(order -> {
             if (order.uid == uid) {
                 list.add(order);
             }
         });
-        hotAskBuckets.stream().forEach(bucketConsumer);
-        hotBidBuckets.stream().forEach(bucketConsumer);
-        farAskBuckets.values().forEach(bucketConsumer);
-        farBidBuckets.values().forEach(bucketConsumer);
+        hotAskBuckets.forEachValue(bucketConsumer);
+        hotBidBuckets.forEachValue(bucketConsumer);
+        farAskBuckets.forEachValue(bucketConsumer);
+        farBidBuckets.forEachValue(bucketConsumer);
         return list;
     }
 
@@ -984,23 +1338,23 @@ public final class OrderBookFastImpl implements IOrderBook {
         int bf = farBidBuckets.values().stream().mapToInt(IOrdersBucket::getNumOrders).sum();
 
 //        log.debug("idMap:{} askOrders:{} bidOrders:{}", idMap.size(), askOrders, bidOrders);
-        int knownOrders = idMapToBucket.size();
+        int knownOrders = idMap.size();
 
         assert knownOrders == ah + af + bh + bf : "inconsistent known orders";
 
-        return idMapToBucket.size();
+        return idMap.size();
     }
 
     private IOrdersBucket[] getBidsAsArray() {
-        final IOrdersBucket[] farBids = farBidBuckets.values().toArray(new IOrdersBucket[0]);
-        final IOrdersBucket[] hotBids = hotBidBuckets.toSortedMap(k -> k, v -> v).values().toArray(new IOrdersBucket[hotBidBuckets.size()]);
+        final IOrdersBucket[] farBids = farBidBuckets.valuesDescending().toArray(new IOrdersBucket[0]);
+        final IOrdersBucket[] hotBids = hotBidBuckets.values().toArray(new IOrdersBucket[0]);
         ArrayUtils.reverse(hotBids);
         return ObjectArrays.concat(hotBids, farBids, IOrdersBucket.class);
     }
 
     private IOrdersBucket[] getAsksAsArray() {
         final IOrdersBucket[] farAsks = farAskBuckets.values().toArray(new IOrdersBucket[0]);
-        final IOrdersBucket[] hotAsks = hotAskBuckets.toSortedMap(k -> k, v -> v).values().toArray(new IOrdersBucket[hotAskBuckets.size()]);
+        final IOrdersBucket[] hotAsks = hotAskBuckets.values().toArray(new IOrdersBucket[0]);
         return ObjectArrays.concat(hotAsks, farAsks, IOrdersBucket.class);
     }
 
@@ -1009,12 +1363,12 @@ public final class OrderBookFastImpl implements IOrderBook {
         bytes.writeByte(getImplementationType().getCode());
         bytes.writeByte(symbolType.getCode());
         bytes.writeInt(hotPricesRange);
-
-        Utils.marshallBitSet(hotAskBitSet, bytes);
-        Utils.marshallBitSet(hotBidBitSet, bytes);
-
-        Utils.marshallLongHashMap(hotAskBuckets, bytes);
-        Utils.marshallLongHashMap(hotBidBuckets, bytes);
+        bytes.writeBoolean(userOrdersIndex != null);
+        bytes.writeBoolean(hotRangeTuner != null);
+        if (hotRangeTuner != null) {
+            hotRangeTuner.writeMarshallable(bytes);
+        }
+        bytes.writeInt(expectedOrders);
 
         bytes.writeLong(minAskPrice);
         bytes.writeLong(maxBidPrice);
@@ -1022,9 +1376,13 @@ public final class OrderBookFastImpl implements IOrderBook {
         bytes.writeLong(basePrice);
         bytes.writeLong(rebalanceThresholdLow);
         bytes.writeLong(rebalanceThresholdHigh);
+        bytes.writeLong(lastQueueSeq);
+
+        Utils.marshallLongRingWindowMap(hotAskBuckets, bytes);
+        Utils.marshallLongRingWindowMap(hotBidBuckets, bytes);
 
-        Utils.marshallLongMap(farAskBuckets, bytes);
-        Utils.marshallLongMap(farBidBuckets, bytes);
+        Utils.marshallLongTreeMap(farAskBuckets, bytes);
+        Utils.marshallLongTreeMap(farBidBuckets, bytes);
     }
 
     @Override
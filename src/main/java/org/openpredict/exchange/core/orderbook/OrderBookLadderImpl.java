@@ -0,0 +1,808 @@
+package org.openpredict.exchange.core.orderbook;
+
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+import org.openpredict.exchange.beans.*;
+import org.openpredict.exchange.beans.cmd.CommandResultCode;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.beans.cmd.OrderCommandType;
+import org.openpredict.exchange.core.collections.HierarchicalBitSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.openpredict.exchange.beans.OrderAction.ASK;
+import static org.openpredict.exchange.beans.OrderAction.BID;
+
+/**
+ * Order book for symbols with bounded price band and fixed tick.<br/>
+ * Price levels are stored in flat arrays indexed by (price - floorPrice) / tickSize,
+ * best ask and best bid are tracked by index cursors, so there are no trees or hash lookups for price levels
+ * (orderId index is still a hash map).
+ * Buckets are taken from the objects pool when a level becomes non-empty and returned to the pool when it is emptied.
+ * <p>
+ * Non-empty levels are tracked by two-level bitsets, so matching, depth and snapshot walks jump between occupied levels
+ * instead of scanning the whole band - cost follows the number of occupied levels, not the band width.
+ * <p>
+ * GTC orders can be placed only within the band and only at tick-aligned prices, remaining size is rejected otherwise.
+ * Any limit price is accepted for matching.
+ */
+@Slf4j
+public final class OrderBookLadderImpl implements IOrderBook {
+
+    public static final long DEFAULT_FLOOR_PRICE = 0;
+    public static final long DEFAULT_TICK_SIZE = 1;
+    public static final int DEFAULT_LEVELS_NUM = 1 << 20;
+
+    private final SymbolType symbolType;
+
+    private final long floorPrice;
+    private final long tickSize;
+    private final int levelsNum;
+
+    private final IOrdersBucket[] askLevels;
+    private final IOrdersBucket[] bidLevels;
+
+    // non-empty levels (bit is set if and only if the level holds a bucket)
+    private final HierarchicalBitSet askOccupied;
+    private final HierarchicalBitSet bidOccupied;
+
+    // index of the best non-empty level, levelsNum if there are no asks
+    private int bestAskIdx;
+    // index of the best non-empty level, -1 if there are no bids
+    private int bestBidIdx = -1;
+
+    // number of non-empty levels
+    private int askLevelsNum = 0;
+    private int bidLevelsNum = 0;
+
+    // incrementally maintained top levels for L2 market data
+    private final L2DepthCache askDepth = new L2DepthCache(true, L2MarketData.L2_SIZE, this::nextDepthLevelAsk);
+    private final L2DepthCache bidDepth = new L2DepthCache(false, L2MarketData.L2_SIZE, this::nextDepthLevelBid);
+
+    // expected number of resting orders (idMap initial capacity), 0 - default
+    private final int expectedOrders;
+    private final LongObjectHashMap<Order> idMap;
+
+    // optional uid->orders index (null if not maintained)
+    private final UserOrdersIndex userOrdersIndex;
+
+    // orders pool (normally shared by all order books of the matching engine shard)
+    private final OrderBookObjectsPool objectsPool;
+
+    private final Consumer<Order> removeFullyMatchedOrder = this::removeFullyMatchedOrder;
+
+    // sum of resting orders hashes, see IOrderBook.orderHash (not serialized)
+    private long rollingHash = 0L;
+
+    // last assigned queue sequence, see Order.queueSeq
+    private long lastQueueSeq = 0L;
+
+    public OrderBookLadderImpl(final SymbolType symbolType) {
+        this(DEFAULT_FLOOR_PRICE, DEFAULT_TICK_SIZE, DEFAULT_LEVELS_NUM, symbolType);
+    }
+
+    public OrderBookLadderImpl(final long floorPrice, final long tickSize, final int levelsNum, final SymbolType symbolType) {
+        this(floorPrice, tickSize, levelsNum, 0, false, symbolType, new OrderBookObjectsPool());
+    }
+
+    /**
+     * @param floorPrice      lowest price of the band (non-negative)
+     * @param tickSize        price step
+     * @param levelsNum       number of price levels, highest price of the band is floorPrice + (levelsNum - 1) * tickSize
+     * @param expectedOrders  expected number of resting orders (orderId index initial capacity), 0 - default
+     * @param indexUserOrders maintain uid->orders index for fast user orders lookup (mass quotes)
+     * @param symbolType      symbol type
+     * @param objectsPool     orders pool
+     */
+    public OrderBookLadderImpl(final long floorPrice,
+                               final long tickSize,
+                               final int levelsNum,
+                               final int expectedOrders,
+                               final boolean indexUserOrders,
+                               final SymbolType symbolType,
+                               final OrderBookObjectsPool objectsPool) {
+        if (floorPrice < 0 || tickSize <= 0 || levelsNum <= 0) {
+            throw new IllegalArgumentException(String.format("invalid price band floorPrice=%d tickSize=%d levelsNum=%d", floorPrice, tickSize, levelsNum));
+        }
+        if (expectedOrders < 0) {
+            throw new IllegalArgumentException("invalid expectedOrders=" + expectedOrders);
+        }
+        this.expectedOrders = expectedOrders;
+        this.idMap = expectedOrders != 0 ? new LongObjectHashMap<>(expectedOrders) : new LongObjectHashMap<>();
+        this.userOrdersIndex = indexUserOrders ? new UserOrdersIndex() : null;
+        this.objectsPool = objectsPool;
+        this.symbolType = symbolType;
+        this.floorPrice = floorPrice;
+        this.tickSize = tickSize;
+        this.levelsNum = levelsNum;
+        this.askLevels = new IOrdersBucket[levelsNum];
+        this.bidLevels = new IOrdersBucket[levelsNum];
+        // bitset size must be aligned by 64, bits above levelsNum are never set
+        final int bitsNum = (int) (((long) levelsNum + 63) & ~63L);
+        this.askOccupied = new HierarchicalBitSet(bitsNum);
+        this.bidOccupied = new HierarchicalBitSet(bitsNum);
+        this.bestAskIdx = levelsNum;
+    }
+
+    public OrderBookLadderImpl(final BytesIn bytes) {
+        this(bytes, new OrderBookObjectsPool());
+    }
+
+    public OrderBookLadderImpl(final BytesIn bytes, final OrderBookObjectsPool objectsPool) {
+        this(bytes.readLong(), bytes.readLong(), bytes.readInt(), bytes.readInt(), bytes.readBoolean(), SymbolType.of(bytes.readByte()), objectsPool);
+
+        askLevelsNum = readLevels(bytes, askLevels, askOccupied);
+        bidLevelsNum = readLevels(bytes, bidLevels, bidOccupied);
+        lastQueueSeq = bytes.readLong();
+
+        bestAskIdx = nextAskIdx(0);
+        bestBidIdx = nextBidIdx(levelsNum - 1);
+        askDepth.rebuild();
+        bidDepth.rebuild();
+
+        // reconstruct ordersId-> Order index
+        final Consumer<Order> indexer = order -> idMap.put(order.orderId, order);
+        forEachLevel(askLevels, askOccupied, bucket -> bucket.forEachOrder(indexer));
+        forEachLevel(bidLevels, bidOccupied, bucket -> bucket.forEachOrder(indexer));
+        if (userOrdersIndex != null) {
+            idMap.forEachValue(userOrdersIndex::add);
+        }
+        rollingHash = calculateRollingHash();
+    }
+
+    /**
+     * @param price price
+     * @return level index, or -1 if price is outside of the band or not aligned by tick
+     */
+    private int priceToIndex(final long price) {
+        final long offset = price - floorPrice;
+        if (price < floorPrice || offset % tickSize != 0 || offset / tickSize >= levelsNum) {
+            return -1;
+        }
+        return (int) (offset / tickSize);
+    }
+
+    private CommandResultCode validatePrice(final long price) {
+        if (price < floorPrice || (price - floorPrice) / tickSize >= levelsNum) {
+            return CommandResultCode.MATCHING_PRICE_OUT_OF_BAND;
+        }
+        return CommandResultCode.INVALID_PRICE_STEP;
+    }
+
+    @Override
+    public CommandResultCode newOrder(OrderCommand cmd) {
+
+        final OrderType orderType = cmd.orderType;
+        final long size = cmd.size;
+
+        // check if order is marketable (if there are opposite matching orders)
+        final MatcherTradeEvent eventsBefore = cmd.matcherEvent;
+        final int makersBefore = IOrderBook.levelMakersNum(eventsBefore);
+        final long filledSize = tryMatchInstantly(cmd, 0, cmd);
+        rollingHash += IOrderBook.tradesHashDelta(cmd.matcherEvent, eventsBefore, makersBefore);
+        if (filledSize == size) {
+            // order is fully matched - can just return
+            return CommandResultCode.SUCCESS;
+        }
+
+        if (orderType == OrderType.IOC) {
+            OrderBookEventsHelper.attachRejectEvent(cmd, size - filledSize);
+            return CommandResultCode.SUCCESS;
+        }
+
+        final long orderId = cmd.orderId;
+        if (idMap.containsKey(orderId)) {
+            // duplicate order id - can match, but can not place
+            OrderBookEventsHelper.attachRejectEvent(cmd, size - filledSize);
+            return CommandResultCode.MATCHING_DUPLICATE_ORDER_ID;
+        }
+
+        final long price = cmd.price;
+        final int idx = priceToIndex(price);
+        if (idx == -1) {
+            // can match, but can not place outside of the ladder
+            OrderBookEventsHelper.attachRejectEvent(cmd, size - filledSize);
+            return validatePrice(price);
+        }
+
+        // normally placing regular GTC limit order
+        final Order orderRecord = objectsPool.getOrder();
+
+        orderRecord.command = OrderCommandType.PLACE_ORDER;
+        orderRecord.orderId = orderId;
+        orderRecord.symbol = cmd.symbol;
+        orderRecord.price = price;
+        orderRecord.size = size;
+        orderRecord.reserveBidPrice = cmd.reserveBidPrice;
+        orderRecord.action = cmd.action;
+        orderRecord.orderType = orderType;
+        orderRecord.uid = cmd.uid;
+        orderRecord.timestamp = cmd.timestamp;
+        orderRecord.userCookie = cmd.userCookie;
+        orderRecord.filled = filledSize;
+
+        final IOrdersBucket bucket = putOrder(orderRecord, idx);
+        levelChanged(cmd, cmd.action, price, bucket.getTotalVolume());
+        OrderBookEventsHelper.sendL3Event(cmd, L3EventType.ADD, cmd.action, orderId, cmd.uid, price, size - filledSize);
+        idMap.put(orderId, orderRecord);
+        if (userOrdersIndex != null) {
+            userOrdersIndex.add(orderRecord);
+        }
+        rollingHash += IOrderBook.orderHash(orderId, cmd.uid, price, cmd.action, orderRecord.queueSeq, size - filledSize);
+
+        return CommandResultCode.SUCCESS;
+    }
+
+    /**
+     * Match the order instantly to opposite levels, jumping between occupied levels from the best price cursor up to order limit price
+     * Fully matching orders are removed from orderId index
+     * Should any trades occur - they sent to tradesConsumer
+     *
+     * @param activeOrder - GTC or IOC order to match
+     * @param filled      - current 'filled' value for the order
+     * @param triggerCmd  -
+     * @return new filled size
+     */
+    private long tryMatchInstantly(
+            final OrderCommand activeOrder,
+            long filled,
+            final OrderCommand triggerCmd) {
+
+        final long limitPrice = activeOrder.price;
+        final long orderSize = activeOrder.size;
+
+        if (activeOrder.action == BID) {
+            if (askLevelsNum == 0 || limitPrice < floorPrice) {
+                return filled;
+            }
+            // last level to check (limit price rounded down)
+            final int lastIdx = (int) Math.min((limitPrice - floorPrice) / tickSize, levelsNum - 1);
+            // nextAskIdx returns levelsNum once the side is emptied, which ends the loop
+            for (int idx = bestAskIdx; idx <= lastIdx; idx = nextAskIdx(idx + 1)) {
+                final IOrdersBucket bucket = askLevels[idx];
+                filled += bucket.match(orderSize - filled, activeOrder, triggerCmd, removeFullyMatchedOrder);
+                final long volumeLeft = bucket.getTotalVolume();
+                levelChanged(triggerCmd, ASK, bucket.getPrice(), volumeLeft);
+                if (volumeLeft == 0) {
+                    releaseLevel(askLevels, askOccupied, idx);
+                    askLevelsNum--;
+                }
+                if (filled == orderSize) {
+                    break;
+                }
+            }
+            bestAskIdx = nextAskIdx(bestAskIdx);
+
+        } else {
+            if (bidLevelsNum == 0) {
+                return filled;
+            }
+            // last level to check (limit price rounded up)
+            final long offset = limitPrice - floorPrice;
+            final int lastIdx = offset <= 0 ? 0 : (int) Math.min(offset / tickSize + (offset % tickSize != 0 ? 1 : 0), levelsNum);
+            // nextBidIdx returns -1 once the side is emptied, which ends the loop
+            for (int idx = bestBidIdx; idx >= lastIdx; idx = nextBidIdx(idx - 1)) {
+                final IOrdersBucket bucket = bidLevels[idx];
+                filled += bucket.match(orderSize - filled, activeOrder, triggerCmd, removeFullyMatchedOrder);
+                final long volumeLeft = bucket.getTotalVolume();
+                levelChanged(triggerCmd, BID, bucket.getPrice(), volumeLeft);
+                if (volumeLeft == 0) {
+                    releaseLevel(bidLevels, bidOccupied, idx);
+                    bidLevelsNum--;
+                }
+                if (filled == orderSize) {
+                    break;
+                }
+            }
+            bestBidIdx = nextBidIdx(bestBidIdx);
+        }
+
+        return filled;
+    }
+
+    private void removeFullyMatchedOrder(Order mOrder) {
+        idMap.remove(mOrder.orderId);
+        rollingHash -= IOrderBook.orderBaseHash(mOrder.orderId, mOrder.uid, mOrder.price, mOrder.action, mOrder.queueSeq);
+        if (userOrdersIndex != null) {
+            userOrdersIndex.remove(mOrder);
+        }
+        objectsPool.releaseOrder(mOrder);
+    }
+
+    /**
+     * @param fromIdx index to start from (inclusive)
+     * @return index of the first non-empty ask level, or levelsNum if there are no asks
+     */
+    private int nextAskIdx(final int fromIdx) {
+        if (askLevelsNum == 0 || fromIdx >= levelsNum) {
+            return levelsNum;
+        }
+        final int idx = askOccupied.nextSetBit(fromIdx);
+        return idx != -1 ? idx : levelsNum;
+    }
+
+    /**
+     * @param fromIdx index to start from (inclusive)
+     * @return index of the first non-empty bid level, or -1 if there are no bids
+     */
+    private int nextBidIdx(final int fromIdx) {
+        if (bidLevelsNum == 0) {
+            return -1;
+        }
+        return bidOccupied.previousSetBit(fromIdx);
+    }
+
+    private void levelChanged(final OrderCommand cmd, final OrderAction action, final long price, final long volume) {
+        (action == ASK ? askDepth : bidDepth).update(price, volume);
+        OrderBookEventsHelper.attachL2Update(cmd, action, price, volume);
+    }
+
+    // depth cache levels source, emptied levels are skipped
+    private IOrdersBucket nextDepthLevelAsk(final long price) {
+        final int idx = nextAskIdx(price < floorPrice ? 0 : (int) Math.min((price - floorPrice) / tickSize + 1, levelsNum));
+        return idx != levelsNum ? askLevels[idx] : null;
+    }
+
+    private IOrdersBucket nextDepthLevelBid(final long price) {
+        final int idx = nextBidIdx((int) Math.min((price - floorPrice) / tickSize - 1, levelsNum - 1));
+        return idx != -1 ? bidLevels[idx] : null;
+    }
+
+    /**
+     * Return emptied level bucket to the pool
+     */
+    private void releaseLevel(final IOrdersBucket[] levels, final HierarchicalBitSet occupied, final int idx) {
+        objectsPool.releaseBucket(levels[idx]);
+        levels[idx] = null;
+        occupied.clear(idx);
+    }
+
+    /**
+     * Put order into the level (queue sequence is assigned), take bucket from the pool if required and update cursor
+     *
+     * @param order order
+     * @param idx   level index
+     * @return bucket
+     */
+    private IOrdersBucket putOrder(final Order order, final int idx) {
+        final IOrdersBucket[] levels = order.action == ASK ? askLevels : bidLevels;
+        IOrdersBucket bucket = levels[idx];
+        if (bucket == null) {
+            bucket = objectsPool.getBucket();
+            bucket.setPrice(order.price);
+            levels[idx] = bucket;
+            if (order.action == ASK) {
+                askOccupied.set(idx);
+                askLevelsNum++;
+                bestAskIdx = Math.min(bestAskIdx, idx);
+            } else {
+                bidOccupied.set(idx);
+                bidLevelsNum++;
+                bestBidIdx = Math.max(bestBidIdx, idx);
+            }
+        }
+        order.queueSeq = ++lastQueueSeq;
+        bucket.put(order);
+        return bucket;
+    }
+
+    /**
+     * Take order out of its level, release emptied level and update cursor
+     *
+     * @param order order
+     * @return volume left in the level
+     */
+    private long removeOrder(final Order order) {
+        final int idx = priceToIndex(order.price);
+        final IOrdersBucket bucket = order.action == ASK ? askLevels[idx] : bidLevels[idx];
+        bucket.removeOrder(order);
+        final long volumeLeft = bucket.getTotalVolume();
+        if (volumeLeft == 0) {
+            if (order.action == ASK) {
+                releaseLevel(askLevels, askOccupied, idx);
+                askLevelsNum--;
+                if (idx == bestAskIdx) {
+                    bestAskIdx = nextAskIdx(idx);
+                }
+            } else {
+                releaseLevel(bidLevels, bidOccupied, idx);
+                bidLevelsNum--;
+                if (idx == bestBidIdx) {
+                    bestBidIdx = nextBidIdx(idx);
+                }
+            }
+        }
+        return volumeLeft;
+    }
+
+    /**
+     * Remove an order
+     * <p>
+     * orderId - order to remove
+     *
+     * @return true if order removed, false if not found (can be removed/matched earlier)
+     */
+    @Override
+    public boolean cancelOrder(OrderCommand cmd) {
+
+        final Order order = idMap.get(cmd.orderId);
+        if (order == null || order.uid != cmd.uid) {
+            // order already matched and removed from order book previously, or uid is different
+            return false;
+        }
+
+        idMap.remove(cmd.orderId);
+        if (userOrdersIndex != null) {
+            userOrdersIndex.remove(order);
+        }
+        rollingHash -= IOrderBook.orderHash(order.orderId, order.uid, order.price, order.action, order.queueSeq, order.size - order.filled);
+
+        final long volumeLeft = removeOrder(order);
+        levelChanged(cmd, order.action, order.price, volumeLeft);
+
+        // send cancel event
+        OrderBookEventsHelper.sendCancelEvent(cmd, order);
+
+        // saving free object back to the pool
+        objectsPool.releaseOrder(order);
+
+        return true;
+    }
+
+    @Override
+    public CommandResultCode reduceOrder(OrderCommand cmd) {
+        final long orderId = cmd.orderId;
+        final long reduceBy = cmd.size;
+
+        final Order order = idMap.get(orderId);
+        if (order == null || order.uid != cmd.uid) {
+            return CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
+        }
+        if (reduceBy <= 0) {
+            return CommandResultCode.MATCHING_REDUCE_FAILED_WRONG_SIZE;
+        }
+
+        final long remainingSize = order.size - order.filled;
+        if (reduceBy >= remainingSize) {
+            cancelOrder(cmd);
+            return CommandResultCode.SUCCESS;
+        }
+
+        final int idx = priceToIndex(order.price);
+        final IOrdersBucket bucket = order.action == ASK ? askLevels[idx] : bidLevels[idx];
+        rollingHash -= IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, remainingSize);
+        bucket.reduceOrder(order, reduceBy);
+        rollingHash += IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, remainingSize - reduceBy);
+
+        levelChanged(cmd, order.action, order.price, bucket.getTotalVolume());
+        OrderBookEventsHelper.sendReduceEvent(cmd, order, reduceBy);
+
+        return CommandResultCode.SUCCESS;
+    }
+
+    @Override
+    public CommandResultCode moveOrder(OrderCommand cmd) {
+
+        final long orderId = cmd.orderId;
+        final long newPrice = cmd.price;
+
+        final Order order = idMap.get(orderId);
+        if (order == null || order.uid != cmd.uid) {
+            return CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
+        }
+
+        final int newIdx = priceToIndex(newPrice);
+        if (newIdx == -1) {
+            // order is not touched
+            return validatePrice(newPrice);
+        }
+
+        // take order out of the original level
+        final long price = order.price;
+        final long volumeLeft = removeOrder(order);
+
+        // optimistic risk check mode for exchange bids
+        if (symbolType == SymbolType.CURRENCY_EXCHANGE_PAIR && order.action == BID && newPrice > order.reserveBidPrice) {
+            // put order back (yes it will be in the end of queue)
+            rollingHash -= IOrderBook.orderHash(orderId, order.uid, price, order.action, order.queueSeq, order.size - order.filled);
+            putOrder(order, priceToIndex(price));
+            rollingHash += IOrderBook.orderHash(orderId, order.uid, price, order.action, order.queueSeq, order.size - order.filled);
+            OrderBookEventsHelper.sendL3Event(cmd, L3EventType.MODIFY, order.action, orderId, order.uid, price, order.size - order.filled);
+            return CommandResultCode.MATCHING_MOVE_FAILED_PRICE_ABOVE_RISK_LIMIT;
+        }
+
+        levelChanged(cmd, order.action, price, volumeLeft);
+        rollingHash -= IOrderBook.orderHash(orderId, order.uid, price, order.action, order.queueSeq, order.size - order.filled);
+
+        order.price = newPrice;
+
+        // try match with new price
+        final MatcherTradeEvent eventsBefore = cmd.matcherEvent;
+        final int makersBefore = IOrderBook.levelMakersNum(eventsBefore);
+        final long filled = tryMatchInstantly(order, order.filled, cmd);
+        rollingHash += IOrderBook.tradesHashDelta(cmd.matcherEvent, eventsBefore, makersBefore);
+        if (filled == order.size) {
+            // order was fully matched (100% marketable) - removing from order book
+            idMap.remove(orderId);
+            if (userOrdersIndex != null) {
+                userOrdersIndex.remove(order);
+            }
+            OrderBookEventsHelper.sendL3Event(cmd, L3EventType.DELETE, order.action, orderId, order.uid, newPrice, 0);
+            objectsPool.releaseOrder(order);
+            return CommandResultCode.SUCCESS;
+        }
+        order.filled = filled;
+
+        // if not filled completely - put it into corresponding level
+        final IOrdersBucket bucket = putOrder(order, newIdx);
+        rollingHash += IOrderBook.orderHash(orderId, order.uid, newPrice, order.action, order.queueSeq, order.size - filled);
+        levelChanged(cmd, order.action, newPrice, bucket.getTotalVolume());
+        OrderBookEventsHelper.sendL3Event(cmd, L3EventType.MODIFY, order.action, orderId, order.uid, newPrice, order.size - filled);
+
+        return CommandResultCode.SUCCESS;
+    }
+
+    @Override
+    public Order getOrderById(long orderId) {
+        return idMap.get(orderId);
+    }
+
+    /**
+     * Copies levels from incrementally maintained depth cache,
+     * only deeper requests require scanning the levels.
+     */
+    @Override
+    public void fillAsks(final int size, L2MarketData data) {
+        if (size <= askDepth.getDepth()) {
+            data.askSize = askDepth.copyTo(size, data.askPrices, data.askVolumes);
+        } else {
+            fillAsksFromLevels(size, data);
+        }
+    }
+
+    /**
+     * Copies levels from incrementally maintained depth cache,
+     * only deeper requests require scanning the levels.
+     */
+    @Override
+    public void fillBids(final int size, L2MarketData data) {
+        if (size <= bidDepth.getDepth()) {
+            data.bidSize = bidDepth.copyTo(size, data.bidPrices, data.bidVolumes);
+        } else {
+            fillBidsFromLevels(size, data);
+        }
+    }
+
+    public void fillAsksFromLevels(final int size, L2MarketData data) {
+        int i = 0;
+        for (int idx = bestAskIdx; idx != levelsNum && i < size; idx = nextAskIdx(idx + 1)) {
+            final IOrdersBucket bucket = askLevels[idx];
+            data.askPrices[i] = bucket.getPrice();
+            data.askVolumes[i] = bucket.getTotalVolume();
+            i++;
+        }
+        data.askSize = i;
+    }
+
+    public void fillBidsFromLevels(final int size, L2MarketData data) {
+        int i = 0;
+        for (int idx = bestBidIdx; idx != -1 && i < size; idx = nextBidIdx(idx - 1)) {
+            final IOrdersBucket bucket = bidLevels[idx];
+            data.bidPrices[i] = bucket.getPrice();
+            data.bidVolumes[i] = bucket.getTotalVolume();
+            i++;
+        }
+        data.bidSize = i;
+    }
+
+    @Override
+    public int getTotalAskBuckets() {
+        return askLevelsNum;
+    }
+
+    @Override
+    public int getTotalBidBuckets() {
+        return bidLevelsNum;
+    }
+
+    @Override
+    public List<IOrdersBucket> getAllAskBuckets() {
+        final List<IOrdersBucket> list = new ArrayList<>(askLevelsNum);
+        forEachLevel(askLevels, askOccupied, list::add);
+        return list;
+    }
+
+    @Override
+    public List<IOrdersBucket> getAllBidBuckets() {
+        final List<IOrdersBucket> list = new ArrayList<>(bidLevelsNum);
+        for (int idx = bestBidIdx; idx != -1; idx = nextBidIdx(idx - 1)) {
+            list.add(bidLevels[idx]);
+        }
+        return list;
+    }
+
+    @Override
+    public long getBestAsk() {
+        return bestAskIdx != levelsNum ? askLevels[bestAskIdx].getPrice() : Long.MAX_VALUE;
+    }
+
+    @Override
+    public long getBestBid() {
+        return bestBidIdx != -1 ? bidLevels[bestBidIdx].getPrice() : 0;
+    }
+
+    public long getFloorPrice() {
+        return floorPrice;
+    }
+
+    public long getTickSize() {
+        return tickSize;
+    }
+
+    public int getLevelsNum() {
+        return levelsNum;
+    }
+
+    @Override
+    public void validateInternalState() {
+        validateLevels(askLevels, askOccupied, askLevelsNum, bestAskIdx, nextAskIdx(0), "ask");
+        validateLevels(bidLevels, bidOccupied, bidLevelsNum, bestBidIdx, nextBidIdx(levelsNum - 1), "bid");
+
+        final int knownOrders = idMap.size();
+        final int ordersInLevels = getAllAskBuckets().stream().mapToInt(IOrdersBucket::getNumOrders).sum()
+                + getAllBidBuckets().stream().mapToInt(IOrdersBucket::getNumOrders).sum();
+        if (knownOrders != ordersInLevels) {
+            throw new IllegalStateException(String.format("orders in levels %d != knownOrders %d", ordersInLevels, knownOrders));
+        }
+        if (userOrdersIndex != null) {
+            userOrdersIndex.validate(idMap);
+        }
+
+        // compare incrementally maintained depth with the levels
+        final L2MarketData l2 = new L2MarketData(askDepth.getDepth(), bidDepth.getDepth());
+        fillAsksFromLevels(askDepth.getDepth(), l2);
+        fillBidsFromLevels(bidDepth.getDepth(), l2);
+        askDepth.validate(l2.askSize, l2.askPrices, l2.askVolumes);
+        bidDepth.validate(l2.bidSize, l2.bidPrices, l2.bidVolumes);
+
+        if (rollingHash != calculateRollingHash()) {
+            throw new IllegalStateException("rolling hash differs from orders");
+        }
+    }
+
+    private void validateLevels(final IOrdersBucket[] levels,
+                                final HierarchicalBitSet occupied,
+                                final int expectedLevelsNum,
+                                final int bestIdx,
+                                final int expectedBestIdx,
+                                final String side) {
+        occupied.validate();
+        int count = 0;
+        for (int idx = occupied.nextSetBit(0); idx != -1; idx = occupied.nextSetBit(idx + 1)) {
+            final IOrdersBucket bucket = levels[idx];
+            if (bucket == null || bucket.getTotalVolume() == 0) {
+                throw new IllegalStateException(String.format("%s level %d is marked as occupied but empty", side, idx));
+            }
+            if (bucket.getPrice() != floorPrice + idx * tickSize) {
+                throw new IllegalStateException(String.format("%s bucket price %d does not match level %d", side, bucket.getPrice(), idx));
+            }
+            bucket.validate();
+            count++;
+        }
+        if (count != expectedLevelsNum) {
+            throw new IllegalStateException(String.format("%s non-empty levels %d != counter %d", side, count, expectedLevelsNum));
+        }
+        if (bestIdx != expectedBestIdx) {
+            throw new IllegalStateException(String.format("%s best level cursor %d, expected %d", side, bestIdx, expectedBestIdx));
+        }
+    }
+
+    @Override
+    public long getRollingHash() {
+        return rollingHash;
+    }
+
+    @Override
+    public OrderBookImplType getImplementationType() {
+        return OrderBookImplType.LADDER;
+    }
+
+    @Override
+    public SymbolType getSymbolType() {
+        return symbolType;
+    }
+
+    @Override
+    public void forEachUserOrder(final long uid, final Consumer<Order> consumer) {
+        if (userOrdersIndex != null) {
+            userOrdersIndex.forEachUserOrder(uid, consumer);
+        } else {
+            IOrderBook.super.forEachUserOrder(uid, consumer);
+        }
+    }
+
+    @Override
+    public List<Order> findUserOrders(final long uid) {
+        final List<Order> list = new ArrayList<>();
+        if (userOrdersIndex != null) {
+            userOrdersIndex.forEachUserOrder(uid, list::add);
+            return list;
+        }
+        final Consumer<IOrdersBucket> bucketConsumer = bucket -> bucket.forEachOrder(order -> {
+            if (order.uid == uid) {
+                list.add(order);
+            }
+        });
+        forEachLevel(askLevels, askOccupied, bucketConsumer);
+        forEachLevel(bidLevels, bidOccupied, bucketConsumer);
+        return list;
+    }
+
+    // for testing only
+    @Override
+    public int getOrdersNum() {
+        return idMap.size();
+    }
+
+    /**
+     * Execute action for each non-empty level in ascending price order
+     */
+    private static void forEachLevel(final IOrdersBucket[] levels, final HierarchicalBitSet occupied, final Consumer<IOrdersBucket> consumer) {
+        for (int idx = occupied.nextSetBit(0); idx != -1; idx = occupied.nextSetBit(idx + 1)) {
+            consumer.accept(levels[idx]);
+        }
+    }
+
+    @Override
+    public void writeMarshallable(BytesOut bytes) {
+        bytes.writeByte(getImplementationType().getCode());
+        bytes.writeLong(floorPrice);
+        bytes.writeLong(tickSize);
+        bytes.writeInt(levelsNum);
+        bytes.writeInt(expectedOrders);
+        bytes.writeBoolean(userOrdersIndex != null);
+        bytes.writeByte(symbolType.getCode());
+        writeLevels(askLevels, askOccupied, askLevelsNum, bytes);
+        writeLevels(bidLevels, bidOccupied, bidLevelsNum, bytes);
+        bytes.writeLong(lastQueueSeq);
+    }
+
+    private static void writeLevels(final IOrdersBucket[] levels, final HierarchicalBitSet occupied, final int count, final BytesOut bytes) {
+        bytes.writeInt(count);
+        forEachLevel(levels, occupied, bucket -> bucket.writeMarshallable(bytes));
+    }
+
+    /**
+     * @return number of levels read
+     */
+    private int readLevels(final BytesIn bytes, final IOrdersBucket[] levels, final HierarchicalBitSet occupied) {
+        final int count = bytes.readInt();
+        for (int i = 0; i < count; i++) {
+            final IOrdersBucket bucket = IOrdersBucket.create(bytes);
+            final int idx = priceToIndex(bucket.getPrice());
+            if (idx == -1) {
+                throw new IllegalStateException("bucket price " + bucket.getPrice() + " is outside of the ladder");
+            }
+            levels[idx] = bucket;
+            occupied.set(idx);
+        }
+        return count;
+    }
+
+    @Override
+    public int hashCode() {
+        IOrdersBucket[] a = getAllAskBuckets().toArray(new IOrdersBucket[0]);
+        IOrdersBucket[] b = getAllBidBuckets().toArray(new IOrdersBucket[0]);
+        return IOrderBook.hash(a, b, symbolType);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return IOrderBook.equals(this, o);
+    }
+
+}
@@ -9,6 +9,7 @@ import org.openpredict.exchange.beans.cmd.CommandResultCode;
 import org.openpredict.exchange.beans.cmd.OrderCommand;
 import org.openpredict.exchange.beans.cmd.OrderCommandType;
 import org.openpredict.exchange.core.Utils;
+import org.openpredict.exchange.core.collections.LongObjectTreeMap;
 
 import java.util.*;
 import java.util.function.Consumer;
@@ -18,28 +19,37 @@ import static org.openpredict.exchange.beans.OrderAction.BID;
 @Slf4j
 public final class OrderBookNaiveImpl implements IOrderBook {
 
-    private final NavigableMap<Long, IOrdersBucket> askBuckets;
-    private final NavigableMap<Long, IOrdersBucket> bidBuckets;
+    // both maps are sorted in ascending price order
+    private final LongObjectTreeMap<IOrdersBucket> askBuckets;
+    private final LongObjectTreeMap<IOrdersBucket> bidBuckets;
 
     private final SymbolType symbolType;
 
     private final LongObjectHashMap<Order> idMap = new LongObjectHashMap<>();
 
+    // sum of resting orders hashes (not serialized)
+    private long rollingHash = 0L;
+
+    // last assigned queue sequence, see Order.queueSeq
+    private long lastQueueSeq = 0L;
+
     public OrderBookNaiveImpl(final SymbolType symbolType) {
         this.symbolType = symbolType;
-        this.askBuckets = new TreeMap<>();
-        this.bidBuckets = new TreeMap<>(Collections.reverseOrder());
+        this.askBuckets = new LongObjectTreeMap<>();
+        this.bidBuckets = new LongObjectTreeMap<>();
     }
 
     public OrderBookNaiveImpl(final BytesIn bytes) {
         this.symbolType = SymbolType.of(bytes.readByte());
-        this.askBuckets = Utils.readLongMap(bytes, TreeMap::new, IOrdersBucket::create);
-        this.bidBuckets = Utils.readLongMap(bytes, () -> new TreeMap<>(Collections.reverseOrder()), IOrdersBucket::create);
+        this.askBuckets = Utils.readLongTreeMap(bytes, IOrdersBucket::create);
+        this.bidBuckets = Utils.readLongTreeMap(bytes, IOrdersBucket::create);
+        this.lastQueueSeq = bytes.readLong();
 
         // reconstruct ordersId-> Order cache
         // TODO check resulting performance
-        askBuckets.values().forEach(bucket -> bucket.forEachOrder(order -> idMap.put(order.orderId, order)));
-        bidBuckets.values().forEach(bucket -> bucket.forEachOrder(order -> idMap.put(order.orderId, order)));
+        askBuckets.forEachValue(bucket -> bucket.forEachOrder(order -> idMap.put(order.orderId, order)));
+        bidBuckets.forEachValue(bucket -> bucket.forEachOrder(order -> idMap.put(order.orderId, order)));
+        rollingHash = calculateRollingHash();
 
         //validateInternalState();
     }
@@ -53,7 +63,10 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         final long size = cmd.size;
 
         // check if order is marketable (if there are opposite matching orders)
-        long filledSize = tryMatchInstantly(cmd, subtreeForMatching(action, price), 0, cmd);
+        final MatcherTradeEvent eventsBefore = cmd.matcherEvent;
+        final int makersBefore = IOrderBook.levelMakersNum(eventsBefore);
+        long filledSize = tryMatchInstantly(cmd, 0, cmd);
+        rollingHash += IOrderBook.tradesHashDelta(cmd.matcherEvent, eventsBefore, makersBefore);
         if (filledSize == size) {
             // order is fully matched - can just return
             return CommandResultCode.SUCCESS;
@@ -88,52 +101,54 @@ public final class OrderBookNaiveImpl implements IOrderBook {
                 cmd.timestamp,
                 cmd.userCookie,
                 filledSize);
+        orderRecord.queueSeq = ++lastQueueSeq;
 
         final IOrdersBucket bucket = getBucketsByAction(action)
-                .computeIfAbsent(price, p -> {
+                .getIfAbsentPut(price, p -> {
                     final IOrdersBucket b = new OrdersBucketNaiveImpl();
                     b.setPrice(p);
                     return b;
                 });
         bucket.put(orderRecord);
+        OrderBookEventsHelper.attachL2Update(cmd, action, price, bucket.getTotalVolume());
+        OrderBookEventsHelper.sendL3Event(cmd, L3EventType.ADD, action, newOrderId, cmd.uid, price, size - filledSize);
 
         idMap.put(newOrderId, orderRecord);
+        rollingHash += IOrderBook.orderHash(newOrderId, cmd.uid, price, action, orderRecord.queueSeq, size - filledSize);
 
         return CommandResultCode.SUCCESS;
     }
 
-    private SortedMap<Long, IOrdersBucket> subtreeForMatching(OrderAction action, long price) {
-        return (action == OrderAction.ASK ? bidBuckets : askBuckets)
-                .headMap(price, true);
-    }
-
     /**
-     * Match the order instantly to specified sorted buckets map
+     * Match the order instantly to opposite buckets, walking from the best price up to order limit price
      * Fully matching orders are removed from orderId index
      * Should any trades occur - they sent to tradesConsumer
      *
-     * @param activeOrder     - GTC or IOC order to match
-     * @param matchingBuckets - sorted buckets map
-     * @param filled          - current 'filled' value for the order
-     * @param triggerCmd      -
+     * @param activeOrder - GTC or IOC order to match
+     * @param filled      - current 'filled' value for the order
+     * @param triggerCmd  -
      * @return new filled size
      */
     private long tryMatchInstantly(
             final OrderCommand activeOrder,
-            final SortedMap<Long, IOrdersBucket> matchingBuckets,
             long filled,
             final OrderCommand triggerCmd) {
 
 //        log.info("matchInstantly: {} {}", order, matchingBuckets);
 
-        if (matchingBuckets.size() == 0) {
-            return filled;
-        }
-
+        final boolean isBidAction = activeOrder.action == BID;
+        final LongObjectTreeMap<IOrdersBucket> matchingBuckets = isBidAction ? askBuckets : bidBuckets;
+        final long limitPrice = activeOrder.price;
         long orderSize = activeOrder.size;
 
-        List<Long> emptyBuckets = new ArrayList<>();
-        for (IOrdersBucket bucket : matchingBuckets.values()) {
+        IOrdersBucket bucket = isBidAction ? matchingBuckets.firstValue() : matchingBuckets.lastValue();
+        while (bucket != null) {
+
+            final long price = bucket.getPrice();
+            if (isBidAction ? price > limitPrice : price < limitPrice) {
+                // not marketable anymore
+                break;
+            }
 
 //            log.debug("Matching bucket: {} ...", bucket);
 //            log.debug("... with order: {}", activeOrder);
@@ -147,24 +162,21 @@ public final class OrderBookNaiveImpl implements IOrderBook {
 //            log.debug("Matching orders: {}", matchingOrders);
 //            log.debug("order.filled: {}", activeOrder.filled);
 
-            long price = bucket.getPrice();
-
             // remove empty buckets
-            if (bucket.getTotalVolume() == 0) {
-                emptyBuckets.add(price);
+            final long volumeLeft = bucket.getTotalVolume();
+            if (volumeLeft == 0) {
+                matchingBuckets.remove(price);
             }
+            OrderBookEventsHelper.attachL2Update(triggerCmd, activeOrder.action.opposite(), price, volumeLeft);
 
             if (filled == activeOrder.size) {
                 // enough matched
                 break;
             }
-        }
 
-        // remove empty buckets (is it necessary?)
-        // TODO can remove through iterator ??
-        emptyBuckets.forEach(matchingBuckets::remove);
+            bucket = isBidAction ? matchingBuckets.higherValue(price) : matchingBuckets.lowerValue(price);
+        }
 
-//        log.debug("emptyBuckets: {}", emptyBuckets);
 //        log.debug("matchingRecords: {}", matchingRecords);
 
         return filled;
@@ -172,6 +184,7 @@ public final class OrderBookNaiveImpl implements IOrderBook {
 
     private void removeFullyMatchedOrder(Order mOrder) {
         idMap.remove(mOrder.orderId);
+        rollingHash -= IOrderBook.orderBaseHash(mOrder.orderId, mOrder.uid, mOrder.price, mOrder.action, mOrder.queueSeq);
     }
 
     /**
@@ -192,8 +205,9 @@ public final class OrderBookNaiveImpl implements IOrderBook {
 
         // now can remove it
         idMap.remove(orderId);
+        rollingHash -= IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, order.size - order.filled);
 
-        NavigableMap<Long, IOrdersBucket> buckets = getBucketsByAction(order.action);
+        LongObjectTreeMap<IOrdersBucket> buckets = getBucketsByAction(order.action);
         long price = order.price;
         IOrdersBucket ordersBucket = buckets.get(price);
         if (ordersBucket == null) {
@@ -203,9 +217,11 @@ public final class OrderBookNaiveImpl implements IOrderBook {
 
         // remove order and whole bucket if its empty
         ordersBucket.remove(orderId, cmd.uid);
-        if (ordersBucket.getTotalVolume() == 0) {
+        final long volumeLeft = ordersBucket.getTotalVolume();
+        if (volumeLeft == 0) {
             buckets.remove(price);
         }
+        OrderBookEventsHelper.attachL2Update(cmd, order.action, price, volumeLeft);
 
         // send cancel event
         OrderBookEventsHelper.sendCancelEvent(cmd, order);
@@ -213,6 +229,36 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         return true;
     }
 
+    @Override
+    public CommandResultCode reduceOrder(OrderCommand cmd) {
+        final long orderId = cmd.orderId;
+        final long reduceBy = cmd.size;
+
+        final Order order = idMap.get(orderId);
+        if (order == null || order.uid != cmd.uid) {
+            return CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
+        }
+        if (reduceBy <= 0) {
+            return CommandResultCode.MATCHING_REDUCE_FAILED_WRONG_SIZE;
+        }
+
+        final long remainingSize = order.size - order.filled;
+        if (reduceBy >= remainingSize) {
+            cancelOrder(cmd);
+            return CommandResultCode.SUCCESS;
+        }
+
+        final IOrdersBucket ordersBucket = getBucketsByAction(order.action).get(order.price);
+        rollingHash -= IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, remainingSize);
+        ordersBucket.reduceOrder(order, reduceBy);
+        rollingHash += IOrderBook.orderHash(orderId, order.uid, order.price, order.action, order.queueSeq, remainingSize - reduceBy);
+
+        OrderBookEventsHelper.attachL2Update(cmd, order.action, order.price, ordersBucket.getTotalVolume());
+        OrderBookEventsHelper.sendReduceEvent(cmd, order, reduceBy);
+
+        return CommandResultCode.SUCCESS;
+    }
+
     @Override
     public CommandResultCode moveOrder(OrderCommand cmd) {
 
@@ -232,41 +278,57 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         }
 
         final long price = order.price;
-        final NavigableMap<Long, IOrdersBucket> buckets = getBucketsByAction(order.action);
+        final LongObjectTreeMap<IOrdersBucket> buckets = getBucketsByAction(order.action);
         final IOrdersBucket bucket = buckets.get(price);
 
         // optimistic risk check mode for exchange bids
         if (symbolType == SymbolType.CURRENCY_EXCHANGE_PAIR && order.action == BID && cmd.price > order.reserveBidPrice) {
             // put order back (yes it will be in the end of queue)
+            bucket.remove(orderId, cmd.uid);
+            rollingHash -= IOrderBook.orderHash(orderId, order.uid, price, order.action, order.queueSeq, order.size - order.filled);
+            order.queueSeq = ++lastQueueSeq;
             bucket.put(order);
+            rollingHash += IOrderBook.orderHash(orderId, order.uid, price, order.action, order.queueSeq, order.size - order.filled);
+            OrderBookEventsHelper.attachL2Update(cmd, order.action, price, bucket.getTotalVolume());
+            OrderBookEventsHelper.sendL3Event(cmd, L3EventType.MODIFY, order.action, orderId, order.uid, price, order.size - order.filled);
             return CommandResultCode.MATCHING_MOVE_FAILED_PRICE_ABOVE_RISK_LIMIT;
         }
 
         // take order out of the original bucket and clean bucket if its empty
         bucket.remove(orderId, cmd.uid);
-        if (bucket.getTotalVolume() == 0) {
+        final long volumeLeft = bucket.getTotalVolume();
+        if (volumeLeft == 0) {
             buckets.remove(price);
         }
+        OrderBookEventsHelper.attachL2Update(cmd, order.action, price, volumeLeft);
+        rollingHash -= IOrderBook.orderHash(orderId, order.uid, price, order.action, order.queueSeq, order.size - order.filled);
 
         order.price = newPrice;
 
         // try match with new price
-        final SortedMap<Long, IOrdersBucket> matchingArea = subtreeForMatching(order.action, newPrice);
-        long filled = tryMatchInstantly(order, matchingArea, order.filled, cmd);
+        final MatcherTradeEvent eventsBefore = cmd.matcherEvent;
+        final int makersBefore = IOrderBook.levelMakersNum(eventsBefore);
+        long filled = tryMatchInstantly(order, order.filled, cmd);
+        rollingHash += IOrderBook.tradesHashDelta(cmd.matcherEvent, eventsBefore, makersBefore);
         if (filled == order.size) {
             // order was fully matched (100% marketable) - removing from order book
             idMap.remove(orderId);
+            OrderBookEventsHelper.sendL3Event(cmd, L3EventType.DELETE, order.action, orderId, order.uid, newPrice, 0);
             return CommandResultCode.SUCCESS;
         }
         order.filled = filled;
 
         // if not filled completely - put it into corresponding bucket
-        final IOrdersBucket anotherBucket = buckets.computeIfAbsent(newPrice, p -> {
+        final IOrdersBucket anotherBucket = buckets.getIfAbsentPut(newPrice, p -> {
             IOrdersBucket b = new OrdersBucketNaiveImpl();
             b.setPrice(p);
             return b;
         });
+        order.queueSeq = ++lastQueueSeq;
         anotherBucket.put(order);
+        OrderBookEventsHelper.attachL2Update(cmd, order.action, newPrice, anotherBucket.getTotalVolume());
+        rollingHash += IOrderBook.orderHash(orderId, order.uid, newPrice, order.action, order.queueSeq, order.size - filled);
+        OrderBookEventsHelper.sendL3Event(cmd, L3EventType.MODIFY, order.action, orderId, order.uid, newPrice, order.size - filled);
 
         return CommandResultCode.SUCCESS;
     }
@@ -275,9 +337,9 @@ public final class OrderBookNaiveImpl implements IOrderBook {
      * Get bucket by order action
      *
      * @param action - action
-     * @return bucket - navigable map
+     * @return bucket - sorted map
      */
-    private NavigableMap<Long, IOrdersBucket> getBucketsByAction(OrderAction action) {
+    private LongObjectTreeMap<IOrdersBucket> getBucketsByAction(OrderAction action) {
         return action == OrderAction.ASK ? askBuckets : bidBuckets;
     }
 
@@ -301,7 +363,7 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         }
 
         int i = 0;
-        for (IOrdersBucket bucket : askBuckets.values()) {
+        for (IOrdersBucket bucket = askBuckets.firstValue(); bucket != null; bucket = askBuckets.higherValue(bucket.getPrice())) {
             data.askPrices[i] = bucket.getPrice();
             data.askVolumes[i] = bucket.getTotalVolume();
             if (++i == size) {
@@ -319,7 +381,7 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         }
 
         int i = 0;
-        for (IOrdersBucket bucket : bidBuckets.values()) {
+        for (IOrdersBucket bucket = bidBuckets.lastValue(); bucket != null; bucket = bidBuckets.lowerValue(bucket.getPrice())) {
             data.bidPrices[i] = bucket.getPrice();
             data.bidVolumes[i] = bucket.getTotalVolume();
             if (++i == size) {
@@ -342,30 +404,38 @@ public final class OrderBookNaiveImpl implements IOrderBook {
 
     @Override
     public List<IOrdersBucket> getAllAskBuckets() {
-        return new ArrayList<>(askBuckets.values());
+        return askBuckets.values();
     }
 
     @Override
     public List<IOrdersBucket> getAllBidBuckets() {
-        return new ArrayList<>(bidBuckets.values());
+        return bidBuckets.valuesDescending();
     }
 
     @Override
     public long getBestAsk() {
-        Long price = askBuckets.firstKey();
-        return price != null ? price : Long.MAX_VALUE;
+        return askBuckets.firstKey(Long.MAX_VALUE);
     }
 
     @Override
     public long getBestBid() {
-        Long price = bidBuckets.firstKey();
-        return price != null ? price : 0;
+        return bidBuckets.lastKey(0);
     }
 
     @Override
     public void validateInternalState() {
-        askBuckets.values().forEach(IOrdersBucket::validate);
-        bidBuckets.values().forEach(IOrdersBucket::validate);
+        askBuckets.validate();
+        bidBuckets.validate();
+        askBuckets.forEachValue(IOrdersBucket::validate);
+        bidBuckets.forEachValue(IOrdersBucket::validate);
+        if (rollingHash != calculateRollingHash()) {
+            throw new IllegalStateException("rolling hash differs from orders");
+        }
+    }
+
+    @Override
+    public long getRollingHash() {
+        return rollingHash;
     }
 
     @Override
@@ -373,6 +443,11 @@ public final class OrderBookNaiveImpl implements IOrderBook {
         return OrderBookImplType.NAIVE;
     }
 
+    @Override
+    public SymbolType getSymbolType() {
+        return symbolType;
+    }
+
     @Override
     public List<Order> findUserOrders(final long uid) {
         List<Order> list = new ArrayList<>();
@@ -381,8 +456,8 @@ public final class OrderBookNaiveImpl implements IOrderBook {
                 list.add(order);
             }
         });
-        askBuckets.values().forEach(bucketConsumer);
-        bidBuckets.values().forEach(bucketConsumer);
+        askBuckets.forEachValue(bucketConsumer);
+        bidBuckets.forEachValue(bucketConsumer);
         return list;
     }
 
@@ -404,14 +479,15 @@ public final class OrderBookNaiveImpl implements IOrderBook {
     public void writeMarshallable(BytesOut bytes) {
         bytes.writeByte(getImplementationType().getCode());
         bytes.writeByte(symbolType.getCode());
-        Utils.marshallLongMap(askBuckets, bytes);
-        Utils.marshallLongMap(bidBuckets, bytes);
+        Utils.marshallLongTreeMap(askBuckets, bytes);
+        Utils.marshallLongTreeMap(bidBuckets, bytes);
+        bytes.writeLong(lastQueueSeq);
     }
 
     @Override
     public int hashCode() {
         IOrdersBucket[] a = this.askBuckets.values().toArray(new IOrdersBucket[0]);
-        IOrdersBucket[] b = this.bidBuckets.values().toArray(new IOrdersBucket[0]);
+        IOrdersBucket[] b = this.bidBuckets.valuesDescending().toArray(new IOrdersBucket[0]);
 //        for(IOrdersBucket ord: a) log.debug("ask {}", ord);
 //        for(IOrdersBucket ord: b) log.debug("bid {}", ord);
         return IOrderBook.hash(a, b, symbolType);
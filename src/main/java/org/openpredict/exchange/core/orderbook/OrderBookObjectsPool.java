@@ -0,0 +1,65 @@
+package org.openpredict.exchange.core.orderbook;
+
+import lombok.Getter;
+import org.openpredict.exchange.beans.Order;
+import org.openpredict.exchange.core.collections.ObjectsPool;
+
+/**
+ * Orders and buckets pools shared by all order books of one matching engine shard.<br/>
+ * Idle capacity is shared between symbols, so total pooled memory follows the number of live orders,
+ * not the number of symbols.
+ * <p>
+ * Owned by the matching engine router and used from its thread only - not thread safe.
+ */
+@Getter
+public final class OrderBookObjectsPool {
+
+    public static final int DEFAULT_MIN_IDLE = 1024;
+    public static final int DEFAULT_MAX_IDLE = 1 << 20;
+
+    private final ObjectsPool<Order> orders;
+    private final ObjectsPool<IOrdersBucket> buckets;
+
+    public OrderBookObjectsPool() {
+        this(DEFAULT_MIN_IDLE, DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     * @param minIdle number of idle objects (of each type) to keep on trim
+     * @param maxIdle max number of idle objects (of each type)
+     */
+    public OrderBookObjectsPool(final int minIdle, final int maxIdle) {
+        this.orders = new ObjectsPool<>(Order::new, minIdle, maxIdle);
+        this.buckets = new ObjectsPool<>(OrdersBucketLinkedImpl::new, minIdle, maxIdle);
+    }
+
+    public Order getOrder() {
+        return orders.get();
+    }
+
+    public void releaseOrder(final Order order) {
+        orders.release(order);
+    }
+
+    public IOrdersBucket getBucket() {
+        return buckets.get();
+    }
+
+    public void releaseBucket(final IOrdersBucket bucket) {
+        buckets.release(bucket);
+    }
+
+    /**
+     * Apply trim policy to both pools, should be called periodically
+     *
+     * @return number of released objects
+     */
+    public int trim() {
+        return orders.trim() + buckets.trim();
+    }
+
+    @Override
+    public String toString() {
+        return "orders: " + orders + ", buckets: " + buckets;
+    }
+}
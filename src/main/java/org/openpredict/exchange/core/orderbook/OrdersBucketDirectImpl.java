@@ -0,0 +1,333 @@
+package org.openpredict.exchange.core.orderbook;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.openpredict.exchange.beans.Order;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.openpredict.exchange.core.orderbook.DirectOrdersStore.NULL_HANDLE;
+
+/**
+ * Off-heap version of Order Bucket.<br/>
+ * Orders are kept in {@link DirectOrdersStore} slots and referenced by int handles,
+ * queue is a doubly-linked list built from prev/next handles of the slots.<br/>
+ * Bucket owns the slots of its orders: fully matched or removed orders are released back to the store.
+ * <p>
+ * Methods accepting or returning Order objects copy data between objects and slots (produce garbage),
+ * order book should use handle-based methods instead.
+ */
+@ToString(of = {"price", "numOrders", "totalVolume"})
+public final class OrdersBucketDirectImpl implements IOrdersBucket {
+
+    private final DirectOrdersStore store;
+
+    @Getter
+    @Setter
+    private long price;
+
+    private int head = NULL_HANDLE;
+    private int tail = NULL_HANDLE;
+
+    private int numOrders = 0;
+
+    @Getter
+    private long totalVolume = 0;
+
+    public OrdersBucketDirectImpl(final DirectOrdersStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Read bucket, type code should be already consumed
+     */
+    public OrdersBucketDirectImpl(final DirectOrdersStore store, final BytesIn bytes) {
+        this.store = store;
+        this.price = bytes.readLong();
+        final int count = bytes.readInt();
+        for (int i = 0; i < count; i++) {
+            linkLast(store.readOrder(bytes));
+        }
+        this.totalVolume = bytes.readLong();
+    }
+
+    /**
+     * Put order slot into the end of the queue
+     *
+     * @param handle - order handle
+     */
+    public void putHandle(final int handle) {
+        linkLast(handle);
+        totalVolume += store.getSize(handle) - store.getFilled(handle);
+    }
+
+    /**
+     * Remove order slot from the queue (slot is not released)
+     *
+     * @param handle - order handle
+     */
+    public void removeHandle(final int handle) {
+        unlink(handle);
+        totalVolume -= store.getSize(handle) - store.getFilled(handle);
+    }
+
+    /**
+     * Reduce size of the order slot in place, keeping its queue position
+     *
+     * @param handle   - order handle
+     * @param reduceBy - size to reduce by
+     */
+    public void reduceHandle(final int handle, final long reduceBy) {
+        store.setSize(handle, store.getSize(handle) - reduceBy);
+        totalVolume -= reduceBy;
+    }
+
+    /**
+     * Copies order into a new slot
+     */
+    @Override
+    public void put(Order order) {
+        putHandle(store.allocate(order));
+    }
+
+    @Override
+    public Order remove(long orderId, long uid) {
+        final int handle = findHandle(orderId);
+        if (handle == NULL_HANDLE || store.getUid(handle) != uid) {
+            return null;
+        }
+        removeHandle(handle);
+        final Order order = store.toOrder(handle);
+        store.free(handle);
+        return order;
+    }
+
+    @Override
+    public void reduceOrder(Order order, long reduceBy) {
+        reduceHandle(findHandle(order.orderId), reduceBy);
+        order.size -= reduceBy;
+    }
+
+    @Override
+    public long match(long volumeToCollect, OrderCommand activeOrder, OrderCommand triggerCmd, Consumer<Order> removeOrderCallback) {
+        return match(volumeToCollect, activeOrder, triggerCmd, removeOrderCallback, null);
+    }
+
+    /**
+     * Match specified volume, ignore orders from the same uid.
+     * Fully matched orders slots are released.
+     *
+     * @param volumeToCollect       - volume to collect
+     * @param activeOrder           - active order (ignore orders same uid)
+     * @param triggerCmd            - command to attach events to
+     * @param removedHandleHandler  - receives handle of each fully matched order (before slot is released)
+     * @return total matched volume
+     */
+    public long match(long volumeToCollect, OrderCommand activeOrder, OrderCommand triggerCmd, IntProcedure removedHandleHandler) {
+        return match(volumeToCollect, activeOrder, triggerCmd, null, removedHandleHandler);
+    }
+
+    private long match(long volumeToCollect, OrderCommand activeOrder, OrderCommand triggerCmd,
+                       Consumer<Order> removeOrderCallback, IntProcedure removedHandleHandler) {
+
+        final long ignoreUid = activeOrder.uid;
+
+        long totalMatchingVolume = 0;
+
+        int handle = head;
+        while (handle != NULL_HANDLE && volumeToCollect > 0) {
+
+            // remember next order before releasing the slot
+            final int next = store.getNext(handle);
+
+            final long uid = store.getUid(handle);
+
+            // ignoring own orders
+            if (uid == ignoreUid) {
+                handle = next;
+                continue;
+            }
+
+            // calculate exact volume can fill for this order
+            final long size = store.getSize(handle);
+            final long filled = store.getFilled(handle);
+            final long v = Math.min(volumeToCollect, size - filled);
+            totalMatchingVolume += v;
+
+            store.setFilled(handle, filled + v);
+            volumeToCollect -= v;
+            totalVolume -= v;
+
+            // remove from order book filled orders
+            final boolean fullMatch = size == filled + v;
+
+            final long orderId = store.getOrderId(handle);
+            OrderBookEventsHelper.sendTradeEvent(triggerCmd, activeOrder, orderId, uid, store.getReserveBidPrice(handle),
+                    fullMatch, volumeToCollect == 0, price, v);
+
+            if (fullMatch) {
+                unlink(handle);
+                if (removeOrderCallback != null) {
+                    removeOrderCallback.accept(store.toOrder(handle));
+                }
+                if (removedHandleHandler != null) {
+                    removedHandleHandler.value(handle);
+                }
+                store.free(handle);
+            }
+
+            handle = next;
+        }
+
+        return totalMatchingVolume;
+    }
+
+    @Override
+    public int getNumOrders() {
+        return numOrders;
+    }
+
+    @Override
+    public void validate() {
+        int c = 0;
+        long sum = 0;
+        int prev = NULL_HANDLE;
+        for (int handle = head; handle != NULL_HANDLE; handle = store.getNext(handle)) {
+            if (store.getPrev(handle) != prev) {
+                throw new IllegalStateException("broken prev link for order " + store.getOrderId(handle));
+            }
+            sum += store.getSize(handle) - store.getFilled(handle);
+            prev = handle;
+            c++;
+        }
+
+        if (prev != tail) {
+            throw new IllegalStateException("tail is not the last order");
+        }
+        if (c != numOrders) {
+            String msg = String.format("%d: Found %d orders in queue, but numOrders=%d", price, c, numOrders);
+            throw new IllegalStateException(msg);
+        }
+        if (sum != totalVolume) {
+            String msg = String.format("totalVolume=%d calculated=%d", totalVolume, sum);
+            throw new IllegalStateException(msg);
+        }
+    }
+
+    /**
+     * Produces garbage
+     */
+    @Override
+    public Order findOrder(long orderId) {
+        final int handle = findHandle(orderId);
+        return handle != NULL_HANDLE ? store.toOrder(handle) : null;
+    }
+
+    private int findHandle(long orderId) {
+        for (int handle = head; handle != NULL_HANDLE; handle = store.getNext(handle)) {
+            if (store.getOrderId(handle) == orderId) {
+                return handle;
+            }
+        }
+        return NULL_HANDLE;
+    }
+
+    @Override
+    public List<Order> getAllOrders() {
+        final List<Order> list = new ArrayList<>(numOrders);
+        forEachOrder(list::add);
+        return list;
+    }
+
+    /**
+     * Produces garbage - consumer receives copies of orders
+     */
+    @Override
+    public void forEachOrder(Consumer<Order> consumer) {
+        for (int handle = head; handle != NULL_HANDLE; handle = store.getNext(handle)) {
+            consumer.accept(store.toOrder(handle));
+        }
+    }
+
+    /**
+     * Execute action for each order handle (preserving execution queue order)
+     *
+     * @param procedure action
+     */
+    public void forEachHandle(IntProcedure procedure) {
+        for (int handle = head; handle != NULL_HANDLE; handle = store.getNext(handle)) {
+            procedure.value(handle);
+        }
+    }
+
+    @Override
+    public OrderBucketImplType getImplementationType() {
+        return OrderBucketImplType.DIRECT;
+    }
+
+    @Override
+    public void writeMarshallable(BytesOut bytes) {
+        bytes.writeByte(getImplementationType().getCode());
+        bytes.writeLong(price);
+        // orders are saved in execution order
+        bytes.writeInt(numOrders);
+        for (int handle = head; handle != NULL_HANDLE; handle = store.getNext(handle)) {
+            store.writeOrder(handle, bytes);
+        }
+        bytes.writeLong(totalVolume);
+    }
+
+    private void linkLast(final int handle) {
+        store.setPrev(handle, tail);
+        store.setNext(handle, NULL_HANDLE);
+        if (tail == NULL_HANDLE) {
+            head = handle;
+        } else {
+            store.setNext(tail, handle);
+        }
+        tail = handle;
+        numOrders++;
+    }
+
+    private void unlink(final int handle) {
+        final int prev = store.getPrev(handle);
+        final int next = store.getNext(handle);
+        if (prev == NULL_HANDLE) {
+            head = next;
+        } else {
+            store.setNext(prev, next);
+        }
+        if (next == NULL_HANDLE) {
+            tail = prev;
+        } else {
+            store.setPrev(next, prev);
+        }
+        numOrders--;
+    }
+
+    @Override
+    public int hashCode() {
+        return IOrdersBucket.hash(price, getAllOrders().toArray(new Order[0]));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (o == null) return false;
+        if (!(o instanceof IOrdersBucket)) return false;
+        IOrdersBucket other = (IOrdersBucket) o;
+        return new EqualsBuilder()
+                .append(price, other.getPrice())
+                .append(getAllOrders(), other.getAllOrders())
+                .isEquals();
+    }
+
+}
@@ -166,6 +166,12 @@ public final class OrdersBucketFastImpl implements IOrdersBucket {
         return order;
     }
 
+    @Override
+    public void reduceOrder(Order order, long reduceBy) {
+        order.size -= reduceBy;
+        totalVolume -= reduceBy;
+    }
+
     /**
      * Collect a list of matching orders starting from eldest records
      * Completely matching orders will be removed, partially matched order kept in the bucked.
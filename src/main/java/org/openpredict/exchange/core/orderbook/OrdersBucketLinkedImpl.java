@@ -0,0 +1,253 @@
+package org.openpredict.exchange.core.orderbook;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.openpredict.exchange.beans.Order;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Intrusive linked version of Order Bucket.<br/>
+ * Orders queue is a doubly-linked list built from prev/next references of the orders themselves,
+ * so placing and removing a known order (see {@link #removeOrder(Order)}) is O(1),
+ * there is no index hashtable, no queue array resizing and no holes to skip during matching.<br/>
+ * <p>
+ * Lookup by orderId ({@link #remove(long, long)}, {@link #findOrder(long)}) requires scanning the queue -
+ * order book should keep its own orderId index and use {@link #removeOrder(Order)} instead.<br/>
+ * Order can only be linked into one bucket at a time.
+ */
+@Slf4j
+@ToString(of = {"price", "numOrders", "totalVolume"})
+public final class OrdersBucketLinkedImpl implements IOrdersBucket {
+
+    @Getter
+    @Setter
+    private long price;
+
+    private Order head = null;
+    private Order tail = null;
+
+    private int numOrders = 0;
+
+    @Getter
+    private long totalVolume = 0;
+
+    public OrdersBucketLinkedImpl() {
+    }
+
+    public OrdersBucketLinkedImpl(BytesIn bytes) {
+        this.price = bytes.readLong();
+        int count = bytes.readInt();
+        for (int i = 0; i < count; i++) {
+            linkLast(new Order(bytes));
+        }
+        this.totalVolume = bytes.readLong();
+    }
+
+    @Override
+    public void put(Order order) {
+        linkLast(order);
+        totalVolume += order.size - order.filled;
+    }
+
+    /**
+     * Remove order, requires scanning the queue.
+     */
+    @Override
+    public Order remove(long orderId, long uid) {
+        final Order order = findOrder(orderId);
+        if (order == null || order.uid != uid) {
+            return null;
+        }
+        removeOrder(order);
+        return order;
+    }
+
+    @Override
+    public void removeOrder(Order order) {
+        unlink(order);
+        totalVolume -= order.size - order.filled;
+    }
+
+    @Override
+    public void reduceOrder(Order order, long reduceBy) {
+        order.size -= reduceBy;
+        totalVolume -= reduceBy;
+    }
+
+    /**
+     * Collect a list of matching orders starting from eldest records
+     * Completely matching orders will be removed, partially matched order kept in the bucked.
+     * Own orders of the active order uid are skipped and keep their queue positions.
+     */
+    @Override
+    public long match(long volumeToCollect, OrderCommand activeOrder, OrderCommand triggerCmd, Consumer<Order> removeOrderCallback) {
+
+        final long ignoreUid = activeOrder.uid;
+
+        long totalMatchingVolume = 0;
+
+        Order order = head;
+        while (order != null && volumeToCollect > 0) {
+
+            // remember next order before unlinking
+            final Order next = order.next;
+
+            // ignoring own orders
+            if (order.uid == ignoreUid) {
+                order = next;
+                continue;
+            }
+
+            // calculate exact volume can fill for this order
+            long v = Math.min(volumeToCollect, order.size - order.filled);
+            totalMatchingVolume += v;
+
+            order.filled += v;
+            volumeToCollect -= v;
+            totalVolume -= v;
+
+            // remove from order book filled orders
+            boolean fullMatch = order.size == order.filled;
+
+            OrderBookEventsHelper.sendTradeEvent(triggerCmd, activeOrder, order, fullMatch, volumeToCollect == 0, price, v);
+
+            if (fullMatch) {
+                unlink(order);
+                removeOrderCallback.accept(order);
+            }
+
+            order = next;
+        }
+
+        return totalMatchingVolume;
+    }
+
+    @Override
+    public int getNumOrders() {
+        return numOrders;
+    }
+
+    @Override
+    public void validate() {
+        int c = 0;
+        long sum = 0;
+        Order prev = null;
+        for (Order order = head; order != null; order = order.next) {
+            if (order.prev != prev) {
+                throw new IllegalStateException("broken prev link for order " + order.orderId);
+            }
+            sum += order.size - order.filled;
+            prev = order;
+            c++;
+        }
+
+        if (prev != tail) {
+            throw new IllegalStateException("tail is not the last order");
+        }
+        if (c != numOrders) {
+            String msg = String.format("%d: Found %d orders in queue, but numOrders=%d", price, c, numOrders);
+            throw new IllegalStateException(msg);
+        }
+        if (sum != totalVolume) {
+            String msg = String.format("totalVolume=%d calculated=%d", totalVolume, sum);
+            throw new IllegalStateException(msg);
+        }
+    }
+
+    @Override
+    public Order findOrder(long orderId) {
+        for (Order order = head; order != null; order = order.next) {
+            if (order.orderId == orderId) {
+                return order;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Order> getAllOrders() {
+        final List<Order> list = new ArrayList<>(numOrders);
+        forEachOrder(list::add);
+        return list;
+    }
+
+    @Override
+    public void forEachOrder(Consumer<Order> consumer) {
+        for (Order order = head; order != null; order = order.next) {
+            consumer.accept(order);
+        }
+    }
+
+    @Override
+    public OrderBucketImplType getImplementationType() {
+        return OrderBucketImplType.LINKED;
+    }
+
+    @Override
+    public void writeMarshallable(BytesOut bytes) {
+        bytes.writeByte(getImplementationType().getCode());
+        bytes.writeLong(price);
+        // orders are saved in execution order
+        bytes.writeInt(numOrders);
+        forEachOrder(order -> order.writeMarshallable(bytes));
+        bytes.writeLong(totalVolume);
+    }
+
+    private void linkLast(Order order) {
+        order.prev = tail;
+        order.next = null;
+        if (tail == null) {
+            head = order;
+        } else {
+            tail.next = order;
+        }
+        tail = order;
+        numOrders++;
+    }
+
+    private void unlink(Order order) {
+        final Order prev = order.prev;
+        final Order next = order.next;
+        if (prev == null) {
+            head = next;
+        } else {
+            prev.next = next;
+        }
+        if (next == null) {
+            tail = prev;
+        } else {
+            next.prev = prev;
+        }
+        // order object can be reused
+        order.prev = null;
+        order.next = null;
+        numOrders--;
+    }
+
+    @Override
+    public int hashCode() {
+        return IOrdersBucket.hash(price, getAllOrders().toArray(new Order[0]));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (o == null) return false;
+        if (!(o instanceof IOrdersBucket)) return false;
+        IOrdersBucket other = (IOrdersBucket) o;
+        return new EqualsBuilder()
+                .append(price, other.getPrice())
+                .append(getAllOrders(), other.getAllOrders())
+                .isEquals();
+    }
+
+}
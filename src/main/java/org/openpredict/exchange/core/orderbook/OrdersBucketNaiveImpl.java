@@ -58,6 +58,12 @@ public final class OrdersBucketNaiveImpl implements IOrdersBucket {
         return order;
     }
 
+    @Override
+    public void reduceOrder(Order order, long reduceBy) {
+        order.size -= reduceBy;
+        totalVolume -= reduceBy;
+    }
+
     /**
      * Collect a list of matching orders starting from eldest records
      * Completely matching orders will be removed, partially matched order kept in the bucked.
@@ -0,0 +1,93 @@
+package org.openpredict.exchange.core.orderbook;
+
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+import org.openpredict.exchange.beans.Order;
+
+import java.util.function.Consumer;
+
+/**
+ * Index uid -> resting orders.<br/>
+ * Orders of each user are linked into doubly-linked list through userPrev/userNext references of the orders,
+ * hashtable keeps only the list heads, so adding and removing an order is O(1) and does not allocate
+ * (except growing hashtable when number of users grows).
+ * Searching user orders takes time proportional to the number of user orders.
+ * <p>
+ * Not thread safe.
+ */
+public final class UserOrdersIndex {
+
+    private final LongObjectHashMap<Order> heads = new LongObjectHashMap<>();
+
+    public void add(final Order order) {
+        final Order head = heads.get(order.uid);
+        order.userPrev = null;
+        order.userNext = head;
+        if (head != null) {
+            head.userPrev = order;
+        }
+        heads.put(order.uid, order);
+    }
+
+    public void remove(final Order order) {
+        final Order prev = order.userPrev;
+        final Order next = order.userNext;
+        if (prev == null) {
+            if (next == null) {
+                heads.remove(order.uid);
+            } else {
+                heads.put(order.uid, next);
+            }
+        } else {
+            prev.userNext = next;
+        }
+        if (next != null) {
+            next.userPrev = prev;
+        }
+        // order object can be reused
+        order.userPrev = null;
+        order.userNext = null;
+    }
+
+    /**
+     * Execute action for each order of the user (most recently placed first).<br/>
+     * Action can remove the order it receives (next order is taken before the action is called).
+     *
+     * @param uid      user id
+     * @param consumer action
+     */
+    public void forEachUserOrder(final long uid, final Consumer<Order> consumer) {
+        Order next;
+        for (Order order = heads.get(uid); order != null; order = next) {
+            next = order.userNext;
+            consumer.accept(order);
+        }
+    }
+
+    public void clear() {
+        heads.clear();
+    }
+
+    // testing only - validate links and compare with orderId index
+    public void validate(final LongObjectHashMap<Order> idMap) {
+        final int[] count = new int[1];
+        heads.forEachKeyValue((uid, head) -> {
+            Order prev = null;
+            for (Order order = head; order != null; order = order.userNext) {
+                if (order.userPrev != prev) {
+                    throw new IllegalStateException("broken userPrev link for order " + order.orderId);
+                }
+                if (order.uid != uid) {
+                    throw new IllegalStateException("order " + order.orderId + " is linked into orders list of uid " + uid);
+                }
+                if (idMap.get(order.orderId) != order) {
+                    throw new IllegalStateException("indexed order " + order.orderId + " is unknown");
+                }
+                prev = order;
+                count[0]++;
+            }
+        });
+        if (count[0] != idMap.size()) {
+            throw new IllegalStateException(String.format("user orders index size %d != known orders %d", count[0], idMap.size()));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.openpredict.exchange.core.partitioning;
+
+import lombok.Getter;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.WriteBytesMarshallable;
+import org.openpredict.exchange.beans.StateHash;
+
+/**
+ * Function assigning users to risk engine shards.<br/>
+ * Same instance is shared by all risk engine shards, so it must be immutable.
+ * It is persisted with risk engine state (type code first), because users can not be re-partitioned on restore.
+ */
+public interface IUidPartitioner extends WriteBytesMarshallable, StateHash {
+
+    /**
+     * @param uid - user id
+     * @return risk engine shard owning the user [0..numShards)
+     */
+    int shardForUid(long uid);
+
+    int getNumShards();
+
+    /**
+     * Default partitioning: uid bit mask (compatible with old snapshots) for power of 2 number of shards,
+     * mixing hash otherwise.
+     *
+     * @param numShards - number of risk engine shards
+     * @return partitioner
+     */
+    static IUidPartitioner createDefault(final int numShards) {
+        return Integer.bitCount(numShards) == 1
+                ? new UidPartitionerMask(numShards)
+                : new UidPartitionerHash(numShards);
+    }
+
+    static IUidPartitioner create(final BytesIn bytes) {
+        switch (UidPartitionerType.of(bytes.readByte())) {
+            case MASK:
+                return new UidPartitionerMask(bytes);
+            case HASH:
+                return new UidPartitionerHash(bytes);
+            case RANGES:
+                return new UidPartitionerRanges(bytes);
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    @Getter
+    enum UidPartitionerType {
+        MASK(0),
+        HASH(1),
+        RANGES(2);
+
+        private byte code;
+
+        UidPartitionerType(int code) {
+            this.code = (byte) code;
+        }
+
+        public static UidPartitionerType of(byte code) {
+            switch (code) {
+                case 0:
+                    return MASK;
+                case 1:
+                    return HASH;
+                case 2:
+                    return RANGES;
+                default:
+                    throw new IllegalArgumentException("unknown UidPartitionerType:" + code);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.openpredict.exchange.core.partitioning;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+import org.openpredict.exchange.beans.StateHash;
+
+import java.util.Objects;
+
+/**
+ * Mixed uid bits mapped to the shard range by multiplication (no division) - uniform for any uid assignment scheme
+ * and any number of shards.
+ */
+@EqualsAndHashCode
+@ToString
+public final class UidPartitionerHash implements IUidPartitioner {
+
+    @Getter
+    private final int numShards;
+
+    public UidPartitionerHash(final int numShards) {
+        if (numShards < 1) {
+            throw new IllegalArgumentException("Invalid number of shards " + numShards);
+        }
+        this.numShards = numShards;
+    }
+
+    public UidPartitionerHash(final BytesIn bytes) {
+        this(bytes.readInt());
+    }
+
+    @Override
+    public int shardForUid(final long uid) {
+        // upper 32 bits of mixed value multiplied by number of shards
+        return (int) (((StateHash.mix(uid) >>> 32) * numShards) >>> 32);
+    }
+
+    @Override
+    public void writeMarshallable(final BytesOut bytes) {
+        bytes.writeByte(UidPartitionerType.HASH.getCode());
+        bytes.writeInt(numShards);
+    }
+
+    @Override
+    public int stateHash() {
+        return Objects.hash(UidPartitionerType.HASH.getCode(), numShards);
+    }
+}
@@ -0,0 +1,50 @@
+package org.openpredict.exchange.core.partitioning;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+
+import java.util.Objects;
+
+/**
+ * Lower bits of uid - cheapest, but skewed if uids are not uniformly distributed in lower bits
+ * (for example, assigned in blocks with common stride). Number of shards must be power of 2.
+ */
+@EqualsAndHashCode
+@ToString
+public final class UidPartitionerMask implements IUidPartitioner {
+
+    @Getter
+    private final int numShards;
+    private final long shardMask;
+
+    public UidPartitionerMask(final int numShards) {
+        if (Integer.bitCount(numShards) != 1) {
+            throw new IllegalArgumentException("Invalid number of shards " + numShards + " - must be power of 2");
+        }
+        this.numShards = numShards;
+        this.shardMask = numShards - 1;
+    }
+
+    public UidPartitionerMask(final BytesIn bytes) {
+        this(bytes.readInt());
+    }
+
+    @Override
+    public int shardForUid(final long uid) {
+        return (int) (uid & shardMask);
+    }
+
+    @Override
+    public void writeMarshallable(final BytesOut bytes) {
+        bytes.writeByte(UidPartitionerType.MASK.getCode());
+        bytes.writeInt(numShards);
+    }
+
+    @Override
+    public int stateHash() {
+        return Objects.hash(UidPartitionerType.MASK.getCode(), numShards);
+    }
+}
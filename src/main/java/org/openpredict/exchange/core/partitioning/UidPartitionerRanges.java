@@ -0,0 +1,90 @@
+package org.openpredict.exchange.core.partitioning;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesOut;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Explicit table of uid ranges, for uids assigned in blocks (for example, per broker).<br/>
+ * Range i starts at fromUids[i] (inclusive) and is served by shards[i], uids below the first range belong to the first range.
+ */
+@EqualsAndHashCode
+@ToString
+public final class UidPartitionerRanges implements IUidPartitioner {
+
+    @Getter
+    private final int numShards;
+    private final long[] fromUids;
+    private final int[] shards;
+
+    public UidPartitionerRanges(final int numShards, final long[] fromUids, final int[] shards) {
+        if (numShards < 1) {
+            throw new IllegalArgumentException("Invalid number of shards " + numShards);
+        }
+        if (fromUids.length == 0 || fromUids.length != shards.length) {
+            throw new IllegalArgumentException("Ranges and shards must be non-empty arrays of the same length");
+        }
+        for (int i = 0; i < fromUids.length; i++) {
+            if (i > 0 && fromUids[i] <= fromUids[i - 1]) {
+                throw new IllegalArgumentException("Ranges must be sorted, fromUid=" + fromUids[i]);
+            }
+            if (shards[i] < 0 || shards[i] >= numShards) {
+                throw new IllegalArgumentException("Invalid shard " + shards[i] + " for range fromUid=" + fromUids[i]);
+            }
+        }
+        this.numShards = numShards;
+        this.fromUids = fromUids.clone();
+        this.shards = shards.clone();
+    }
+
+    public UidPartitionerRanges(final BytesIn bytes) {
+        this(bytes.readInt(), readLongs(bytes), readInts(bytes));
+    }
+
+    @Override
+    public int shardForUid(final long uid) {
+        final int idx = Arrays.binarySearch(fromUids, uid);
+        // not found: insertion point - 1 is the range containing uid
+        return shards[idx >= 0 ? idx : Math.max(0, -idx - 2)];
+    }
+
+    @Override
+    public void writeMarshallable(final BytesOut bytes) {
+        bytes.writeByte(UidPartitionerType.RANGES.getCode());
+        bytes.writeInt(numShards);
+        bytes.writeInt(fromUids.length);
+        for (long fromUid : fromUids) {
+            bytes.writeLong(fromUid);
+        }
+        bytes.writeInt(shards.length);
+        for (int shard : shards) {
+            bytes.writeInt(shard);
+        }
+    }
+
+    @Override
+    public int stateHash() {
+        return Objects.hash(UidPartitionerType.RANGES.getCode(), numShards, Arrays.hashCode(fromUids), Arrays.hashCode(shards));
+    }
+
+    private static long[] readLongs(final BytesIn bytes) {
+        final long[] array = new long[bytes.readInt()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = bytes.readLong();
+        }
+        return array;
+    }
+
+    private static int[] readInts(final BytesIn bytes) {
+        final int[] array = new int[bytes.readInt()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = bytes.readInt();
+        }
+        return array;
+    }
+}
@@ -0,0 +1,108 @@
+package org.openpredict.exchange.core.biprocessor;
+
+import com.lmax.disruptor.AlertException;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.SequenceBarrier;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+
+import java.util.concurrent.locks.LockSupport;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@Slf4j
+public class WaitSpinningHelperTest {
+
+    private static final PhasedWaitStrategy FAST_BACKOFF = PhasedWaitStrategy.builder()
+            .spinNanos(200_000)
+            .yieldNanos(20_000_000)
+            .minParkNanos(10_000)
+            .maxParkNanos(100_000)
+            .build();
+
+    private RingBuffer<OrderCommand> ringBuffer;
+    private SequenceBarrier barrier;
+    private final WaitPhaseCounters counters = new WaitPhaseCounters();
+
+    @Before
+    public void before() {
+        ringBuffer = RingBuffer.createSingleProducer(OrderCommand::new, 16, new BusySpinWaitStrategy());
+        barrier = ringBuffer.newBarrier();
+    }
+
+    @Test(timeout = 10_000)
+    public void shouldSwitchPhasesWhileIdle() throws AlertException {
+        final WaitSpinningHelper helper = new WaitSpinningHelper(ringBuffer, barrier, 100, FAST_BACKOFF, counters);
+
+        while (counters.getParks() < 5) {
+            assertThat(helper.tryWaitFor(0), is(-1L));
+            // phases are switched in order
+            if (counters.getYields() == 0) {
+                assertThat(counters.getParks(), is(0L));
+            }
+        }
+        log.debug("counters: {}", counters);
+
+        assertThat(counters.getSpinNanos(), greaterThan(0L));
+        assertThat(counters.getYields(), greaterThan(0L));
+        assertThat(counters.getYieldNanos(), greaterThan(0L));
+        assertThat(counters.getParkNanos(), greaterThanOrEqualTo(5 * FAST_BACKOFF.minParkNanos));
+        assertThat(counters.getIdlePeriods(), is(1L));
+
+        // available sequence ends idle period, next waiting starts from spinning
+        ringBuffer.publish(ringBuffer.next());
+        assertThat(helper.tryWaitFor(0), is(0L));
+        final long yields = counters.getYields();
+        final long parks = counters.getParks();
+        assertThat(helper.tryWaitFor(1), is(0L));
+        assertThat(counters.getIdlePeriods(), is(2L));
+        assertThat(counters.getYields(), is(yields));
+        assertThat(counters.getParks(), is(parks));
+    }
+
+    @Test
+    public void busySpinShouldNeverYieldOrPark() throws AlertException {
+        final WaitSpinningHelper helper = new WaitSpinningHelper(ringBuffer, barrier, 100, PhasedWaitStrategy.BUSY_SPIN, counters);
+        final long t = System.nanoTime() + 5_000_000;
+        while (System.nanoTime() < t) {
+            assertThat(helper.tryWaitFor(0), is(-1L));
+        }
+        assertThat(counters.getYields(), is(0L));
+        assertThat(counters.getParks(), is(0L));
+        assertThat(counters.getSpinNanos(), greaterThan(0L));
+    }
+
+    @Test(expected = AlertException.class)
+    public void shouldThrowOnAlert() throws AlertException {
+        final WaitSpinningHelper helper = new WaitSpinningHelper(ringBuffer, barrier, 100, PhasedWaitStrategy.BACKOFF, counters);
+        barrier.alert();
+        helper.tryWaitFor(0);
+    }
+
+    @Test(timeout = 10_000)
+    public void phasedBarrierShouldWaitForPublishing() throws Exception {
+        final PhasedSequenceBarrier phasedBarrier = new PhasedSequenceBarrier(ringBuffer, barrier, FAST_BACKOFF, counters);
+
+        final Thread publisher = new Thread(() -> {
+            LockSupport.parkNanos(50_000_000);
+            ringBuffer.publish(ringBuffer.next());
+        });
+        publisher.start();
+
+        assertThat(phasedBarrier.waitFor(0), is(0L));
+        publisher.join();
+
+        // publisher does not signal - parking is time limited
+        assertThat(counters.getParks(), greaterThan(0L));
+        assertThat(counters.getTotalNanos(), greaterThan(40_000_000L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidParkLimits() {
+        PhasedWaitStrategy.builder().spinNanos(1000).yieldNanos(1000).minParkNanos(1000).maxParkNanos(100).build();
+    }
+}
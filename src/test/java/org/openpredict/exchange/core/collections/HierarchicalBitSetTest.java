@@ -0,0 +1,78 @@
+package org.openpredict.exchange.core.collections;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@Slf4j
+public class HierarchicalBitSetTest {
+
+    @Test
+    public void shouldSetAndClear() {
+        final HierarchicalBitSet bits = new HierarchicalBitSet(32768);
+        assertThat(bits.isEmpty(), is(true));
+        assertThat(bits.nextSetBit(0), is(-1));
+        assertThat(bits.previousSetBit(32767), is(-1));
+
+        bits.set(0);
+        bits.set(4095);
+        bits.set(4096);
+        bits.set(32767);
+        assertThat(bits.get(4095), is(true));
+        assertThat(bits.get(4094), is(false));
+
+        assertThat(bits.nextSetBit(0), is(0));
+        assertThat(bits.nextSetBit(1), is(4095));
+        assertThat(bits.nextSetBit(4097), is(32767));
+        assertThat(bits.nextSetBit(32768), is(-1));
+        assertThat(bits.previousSetBit(32766), is(4096));
+        assertThat(bits.previousSetBit(4095), is(4095));
+        assertThat(bits.previousSetBit(4094), is(0));
+        assertThat(bits.previousSetBit(-1), is(-1));
+
+        bits.clear(0);
+        bits.clear(4096);
+        assertThat(bits.nextSetBit(0), is(4095));
+        assertThat(bits.previousSetBit(32766), is(4095));
+        bits.validate();
+
+        bits.clear();
+        assertThat(bits.isEmpty(), is(true));
+        bits.validate();
+    }
+
+    @Test
+    public void shouldBehaveAsBitSet() {
+        for (int size : new int[]{64, 1024, 4096 + 64, 32768}) {
+            final Random rand = new Random(size);
+            final HierarchicalBitSet bits = new HierarchicalBitSet(size);
+            final BitSet reference = new BitSet(size);
+
+            for (int i = 0; i < 100_000; i++) {
+                final int idx = rand.nextInt(size);
+                final int op = rand.nextInt(10);
+                if (op < 2) {
+                    bits.set(idx);
+                    reference.set(idx);
+                } else if (op < 4) {
+                    bits.clear(idx);
+                    reference.clear(idx);
+                } else if (op < 5 && rand.nextInt(4) == 0) {
+                    final int toIdx = Math.min(size, idx + rand.nextInt(300));
+                    bits.clear(idx, toIdx);
+                    reference.clear(idx, toIdx);
+                } else {
+                    assertThat(bits.get(idx), is(reference.get(idx)));
+                    assertThat(bits.nextSetBit(idx), is(reference.nextSetBit(idx)));
+                    assertThat(bits.previousSetBit(idx), is(reference.previousSetBit(idx)));
+                }
+            }
+            bits.validate();
+        }
+    }
+}
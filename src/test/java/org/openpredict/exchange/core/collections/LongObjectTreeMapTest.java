@@ -0,0 +1,131 @@
+package org.openpredict.exchange.core.collections;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertNull;
+
+@Slf4j
+public class LongObjectTreeMapTest {
+
+    private LongObjectTreeMap<String> map;
+
+    @Before
+    public void before() {
+        map = new LongObjectTreeMap<>();
+    }
+
+    @Test
+    public void shouldPutGetRemove() {
+        assertThat(map.isEmpty(), is(true));
+        assertNull(map.put(10, "10"));
+        assertNull(map.put(5, "5"));
+        assertNull(map.put(15, "15"));
+        assertThat(map.put(10, "10a"), is("10"));
+        assertThat(map.size(), is(3));
+        assertThat(map.get(10), is("10a"));
+        assertNull(map.get(11));
+        assertThat(map.containsKey(5), is(true));
+
+        assertThat(map.getIfAbsentPut(5, String::valueOf), is("5"));
+        assertThat(map.getIfAbsentPut(7, String::valueOf), is("7"));
+        assertThat(map.size(), is(4));
+
+        assertThat(map.remove(5), is("5"));
+        assertNull(map.remove(5));
+        assertThat(map.size(), is(3));
+        map.validate();
+
+        map.clear();
+        assertThat(map.isEmpty(), is(true));
+        assertThat(map.firstKey(-1), is(-1L));
+        assertThat(map.lastKey(-1), is(-1L));
+        assertNull(map.firstValue());
+        map.validate();
+    }
+
+    @Test
+    public void shouldNavigate() {
+        for (long k = 100; k <= 200; k += 10) {
+            map.put(k, String.valueOf(k));
+        }
+        map.validate();
+
+        assertThat(map.firstKey(0), is(100L));
+        assertThat(map.lastKey(0), is(200L));
+
+        assertThat(map.ceilingKey(150, -1), is(150L));
+        assertThat(map.ceilingKey(151, -1), is(160L));
+        assertThat(map.ceilingKey(201, -1), is(-1L));
+        assertThat(map.floorKey(150, -1), is(150L));
+        assertThat(map.floorKey(149, -1), is(140L));
+        assertThat(map.floorKey(99, -1), is(-1L));
+        assertThat(map.higherKey(150, -1), is(160L));
+        assertThat(map.higherKey(200, -1), is(-1L));
+        assertThat(map.lowerKey(150, -1), is(140L));
+        assertThat(map.lowerKey(100, -1), is(-1L));
+
+        assertThat(map.ceilingValue(151), is("160"));
+        assertThat(map.floorValue(149), is("140"));
+        assertThat(map.higherValue(150), is("160"));
+        assertThat(map.lowerValue(150), is("140"));
+        assertNull(map.higherValue(200));
+        assertNull(map.lowerValue(100));
+
+        final List<String> desc = map.valuesDescending();
+        assertThat(desc.get(0), is("200"));
+        assertThat(desc.get(desc.size() - 1), is("100"));
+    }
+
+    @Test
+    public void shouldBehaveAsTreeMap() {
+        final Random rand = new Random(1L);
+        final TreeMap<Long, String> reference = new TreeMap<>();
+
+        for (int i = 0; i < 200_000; i++) {
+            final long key = rand.nextInt(5000);
+            final int op = rand.nextInt(10);
+            if (op < 5) {
+                final String v = String.valueOf(rand.nextInt());
+                assertThat(map.put(key, v), is(reference.put(key, v)));
+            } else if (op < 9) {
+                assertThat(map.remove(key), is(reference.remove(key)));
+            } else if (rand.nextInt(20) == 0) {
+                final long toKey = key + rand.nextInt(rand.nextBoolean() ? 50 : 6000);
+                final List<String> removed = new ArrayList<>();
+                map.removeRange(key, toKey, (k, v) -> removed.add(v));
+                final Map<Long, String> expected = reference.subMap(key, true, toKey, true);
+                assertThat(removed, is(new ArrayList<>(expected.values())));
+                expected.clear();
+            } else {
+                assertThat(map.ceilingValue(key), is(valueOrNull(reference.ceilingEntry(key))));
+                assertThat(map.floorValue(key), is(valueOrNull(reference.floorEntry(key))));
+                assertThat(map.higherValue(key), is(valueOrNull(reference.higherEntry(key))));
+                assertThat(map.lowerValue(key), is(valueOrNull(reference.lowerEntry(key))));
+            }
+
+            assertThat(map.size(), is(reference.size()));
+            if (i % 10_000 == 0) {
+                map.validate();
+                assertThat(map.values(), is(new ArrayList<>(reference.values())));
+            }
+        }
+
+        map.validate();
+        assertThat(map.values(), is(new ArrayList<>(reference.values())));
+        assertThat(map.valuesDescending(), is(new ArrayList<>(reference.descendingMap().values())));
+
+        final List<Long> keys = new ArrayList<>();
+        map.forEach((k, v) -> keys.add(k));
+        assertThat(keys, is(new ArrayList<>(reference.keySet())));
+    }
+
+    private static String valueOrNull(Map.Entry<Long, String> entry) {
+        return entry != null ? entry.getValue() : null;
+    }
+}
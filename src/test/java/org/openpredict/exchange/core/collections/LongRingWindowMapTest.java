@@ -0,0 +1,157 @@
+package org.openpredict.exchange.core.collections;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertNull;
+
+@Slf4j
+public class LongRingWindowMapTest {
+
+    private static final int RANGE = 1024;
+
+    @Test
+    public void shouldPutGetRemove() {
+        final LongRingWindowMap<String> map = new LongRingWindowMap<>(RANGE, 1000);
+
+        assertThat(map.isEmpty(), is(true));
+        assertNull(map.put(1000, "1000"));
+        assertNull(map.put(2023, "2023"));
+        assertThat(map.put(1000, "1000a"), is("1000"));
+        assertThat(map.size(), is(2));
+        assertThat(map.get(1000), is("1000a"));
+        assertNull(map.get(999));
+        assertNull(map.get(2024));
+        assertThat(map.isInWindow(2023), is(true));
+        assertThat(map.isInWindow(2024), is(false));
+
+        assertThat(map.firstKey(-1), is(1000L));
+        assertThat(map.lastKey(-1), is(2023L));
+
+        assertThat(map.remove(1000), is("1000a"));
+        assertNull(map.remove(1000));
+        assertNull(map.remove(5000));
+        assertThat(map.size(), is(1));
+        map.validate();
+
+        map.clear();
+        assertThat(map.isEmpty(), is(true));
+        assertThat(map.firstKey(-1), is(-1L));
+        assertNull(map.lastValue());
+        map.validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotPutOutsideOfWindow() {
+        new LongRingWindowMap<>(RANGE, 1000).put(2024, "x");
+    }
+
+    @Test
+    public void shouldEvictOnMove() {
+        final LongRingWindowMap<String> map = new LongRingWindowMap<>(RANGE, 1000);
+        map.put(1000, "1000");
+        map.put(1100, "1100");
+        map.put(1500, "1500");
+        map.put(2000, "2000");
+
+        // moving up - low keys are leaving
+        final List<Long> evicted = new ArrayList<>();
+        map.moveBase(1200, (k, v) -> evicted.add(k));
+        assertThat(evicted, is(Arrays.asList(1000L, 1100L)));
+        assertThat(map.size(), is(2));
+        assertThat(map.firstKey(-1), is(1500L));
+
+        // the same physical slots are reused by entering keys
+        map.put(2100, "2100");
+        map.put(2223, "2223");
+        assertThat(map.values(), is(Arrays.asList("1500", "2000", "2100", "2223")));
+
+        // moving down - high keys are leaving
+        evicted.clear();
+        map.moveBase(1000, (k, v) -> evicted.add(k));
+        assertThat(evicted, is(Arrays.asList(2100L, 2223L)));
+        assertThat(map.values(), is(Arrays.asList("1500", "2000")));
+
+        // moving far away - everything is leaving
+        evicted.clear();
+        map.moveBase(1_000_000, (k, v) -> evicted.add(k));
+        assertThat(evicted, is(Arrays.asList(1500L, 2000L)));
+        assertThat(map.isEmpty(), is(true));
+        map.validate();
+    }
+
+    @Test
+    public void shouldBehaveAsTreeMap() {
+        final Random rand = new Random(1L);
+        final LongRingWindowMap<String> map = new LongRingWindowMap<>(RANGE, 10_000);
+        final TreeMap<Long, String> reference = new TreeMap<>();
+
+        for (int i = 0; i < 200_000; i++) {
+            final long base = map.getBase();
+            final long key = base - 100 + rand.nextInt(RANGE + 200);
+            final int op = rand.nextInt(100);
+            if (op < 40) {
+                if (map.isInWindow(key)) {
+                    final String v = String.valueOf(rand.nextInt());
+                    assertThat(map.put(key, v), is(reference.put(key, v)));
+                }
+            } else if (op < 75) {
+                final String expected = map.isInWindow(key) ? reference.remove(key) : null;
+                assertThat(map.remove(key), is(expected));
+            } else if (op < 77) {
+                final long toKey = key + rand.nextInt(RANGE / 4);
+                final List<String> removed = new ArrayList<>();
+                map.removeRange(key, toKey, (k, v) -> removed.add(v));
+                final long from = Math.max(key, base);
+                final long to = Math.min(toKey, base + RANGE - 1);
+                if (from <= to) {
+                    final Map<Long, String> expected = reference.subMap(from, true, to, true);
+                    assertThat(removed, is(new ArrayList<>(expected.values())));
+                    expected.clear();
+                } else {
+                    assertThat(removed.isEmpty(), is(true));
+                }
+            } else if (op < 99) {
+                final long end = base + RANGE;
+                assertThat(map.ceilingValue(key), is(first(reference, Math.max(key, base), end)));
+                assertThat(map.higherValue(key), is(first(reference, Math.max(key + 1, base), end)));
+                assertThat(map.floorValue(key), is(last(reference, base, Math.min(key + 1, end))));
+                assertThat(map.lowerValue(key), is(last(reference, base, Math.min(key, end))));
+            } else {
+                // random window movement, sometimes far away
+                final long newBase = base + (rand.nextInt(10) == 0 ? rand.nextInt(4 * RANGE) - 2 * RANGE : rand.nextInt(256) - 128);
+                final List<Long> evicted = new ArrayList<>();
+                map.moveBase(newBase, (k, v) -> {
+                    evicted.add(k);
+                    assertThat(v, is(reference.remove(k)));
+                });
+                assertThat(evicted.stream().allMatch(k -> !map.isInWindow(k)), is(true));
+            }
+
+            assertThat(map.size(), is(reference.size()));
+            if (i % 10_000 == 0) {
+                map.validate();
+                assertThat(map.values(), is(new ArrayList<>(reference.values())));
+            }
+        }
+
+        map.validate();
+        assertThat(map.values(), is(new ArrayList<>(reference.values())));
+    }
+
+    // first value within [from, to)
+    private static String first(TreeMap<Long, String> map, long from, long to) {
+        final Map.Entry<Long, String> entry = map.ceilingEntry(from);
+        return (entry != null && entry.getKey() < to) ? entry.getValue() : null;
+    }
+
+    // last value within [from, to)
+    private static String last(TreeMap<Long, String> map, long from, long to) {
+        final Map.Entry<Long, String> entry = map.lowerEntry(to);
+        return (entry != null && entry.getKey() >= from) ? entry.getValue() : null;
+    }
+}
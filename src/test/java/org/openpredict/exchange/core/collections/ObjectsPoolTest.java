@@ -0,0 +1,79 @@
+package org.openpredict.exchange.core.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class ObjectsPoolTest {
+
+    @Test
+    public void shouldReuseReleasedObjects() {
+        final ObjectsPool<StringBuilder> pool = new ObjectsPool<>(StringBuilder::new, 0, 100);
+
+        final StringBuilder sb1 = pool.get();
+        final StringBuilder sb2 = pool.get();
+        assertThat(pool.getMisses(), is(2L));
+        assertThat(pool.getHits(), is(0L));
+
+        pool.release(sb1);
+        pool.release(sb2);
+        assertThat(pool.getSize(), is(2));
+        assertThat(pool.getHighWaterMark(), is(2));
+
+        // LIFO
+        assertThat(pool.get(), sameInstance(sb2));
+        assertThat(pool.get(), sameInstance(sb1));
+        assertThat(pool.getHits(), is(2L));
+        assertThat(pool.getSize(), is(0));
+    }
+
+    @Test
+    public void shouldDiscardAboveMaxIdle() {
+        final ObjectsPool<StringBuilder> pool = new ObjectsPool<>(StringBuilder::new, 0, 40);
+        for (int i = 0; i < 50; i++) {
+            pool.release(new StringBuilder());
+        }
+        assertThat(pool.getSize(), is(40));
+        assertThat(pool.getDiscarded(), is(10L));
+        assertThat(pool.storageSize(), is(40));
+    }
+
+    @Test
+    public void shouldTrimObjectsNotRequestedSinceLastTrim() {
+        final ObjectsPool<StringBuilder> pool = new ObjectsPool<>(StringBuilder::new, 10, 10_000);
+
+        // burst - 1000 objects in use, then returned
+        final List<StringBuilder> taken = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            taken.add(pool.get());
+        }
+        taken.forEach(pool::release);
+        assertThat(pool.trim(), is(0));
+
+        // steady load - not more than 100 objects in use
+        for (int j = 0; j < 10; j++) {
+            taken.clear();
+            for (int i = 0; i < 100; i++) {
+                taken.add(pool.get());
+            }
+            taken.forEach(pool::release);
+        }
+        assertThat(pool.getLowWaterMark(), is(900));
+        assertThat(pool.trim(), is(900));
+        assertThat(pool.getSize(), is(100));
+        assertThat(pool.getTrimmed(), is(900L));
+        assertThat(pool.storageSize(), is(200));
+
+        // idle - shrinking down to minIdle
+        assertThat(pool.trim(), is(90));
+        assertThat(pool.getSize(), is(10));
+        assertThat(pool.trim(), is(0));
+        assertThat(pool.getHighWaterMark(), is(1000));
+        assertThat(pool.getMisses(), is(1000L));
+    }
+}
@@ -0,0 +1,69 @@
+package org.openpredict.exchange.core.orderbook;
+
+import org.junit.Test;
+import org.openpredict.exchange.beans.Order;
+import org.openpredict.exchange.beans.OrderAction;
+import org.openpredict.exchange.beans.OrderType;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class DirectOrdersStoreTest {
+
+    @Test
+    public void shouldStoreOrderFields() {
+        final DirectOrdersStore store = new DirectOrdersStore(2);
+
+        final int h = store.allocate(123L, 7, 10_500L, 100L, 30L, 11_000L, OrderAction.BID, OrderType.GTC, 1001L, 777L, 42, 5L);
+        assertThat(h, is(1));
+        assertThat(store.size(), is(1));
+
+        final Order order = store.toOrder(h);
+        assertThat(order.orderId, is(123L));
+        assertThat(order.symbol, is(7));
+        assertThat(order.price, is(10_500L));
+        assertThat(order.size, is(100L));
+        assertThat(order.filled, is(30L));
+        assertThat(order.reserveBidPrice, is(11_000L));
+        assertThat(order.action, is(OrderAction.BID));
+        assertThat(order.orderType, is(OrderType.GTC));
+        assertThat(order.uid, is(1001L));
+        assertThat(order.timestamp, is(777L));
+        assertThat(order.userCookie, is(42));
+        assertThat(order.queueSeq, is(5L));
+
+        store.setFilled(h, 50L);
+        store.setPrice(h, 10_400L);
+        assertThat(store.getFilled(h), is(50L));
+        assertThat(store.getPrice(h), is(10_400L));
+    }
+
+    @Test
+    public void shouldGrowAndReuseReleasedSlots() {
+        final DirectOrdersStore store = new DirectOrdersStore(2);
+
+        for (int i = 1; i <= 10_000; i++) {
+            final int h = store.allocate(i, 0, i * 10, i, 0, 0, OrderAction.ASK, OrderType.GTC, i % 17, 0, 0, i);
+            assertThat(h, is(i));
+        }
+        assertThat(store.size(), is(10_000));
+        assertThat(store.getReservedBytes() >= 10_001L * DirectOrdersStore.SLOT_SIZE, is(true));
+
+        // content survives growing
+        for (int h = 1; h <= 10_000; h++) {
+            assertThat(store.getOrderId(h), is((long) h));
+            assertThat(store.getPrice(h), is(h * 10L));
+            assertThat(store.getUid(h), is(h % 17L));
+        }
+
+        store.free(5);
+        store.free(9);
+        assertThat(store.size(), is(9_998));
+
+        // last released slot is reused first
+        assertThat(store.allocate(), is(9));
+        assertThat(store.allocate(), is(5));
+        assertThat(store.allocate(), is(10_001));
+        assertThat(store.size(), is(10_001));
+    }
+}
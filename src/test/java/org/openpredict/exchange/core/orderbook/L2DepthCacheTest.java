@@ -0,0 +1,134 @@
+package org.openpredict.exchange.core.orderbook;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.openpredict.exchange.beans.Order;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@Slf4j
+public class L2DepthCacheTest {
+
+    private static final int DEPTH = 8;
+
+    // price -> volume, source of the levels
+    private final TreeMap<Long, Long> levels = new TreeMap<>();
+
+    @Test
+    public void shouldMaintainAskLevels() {
+        final L2DepthCache cache = new L2DepthCache(true, DEPTH, price -> toBucket(levels.higherEntry(price)));
+
+        setLevel(cache, 105, 10);
+        setLevel(cache, 101, 20);
+        setLevel(cache, 103, 30);
+        validate(cache, true);
+        assertThat(cache.size(), is(3));
+
+        long[] prices = new long[DEPTH];
+        long[] volumes = new long[DEPTH];
+        assertThat(cache.copyTo(DEPTH, prices, volumes), is(3));
+        assertThat(prices[0], is(101L));
+        assertThat(volumes[0], is(20L));
+        assertThat(prices[2], is(105L));
+
+        // fill more levels than depth
+        for (int p = 110; p < 120; p++) {
+            setLevel(cache, p, p);
+        }
+        validate(cache, true);
+        assertThat(cache.size(), is(DEPTH));
+
+        // removing cached level should pull next level from the source
+        setLevel(cache, 101, 0);
+        validate(cache, true);
+        assertThat(cache.copyTo(1, prices, volumes), is(1));
+        assertThat(prices[0], is(103L));
+
+        // new best level pushes out the last one
+        setLevel(cache, 100, 1);
+        validate(cache, true);
+
+        // changes beyond depth are ignored
+        setLevel(cache, 119, 5);
+        setLevel(cache, 118, 0);
+        validate(cache, true);
+    }
+
+    @Test
+    public void shouldMaintainBidLevels() {
+        final L2DepthCache cache = new L2DepthCache(false, DEPTH, price -> toBucket(levels.lowerEntry(price)));
+
+        for (int p = 100; p < 120; p += 2) {
+            setLevel(cache, p, p * 3);
+        }
+        validate(cache, false);
+        setLevel(cache, 118, 0);
+        setLevel(cache, 116, 0);
+        setLevel(cache, 117, 7);
+        validate(cache, false);
+
+        long[] prices = new long[DEPTH];
+        long[] volumes = new long[DEPTH];
+        cache.copyTo(DEPTH, prices, volumes);
+        assertThat(prices[0], is(117L));
+        assertThat(prices[1], is(114L));
+    }
+
+    @Test
+    public void shouldMatchRebuildOnRandomUpdates() {
+        final Random rand = new Random(1L);
+        final L2DepthCache asks = new L2DepthCache(true, DEPTH, price -> toBucket(levels.higherEntry(price)));
+
+        for (int i = 0; i < 100_000; i++) {
+            final long price = 1000 + rand.nextInt(40);
+            final long volume = rand.nextInt(3) == 0 ? 0 : 1 + rand.nextInt(100);
+            setLevel(asks, price, volume);
+            validate(asks, true);
+        }
+
+        // rebuild produces same result
+        asks.rebuild();
+        validate(asks, true);
+    }
+
+    private void setLevel(L2DepthCache cache, long price, long volume) {
+        if (volume == 0) {
+            if (levels.remove(price) == null) {
+                return;
+            }
+        } else {
+            levels.put(price, volume);
+        }
+        cache.update(price, volume);
+    }
+
+    private void validate(L2DepthCache cache, boolean ascending) {
+        final long[] prices = new long[levels.size()];
+        final long[] volumes = new long[levels.size()];
+        int i = 0;
+        for (Map.Entry<Long, Long> e : (ascending ? levels : levels.descendingMap()).entrySet()) {
+            prices[i] = e.getKey();
+            volumes[i] = e.getValue();
+            i++;
+        }
+        cache.validate(levels.size(), prices, volumes);
+    }
+
+    private static IOrdersBucket toBucket(Map.Entry<Long, Long> entry) {
+        if (entry == null) {
+            return null;
+        }
+        final IOrdersBucket bucket = new OrdersBucketLinkedImpl();
+        bucket.setPrice(entry.getKey());
+        final Order order = new Order();
+        order.price = entry.getKey();
+        order.size = entry.getValue();
+        bucket.put(order);
+        return bucket;
+    }
+}
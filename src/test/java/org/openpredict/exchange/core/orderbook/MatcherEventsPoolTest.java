@@ -0,0 +1,210 @@
+package org.openpredict.exchange.core.orderbook;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assume;
+import org.junit.Test;
+import org.openpredict.exchange.beans.MatcherEventType;
+import org.openpredict.exchange.beans.MatcherTradeEvent;
+import org.openpredict.exchange.beans.OrderAction;
+import org.openpredict.exchange.beans.OrderType;
+import org.openpredict.exchange.beans.SymbolType;
+import org.openpredict.exchange.beans.cmd.CommandResultCode;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.beans.cmd.OrderCommandType;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.openpredict.exchange.beans.OrderAction.ASK;
+import static org.openpredict.exchange.beans.OrderAction.BID;
+import static org.openpredict.exchange.beans.OrderType.GTC;
+import static org.openpredict.exchange.beans.OrderType.IOC;
+
+@Slf4j
+public class MatcherEventsPoolTest {
+
+    @Test
+    public void shouldReuseReturnedChains() {
+        final MatcherEventsPool pool = new MatcherEventsPool();
+
+        final MatcherTradeEvent e1 = pool.get();
+        final MatcherTradeEvent e2 = pool.get();
+        final MatcherTradeEvent e3 = pool.get();
+        assertThat(pool.getMisses(), is(3L));
+
+        e1.nextEvent = e2;
+        pool.releaseChain(e1);
+        pool.releaseChain(e3);
+
+        // whole returned stack is taken at once
+        assertThat(pool.get(), sameInstance(e3));
+        assertThat(pool.get(), sameInstance(e1));
+        assertThat(pool.get(), sameInstance(e2));
+        assertThat(e2.nextEvent, nullValue());
+        assertThat(pool.getRefills(), is(1L));
+        assertThat(pool.getHits(), is(3L));
+
+        pool.get();
+        assertThat(pool.getMisses(), is(4L));
+    }
+
+    /**
+     * Mass cancel chain is collected from several shards - each part returns into the pool of its shard.
+     */
+    @Test
+    public void shouldReturnEventsToOwnerPools() {
+        final MatcherEventsPool pool1 = new MatcherEventsPool();
+        final MatcherEventsPool pool2 = new MatcherEventsPool();
+
+        final MatcherTradeEvent a1 = pool1.get();
+        final MatcherTradeEvent a2 = pool1.get();
+        final MatcherTradeEvent b1 = pool2.get();
+        final MatcherTradeEvent notPooled = new MatcherTradeEvent();
+        final MatcherTradeEvent a3 = pool1.get();
+
+        a1.nextEvent = a2;
+        a2.nextEvent = b1;
+        b1.nextEvent = notPooled;
+        notPooled.nextEvent = a3;
+        MatcherEventsPool.releaseToOwners(a1);
+
+        assertThat(pool2.get(), sameInstance(b1));
+        assertThat(b1.nextEvent, nullValue());
+        assertThat(pool2.getMisses(), is(1L));
+
+        final List<MatcherTradeEvent> returned1 = Arrays.asList(pool1.get(), pool1.get(), pool1.get());
+        assertThat(returned1, containsInAnyOrder(a1, a2, a3));
+        assertThat(pool1.getMisses(), is(3L));
+        pool1.get();
+        assertThat(pool1.getMisses(), is(4L));
+    }
+
+    @Test(timeout = 30_000)
+    public void shouldReceiveChainsFromAnotherThread() throws InterruptedException {
+        final MatcherEventsPool pool = new MatcherEventsPool();
+        final int queueCapacity = 16;
+        final int maxChainLength = 8;
+        final int chainsNum = 500_000;
+
+        // slots in use by "results stage"
+        final BlockingQueue<MatcherTradeEvent> inFlight = new ArrayBlockingQueue<>(queueCapacity);
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        final Thread releaser = new Thread(() -> {
+            try {
+                for (int i = 0; i < chainsNum; i++) {
+                    final MatcherTradeEvent head = inFlight.take();
+                    // event must not be reused while it is in flight
+                    for (MatcherTradeEvent evt = head; evt != null; evt = evt.nextEvent) {
+                        if (evt.size != i) {
+                            failure.compareAndSet(null, "chain " + i + " corrupted: " + evt);
+                        }
+                    }
+                    pool.releaseChain(head);
+                }
+            } catch (InterruptedException ex) {
+                failure.compareAndSet(null, "interrupted");
+            }
+        });
+        releaser.start();
+
+        for (int i = 0; i < chainsNum; i++) {
+            MatcherTradeEvent head = null;
+            for (int j = 0; j <= i % maxChainLength; j++) {
+                final MatcherTradeEvent evt = pool.get();
+                evt.size = i;
+                evt.nextEvent = head;
+                head = evt;
+            }
+            inFlight.put(head);
+        }
+        releaser.join();
+
+        log.debug("pool: {}", pool);
+        assertThat(failure.get(), nullValue());
+        // events are allocated only to cover chains in flight
+        assertThat(pool.getMisses(), lessThanOrEqualTo((long) (queueCapacity + 2) * maxChainLength));
+    }
+
+    /**
+     * Order book produces TRADE and REJECTION events, chains are returned after each command (as grouping processor does).
+     * Big resting order is never fully matched, so after warm-up there should be no allocations at all.
+     */
+    @Test
+    public void shouldNotProduceGarbagePerTrade() {
+        final java.lang.management.ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mxBean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) mxBean;
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        final IOrderBook orderBook = new OrderBookFastImpl(OrderBookFastImpl.DEFAULT_HOT_WIDTH, SymbolType.CURRENCY_EXCHANGE_PAIR);
+        final MatcherEventsPool pool = new MatcherEventsPool();
+        final OrderCommand cmd = new OrderCommand();
+
+        final int warmUpIterations = 100_000;
+        final int iterations = 1_000_000;
+        final long threadId = Thread.currentThread().getId();
+
+        // maker
+        final long price = 10_000;
+        placeOrder(orderBook, cmd, pool, GTC, 1, 1, price, Long.MAX_VALUE / 2, ASK);
+
+        long orderId = 2;
+        long trades = 0;
+        long allocatedBefore = 0;
+        for (int i = 0; i < warmUpIterations + iterations; i++) {
+            if (i == warmUpIterations) {
+                trades = 0;
+                allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            }
+
+            // taker - trades (one or two sized), or gets rejected by limit price
+            final boolean marketable = (i & 3) != 0;
+            placeOrder(orderBook, cmd, pool, IOC, orderId++, 2, marketable ? price : price - 1, 1 + (i & 1), BID);
+
+            // no matchers inside the loop - they produce garbage
+            final MatcherTradeEvent evt = cmd.matcherEvent;
+            if (evt.eventType != (marketable ? MatcherEventType.TRADE : MatcherEventType.REJECTION) || evt.size != 1 + (i & 1)) {
+                throw new IllegalStateException("unexpected event: " + evt);
+            }
+            if (marketable) {
+                trades++;
+            }
+
+            // grouping processor returns events when slot is reused
+            pool.releaseChain(cmd.matcherEvent);
+            cmd.matcherEvent = null;
+        }
+
+        final long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        log.debug("allocated {} bytes for {} trades, pool: {}", allocated, trades, pool);
+
+        assertThat(pool.getMisses(), is(1L));
+        // allow only measurement noise (few objects), not per-trade garbage
+        assertThat(allocated / trades, is(0L));
+    }
+
+    private static void placeOrder(IOrderBook orderBook, OrderCommand cmd, MatcherEventsPool pool,
+                                   OrderType orderType, long orderId, long uid, long price, long size, OrderAction action) {
+        cmd.command = OrderCommandType.PLACE_ORDER;
+        cmd.orderType = orderType;
+        cmd.orderId = orderId;
+        cmd.uid = uid;
+        cmd.price = price;
+        cmd.reserveBidPrice = price;
+        cmd.size = size;
+        cmd.action = action;
+        cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+        cmd.eventsPool = pool;
+        if (IOrderBook.processCommand(orderBook, cmd) != CommandResultCode.SUCCESS) {
+            throw new IllegalStateException("order " + orderId + " rejected");
+        }
+    }
+}
@@ -5,14 +5,20 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.openpredict.exchange.beans.L2MarketData;
+import org.openpredict.exchange.beans.L2MarketDataDelta;
+import org.openpredict.exchange.beans.L3MarketDataEvents;
 import org.openpredict.exchange.beans.MatcherEventType;
 import org.openpredict.exchange.beans.MatcherTradeEvent;
+import org.openpredict.exchange.beans.Order;
 import org.openpredict.exchange.beans.OrderAction;
 import org.openpredict.exchange.beans.cmd.CommandResultCode;
 import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.core.L2MarketDataRebuilder;
+import org.openpredict.exchange.core.L3MarketDataReplay;
 import org.openpredict.exchange.tests.util.L2MarketDataHelper;
 import org.openpredict.exchange.tests.util.TestOrdersGenerator;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -22,7 +28,9 @@ import static org.openpredict.exchange.beans.OrderAction.ASK;
 import static org.openpredict.exchange.beans.OrderAction.BID;
 import static org.openpredict.exchange.beans.OrderType.GTC;
 import static org.openpredict.exchange.beans.OrderType.IOC;
+import static org.openpredict.exchange.beans.cmd.CommandResultCode.MATCHING_REDUCE_FAILED_WRONG_SIZE;
 import static org.openpredict.exchange.beans.cmd.CommandResultCode.MATCHING_UNKNOWN_ORDER_ID;
+import static org.openpredict.exchange.beans.cmd.CommandResultCode.RISK_NSF;
 import static org.openpredict.exchange.beans.cmd.CommandResultCode.SUCCESS;
 
 /**
@@ -225,6 +233,94 @@ public abstract class OrderBookBaseTest {
         assertEquals(expectedState.build(), snapshot);
     }
 
+    @Test
+    public void shouldCancelAllUserOrders() {
+
+        IOrderBook.processCommand(orderBook, OrderCommand.newOrder(GTC, 101, UID_2, 81599, 30, ASK));
+        IOrderBook.processCommand(orderBook, OrderCommand.newOrder(GTC, 102, UID_2, 81591, 15, BID));
+        IOrderBook.processCommand(orderBook, OrderCommand.newOrder(GTC, 103, UID_2, 81591, 5, BID));
+        orderBook.validateInternalState();
+
+        OrderCommand cmd = OrderCommand.cancelAll(UID_2);
+        processAndValidate(cmd, SUCCESS);
+        assertThat(cmd.orderId, is(-1L));
+
+        // only orders of UID_2 are removed
+        assertEquals(expectedState.build(), orderBook.getL2MarketDataSnapshot(25));
+        assertThat(orderBook.findUserOrders(UID_2).size(), is(0));
+
+        List<MatcherTradeEvent> events = new ArrayList<>(cmd.extractEvents());
+        assertThat(events.size(), is(3));
+        events.sort((a, b) -> Long.compare(a.activeOrderId, b.activeOrderId));
+        checkEventCancel(events.get(0), 101L, ASK, 30L, UID_2);
+        checkEventCancel(events.get(1), 102L, BID, 15L, UID_2);
+        checkEventCancel(events.get(2), 103L, BID, 5L, UID_2);
+
+        // no orders left - nothing to cancel
+        cmd = OrderCommand.cancelAll(UID_2);
+        processAndValidate(cmd, SUCCESS);
+        assertThat(cmd.extractEvents().size(), is(0));
+        assertEquals(expectedState.build(), orderBook.getL2MarketDataSnapshot(25));
+    }
+
+    @Test
+    public void shouldReplaceQuotes() {
+
+        // new ladder - all levels placed
+        OrderCommand cmd = OrderCommand.massQuote(1000, UID_2, new L2MarketData(
+                new long[]{81598}, new long[]{7},
+                new long[]{81592, 81591}, new long[]{5, 10}));
+        processAndValidate(cmd, SUCCESS);
+        assertThat(cmd.extractEvents().size(), is(0));
+        assertThat(cmd.orderId, is(1000L));
+        assertThat(orderBook.getOrderById(1000).price, is(81592L));
+        assertThat(orderBook.getOrderById(1002).action, is(ASK));
+        assertThat(orderBook.findUserOrders(UID_2).size(), is(3));
+
+        // same level is kept, changed level is replaced, missing level is cancelled
+        cmd = OrderCommand.massQuote(2000, UID_2, new L2MarketData(
+                new long[0], new long[0],
+                new long[]{81592, 81591}, new long[]{5, 12}));
+        // holds for the whole ladder
+        cmd.price = 17;
+        cmd.size = 0;
+        processAndValidate(cmd, SUCCESS);
+
+        final List<MatcherTradeEvent> events = new ArrayList<>(cmd.extractEvents());
+        assertThat(events.size(), is(2));
+        events.sort((a, b) -> Long.compare(a.activeOrderId, b.activeOrderId));
+        checkEventCancel(events.get(0), 1001L, BID, 10L, UID_2);
+        checkEventCancel(events.get(1), 1002L, ASK, 7L, UID_2);
+        // net change is +2 bids and -7 asks, rest of the hold is released
+        assertThat(cmd.price, is(15L));
+        assertThat(cmd.size, is(7L));
+
+        // kept level is not placed
+        assertNotNull(orderBook.getOrderById(1000));
+        assertNull(orderBook.getOrderById(2000));
+        assertThat(orderBook.getOrderById(2001).size, is(12L));
+        assertThat(orderBook.findUserOrders(UID_2).size(), is(2));
+
+        // hold does not cover net change - order book is not changed, whole hold is released
+        cmd = OrderCommand.massQuote(2500, UID_2, new L2MarketData(
+                new long[0], new long[0],
+                new long[]{81592, 81591}, new long[]{5, 20}));
+        cmd.price = 5;
+        cmd.size = 0;
+        processAndValidate(cmd, RISK_NSF);
+        assertThat(cmd.extractEvents().size(), is(0));
+        assertThat(cmd.price, is(5L));
+        assertThat(orderBook.getOrderById(2001).size, is(12L));
+        assertThat(orderBook.findUserOrders(UID_2).size(), is(2));
+
+        // empty ladder - all quotes removed
+        cmd = OrderCommand.massQuote(3000, UID_2, new L2MarketData(new long[0], new long[0], new long[0], new long[0]));
+        processAndValidate(cmd, SUCCESS);
+        assertThat(cmd.extractEvents().size(), is(2));
+        assertThat(orderBook.findUserOrders(UID_2).size(), is(0));
+        assertEquals(expectedState.build(), orderBook.getL2MarketDataSnapshot(25));
+    }
+
     @Test
     public void shouldReturnErrorWhenUpdatingUnknownOrder() {
 
@@ -270,6 +366,40 @@ public abstract class OrderBookBaseTest {
         assertThat(events.size(), is(0));
     }
 
+    @Test
+    public void shouldReduceOrderKeepingPriority() {
+
+        processAndValidate(OrderCommand.reduce(2433, UID_1, 10), MATCHING_UNKNOWN_ORDER_ID);
+        processAndValidate(OrderCommand.reduce(2, UID_2, 10), MATCHING_UNKNOWN_ORDER_ID);
+        processAndValidate(OrderCommand.reduce(2, UID_1, 0), MATCHING_REDUCE_FAILED_WRONG_SIZE);
+
+        // reduced in place
+        OrderCommand cmd = OrderCommand.reduce(2, UID_1, 20);
+        processAndValidate(cmd, SUCCESS);
+        assertEquals(expectedState.setAskVolume(0, 55).build(), orderBook.getL2MarketDataSnapshot(25));
+        assertThat(orderBook.getOrderById(2).size, is(30L));
+
+        List<MatcherTradeEvent> events = cmd.extractEvents();
+        assertThat(events.size(), is(1));
+        checkEventReduce(events.get(0), 2L, ASK, 20L, UID_1);
+
+        // reduced order is still the first in the queue
+        cmd = OrderCommand.newOrder(IOC, 123, UID_2, 81599, 30, BID);
+        processAndValidate(cmd, SUCCESS);
+        events = cmd.extractEvents();
+        assertThat(events.size(), is(1));
+        checkEventTrade(events.get(0), 123L, 2L, 81599, 30L);
+
+        // reducing by remaining size or more cancels the order
+        cmd = OrderCommand.reduce(3, UID_1, 40);
+        processAndValidate(cmd, SUCCESS);
+        assertEquals(expectedState.removeAsk(0).build(), orderBook.getL2MarketDataSnapshot(25));
+
+        events = cmd.extractEvents();
+        assertThat(events.size(), is(1));
+        checkEventCancel(events.get(0), 3L, ASK, 25L, UID_1);
+    }
+
     // ------------------------ MATCHING TESTS -----------------------
 
     @Test
@@ -290,6 +420,83 @@ public abstract class OrderBookBaseTest {
     }
 
 
+    @Test
+    public void shouldAggregateTradesPerLevel() {
+
+        // sweeps two ask levels
+        OrderCommand cmd = OrderCommand.newOrder(IOC, 123, UID_2, 81600, 100, BID);
+        cmd.levelFills = true;
+        processAndValidate(cmd, SUCCESS);
+
+        L2MarketData expected = expectedState.removeAsk(0).setAskVolume(0, 75).build();
+        assertEquals(expected, orderBook.getL2MarketDataSnapshot(10));
+        assertThat(orderBook.getRollingHash(), is(orderBook.calculateRollingHash()));
+
+        List<MatcherTradeEvent> events = cmd.extractEvents();
+        assertThat(events.size(), is(2));
+
+        MatcherTradeEvent event = events.get(0);
+        checkEventLevelTrade(event, 123L, 81599, 75L, false);
+        assertThat(event.makersNum, is(2));
+        checkMakerFill(event, 0, 2L, 50L, true);
+        checkMakerFill(event, 1, 3L, 25L, true);
+
+        event = events.get(1);
+        checkEventLevelTrade(event, 123L, 81600, 25L, true);
+        assertThat(event.makersNum, is(1));
+        checkMakerFill(event, 0, 1L, 25L, false);
+    }
+
+    @Test
+    public void shouldPublishL2IntoPreallocatedObject() {
+
+        final L2MarketData data = new L2MarketData(2, 3);
+        orderBook.publishL2MarketDataSnapshot(data);
+        assertEquals(topLevels(expectedState.build(), 2, 3), data);
+
+        // reused object
+        processAndValidate(OrderCommand.newOrder(IOC, 123, UID_2, 81599, 75, BID), SUCCESS);
+        orderBook.publishL2MarketDataSnapshot(data);
+        assertEquals(topLevels(expectedState.removeAsk(0).build(), 2, 3), data);
+    }
+
+    @Test
+    public void shouldKeepRollingHashWhenLevelTradeEventIsExtended() {
+
+        OrderCommand cmd = OrderCommand.newOrder(IOC, 123, UID_2, 81599, 10, BID);
+        cmd.levelFills = true;
+        processAndValidate(cmd, SUCCESS);
+
+        // same active order matches same level again - fills are appended to the existing head event
+        cmd.size = 30;
+        processAndValidate(cmd, SUCCESS);
+
+        List<MatcherTradeEvent> events = cmd.extractEvents();
+        assertThat(events.size(), is(1));
+        checkEventLevelTrade(events.get(0), 123L, 81599, 40L, true);
+        assertThat(events.get(0).makersNum, is(2));
+        checkMakerFill(events.get(0), 0, 2L, 10L, false);
+        checkMakerFill(events.get(0), 1, 2L, 30L, false);
+    }
+
+    @Test
+    public void shouldCoverQueuePositionsInRollingHash() {
+
+        final IOrderBook first = createNewOrderBook();
+        IOrderBook.processCommand(first, OrderCommand.newOrder(GTC, 201, UID_1, 81600, 10, ASK));
+        IOrderBook.processCommand(first, OrderCommand.newOrder(GTC, 202, UID_2, 81600, 20, ASK));
+        first.validateInternalState();
+
+        final IOrderBook second = createNewOrderBook();
+        IOrderBook.processCommand(second, OrderCommand.newOrder(GTC, 202, UID_2, 81600, 20, ASK));
+        IOrderBook.processCommand(second, OrderCommand.newOrder(GTC, 201, UID_1, 81600, 10, ASK));
+        second.validateInternalState();
+
+        // same orders, different queue
+        assertEquals(first.getL2MarketDataSnapshot(10), second.getL2MarketDataSnapshot(10));
+        assertNotEquals(first.getRollingHash(), second.getRollingHash());
+    }
+
     @Test
     public void shouldMatchIocOrderFullBBO() {
 
@@ -564,8 +771,75 @@ public abstract class OrderBookBaseTest {
 
     }
 
+    @Test
+    public void shouldRebuildL2FromDeltas() {
+
+        final IOrderBook localOrderBook = createNewOrderBook();
+        final L2MarketDataRebuilder rebuilder = new L2MarketDataRebuilder();
+        final L2MarketDataDelta delta = new L2MarketDataDelta();
+
+        TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(25000,
+                200,
+                6,
+                0,
+                false);
+
+        genResult.getCommands().forEach(cmd -> {
+            cmd.orderId += 100;
+            delta.reset();
+            cmd.marketDataDelta = delta;
+            IOrderBook.processCommand(localOrderBook, cmd);
+            rebuilder.apply(delta);
+            assertEquals(localOrderBook.getL2MarketDataSnapshot(-1), rebuilder.getL2MarketDataSnapshot(Integer.MAX_VALUE));
+        });
+
+        assertThat(rebuilder.getTotalAskLevels(), is(localOrderBook.getTotalAskBuckets()));
+        assertThat(rebuilder.getTotalBidLevels(), is(localOrderBook.getTotalBidBuckets()));
+    }
+
+    @Test
+    public void shouldReplayL3Feed() {
+
+        final IOrderBook localOrderBook = createNewOrderBook();
+        final L3MarketDataReplay replay = new L3MarketDataReplay();
+        final L3MarketDataEvents events = new L3MarketDataEvents();
+
+        TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(25000,
+                200,
+                6,
+                0,
+                false);
+
+        genResult.getCommands().forEach(cmd -> {
+            cmd.orderId += 100;
+            events.reset();
+            cmd.l3Events = events;
+            IOrderBook.processCommand(localOrderBook, cmd);
+            replay.apply(events);
+            assertEquals(localOrderBook.getL2MarketDataSnapshot(-1), replay.getL2MarketDataSnapshot(Integer.MAX_VALUE));
+        });
+
+        // compare resting orders
+        final List<Order> orders = new ArrayList<>();
+        localOrderBook.getAllAskBuckets().forEach(bucket -> orders.addAll(bucket.getAllOrders()));
+        localOrderBook.getAllBidBuckets().forEach(bucket -> orders.addAll(bucket.getAllOrders()));
+        assertThat(replay.getOrdersNum(), is(orders.size()));
+        orders.forEach(order -> {
+            assertThat(replay.getPrice(order.orderId), is(order.price));
+            assertThat(replay.getRemainingSize(order.orderId), is(order.size - order.filled));
+        });
+    }
+
     // ------------------------------- UTILITY METHODS --------------------------
 
+    private static L2MarketData topLevels(final L2MarketData l2, final int asks, final int bids) {
+        return new L2MarketData(
+                Arrays.copyOf(l2.askPrices, asks),
+                Arrays.copyOf(l2.askVolumes, asks),
+                Arrays.copyOf(l2.bidPrices, bids),
+                Arrays.copyOf(l2.bidVolumes, bids));
+    }
+
     public void processAndValidate(OrderCommand cmd, CommandResultCode expectedCmdState) {
         CommandResultCode resultCode = IOrderBook.processCommand(orderBook, cmd);
         assertThat(resultCode, is(expectedCmdState));
@@ -583,6 +857,22 @@ public abstract class OrderBookBaseTest {
         // TODO add more checks for MatcherTradeEvent
     }
 
+    public void checkEventLevelTrade(MatcherTradeEvent event, long activeId, long price, long size, boolean activeCompleted) {
+
+        assertThat(event.eventType, is(MatcherEventType.LEVEL_TRADE));
+
+        assertThat(event.activeOrderId, is(activeId));
+        assertThat(event.activeOrderCompleted, is(activeCompleted));
+        assertThat(event.price, is(price));
+        assertThat(event.size, is(size));
+    }
+
+    public void checkMakerFill(MatcherTradeEvent event, int maker, long orderId, long size, boolean completed) {
+        assertThat(event.getMakerFill(maker, MatcherTradeEvent.MAKER_ORDER_ID), is(orderId));
+        assertThat(event.getMakerFill(maker, MatcherTradeEvent.MAKER_SIZE), is(size));
+        assertThat(event.getMakerFill(maker, MatcherTradeEvent.MAKER_COMPLETED), is(completed ? 1L : 0L));
+    }
+
     public void checkEventRejection(MatcherTradeEvent event, long activeId, long size) {
 
         assertThat(event.eventType, is(MatcherEventType.REJECTION));
@@ -603,4 +893,14 @@ public abstract class OrderBookBaseTest {
         // TODO add more checks for MatcherTradeEvent
     }
 
+    public void checkEventReduce(MatcherTradeEvent event, long orderId, OrderAction action, long reducedSize, long uid) {
+        assertThat(event.eventType, is(MatcherEventType.REDUCE));
+
+        assertThat(event.activeOrderId, is(orderId));
+        assertThat(event.activeOrderAction, is(action));
+        assertThat(event.size, is(reducedSize));
+
+        assertThat(event.activeOrderUid, is(uid));
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+package org.openpredict.exchange.core.orderbook;
+
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.NativeBytes;
+import org.junit.Test;
+import org.openpredict.exchange.beans.SymbolType;
+import org.openpredict.exchange.beans.cmd.CommandResultCode;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.tests.util.TestOrdersGenerator;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.openpredict.exchange.beans.cmd.CommandResultCode.SUCCESS;
+
+@Slf4j
+public class OrderBookDirectImplTest extends OrderBookBaseTest {
+
+    @Override
+    protected IOrderBook createNewOrderBook() {
+        return new OrderBookDirectImpl(SymbolType.FUTURES_CONTRACT);
+    }
+
+    @Test
+    public void multipleCommandsCompareTest() {
+
+        int tranNum = 100_000;
+        int targetOrderBookOrders = 500;
+        int numUsers = 500;
+
+        IOrderBook orderBook = new OrderBookDirectImpl(SymbolType.FUTURES_CONTRACT);
+        IOrderBook orderBookRef = new OrderBookNaiveImpl(SymbolType.FUTURES_CONTRACT);
+
+        TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(tranNum, targetOrderBookOrders, numUsers, 0, true);
+
+        for (OrderCommand cmd : genResult.getCommands()) {
+            cmd.orderId += 100;
+
+            cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            IOrderBook.processCommand(orderBook, cmd);
+
+            cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            CommandResultCode commandResultCode = IOrderBook.processCommand(orderBookRef, cmd);
+
+            assertThat(commandResultCode, is(SUCCESS));
+            assertEquals(orderBook, orderBookRef);
+        }
+
+        orderBook.validateInternalState();
+    }
+
+    @Test
+    public void shouldRestoreFromSnapshot() {
+        final NativeBytes<Void> bytes = Bytes.allocateElasticDirect(4096);
+        orderBook.writeMarshallable(bytes);
+
+        final IOrderBook restored = IOrderBook.create(bytes);
+        restored.validateInternalState();
+        assertThat(restored.getImplementationType(), is(IOrderBook.OrderBookImplType.DIRECT));
+        assertEquals(orderBook, restored);
+        assertThat(restored.getOrdersNum(), is(orderBook.getOrdersNum()));
+        assertThat(restored.getOrderById(9L), is(orderBook.getOrderById(9L)));
+        assertThat(restored.hashCode(), is(orderBook.hashCode()));
+
+        bytes.release();
+    }
+
+}
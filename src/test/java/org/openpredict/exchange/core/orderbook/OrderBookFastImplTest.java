@@ -1,23 +1,30 @@
 package org.openpredict.exchange.core.orderbook;
 
 import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.NativeBytes;
 import org.junit.Test;
 import org.openpredict.exchange.beans.L2MarketData;
+import org.openpredict.exchange.beans.SymbolEngineProfile;
 import org.openpredict.exchange.beans.SymbolType;
 import org.openpredict.exchange.beans.cmd.CommandResultCode;
 import org.openpredict.exchange.beans.cmd.OrderCommand;
 import org.openpredict.exchange.tests.util.TestOrdersGenerator;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Random;
 
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.openpredict.exchange.beans.OrderAction.ASK;
 import static org.openpredict.exchange.beans.OrderAction.BID;
 import static org.openpredict.exchange.beans.OrderType.GTC;
+import static org.openpredict.exchange.beans.OrderType.IOC;
 import static org.openpredict.exchange.beans.cmd.CommandResultCode.SUCCESS;
 
 @Slf4j
@@ -96,6 +103,226 @@ public class OrderBookFastImplTest extends OrderBookBaseTest {
     }
 
 
+    @Test
+    public void findUserOrdersWithIndexCompareTest() {
+
+        IOrderBook orderBook = new OrderBookFastImpl(4096, SymbolType.FUTURES_CONTRACT, true);
+        IOrderBook orderBookRef = new OrderBookNaiveImpl(SymbolType.FUTURES_CONTRACT);
+
+        TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(50_000, 500, 100, 0, true);
+
+        int i = 0;
+        for (OrderCommand cmd : genResult.getCommands()) {
+            cmd.orderId += 100;
+
+            cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            IOrderBook.processCommand(orderBook, cmd);
+            cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            IOrderBook.processCommand(orderBookRef, cmd);
+
+            if (++i % 1000 == 0) {
+                orderBook.validateInternalState();
+                for (long uid = 0; uid <= 100; uid++) {
+                    assertEquals(new HashSet<>(orderBookRef.findUserOrders(uid)), new HashSet<>(orderBook.findUserOrders(uid)));
+                }
+            }
+        }
+
+        // index survives snapshot
+        final NativeBytes<Void> bytes = Bytes.allocateElasticDirect(4096);
+        orderBook.writeMarshallable(bytes);
+        final IOrderBook restored = IOrderBook.create(bytes);
+        restored.validateInternalState();
+        for (long uid = 0; uid <= 100; uid++) {
+            assertEquals(new HashSet<>(orderBook.findUserOrders(uid)), new HashSet<>(restored.findUserOrders(uid)));
+        }
+        bytes.release();
+    }
+
+    @Test
+    public void superorderSweepCompareTest() {
+
+        IOrderBook orderBook = new OrderBookFastImpl(HOT_PRICES_RANGE, SymbolType.FUTURES_CONTRACT);
+        IOrderBook orderBookRef = new OrderBookNaiveImpl(SymbolType.FUTURES_CONTRACT);
+
+        final Random rand = new Random(1L);
+        long orderId = 100;
+        for (int cycle = 0; cycle < 200; cycle++) {
+            // levels spread across hot and both far sections
+            for (int i = 0; i < 300; i++) {
+                final long price = INITIAL_PRICE + 1 + rand.nextInt(HOT_PRICES_RANGE * 3);
+                // some orders belong to superorders owner and should be skipped
+                final int uid = rand.nextInt(20) == 0 ? UID_2 : UID_1;
+                final OrderCommand ask = OrderCommand.newOrder(GTC, orderId++, uid, price, 1 + rand.nextInt(10), ASK);
+                final OrderCommand bid = OrderCommand.newOrder(GTC, orderId++, uid, 2 * INITIAL_PRICE - price, 1 + rand.nextInt(10), BID);
+                for (OrderCommand cmd : new OrderCommand[]{ask, bid}) {
+                    cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+                    IOrderBook.processCommand(orderBook, cmd);
+                    cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+                    IOrderBook.processCommand(orderBookRef, cmd);
+                }
+            }
+
+            // superorders sweeping many levels, partially or completely
+            final long size = 200 + rand.nextInt(2000);
+            final long sweepPrice = INITIAL_PRICE + 1 + rand.nextInt(HOT_PRICES_RANGE * 3);
+            final OrderCommand bid = OrderCommand.newOrder(IOC, orderId++, UID_2, sweepPrice, size, BID);
+            final OrderCommand ask = OrderCommand.newOrder(IOC, orderId++, UID_2, 2 * INITIAL_PRICE - sweepPrice, size, ASK);
+            for (OrderCommand cmd : new OrderCommand[]{bid, ask}) {
+                cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+                IOrderBook.processCommand(orderBook, cmd);
+                cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+                IOrderBook.processCommand(orderBookRef, cmd);
+                orderBook.validateInternalState();
+                assertEquals(orderBookRef, orderBook);
+                assertEquals(orderBookRef.getL2MarketDataSnapshot(-1), orderBook.getL2MarketDataSnapshot(-1));
+            }
+        }
+    }
+
+    @Test
+    public void hotRangeShouldGrowForWideDistribution() {
+        final OrderBookFastImpl orderBook = new OrderBookFastImpl(1024, SymbolType.FUTURES_CONTRACT, false, new HotRangeTuner(1000));
+        placeAroundMidPrice(orderBook, 20_000, 10_000);
+
+        final HotRangeTuner tuner = orderBook.getHotRangeTuner();
+        log.debug("{} {}", orderBook.getHotPricesRange(), tuner);
+        assertThat(orderBook.getHotPricesRange() >= 32768, is(true));
+        assertThat(tuner.getResizes() >= 1, is(true));
+        assertThat(tuner.getLastDecision(), is(HotRangeTuner.Decision.KEEP));
+        assertThat(tuner.getPlacedHot() > tuner.getPlacedFar(), is(true));
+    }
+
+    @Test
+    public void hotRangeShouldShrinkForNarrowDistribution() {
+        final OrderBookFastImpl orderBook = new OrderBookFastImpl(65536, SymbolType.FUTURES_CONTRACT, false, new HotRangeTuner(1000));
+        placeAroundMidPrice(orderBook, 100, 10_000);
+
+        final HotRangeTuner tuner = orderBook.getHotRangeTuner();
+        log.debug("{} {}", orderBook.getHotPricesRange(), tuner);
+        // recommended range is 1024, shrinking stops when current range is less than 4x of recommended
+        assertThat(orderBook.getHotPricesRange(), is(2048));
+        assertThat(tuner.getResizes(), is(5L));
+        assertThat(tuner.getPlacedFar(), is(0L));
+
+        // tuner statistics survive snapshot
+        final NativeBytes<Void> bytes = Bytes.allocateElasticDirect(4096);
+        orderBook.writeMarshallable(bytes);
+        final OrderBookFastImpl restored = (OrderBookFastImpl) IOrderBook.create(bytes);
+        restored.validateInternalState();
+        assertEquals(orderBook, restored);
+        assertThat(restored.getHotPricesRange(), is(2048));
+        assertEquals(tuner.toString(), restored.getHotRangeTuner().toString());
+        bytes.release();
+    }
+
+    @Test
+    public void shouldCreateFromEngineProfile() {
+        final SymbolEngineProfile profile = SymbolEngineProfile.builder()
+                .implementation(IOrderBook.OrderBookImplType.FAST)
+                .hotWidth(4096)
+                .adaptiveHotWidth(true)
+                .expectedDepth(100)
+                .build();
+
+        final OrderBookFastImpl orderBook = (OrderBookFastImpl) IOrderBook.create(profile, SymbolType.FUTURES_CONTRACT, new OrderBookObjectsPool());
+        assertThat(orderBook.getHotPricesRange(), is(4096));
+        assertThat(orderBook.getHotRangeTuner(), notNullValue());
+        placeAroundMidPrice(orderBook, 1000, 1000);
+
+        // profile parameters survive snapshot
+        final NativeBytes<Void> bytes = Bytes.allocateElasticDirect(4096);
+        orderBook.writeMarshallable(bytes);
+        final OrderBookFastImpl restored = (OrderBookFastImpl) IOrderBook.create(bytes);
+        assertEquals(orderBook, restored);
+        assertThat(restored.getHotPricesRange(), is(4096));
+        assertThat(restored.getHotRangeTuner(), notNullValue());
+        bytes.release();
+    }
+
+    @Test
+    public void shouldRejectUnsupportedProfileParameters() {
+        final SymbolEngineProfile[] profiles = {
+                SymbolEngineProfile.builder().implementation(IOrderBook.OrderBookImplType.FAST).floorPrice(1000).build(),
+                SymbolEngineProfile.builder().implementation(IOrderBook.OrderBookImplType.NAIVE).hotWidth(4096).build(),
+                SymbolEngineProfile.builder().implementation(IOrderBook.OrderBookImplType.DIRECT).expectedDepth(100).build(),
+                SymbolEngineProfile.builder().implementation(IOrderBook.OrderBookImplType.NAIVE).indexUserOrders(true).build(),
+                SymbolEngineProfile.builder().implementation(IOrderBook.OrderBookImplType.LADDER).adaptiveHotWidth(true).build(),
+                SymbolEngineProfile.builder().implementation(IOrderBook.OrderBookImplType.FAST).hotWidth(1000).build(),
+                SymbolEngineProfile.builder().implementation(IOrderBook.OrderBookImplType.LADDER).floorPrice(-1).build(),
+                SymbolEngineProfile.builder().implementation(IOrderBook.OrderBookImplType.LADDER).floorPrice(Long.MAX_VALUE - 100).tickSize(10).hotWidth(1024).build()};
+
+        for (SymbolEngineProfile profile : profiles) {
+            try {
+                IOrderBook.create(profile, SymbolType.FUTURES_CONTRACT, new OrderBookObjectsPool());
+                fail("profile should be rejected: " + profile);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void shouldShareObjectsPoolBetweenOrderBooks() {
+        final OrderBookObjectsPool objectsPool = new OrderBookObjectsPool();
+        final OrderBookFastImpl orderBook1 = new OrderBookFastImpl(HOT_PRICES_RANGE, SymbolType.FUTURES_CONTRACT, false, null, 0, objectsPool);
+        final OrderBookFastImpl orderBook2 = new OrderBookFastImpl(HOT_PRICES_RANGE, SymbolType.FUTURES_CONTRACT, false, null, 0, objectsPool);
+
+        for (int i = 0; i < 100; i++) {
+            IOrderBook.processCommand(orderBook1, OrderCommand.newOrder(GTC, 100 + i, UID_1, INITIAL_PRICE + i, 1, ASK));
+        }
+        assertThat(objectsPool.getOrders().getMisses(), is(100L));
+        assertThat(objectsPool.getBuckets().getMisses(), is(100L));
+
+        // all orders and buckets are released into the shared pool
+        IOrderBook.processCommand(orderBook1, OrderCommand.newOrder(IOC, 300, UID_2, INITIAL_PRICE + 100, 100, BID));
+        assertThat(orderBook1.getOrdersNum(), is(0));
+        assertThat(objectsPool.getOrders().getSize(), is(100));
+        assertThat(objectsPool.getBuckets().getSize(), is(100));
+
+        // other order book reuses them
+        for (int i = 0; i < 50; i++) {
+            IOrderBook.processCommand(orderBook2, OrderCommand.newOrder(GTC, 400 + i, UID_1, INITIAL_PRICE - i, 1, BID));
+        }
+        orderBook2.validateInternalState();
+        assertThat(objectsPool.getOrders().getMisses(), is(100L));
+        assertThat(objectsPool.getOrders().getHits(), is(50L));
+        assertThat(objectsPool.getBuckets().getSize(), is(50));
+    }
+
+    /**
+     * Places GTC orders and some IOC orders within given distance from the slowly moving mid price,
+     * compares order book with naive implementation.
+     */
+    private void placeAroundMidPrice(final OrderBookFastImpl orderBook, final int maxDistance, final int numOrders) {
+        final IOrderBook orderBookRef = new OrderBookNaiveImpl(SymbolType.FUTURES_CONTRACT);
+        final Random rand = new Random(1L);
+        long mid = INITIAL_PRICE;
+        for (int i = 0; i < numOrders; i++) {
+            mid += rand.nextInt(5) - 2;
+            final long distance = 1 + rand.nextInt(maxDistance);
+            final boolean ask = rand.nextBoolean();
+            final OrderCommand cmd = OrderCommand.newOrder(
+                    rand.nextInt(10) == 0 ? IOC : GTC,
+                    100 + i,
+                    100 + i,
+                    ask ? mid + distance : mid - distance,
+                    1 + rand.nextInt(10),
+                    ask ? ASK : BID);
+            cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            IOrderBook.processCommand(orderBook, cmd);
+            cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            IOrderBook.processCommand(orderBookRef, cmd);
+            if (i % 500 == 0) {
+                orderBook.validateInternalState();
+                assertEquals(orderBookRef, orderBook);
+            }
+        }
+        orderBook.validateInternalState();
+        assertEquals(orderBookRef, orderBook);
+        assertEquals(orderBookRef.getL2MarketDataSnapshot(-1), orderBook.getL2MarketDataSnapshot(-1));
+    }
+
     @Test
     public void sequentialAsksTest() {
 
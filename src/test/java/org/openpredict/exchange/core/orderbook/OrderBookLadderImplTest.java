@@ -0,0 +1,147 @@
+package org.openpredict.exchange.core.orderbook;
+
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.NativeBytes;
+import org.junit.Test;
+import org.openpredict.exchange.beans.L2MarketData;
+import org.openpredict.exchange.beans.MatcherTradeEvent;
+import org.openpredict.exchange.beans.SymbolType;
+import org.openpredict.exchange.beans.cmd.CommandResultCode;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.tests.util.TestOrdersGenerator;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.openpredict.exchange.beans.OrderAction.ASK;
+import static org.openpredict.exchange.beans.OrderAction.BID;
+import static org.openpredict.exchange.beans.OrderType.GTC;
+import static org.openpredict.exchange.beans.cmd.CommandResultCode.*;
+
+@Slf4j
+public class OrderBookLadderImplTest extends OrderBookBaseTest {
+
+    // covers all prices used by base test (up to MAX_PRICE)
+    private static final int LEVELS_NUM = 1 << 19;
+
+    @Override
+    protected IOrderBook createNewOrderBook() {
+        return new OrderBookLadderImpl(0, 1, LEVELS_NUM, 0, true, SymbolType.FUTURES_CONTRACT, new OrderBookObjectsPool());
+    }
+
+    @Test
+    public void multipleCommandsCompareTest() {
+
+        int tranNum = 100_000;
+        int targetOrderBookOrders = 500;
+        int numUsers = 500;
+
+        IOrderBook orderBook = new OrderBookLadderImpl(0, 1, LEVELS_NUM, SymbolType.FUTURES_CONTRACT);
+        IOrderBook orderBookRef = new OrderBookNaiveImpl(SymbolType.FUTURES_CONTRACT);
+
+        TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(tranNum, targetOrderBookOrders, numUsers, 0, true);
+
+        int i = 0;
+        for (OrderCommand cmd : genResult.getCommands()) {
+            cmd.orderId += 100;
+
+            cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            IOrderBook.processCommand(orderBook, cmd);
+
+            cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            CommandResultCode commandResultCode = IOrderBook.processCommand(orderBookRef, cmd);
+
+            assertThat(commandResultCode, is(SUCCESS));
+            assertEquals(orderBook, orderBookRef);
+            if (++i % 1000 == 0) {
+                orderBook.validateInternalState();
+                assertEquals(orderBookRef.getL2MarketDataSnapshot(-1), orderBook.getL2MarketDataSnapshot(-1));
+            }
+        }
+
+        orderBook.validateInternalState();
+    }
+
+    @Test
+    public void shouldRestoreFromSnapshot() {
+        final NativeBytes<Void> bytes = Bytes.allocateElasticDirect(4096);
+        orderBook.writeMarshallable(bytes);
+
+        final IOrderBook restored = IOrderBook.create(bytes);
+        restored.validateInternalState();
+        assertThat(restored.getImplementationType(), is(IOrderBook.OrderBookImplType.LADDER));
+        assertEquals(orderBook, restored);
+        assertThat(restored.getOrdersNum(), is(orderBook.getOrdersNum()));
+        assertThat(restored.getBestAsk(), is(orderBook.getBestAsk()));
+        assertThat(restored.getBestBid(), is(orderBook.getBestBid()));
+        assertThat(restored.hashCode(), is(orderBook.hashCode()));
+
+        bytes.release();
+    }
+
+    @Test
+    public void shouldRejectPricesOutsideOfLadder() {
+
+        orderBook = new OrderBookLadderImpl(1000, 5, 100, SymbolType.FUTURES_CONTRACT);
+        processAndValidate(OrderCommand.newOrder(GTC, 1, UID_1, 1100, 10, ASK), SUCCESS);
+        processAndValidate(OrderCommand.newOrder(GTC, 2, UID_1, 1050, 10, BID), SUCCESS);
+
+        // outside of the band, or not aligned by tick
+        processAndValidate(OrderCommand.newOrder(GTC, 3, UID_1, 995, 10, BID), MATCHING_PRICE_OUT_OF_BAND);
+        processAndValidate(OrderCommand.newOrder(GTC, 4, UID_1, 1500, 10, ASK), MATCHING_PRICE_OUT_OF_BAND);
+        processAndValidate(OrderCommand.newOrder(GTC, 5, UID_1, 1101, 10, ASK), INVALID_PRICE_STEP);
+        processAndValidate(OrderCommand.update(2, UID_1, 1051), INVALID_PRICE_STEP);
+        assertThat(orderBook.getOrdersNum(), is(2));
+
+        // marketable order with price outside of the band matches, remaining size is rejected
+        final OrderCommand cmd = OrderCommand.newOrder(GTC, 6, UID_2, 2000, 15, BID);
+        processAndValidate(cmd, MATCHING_PRICE_OUT_OF_BAND);
+        final List<MatcherTradeEvent> events = cmd.extractEvents();
+        assertThat(events.size(), is(2));
+        checkEventTrade(events.get(0), 6L, 1L, 1100L, 10L);
+        checkEventRejection(events.get(1), 6L, 5L);
+
+        // limit price between ticks
+        processAndValidate(OrderCommand.newOrder(GTC, 7, UID_1, 1060, 10, BID), SUCCESS);
+        final OrderCommand sell = OrderCommand.newOrder(GTC, 8, UID_2, 1052, 30, ASK);
+        processAndValidate(sell, INVALID_PRICE_STEP);
+        assertThat(sell.extractEvents().size(), is(2));
+
+        final L2MarketData snapshot = orderBook.getL2MarketDataSnapshot(-1);
+        assertThat(snapshot.askSize, is(0));
+        assertThat(snapshot.bidSize, is(1));
+        assertThat(snapshot.bidPrices[0], is(1050L));
+        assertThat(orderBook.getBestAsk(), is(Long.MAX_VALUE));
+        assertThat(orderBook.getBestBid(), is(1050L));
+    }
+
+    @Test
+    public void shouldReturnEmptiedLevelsToPool() {
+
+        final OrderBookObjectsPool pool = new OrderBookObjectsPool();
+        orderBook = new OrderBookLadderImpl(0, 1, LEVELS_NUM, 0, false, SymbolType.FUTURES_CONTRACT, pool);
+        processAndValidate(OrderCommand.newOrder(GTC, 1, UID_1, 100, 10, ASK), SUCCESS);
+        processAndValidate(OrderCommand.newOrder(GTC, 2, UID_1, 200_000, 10, ASK), SUCCESS);
+        processAndValidate(OrderCommand.newOrder(GTC, 3, UID_1, 90, 10, BID), SUCCESS);
+        assertThat(pool.getBuckets().getMisses(), is(3L));
+
+        // sweep through sparse levels, both ask levels are emptied
+        processAndValidate(OrderCommand.newOrder(GTC, 4, UID_2, 300_000, 25, BID), SUCCESS);
+        assertThat(orderBook.getTotalAskBuckets(), is(0));
+        assertThat(orderBook.getBestBid(), is(300_000L));
+        assertThat(pool.getBuckets().getHits(), is(1L));
+
+        // cancel empties the bid level
+        processAndValidate(OrderCommand.cancel(3, UID_1), SUCCESS);
+        assertThat(pool.getBuckets().getSize(), is(2));
+
+        // pooled buckets are reused for new levels
+        processAndValidate(OrderCommand.newOrder(GTC, 5, UID_1, 350_000, 10, ASK), SUCCESS);
+        assertThat(pool.getBuckets().getHits(), is(2L));
+        assertThat(orderBook.getBestAsk(), is(350_000L));
+    }
+
+}
@@ -104,6 +104,21 @@ public abstract class OrdersBucketBaseTest {
     }
 
 
+    @Test
+    public void shouldReduceOrderInPlace() {
+
+        bucket.reduceOrder(bucket.findOrder(1), 30);
+        bucket.validate();
+        assertThat(bucket.getNumOrders(), is(3));
+        assertThat(bucket.getTotalVolume(), is(271L));
+        assertThat(bucket.findOrder(1).size, is(70L));
+
+        // reduced order keeps its queue position
+        List<Order> orders = bucket.getAllOrders();
+        assertThat(orders.get(0).orderId, is(1L));
+        assertThat(orders.get(0).size, is(70L));
+    }
+
     @Test
     public void shouldAddManyOrders() {
         int numOrdersToAdd = 100_000;
@@ -0,0 +1,139 @@
+package org.openpredict.exchange.core.orderbook;
+
+
+import lombok.extern.slf4j.Slf4j;
+import org.hamcrest.MatcherAssert;
+import org.junit.Test;
+import org.openpredict.exchange.beans.Order;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+
+@Slf4j
+public class OrdersBucketLinkedImplTest extends OrdersBucketBaseTest {
+
+    @Override
+    protected IOrdersBucket createNewBucket() {
+        IOrdersBucket bucket = new OrdersBucketLinkedImpl();
+        bucket.setPrice(PRICE);
+        return bucket;
+    }
+
+    private static final int UID_2 = 413;
+    private static final int UID_9 = 419;
+
+    @Test
+    public void shouldSkipOwnOrdersKeepingQueuePositions() {
+        bucket.put(Order.orderBuilder().orderId(5).uid(UID_2).size(50).build());
+
+        // only order 5 can be matched
+        OrderCommand trig = OrderCommand.update(1238729387, UID_1, 1000);
+        long matched = bucket.match(120, trig, trig, IGNORE_CMD_CONSUMER);
+        MatcherAssert.assertThat(matched, is(50L));
+        MatcherAssert.assertThat(bucket.getNumOrders(), is(3));
+        MatcherAssert.assertThat(bucket.getTotalVolume(), is(301L));
+        bucket.validate();
+
+        // own orders were not moved
+        trig = OrderCommand.update(1238729388, UID_2, 1000);
+        matched = bucket.match(150, trig, trig, IGNORE_CMD_CONSUMER);
+        MatcherAssert.assertThat(matched, is(150L));
+        MatcherAssert.assertThat(bucket.getNumOrders(), is(1));
+        MatcherAssert.assertThat(bucket.findOrder(4).filled, is(49L));
+        bucket.validate();
+    }
+
+    @Test
+    public void shouldUnlinkOrdersInAnyPosition() {
+        bucket.put(Order.orderBuilder().orderId(5).uid(UID_2).size(50).build());
+        bucket.put(Order.orderBuilder().orderId(6).uid(UID_2).size(60).build());
+
+        // tail, middle, head
+        for (long orderId : new long[]{6, 3, 1}) {
+            Order order = bucket.findOrder(orderId);
+            bucket.removeOrder(order);
+            MatcherAssert.assertThat(order.prev == null && order.next == null, is(true));
+            bucket.validate();
+        }
+
+        MatcherAssert.assertThat(bucket.getNumOrders(), is(2));
+        MatcherAssert.assertThat(bucket.getTotalVolume(), is(250L));
+        MatcherAssert.assertThat(bucket.getAllOrders().get(0).orderId, is(4L));
+        MatcherAssert.assertThat(bucket.getAllOrders().get(1).orderId, is(5L));
+    }
+
+    @Test
+    public void compareBucketScenario() {
+
+        Random rnd = new Random(1);
+
+        int numOrdersToAdd = 1000;
+        long expectedVolume = 0;
+
+        IOrdersBucket bucketRef = new OrdersBucketNaiveImpl();
+        IOrdersBucket bucket = new OrdersBucketLinkedImpl();
+
+        int orderId = 0;
+
+        for (int j = 0; j < 100; j++) {
+
+            List<Order> orders = new ArrayList<>(numOrdersToAdd);
+            for (int i = 0; i < numOrdersToAdd; i++) {
+
+                int size = rnd.nextInt(Integer.MAX_VALUE);
+                orderId++;
+                Order order1 = Order.orderBuilder().price(1).orderId(orderId).uid(UID_2).size(size).build();
+                Order order2 = Order.orderBuilder().price(1).orderId(orderId).uid(UID_2).size(size).build();
+                orders.add(order1);
+
+                bucket.put(order1);
+                bucketRef.put(order2);
+
+                expectedVolume += size;
+
+                //log.debug("{}-{}: orderId:{}", j, i, orderId);
+
+                MatcherAssert.assertThat(bucket, is(bucketRef));
+            }
+
+            Collections.shuffle(orders, rnd);
+
+            List<Order> ordersToRemove = orders.subList(0, 900);
+            for (Order order : ordersToRemove) {
+                bucket.removeOrder(order);
+                bucketRef.remove(order.orderId, UID_2);
+                expectedVolume -= order.size;
+                MatcherAssert.assertThat(bucket, is(bucketRef));
+            }
+
+//            TradeEventCallback.TradeEventCollector events = new TradeEventCallback.TradeEventCollector();
+//            TradeEventCallback.TradeEventCollector eventsRef = new TradeEventCallback.TradeEventCollector();
+            long toMatch = expectedVolume / 2;
+
+            OrderCommand trig = OrderCommand.update(1238729387, UID_9, 1000);
+            OrderCommand trigRef = OrderCommand.update(1238729387, UID_9, 1000);
+
+            long totalVolume = bucket.match(toMatch, trig, trig,IGNORE_CMD_CONSUMER);
+            bucketRef.match(toMatch, trigRef, trigRef, IGNORE_CMD_CONSUMER);
+            expectedVolume -= totalVolume;
+            MatcherAssert.assertThat(bucket, is(bucketRef));
+//            MatcherAssert.assertThat(events, is(eventsRef));
+        }
+
+//        TradeEventCallback.TradeEventCollector events = new TradeEventCallback.TradeEventCollector();
+//        TradeEventCallback.TradeEventCollector eventsRef = new TradeEventCallback.TradeEventCollector();
+        OrderCommand trig = OrderCommand.update(1238729387, UID_9, 1000);
+        OrderCommand trigRef = OrderCommand.update(1238729387, UID_9, 1000);
+        bucket.match(expectedVolume, trig, trig, IGNORE_CMD_CONSUMER);
+        bucketRef.match(expectedVolume, trigRef, trigRef, IGNORE_CMD_CONSUMER);
+        MatcherAssert.assertThat(bucket, is(bucketRef));
+//        MatcherAssert.assertThat(events, is(eventsRef));
+    }
+
+
+}
@@ -0,0 +1,96 @@
+package org.openpredict.exchange.core.partitioning;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.NativeBytes;
+import org.junit.Test;
+
+import java.util.stream.LongStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class UidPartitionerTest {
+
+    @Test
+    public void maskShouldKeepLowerBitsRule() {
+        final IUidPartitioner partitioner = new UidPartitionerMask(4);
+        LongStream.range(0, 1000).forEach(uid -> assertThat(partitioner.shardForUid(uid), is((int) (uid & 3))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maskShouldRequirePowerOfTwo() {
+        new UidPartitionerMask(3);
+    }
+
+    @Test
+    public void defaultShouldDependOnNumberOfShards() {
+        assertThat(IUidPartitioner.createDefault(1), instanceOf(UidPartitionerMask.class));
+        assertThat(IUidPartitioner.createDefault(4), instanceOf(UidPartitionerMask.class));
+        assertThat(IUidPartitioner.createDefault(3), instanceOf(UidPartitionerHash.class));
+    }
+
+    /**
+     * Uids assigned in blocks with stride 4 are all placed into one shard by mask, hash spreads them evenly.
+     */
+    @Test
+    public void hashShouldSpreadBlockAssignedUids() {
+        for (int numShards : new int[]{3, 4, 7}) {
+            final IUidPartitioner partitioner = new UidPartitionerHash(numShards);
+            final int usersNum = 100_000;
+            final int[] users = new int[numShards];
+            for (long broker = 0; broker < 100; broker++) {
+                for (long i = 0; i < usersNum / 100; i++) {
+                    users[partitioner.shardForUid(broker * 1_000_000 + i * 4)]++;
+                }
+            }
+            final int expected = usersNum / numShards;
+            for (int shardUsers : users) {
+                assertThat(shardUsers, allOf(greaterThan(expected * 95 / 100), lessThan(expected * 105 / 100)));
+            }
+        }
+    }
+
+    @Test
+    public void rangesShouldFindContainingRange() {
+        final IUidPartitioner partitioner = new UidPartitionerRanges(3, new long[]{100, 200, 1000}, new int[]{2, 0, 1});
+        assertThat(partitioner.shardForUid(Long.MIN_VALUE), is(2));
+        assertThat(partitioner.shardForUid(99), is(2));
+        assertThat(partitioner.shardForUid(100), is(2));
+        assertThat(partitioner.shardForUid(199), is(2));
+        assertThat(partitioner.shardForUid(200), is(0));
+        assertThat(partitioner.shardForUid(999), is(0));
+        assertThat(partitioner.shardForUid(1000), is(1));
+        assertThat(partitioner.shardForUid(Long.MAX_VALUE), is(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangesShouldBeSorted() {
+        new UidPartitionerRanges(2, new long[]{200, 100}, new int[]{0, 1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangesShouldReferToExistingShards() {
+        new UidPartitionerRanges(2, new long[]{0, 100}, new int[]{0, 2});
+    }
+
+    @Test
+    public void shouldRestoreFromSnapshot() {
+        final IUidPartitioner[] partitioners = {
+                new UidPartitionerMask(8),
+                new UidPartitionerHash(5),
+                new UidPartitionerRanges(3, new long[]{0, 1_000, 5_000}, new int[]{1, 2, 0})};
+
+        for (IUidPartitioner partitioner : partitioners) {
+            final NativeBytes<Void> bytes = Bytes.allocateElasticDirect();
+            partitioner.writeMarshallable(bytes);
+            final IUidPartitioner restored = IUidPartitioner.create(bytes);
+            assertThat(restored, is(partitioner));
+            assertThat(restored.stateHash(), is(partitioner.stateHash()));
+            assertThat(bytes.readRemaining(), is(0L));
+            LongStream.range(0, 10_000).forEach(uid -> assertThat(restored.shardForUid(uid), is(partitioner.shardForUid(uid))));
+            bytes.release();
+        }
+
+        assertThat(new UidPartitionerHash(4).stateHash(), not(new UidPartitionerMask(4).stateHash()));
+    }
+}
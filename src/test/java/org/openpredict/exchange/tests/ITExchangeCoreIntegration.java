@@ -1,20 +1,41 @@
 package org.openpredict.exchange.tests;
 
+import com.google.common.collect.Sets;
 import lombok.extern.slf4j.Slf4j;
+import org.eclipse.collections.impl.map.mutable.primitive.IntLongHashMap;
 import org.junit.Test;
 import org.openpredict.exchange.beans.*;
 import org.openpredict.exchange.beans.api.*;
 import org.openpredict.exchange.beans.cmd.CommandResultCode;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
 import org.openpredict.exchange.beans.cmd.OrderCommandType;
+import org.openpredict.exchange.core.L2MarketDataRebuilder;
+import org.openpredict.exchange.core.L3MarketDataReplay;
+import org.openpredict.exchange.core.PipelineWaitStrategies;
+import org.openpredict.exchange.core.biprocessor.PhasedWaitStrategy;
+import org.openpredict.exchange.core.orderbook.IOrderBook;
+import org.openpredict.exchange.core.biprocessor.WaitPhaseCounters;
+import org.openpredict.exchange.core.partitioning.IUidPartitioner;
+import org.openpredict.exchange.core.partitioning.UidPartitionerRanges;
 import org.openpredict.exchange.tests.util.ExchangeTestContainer;
 import org.openpredict.exchange.tests.util.L2MarketDataHelper;
 import org.openpredict.exchange.tests.util.TestOrdersGenerator;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
 import static org.junit.Assert.*;
 import static org.openpredict.exchange.beans.OrderAction.ASK;
 import static org.openpredict.exchange.beans.OrderType.GTC;
@@ -34,11 +55,68 @@ public final class ITExchangeCoreIntegration {
         basicFullCycleTest(SYMBOLSPEC_ETH_XBT);
     }
 
+    @Test(timeout = 10_000)
+    public void basicFullCycleTestLadderProfile() throws Exception {
+        basicFullCycleTest(SYMBOLSPEC_EUR_USD_LADDER);
+    }
+
+    @Test(timeout = 10_000)
+    public void shouldRejectInvalidEngineProfile() throws Exception {
+
+        try (final ExchangeTestContainer container = new ExchangeTestContainer()) {
+            container.initBasicSymbols();
+            container.initBasicUsers();
+
+            // NAIVE order book does not support hot prices range
+            final CoreSymbolSpecification invalidSpec = CoreSymbolSpecification.builder()
+                    .symbolId(SYMBOL_MARGIN_LADDER)
+                    .type(SymbolType.FUTURES_CONTRACT)
+                    .baseCurrency(CURRENECY_EUR)
+                    .quoteCurrency(CURRENECY_USD)
+                    .baseScaleK(1)
+                    .quoteScaleK(1)
+                    .depositBuy(2200)
+                    .depositSell(3210)
+                    .engineProfile(SymbolEngineProfile.builder()
+                            .implementation(IOrderBook.OrderBookImplType.NAIVE)
+                            .hotWidth(2048)
+                            .build())
+                    .build();
+            container.addSymbol(invalidSpec, CommandResultCode.MATCHING_INVALID_ENGINE_PROFILE);
+
+            // symbol is not registered by risk engine - no funds are held (result code is overwritten by matching engine)
+            container.submitCommandSync(
+                    ApiPlaceOrder.builder().uid(UID_1).id(101).price(1600).size(7).action(OrderAction.BID).orderType(GTC).symbol(SYMBOL_MARGIN_LADDER).build(),
+                    cmd -> {
+                        assertThat(cmd.resultCode, is(CommandResultCode.MATCHING_INVALID_ORDER_BOOK_ID));
+                    });
+
+            container.validateUserState(
+                    UID_1,
+                    userProfile -> {
+                        assertThat(userProfile.accounts.get(CURRENECY_USD), is(10_000_00L));
+                        assertTrue(userProfile.portfolio.isEmpty());
+                    },
+                    orders -> assertTrue(orders.isEmpty()));
+
+            // valid specification of the same symbol can be added later
+            container.addSymbol(SYMBOLSPEC_EUR_USD_LADDER);
+            container.submitCommandSync(
+                    ApiPlaceOrder.builder().uid(UID_1).id(102).price(1600).size(7).action(OrderAction.BID).orderType(GTC).symbol(SYMBOL_MARGIN_LADDER).build(),
+                    CHECK_SUCCESS);
+
+            assertThat(container.requestStateHash(true), is(container.requestStateHash(false)));
+        }
+    }
+
     // TODO count/verify number of commands and events
     private void basicFullCycleTest(final CoreSymbolSpecification symbolSpec) throws Exception {
 
         try (final ExchangeTestContainer container = new ExchangeTestContainer()) {
             container.initBasicSymbols();
+            if (symbolSpec.engineProfile != null) {
+                container.addSymbol(symbolSpec);
+            }
             container.initBasicUsers();
 
             // ### 1. first user places limit orders
@@ -533,6 +611,580 @@ public final class ITExchangeCoreIntegration {
         }
     }
 
+    @Test(timeout = 30_000)
+    public void exchangeReduceBid() throws Exception {
+
+        try (final ExchangeTestContainer container = new ExchangeTestContainer()) {
+            container.initBasicSymbols();
+
+            container.createUserWithMoney(UID_2, CURRENECY_XBT, 94_000_000); // 94M satoshi (0.94 BTC)
+
+            container.submitCommandSync(
+                    ApiPlaceOrder.builder().uid(UID_2).id(203).price(18_000).reservePrice(18_500).size(500).action(OrderAction.BID).orderType(GTC).symbol(SYMBOL_EXCHANGE).build(),
+                    CHECK_SUCCESS);
+
+            // reduce order - only reduced size is released
+            container.submitCommandSync(
+                    ApiReduceOrder.builder().id(203).uid(UID_2).reduceSize(200).symbol(SYMBOL_EXCHANGE).build(),
+                    cmd -> {
+                        assertThat(cmd.resultCode, is(CommandResultCode.SUCCESS));
+                        assertThat(cmd.command, is(OrderCommandType.REDUCE_ORDER));
+                        final MatcherTradeEvent evt = cmd.matcherEvent;
+                        assertNotNull(evt);
+                        assertNull(evt.nextEvent);
+                        assertThat(evt.eventType, is(MatcherEventType.REDUCE));
+                        assertThat(evt.activeOrderId, is(203L));
+                        assertThat(evt.activeOrderAction, is(OrderAction.BID));
+                        assertThat(evt.bidderHoldPrice, is(18_500L));
+                        assertThat(evt.size, is(200L));
+                    });
+
+            container.validateUserState(
+                    UID_2,
+                    userProfile -> assertThat(userProfile.accounts.get(CURRENECY_XBT), is(94_000_000L - 18_500 * 300 * SYMBOLSPEC_ETH_XBT.getQuoteScaleK())),
+                    orders -> assertThat(orders.get(203L).size, is(300L)));
+
+            // reducing by remaining size cancels the order
+            container.submitCommandSync(
+                    ApiReduceOrder.builder().id(203).uid(UID_2).reduceSize(300).symbol(SYMBOL_EXCHANGE).build(),
+                    cmd -> {
+                        assertThat(cmd.resultCode, is(CommandResultCode.SUCCESS));
+                        assertThat(cmd.matcherEvent.eventType, is(MatcherEventType.CANCEL));
+                        assertThat(cmd.matcherEvent.size, is(300L));
+                    });
+
+            container.validateUserState(
+                    UID_2,
+                    userProfile -> assertThat(userProfile.accounts.get(CURRENECY_XBT), is(94_000_000L)),
+                    orders -> assertTrue(orders.isEmpty()));
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void cancelAllOrders() throws Exception {
+
+        // symbols are processed by different matching engines, market data of all symbols is rebuilt from deltas and L3 events
+        try (final ExchangeTestContainer container = new ExchangeTestContainer(64 * 1024, 3, 1, 128, null, false, null, null, true)) {
+            container.initBasicSymbols();
+            container.initBasicUsers();
+
+            final Map<Integer, L2MarketDataRebuilder> rebuilders = new HashMap<>();
+            final Map<Integer, L3MarketDataReplay> replays = new HashMap<>();
+            final Consumer<OrderCommand> applyMarketData = cmd -> {
+                for (L2MarketDataDelta delta = cmd.marketDataDelta; delta != null; delta = delta.next) {
+                    rebuilders.computeIfAbsent(delta.symbol, k -> new L2MarketDataRebuilder()).apply(delta);
+                }
+                for (L3MarketDataEvents events = cmd.l3Events; events != null; events = events.next) {
+                    replays.computeIfAbsent(events.symbol, k -> new L3MarketDataReplay()).apply(events);
+                }
+            };
+
+            final List<ApiCommand> orders = new ArrayList<>();
+            orders.add(ApiPlaceOrder.builder().uid(UID_2).id(101).price(1600).size(3).action(OrderAction.BID).orderType(GTC).symbol(SYMBOL_MARGIN).build());
+            orders.add(ApiPlaceOrder.builder().uid(UID_2).id(102).price(1700).size(2).action(ASK).orderType(GTC).symbol(SYMBOL_MARGIN).build());
+            orders.add(ApiPlaceOrder.builder().uid(UID_2).id(103).price(18_000).reservePrice(18_500).size(500).action(OrderAction.BID).orderType(GTC).symbol(SYMBOL_EXCHANGE).build());
+            orders.add(ApiPlaceOrder.builder().uid(UID_2).id(104).price(19_000).size(100).action(ASK).orderType(GTC).symbol(SYMBOL_EXCHANGE).build());
+            orders.add(ApiPlaceOrder.builder().uid(UID_1).id(105).price(1650).size(1).action(ASK).orderType(GTC).symbol(SYMBOL_MARGIN).build());
+            for (final ApiCommand order : orders) {
+                container.submitCommandSync(order, CHECK_SUCCESS.andThen(applyMarketData));
+            }
+
+            // cancel orders in one order book only
+            container.submitCommandSync(
+                    ApiCancelAllOrders.builder().uid(UID_2).symbol(SYMBOL_EXCHANGE).build(),
+                    cmd -> {
+                        assertThat(cmd.resultCode, is(CommandResultCode.SUCCESS));
+                        assertThat(cmd.command, is(OrderCommandType.CANCEL_ALL));
+                        final List<MatcherTradeEvent> events = cmd.extractEvents();
+                        assertThat(events.size(), is(2));
+                        events.forEach(evt -> {
+                            assertThat(evt.eventType, is(MatcherEventType.CANCEL));
+                            assertThat(evt.symbol, is(SYMBOL_EXCHANGE));
+                        });
+                        assertThat(cmd.marketDataDelta.symbol, is(SYMBOL_EXCHANGE));
+                        assertNull(cmd.marketDataDelta.next);
+                        applyMarketData.accept(cmd);
+                    });
+
+            container.validateUserState(
+                    UID_2,
+                    userProfile -> {
+                        assertThat(userProfile.accounts.get(CURRENECY_XBT), is(1_0000_0000L));
+                        assertThat(userProfile.accounts.get(CURRENECY_ETH), is(1_0000_0000L));
+                        assertThat(userProfile.portfolio.size(), is(1));
+                    },
+                    userOrders -> assertThat(userOrders.keySet(), is(Sets.newHashSet(101L, 102L))));
+
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_2).id(106).price(19_000).size(100).action(ASK).orderType(GTC).symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS.andThen(applyMarketData));
+
+            // cancel orders in all order books
+            container.submitCommandSync(
+                    ApiCancelAllOrders.builder().uid(UID_2).build(),
+                    cmd -> {
+                        assertThat(cmd.resultCode, is(CommandResultCode.SUCCESS));
+                        final List<MatcherTradeEvent> events = cmd.extractEvents();
+                        assertThat(events.size(), is(3));
+                        events.forEach(evt -> {
+                            assertThat(evt.eventType, is(MatcherEventType.CANCEL));
+                            assertThat(evt.activeOrderUid, is(UID_2));
+                        });
+                        applyMarketData.accept(cmd);
+                    });
+
+            // order books rebuilt from market data are same as actual order books
+            for (final int symbol : new int[]{SYMBOL_MARGIN, SYMBOL_EXCHANGE}) {
+                final L2MarketData actual = container.requestCurrentOrderBook(symbol);
+                assertThat(rebuilders.get(symbol).getL2MarketDataSnapshot(Integer.MAX_VALUE), is(actual));
+                assertThat(replays.get(symbol).getL2MarketDataSnapshot(Integer.MAX_VALUE), is(actual));
+            }
+            assertThat(replays.get(SYMBOL_MARGIN).getOrdersNum(), is(1));
+            assertThat(replays.get(SYMBOL_EXCHANGE).getOrdersNum(), is(0));
+
+            // all holds are released
+            container.validateUserState(
+                    UID_2,
+                    userProfile -> {
+                        assertThat(userProfile.accounts.get(CURRENECY_USD), is(20_000_00L));
+                        assertThat(userProfile.accounts.get(CURRENECY_XBT), is(1_0000_0000L));
+                        assertThat(userProfile.accounts.get(CURRENECY_ETH), is(1_0000_0000L));
+                        assertTrue(userProfile.portfolio.isEmpty());
+                    },
+                    userOrders -> assertTrue(userOrders.isEmpty()));
+
+            // orders of other users are not affected
+            container.validateUserState(
+                    UID_1,
+                    userProfile -> assertThat(userProfile.portfolio.size(), is(1)),
+                    userOrders -> assertThat(userOrders.keySet(), is(Sets.newHashSet(105L))));
+
+            assertThat(container.requestStateHash(true), is(container.requestStateHash(false)));
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void massQuote() throws Exception {
+
+        try (final ExchangeTestContainer container = new ExchangeTestContainer()) {
+            container.initBasicSymbols();
+            container.initBasicUsers();
+
+            // margin - two-sided ladder
+            container.submitCommandSync(
+                    ApiMassQuote.builder().uid(UID_2).id(100).symbol(SYMBOL_MARGIN)
+                            .bidPrices(new long[]{1600, 1590}).bidSizes(new long[]{3, 2})
+                            .askPrices(new long[]{1700}).askSizes(new long[]{2})
+                            .build(),
+                    CHECK_SUCCESS);
+
+            // one level is kept, other levels replaced
+            container.submitCommandSync(
+                    ApiMassQuote.builder().uid(UID_2).id(200).symbol(SYMBOL_MARGIN)
+                            .bidPrices(new long[]{1600}).bidSizes(new long[]{3})
+                            .askPrices(new long[]{1710}).askSizes(new long[]{4})
+                            .build(),
+                    cmd -> {
+                        assertThat(cmd.resultCode, is(CommandResultCode.SUCCESS));
+                        assertThat(cmd.command, is(OrderCommandType.MASS_QUOTE));
+                    });
+
+            container.validateUserState(
+                    UID_2,
+                    userProfile -> {
+                        final SymbolPortfolioRecord portfolio = userProfile.portfolio.get(SYMBOL_MARGIN);
+                        assertThat(portfolio.pendingBuySize, is(3L));
+                        assertThat(portfolio.pendingSellSize, is(4L));
+                    },
+                    userOrders -> assertThat(userOrders.keySet(), is(Sets.newHashSet(100L, 201L))));
+
+            // exchange - funds are held for the ladder
+            final ApiMassQuote exchangeQuote = ApiMassQuote.builder().uid(UID_2).id(300).symbol(SYMBOL_EXCHANGE)
+                    .bidPrices(new long[]{18_000}).bidSizes(new long[]{100})
+                    .askPrices(new long[]{19_000}).askSizes(new long[]{10})
+                    .build();
+            container.submitCommandSync(exchangeQuote, CHECK_SUCCESS);
+            // same ladder again - orders are kept, holds are not changed
+            container.submitCommandSync(exchangeQuote, CHECK_SUCCESS);
+
+            container.validateUserState(
+                    UID_2,
+                    userProfile -> {
+                        assertThat(userProfile.accounts.get(CURRENECY_XBT), is(1_0000_0000L - 18_000 * 100 * SYMBOLSPEC_ETH_XBT.quoteScaleK));
+                        assertThat(userProfile.accounts.get(CURRENECY_ETH), is(1_0000_0000L - 10 * SYMBOLSPEC_ETH_XBT.baseScaleK));
+                    },
+                    userOrders -> assertThat(userOrders.keySet(), is(Sets.newHashSet(100L, 201L, 300L, 301L))));
+
+            // not enough funds for the new ladder - existing quotes are not changed
+            container.submitCommandSync(
+                    ApiMassQuote.builder().uid(UID_2).id(400).symbol(SYMBOL_EXCHANGE)
+                            .bidPrices(new long[]{18_000}).bidSizes(new long[]{1000})
+                            .build(),
+                    cmd -> {
+                        assertThat(cmd.resultCode, is(CommandResultCode.RISK_NSF));
+                    });
+            container.validateUserState(
+                    UID_2,
+                    userProfile -> assertThat(userProfile.accounts.get(CURRENECY_XBT), is(1_0000_0000L - 18_000 * 100 * SYMBOLSPEC_ETH_XBT.quoteScaleK)),
+                    userOrders -> assertThat(userOrders.keySet(), is(Sets.newHashSet(100L, 201L, 300L, 301L))));
+
+            // ladder taking most of the funds can be re-priced - only the net change has to be covered
+            container.submitCommandSync(
+                    ApiMassQuote.builder().uid(UID_2).id(410).symbol(SYMBOL_EXCHANGE)
+                            .bidPrices(new long[]{18_000}).bidSizes(new long[]{500})
+                            .build(),
+                    CHECK_SUCCESS);
+            container.submitCommandSync(
+                    ApiMassQuote.builder().uid(UID_2).id(420).symbol(SYMBOL_EXCHANGE)
+                            .bidPrices(new long[]{18_100}).bidSizes(new long[]{500})
+                            .build(),
+                    CHECK_SUCCESS);
+
+            container.validateUserState(
+                    UID_2,
+                    userProfile -> {
+                        assertThat(userProfile.accounts.get(CURRENECY_XBT), is(1_0000_0000L - 18_100 * 500 * SYMBOLSPEC_ETH_XBT.quoteScaleK));
+                        assertThat(userProfile.accounts.get(CURRENECY_ETH), is(1_0000_0000L));
+                    },
+                    userOrders -> assertThat(userOrders.keySet(), is(Sets.newHashSet(100L, 201L, 420L))));
+
+            // crossed quote is not accepted
+            try {
+                container.api.submitCommand(ApiMassQuote.builder().uid(UID_2).id(500).symbol(SYMBOL_EXCHANGE)
+                        .bidPrices(new long[]{18_000}).bidSizes(new long[]{1})
+                        .askPrices(new long[]{18_000}).askSizes(new long[]{1})
+                        .build());
+                fail("crossed quote accepted");
+            } catch (final IllegalArgumentException ex) {
+                // expected
+            }
+
+            // empty ladder removes all quotes and releases all holds
+            container.submitCommandSync(ApiMassQuote.builder().uid(UID_2).id(600).symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS);
+            container.submitCommandSync(ApiMassQuote.builder().uid(UID_2).id(700).symbol(SYMBOL_MARGIN).build(), CHECK_SUCCESS);
+
+            container.validateUserState(
+                    UID_2,
+                    userProfile -> {
+                        assertThat(userProfile.accounts.get(CURRENECY_XBT), is(1_0000_0000L));
+                        assertThat(userProfile.accounts.get(CURRENECY_ETH), is(1_0000_0000L));
+                        assertTrue(userProfile.portfolio.isEmpty());
+                    },
+                    userOrders -> assertTrue(userOrders.isEmpty()));
+
+            assertThat(container.requestStateHash(true), is(container.requestStateHash(false)));
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void batchedSubmission() throws Exception {
+        // small ring buffer - long batches are published in several parts
+        try (final ExchangeTestContainer container = new ExchangeTestContainer(1024, 1, 1, 128, null)) {
+            container.initBasicSymbols();
+
+            final int numUsers = 100;
+            container.usersInit(numUsers, CURRENCIES_FUTURES);
+
+            final TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(50_000, 1000, numUsers, SYMBOL_MARGIN, false);
+            final List<ApiCommand> apiCommands = TestOrdersGenerator.convertToApiCommand(genResult.getCommands());
+
+            final CountDownLatch ordersLatch = new CountDownLatch(apiCommands.size());
+            container.setConsumer(cmd -> ordersLatch.countDown());
+            final int longBatch = 3000;
+            container.api.submitCommands(apiCommands.subList(0, longBatch));
+            for (int i = longBatch; i < apiCommands.size(); i += 200) {
+                container.api.submitCommands(apiCommands.subList(i, Math.min(i + 200, apiCommands.size())));
+            }
+            ordersLatch.await();
+
+            assertEquals(genResult.getFinalOrderBookSnapshot(), container.requestCurrentOrderBook(SYMBOL_MARGIN));
+            assertThat(container.requestStateHash(true), is(container.requestStateHash(false)));
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void batchWithInvalidMassQuoteIsNotPublished() throws Exception {
+        // small ring buffer - batch is published in two parts, invalid mass quote is in the second part
+        try (final ExchangeTestContainer container = new ExchangeTestContainer(1024, 1, 1, 128, null)) {
+            container.initBasicSymbols();
+            container.initBasicUsers();
+
+            final List<ApiCommand> orders = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                orders.add(ApiPlaceOrder.builder().uid(UID_1).id(1000 + i).price(1600).size(1).action(OrderAction.BID).orderType(GTC).symbol(SYMBOL_MARGIN).build());
+            }
+            final List<ApiCommand> batch = new ArrayList<>(orders);
+            batch.add(280, ApiMassQuote.builder().uid(UID_2).id(2000).symbol(SYMBOL_MARGIN)
+                    .bidPrices(new long[]{1700}).bidSizes(new long[]{1})
+                    .askPrices(new long[]{1650}).askSizes(new long[]{1})
+                    .build());
+
+            try {
+                container.api.submitCommands(batch);
+                fail("batch with crossed mass quote should be rejected");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+
+            // nothing is published
+            container.validateUserState(
+                    UID_1,
+                    userProfile -> assertTrue(userProfile.portfolio.isEmpty()),
+                    userOrders -> assertTrue(userOrders.isEmpty()));
+
+            // same batch without invalid command is published completely
+            final CountDownLatch ordersLatch = new CountDownLatch(orders.size());
+            container.setConsumer(cmd -> ordersLatch.countDown());
+            container.api.submitCommands(orders);
+            ordersLatch.await();
+            container.validateUserState(
+                    UID_1,
+                    userProfile -> assertThat(userProfile.portfolio.get(SYMBOL_MARGIN).pendingBuySize, is(300L)),
+                    userOrders -> assertThat(userOrders.size(), is(300)));
+
+            assertThat(container.requestStateHash(true), is(container.requestStateHash(false)));
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void phasedWaitStrategiesOnAllStages() throws Exception {
+        try (final ExchangeTestContainer container = new ExchangeTestContainer(
+                64 * 1024, 1, 1, 128, null, false, PipelineWaitStrategies.allStages(PhasedWaitStrategy.BACKOFF))) {
+            container.initBasicSymbols();
+
+            final int numUsers = 100;
+            container.usersInit(numUsers, CURRENCIES_FUTURES);
+
+            final TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(20_000, 1000, numUsers, SYMBOL_MARGIN, false);
+            final List<ApiCommand> apiCommands = TestOrdersGenerator.convertToApiCommand(genResult.getCommands());
+
+            // slow submission - processors are going through all waiting phases between commands
+            final CountDownLatch ordersLatch = new CountDownLatch(apiCommands.size());
+            container.setConsumer(cmd -> ordersLatch.countDown());
+            for (int i = 0; i < apiCommands.size(); i++) {
+                container.api.submitCommand(apiCommands.get(i));
+                if (i % 2000 == 0) {
+                    Thread.sleep(5);
+                }
+            }
+            ordersLatch.await();
+
+            assertEquals(genResult.getFinalOrderBookSnapshot(), container.requestCurrentOrderBook(SYMBOL_MARGIN));
+
+            final Map<String, WaitPhaseCounters> counters = container.exchangeCore.getWaitPhaseCounters();
+            assertThat(counters.keySet(), containsInAnyOrder("G", "R1_0", "ME_0", "R2_0", "E"));
+            counters.forEach((stage, c) -> {
+                assertThat(stage, c.getParks(), greaterThan(0L));
+                assertThat(stage, c.getIdlePeriods(), greaterThan(0L));
+            });
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void routeSymbolToAnotherShard() throws Exception {
+        // 3 matching engines - default routing is symbol % 3 (SYMBOL_MARGIN -> ME0, SYMBOL_EXCHANGE -> ME2)
+        try (final ExchangeTestContainer container = new ExchangeTestContainer(64 * 1024, 3, 1, 128, null)) {
+            container.initBasicSymbols();
+
+            final int numUsers = 100;
+            container.usersInit(numUsers, CURRENCIES_FUTURES);
+
+            final TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(20_000, 1000, numUsers, SYMBOL_MARGIN, false);
+            final List<ApiCommand> apiCommands = TestOrdersGenerator.convertToApiCommand(genResult.getCommands());
+            final int half = apiCommands.size() / 2;
+
+            final CountDownLatch firstHalfLatch = new CountDownLatch(half);
+            container.setConsumer(cmd -> firstHalfLatch.countDown());
+            container.api.submitCommands(apiCommands.subList(0, half));
+            firstHalfLatch.await();
+
+            NavigableMap<Integer, IntLongHashMap> load = container.requestSymbolsLoad();
+            assertThat(load.keySet(), contains(0));
+            assertThat(load.get(0).get(SYMBOL_MARGIN), is((long) half));
+
+            // order book with resting orders is moved to ME1, following commands are processed there
+            container.submitCommandSync(ApiRouteSymbol.builder().symbol(SYMBOL_MARGIN).shard(1).build(), CHECK_SUCCESS);
+            container.submitCommandSync(ApiRouteSymbol.builder().symbol(SYMBOL_MARGIN).shard(3).build(),
+                    cmd -> {
+                        assertThat(cmd.resultCode, is(CommandResultCode.MATCHING_INVALID_SHARD));
+                    });
+            container.submitCommandSync(ApiRouteSymbol.builder().symbol(1).shard(2).build(),
+                    cmd -> {
+                        assertThat(cmd.resultCode, is(CommandResultCode.MATCHING_INVALID_ORDER_BOOK_ID));
+                    });
+            assertThat(container.requestStateHash(true), is(container.requestStateHash(false)));
+
+            final CountDownLatch secondHalfLatch = new CountDownLatch(apiCommands.size() - half);
+            container.setConsumer(cmd -> secondHalfLatch.countDown());
+            container.api.submitCommands(apiCommands.subList(half, apiCommands.size()));
+            secondHalfLatch.await();
+
+            load = container.requestSymbolsLoad();
+            assertThat(load.keySet(), contains(1));
+            assertThat(load.get(1).get(SYMBOL_MARGIN), is((long) (apiCommands.size() - half)));
+
+            assertEquals(genResult.getFinalOrderBookSnapshot(), container.requestCurrentOrderBook(SYMBOL_MARGIN));
+            assertThat(container.requestStateHash(true), is(container.requestStateHash(false)));
+
+            // back to default shard - routing table is empty again
+            final long routedHash = container.requestStateHash(false);
+            container.submitCommandSync(ApiRouteSymbol.builder().symbol(SYMBOL_MARGIN).shard(0).build(), CHECK_SUCCESS);
+            assertEquals(genResult.getFinalOrderBookSnapshot(), container.requestCurrentOrderBook(SYMBOL_MARGIN));
+            assertThat(container.requestStateHash(false), not(routedHash));
+            assertThat(container.requestStateHash(true), is(container.requestStateHash(false)));
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void riskEnginesPartitioningAndLoad() throws Exception {
+        // 3 risk engines - not possible with uid mask, default partitioning is mixing hash
+        final int numUsers = 300;
+        try (final ExchangeTestContainer container = new ExchangeTestContainer(64 * 1024, 1, 3, 128, null)) {
+            container.initBasicSymbols();
+            container.usersInit(numUsers, CURRENCIES_FUTURES);
+
+            NavigableMap<Integer, RiskEngineLoad> load = container.requestRiskLoad();
+            assertThat(load.keySet(), contains(0, 1, 2));
+            assertThat(load.values().stream().mapToLong(l -> l.users).sum(), is((long) numUsers));
+            load.values().forEach(l -> {
+                assertThat(l.users, greaterThan(0L));
+                assertThat(l.commands, is(l.users * (1 + CURRENCIES_FUTURES.size())));
+            });
+
+            final TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(10_000, 1000, numUsers, SYMBOL_MARGIN, false);
+            final List<ApiCommand> apiCommands = TestOrdersGenerator.convertToApiCommand(genResult.getCommands());
+            final CountDownLatch latch = new CountDownLatch(apiCommands.size());
+            container.setConsumer(cmd -> latch.countDown());
+            container.api.submitCommands(apiCommands);
+            latch.await();
+            assertEquals(genResult.getFinalOrderBookSnapshot(), container.requestCurrentOrderBook(SYMBOL_MARGIN));
+            assertThat(container.requestStateHash(true), is(container.requestStateHash(false)));
+
+            // every generated command belongs to some shard, every trade event - to one or two shards
+            final NavigableMap<Integer, RiskEngineLoad> loadAfter = container.requestRiskLoad();
+            final long commands = loadAfter.values().stream().mapToLong(l -> l.commands).sum();
+            assertThat(commands, is((long) numUsers * (1 + CURRENCIES_FUTURES.size()) + apiCommands.size()));
+            loadAfter.values().forEach(l -> assertThat(l.events, greaterThan(0L)));
+        }
+
+        // explicit ranges: users 1..100 -> RE1, users 101..300 -> RE0
+        final IUidPartitioner ranges = new UidPartitionerRanges(2, new long[]{0, 101}, new int[]{1, 0});
+        try (final ExchangeTestContainer container = new ExchangeTestContainer(64 * 1024, 1, 2, 128, null, false, null, ranges)) {
+            container.initBasicSymbols();
+            container.usersInit(numUsers, CURRENCIES_FUTURES);
+
+            final NavigableMap<Integer, RiskEngineLoad> load = container.requestRiskLoad();
+            assertThat(load.get(0).users, is(200L));
+            assertThat(load.get(1).users, is(100L));
+
+            final TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(10_000, 1000, numUsers, SYMBOL_MARGIN, false);
+            final List<ApiCommand> apiCommands = TestOrdersGenerator.convertToApiCommand(genResult.getCommands());
+            final CountDownLatch latch = new CountDownLatch(apiCommands.size());
+            container.setConsumer(cmd -> latch.countDown());
+            container.api.submitCommands(apiCommands);
+            latch.await();
+            assertEquals(genResult.getFinalOrderBookSnapshot(), container.requestCurrentOrderBook(SYMBOL_MARGIN));
+            assertThat(container.requestStateHash(true), is(container.requestStateHash(false)));
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void rollingStateHashMatchesFullScan() throws Exception {
+        try (final ExchangeTestContainer container = new ExchangeTestContainer()) {
+            container.initBasicSymbols();
+            container.initBasicUsers();
+
+            final int numUsers = 100;
+            container.usersInit(numUsers, ALL_CURRENCIES);
+            final long initialHash = container.requestStateHash(false);
+            assertThat(container.requestStateHash(true), is(initialHash));
+
+            for (final int symbol : new int[]{SYMBOL_MARGIN, SYMBOL_EXCHANGE}) {
+                final TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(20_000, 100, numUsers, symbol, false);
+                final List<ApiCommand> apiCommands = TestOrdersGenerator.convertToApiCommand(genResult.getCommands());
+                final CountDownLatch ordersLatch = new CountDownLatch(apiCommands.size());
+                container.setConsumer(cmd -> ordersLatch.countDown());
+                apiCommands.forEach(container.api::submitCommand);
+                ordersLatch.await();
+            }
+
+            // rolling hash follows every order book and user profile change
+            final long rollingHash = container.requestStateHash(false);
+            assertThat(rollingHash, not(initialHash));
+            assertThat(container.requestStateHash(true), is(rollingHash));
+
+            container.resetExchangeCore();
+            assertThat(container.requestStateHash(true), is(container.requestStateHash(false)));
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void levelFillsProduceSameState() throws Exception {
+        final long perOrderTradesHash = stateHashAfterSameFlow(false);
+        final long levelFillsHash = stateHashAfterSameFlow(true);
+        assertThat(levelFillsHash, is(perOrderTradesHash));
+    }
+
+    private long stateHashAfterSameFlow(final boolean levelFillsEnabled) throws Exception {
+        try (final ExchangeTestContainer container = new ExchangeTestContainer(
+                64 * 1024, 1, 1, 128, null, levelFillsEnabled)) {
+            container.initBasicSymbols();
+            container.initBasicUsers();
+
+            // exchange: taker bid sweeps two levels (two makers at the first one), then taker ask hits resting bid
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).id(1).price(15_000).size(10).action(ASK).orderType(GTC).symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS);
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).id(2).price(15_000).size(20).action(ASK).orderType(GTC).symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS);
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).id(3).price(15_100).size(5).action(ASK).orderType(GTC).symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS);
+            container.submitCommandSync(
+                    ApiPlaceOrder.builder().uid(UID_2).id(4).price(15_100).reservePrice(15_200).size(40).action(OrderAction.BID).orderType(GTC).symbol(SYMBOL_EXCHANGE).build(),
+                    cmd -> {
+                        assertThat(cmd.resultCode, is(CommandResultCode.SUCCESS));
+                        final List<MatcherTradeEvent> events = cmd.extractEvents();
+                        assertThat(events.size(), is(levelFillsEnabled ? 2 : 3));
+                        if (levelFillsEnabled) {
+                            assertThat(events.get(0).eventType, is(MatcherEventType.LEVEL_TRADE));
+                            assertThat(events.get(0).size, is(30L));
+                            assertThat(events.get(0).makersNum, is(2));
+                        }
+                    });
+            container.submitCommandSync(ApiPlaceOrder.builder().uid(UID_1).id(5).price(15_000).size(3).action(ASK).orderType(OrderType.IOC).symbol(SYMBOL_EXCHANGE).build(), CHECK_SUCCESS);
+
+            container.validateUserState(
+                    UID_2,
+                    userProfile -> assertThat(userProfile.accounts.get(CURRENECY_ETH), is(1_0000_0000L + 38 * SYMBOLSPEC_ETH_XBT.getBaseScaleK())),
+                    orders -> assertThat(orders.get(4L).filled, is(38L)));
+
+            // futures: generated flow
+            final int numUsers = 100;
+            container.usersInit(numUsers, ALL_CURRENCIES);
+
+            final TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(20_000, 100, numUsers, SYMBOL_MARGIN, false);
+            final List<ApiCommand> apiCommands = TestOrdersGenerator.convertToApiCommand(genResult.getCommands());
+            final CountDownLatch ordersLatch = new CountDownLatch(apiCommands.size());
+            final AtomicLong tradeEvents = new AtomicLong();
+            final AtomicLong levelTradeEvents = new AtomicLong();
+            container.setConsumer(cmd -> {
+                cmd.processMatherEvents(evt -> {
+                    if (evt.eventType == MatcherEventType.TRADE) {
+                        tradeEvents.incrementAndGet();
+                    } else if (evt.eventType == MatcherEventType.LEVEL_TRADE) {
+                        levelTradeEvents.incrementAndGet();
+                    }
+                });
+                ordersLatch.countDown();
+            });
+            apiCommands.forEach(container.api::submitCommand);
+            ordersLatch.await();
+
+            assertThat(container.requestCurrentOrderBook(SYMBOL_MARGIN), is(genResult.getFinalOrderBookSnapshot()));
+            assertThat(tradeEvents.get() == 0, is(levelFillsEnabled));
+            assertThat(levelTradeEvents.get() == 0, is(!levelFillsEnabled));
+
+            // rolling hash follows aggregated fills
+            final long rollingHash = container.requestStateHash(false);
+            assertThat(container.requestStateHash(true), is(rollingHash));
+            return rollingHash;
+        }
+    }
+
     @Test(timeout = 30_000)
     public void manyOperationsMargin() throws Exception {
 
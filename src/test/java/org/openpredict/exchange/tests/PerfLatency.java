@@ -8,6 +8,8 @@ import org.junit.Test;
 import org.openpredict.exchange.beans.CoreSymbolSpecification;
 import org.openpredict.exchange.beans.api.ApiCommand;
 import org.openpredict.exchange.core.ExchangeApi;
+import org.openpredict.exchange.core.PipelineWaitStrategies;
+import org.openpredict.exchange.core.biprocessor.PhasedWaitStrategy;
 import org.openpredict.exchange.tests.util.ExchangeTestContainer;
 import org.openpredict.exchange.tests.util.ExchangeTestContainer.*;
 import org.openpredict.exchange.tests.util.LatencyTools;
@@ -16,9 +18,12 @@ import org.openpredict.exchange.tests.util.TestOrdersGenerator;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiFunction;
 import java.util.stream.IntStream;
 
@@ -93,6 +98,83 @@ public final class PerfLatency {
     }
 
 
+    /**
+     * Latency versus CPU burn for pipeline wait strategies (same strategy for all stages).<br/>
+     * Load is sent with fixed rates from low (overnight) to high (trading session),
+     * CPU burn is process CPU time per wall time (number of busy cores), including sending thread.
+     */
+    @Test
+    public void latencyVsCpuBurnWaitStrategies() {
+        final int[] rates = new int[]{1_000, 10_000, 100_000, 500_000};
+        final int commandsPerRate = 500_000;
+
+        for (final PhasedWaitStrategy waitStrategy : new PhasedWaitStrategy[]{PhasedWaitStrategy.BUSY_SPIN, PhasedWaitStrategy.YIELDING, PhasedWaitStrategy.BACKOFF}) {
+            try (final ExchangeTestContainer container = new ExchangeTestContainer(
+                    2 * 1024, 1, 1, 512, null, false, PipelineWaitStrategies.allStages(waitStrategy))) {
+
+                final List<CoreSymbolSpecification> coreSymbolSpecifications = container.generateAndAddSymbols(1, CURRENCIES_FUTURES, AllowedSymbolTypes.FUTURES_CONTRACT);
+                final TestOrdersGenerator.MultiSymbolGenResult genResult = TestOrdersGenerator.generateMultipleSymbols(coreSymbolSpecifications,
+                        commandsPerRate, 1_000, 1_000);
+
+                for (final int tps : rates) {
+                    container.initBasicSymbols();
+                    coreSymbolSpecifications.forEach(container::addSymbol);
+                    container.usersInit(1_000, CURRENCIES_FUTURES);
+
+                    final CountDownLatch latchFill = new CountDownLatch(genResult.getApiCommandsFill().size());
+                    container.setConsumer(cmd -> latchFill.countDown());
+                    genResult.getApiCommandsFill().forEach(container.api::submitCommand);
+                    latchFill.await();
+
+                    // low rates are sending only the beginning of benchmark sequence (limited by ~3 seconds)
+                    final List<ApiCommand> commands = genResult.getApiCommandsBenchmark()
+                            .subList(0, Math.min(genResult.getApiCommandsBenchmark().size(), tps * 3));
+
+                    final SingleWriterRecorder hdrRecorder = new SingleWriterRecorder(Integer.MAX_VALUE, 2);
+                    final CountDownLatch latchBenchmark = new CountDownLatch(commands.size());
+                    container.setConsumer(cmd -> {
+                        hdrRecorder.recordValue(Math.min(System.nanoTime() - cmd.timestamp, Integer.MAX_VALUE));
+                        latchBenchmark.countDown();
+                    });
+
+                    final long nanosPerCmd = 1_000_000_000L / tps;
+                    final long cpuStartNs = processCpuTimeNs();
+                    final long startNs = System.nanoTime();
+                    long plannedTimestamp = startNs;
+                    for (final ApiCommand cmd : commands) {
+                        // sleeping between messages, otherwise sending thread burns CPU
+                        final long delay = plannedTimestamp - System.nanoTime();
+                        if (delay > 0) {
+                            LockSupport.parkNanos(delay);
+                        }
+                        cmd.timestamp = System.nanoTime();
+                        container.api.submitCommand(cmd);
+                        plannedTimestamp += nanosPerCmd;
+                    }
+                    latchBenchmark.await();
+
+                    final float cpuCores = (float) (processCpuTimeNs() - cpuStartNs) / (System.nanoTime() - startNs);
+                    log.info("{} {} TPS: CPU cores={} {}", waitStrategy, tps, String.format("%.2f", cpuCores),
+                            LatencyTools.createLatencyReportFast(hdrRecorder.getIntervalHistogram()));
+
+                    container.resetExchangeCore();
+                }
+                log.info("{} wait phases: {}", waitStrategy, container.exchangeCore.getWaitPhaseCounters());
+
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    private static long processCpuTimeNs() {
+        final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+        }
+        throw new IllegalStateException("process CPU time is not supported");
+    }
+
     private void latencyTestImpl(final ExchangeTestContainer container,
                                  final int totalTransactionsNumber,
                                  final int targetOrderBookOrdersTotal,
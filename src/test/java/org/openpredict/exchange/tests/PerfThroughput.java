@@ -4,6 +4,7 @@ import lombok.extern.slf4j.Slf4j;
 import net.openhft.affinity.AffinityLock;
 import org.junit.Test;
 import org.openpredict.exchange.beans.CoreSymbolSpecification;
+import org.openpredict.exchange.beans.api.ApiCommand;
 import org.openpredict.exchange.core.ExchangeApi;
 import org.openpredict.exchange.tests.util.ExchangeTestContainer;
 import org.openpredict.exchange.tests.util.TestOrdersGenerator;
@@ -41,7 +42,27 @@ public final class PerfThroughput {
                     50,
                     CURRENCIES_FUTURES,
                     1,
-                    ExchangeTestContainer.AllowedSymbolTypes.FUTURES_CONTRACT);
+                    ExchangeTestContainer.AllowedSymbolTypes.FUTURES_CONTRACT,
+                    1);
+        }
+    }
+
+    /**
+     * Same as throughputTest, but commands are submitted in batches of 100 (like quoting gateway does).
+     */
+    @Test
+    public void throughputTestBatched() throws Exception {
+        try (final ExchangeTestContainer container = new ExchangeTestContainer(2 * 1024, 1, 1, 1536, null)) {
+            throughputTestImpl(
+                    container,
+                    3_000_000,
+                    1000,
+                    1000,
+                    50,
+                    CURRENCIES_FUTURES,
+                    1,
+                    ExchangeTestContainer.AllowedSymbolTypes.FUTURES_CONTRACT,
+                    100);
         }
     }
 
@@ -56,7 +77,8 @@ public final class PerfThroughput {
                     50,
                     CURRENCIES_EXCHANGE,
                     1,
-                    ExchangeTestContainer.AllowedSymbolTypes.CURRENCY_EXCHANGE_PAIR);
+                    ExchangeTestContainer.AllowedSymbolTypes.CURRENCY_EXCHANGE_PAIR,
+                    1);
         }
     }
 
@@ -78,7 +100,8 @@ public final class PerfThroughput {
                     25,
                     ALL_CURRENCIES,
                     1_000,
-                    ExchangeTestContainer.AllowedSymbolTypes.BOTH);
+                    ExchangeTestContainer.AllowedSymbolTypes.BOTH,
+                    1);
         }
     }
 
@@ -89,7 +112,8 @@ public final class PerfThroughput {
                                     final int iterations,
                                     final Set<Integer> currenciesAllowed,
                                     final int numSymbols,
-                                    final ExchangeTestContainer.AllowedSymbolTypes allowedSymbolTypes) throws InterruptedException {
+                                    final ExchangeTestContainer.AllowedSymbolTypes allowedSymbolTypes,
+                                    final int batchSize) throws InterruptedException {
 
         try (final AffinityLock cpuLock = AffinityLock.acquireCore()) {
 
@@ -116,8 +140,15 @@ public final class PerfThroughput {
 
                 final CountDownLatch latchBenchmark = new CountDownLatch(genResult.getApiCommandsBenchmark().size());
                 container.setConsumer(cmd -> latchBenchmark.countDown());
+                final List<ApiCommand> apiCommandsBenchmark = genResult.getApiCommandsBenchmark();
                 long t = System.currentTimeMillis();
-                genResult.getApiCommandsBenchmark().forEach(api::submitCommand);
+                if (batchSize == 1) {
+                    apiCommandsBenchmark.forEach(api::submitCommand);
+                } else {
+                    for (int i = 0; i < apiCommandsBenchmark.size(); i += batchSize) {
+                        api.submitCommands(apiCommandsBenchmark.subList(i, Math.min(i + batchSize, apiCommandsBenchmark.size())));
+                    }
+                }
                 latchBenchmark.await();
                 t = System.currentTimeMillis() - t;
                 float perfMt = (float) genResult.getApiCommandsBenchmark().size() / (float) t / 1000.0f;
@@ -0,0 +1,96 @@
+package org.openpredict.exchange.tests.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openpredict.exchange.core.collections.HierarchicalBitSet;
+import org.openpredict.exchange.core.orderbook.OrderBookFastImpl;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Next/previous set bit lookup: java.util.BitSet vs HierarchicalBitSet on sparse bitsets of hot section size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HierarchicalBitSetBenchmark {
+
+    private static final int SIZE = OrderBookFastImpl.DEFAULT_HOT_WIDTH;
+    private static final int QUERIES = 1024;
+
+    // number of set bits
+    @Param({"4", "64", "1024"})
+    public int density;
+
+    private BitSet bitSet;
+    private HierarchicalBitSet hierarchicalBitSet;
+    private int[] queries;
+
+    @Setup
+    public void setup() {
+        final Random rand = new Random(1L);
+        bitSet = new BitSet(SIZE);
+        hierarchicalBitSet = new HierarchicalBitSet(SIZE);
+        for (int i = 0; i < density; i++) {
+            final int idx = rand.nextInt(SIZE);
+            bitSet.set(idx);
+            hierarchicalBitSet.set(idx);
+        }
+        queries = rand.ints(QUERIES, 0, SIZE).toArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public long nextSetBitBitSet() {
+        long sum = 0;
+        for (int q : queries) {
+            sum += bitSet.nextSetBit(q);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public long nextSetBitHierarchical() {
+        long sum = 0;
+        for (int q : queries) {
+            sum += hierarchicalBitSet.nextSetBit(q);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public long previousSetBitBitSet() {
+        long sum = 0;
+        for (int q : queries) {
+            sum += bitSet.previousSetBit(q);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public long previousSetBitHierarchical() {
+        long sum = 0;
+        for (int q : queries) {
+            sum += hierarchicalBitSet.previousSetBit(q);
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(HierarchicalBitSetBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,108 @@
+package org.openpredict.exchange.tests.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openpredict.exchange.beans.L2MarketData;
+import org.openpredict.exchange.beans.SymbolType;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.core.orderbook.OrderBookFastImpl;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.openpredict.exchange.beans.OrderAction.ASK;
+import static org.openpredict.exchange.beans.OrderAction.BID;
+import static org.openpredict.exchange.beans.OrderType.GTC;
+
+/**
+ * L2 market data publishing: rebuild by scanning buckets vs copying incrementally maintained depth,
+ * for order books of different depth (number of price levels per side).
+ * Update benchmarks change the best level before each publishing, so depth maintenance cost is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class L2MarketDataBenchmark {
+
+    private static final long MID_PRICE = 1_000_000;
+    private static final int PRICE_STEP = 10;
+    private static final int UID = 1;
+
+    // price levels per side (deep books are spreading into far section)
+    @Param({"32", "1024", "65536"})
+    public int levels;
+
+    private OrderBookFastImpl orderBook;
+    private L2MarketData data;
+
+    private long orderId = 0;
+    private long bestAskPrice;
+
+    @Setup
+    public void setup() {
+        orderBook = new OrderBookFastImpl(OrderBookFastImpl.DEFAULT_HOT_WIDTH, SymbolType.FUTURES_CONTRACT);
+        for (int i = 1; i <= levels; i++) {
+            orderBook.newOrder(OrderCommand.newOrder(GTC, orderId++, UID, MID_PRICE + i * PRICE_STEP, 10, ASK));
+            orderBook.newOrder(OrderCommand.newOrder(GTC, orderId++, UID, MID_PRICE - i * PRICE_STEP, 10, BID));
+        }
+        bestAskPrice = MID_PRICE + PRICE_STEP;
+        data = new L2MarketData(L2MarketData.L2_SIZE, L2MarketData.L2_SIZE);
+    }
+
+    @Benchmark
+    public L2MarketData publishRebuild() {
+        orderBook.fillAsksFromBuckets(L2MarketData.L2_SIZE, data);
+        orderBook.fillBidsFromBuckets(L2MarketData.L2_SIZE, data);
+        return data;
+    }
+
+    @Benchmark
+    public L2MarketData publishIncremental() {
+        orderBook.fillAsks(L2MarketData.L2_SIZE, data);
+        orderBook.fillBids(L2MarketData.L2_SIZE, data);
+        return data;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public L2MarketData updateAndPublishRebuild() {
+        placeAndCancelBestAsk(true);
+        return data;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public L2MarketData updateAndPublishIncremental() {
+        placeAndCancelBestAsk(false);
+        return data;
+    }
+
+    // places new best ask level, then removes it, publishing after each change
+    private void placeAndCancelBestAsk(boolean rebuild) {
+        final long id = orderId++;
+        orderBook.newOrder(OrderCommand.newOrder(GTC, id, UID, bestAskPrice - 1, 10, ASK));
+        publish(rebuild);
+        orderBook.cancelOrder(OrderCommand.cancel(id, UID));
+        publish(rebuild);
+    }
+
+    private void publish(boolean rebuild) {
+        if (rebuild) {
+            publishRebuild();
+        } else {
+            publishIncremental();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(L2MarketDataBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,223 @@
+package org.openpredict.exchange.tests.jmh;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.NativeBytes;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openpredict.exchange.beans.L2MarketData;
+import org.openpredict.exchange.beans.OrderAction;
+import org.openpredict.exchange.beans.OrderType;
+import org.openpredict.exchange.beans.SymbolType;
+import org.openpredict.exchange.beans.cmd.CommandResultCode;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.beans.cmd.OrderCommandType;
+import org.openpredict.exchange.core.orderbook.IOrderBook;
+import org.openpredict.exchange.core.orderbook.MatcherEventsPool;
+import org.openpredict.exchange.tests.util.TestOrdersGenerator;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.openpredict.exchange.beans.OrderAction.ASK;
+import static org.openpredict.exchange.beans.OrderAction.BID;
+import static org.openpredict.exchange.beans.OrderType.GTC;
+import static org.openpredict.exchange.beans.OrderType.IOC;
+
+/**
+ * Order book operations for every {@link IOrderBook} implementation.<br/>
+ * Order books are filled by {@link TestOrdersGenerator} up to required number of resting orders,
+ * optionally with sliding central price (trending market, orders are spread wider).
+ * <p>
+ * replay - generated commands stream (place/cancel/move/match mix as in other performance tests),
+ * each invocation starts from the same filled order book restored from snapshot.<br/>
+ * Other benchmarks restore order book state after each operation: placeCancel - passive order at the price of
+ * existing level, move - own order between two passive levels, matchIoc - IOC taking one lot from the best level
+ * (taken volume is placed back), l2 - full L2 snapshot publishing.
+ * <p>
+ * Matcher events are returned into the pool after each command, like grouping processor does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderBookBenchmark {
+
+    private static final int REPLAY_COMMANDS = 10_000;
+    private static final int NUM_USERS = 1000;
+    private static final int UID = 1_000_000;
+    private static final int TAKER_UID = 1_000_001;
+    private static final int PRICES_NUM = 1024;
+
+    @Param({"NAIVE", "FAST", "DIRECT", "LADDER"})
+    public IOrderBook.OrderBookImplType impl;
+
+    // target number of resting orders
+    @Param({"100", "1000", "10000"})
+    public int depth;
+
+    @Param({"false", "true"})
+    public boolean slidingPrice;
+
+    private NativeBytes<Void> snapshot;
+    private List<OrderCommand> replayCommands;
+
+    private IOrderBook orderBook;
+    private final MatcherEventsPool eventsPool = new MatcherEventsPool();
+    private final OrderCommand cmd = new OrderCommand();
+    private L2MarketData l2;
+
+    // passive prices of existing levels
+    private final long[] prices = new long[PRICES_NUM];
+    private final OrderAction[] actions = new OrderAction[PRICES_NUM];
+    private int priceIdx = 0;
+
+    private long orderId = Long.MAX_VALUE / 2;
+    private long moveOrderId;
+    private long movePrice1;
+    private long movePrice2;
+    private boolean moved = false;
+
+    @Setup
+    public void setup() {
+        final TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(
+                depth * 20 + REPLAY_COMMANDS * 2, depth, NUM_USERS, 0, slidingPrice);
+
+        final List<OrderCommand> commands = genResult.getCommands();
+        final int filledAt = genResult.getOrderbooksFilledAtSequence();
+        if (commands.size() - filledAt < REPLAY_COMMANDS) {
+            throw new IllegalStateException("not enough commands generated after order book is filled: " + (commands.size() - filledAt));
+        }
+        replayCommands = commands.subList(filledAt, filledAt + REPLAY_COMMANDS);
+
+        final IOrderBook filledOrderBook = IOrderBook.create(impl, SymbolType.FUTURES_CONTRACT);
+        commands.subList(0, filledAt).forEach(c -> process(filledOrderBook, c));
+        snapshot = Bytes.allocateElasticDirect();
+        filledOrderBook.writeMarshallable(snapshot);
+
+        orderBook = restoreOrderBook();
+        l2 = new L2MarketData(L2MarketData.L2_SIZE, L2MarketData.L2_SIZE);
+
+        final L2MarketData fullDepth = orderBook.getL2MarketDataSnapshot(Integer.MAX_VALUE);
+        if (fullDepth.askSize < 2 || fullDepth.bidSize < 2) {
+            throw new IllegalStateException("order book is not filled: " + fullDepth);
+        }
+        final Random rand = new Random(1L);
+        for (int i = 0; i < PRICES_NUM; i++) {
+            final boolean ask = rand.nextBoolean();
+            actions[i] = ask ? ASK : BID;
+            prices[i] = ask ? fullDepth.askPrices[rand.nextInt(fullDepth.askSize)] : fullDepth.bidPrices[rand.nextInt(fullDepth.bidSize)];
+        }
+
+        // own order moving between two passive ask levels
+        moveOrderId = orderId++;
+        movePrice1 = fullDepth.askPrices[fullDepth.askSize - 1];
+        movePrice2 = fullDepth.askPrices[fullDepth.askSize / 2];
+        place(GTC, moveOrderId, movePrice1, 1, ASK);
+    }
+
+    /**
+     * Filled order book restored before each replay invocation (restoring is not measured)
+     */
+    @State(Scope.Thread)
+    public static class ReplayState {
+
+        private IOrderBook orderBook;
+
+        @Setup(Level.Invocation)
+        public void restore(final OrderBookBenchmark benchmark) {
+            orderBook = benchmark.restoreOrderBook();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REPLAY_COMMANDS)
+    public IOrderBook replay(final ReplayState replayState) {
+        final IOrderBook replayOrderBook = replayState.orderBook;
+        for (final OrderCommand c : replayCommands) {
+            c.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            process(replayOrderBook, c);
+        }
+        return replayOrderBook;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public CommandResultCode placeCancel() {
+        final int idx = priceIdx++ & (PRICES_NUM - 1);
+        final long id = orderId++;
+        place(GTC, id, prices[idx], 1, actions[idx]);
+        return cancel(id);
+    }
+
+    @Benchmark
+    public CommandResultCode move() {
+        moved = !moved;
+        return execute(OrderCommandType.MOVE_ORDER, UID, moveOrderId, moved ? movePrice2 : movePrice1, 0, null, null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public CommandResultCode matchIoc() {
+        final boolean ask = (priceIdx++ & 1) == 0;
+        final long price = ask ? orderBook.getBestBid() : orderBook.getBestAsk();
+        execute(OrderCommandType.PLACE_ORDER, TAKER_UID, orderId++, price, 1, ask ? ASK : BID, IOC);
+        // restore taken volume
+        return place(GTC, orderId++, price, 1, ask ? BID : ASK);
+    }
+
+    @Benchmark
+    public L2MarketData l2() {
+        orderBook.fillAsks(L2MarketData.L2_SIZE, l2);
+        orderBook.fillBids(L2MarketData.L2_SIZE, l2);
+        return l2;
+    }
+
+    private IOrderBook restoreOrderBook() {
+        snapshot.readPosition(0);
+        return IOrderBook.create(snapshot);
+    }
+
+    private CommandResultCode place(OrderType orderType, long id, long price, long size, OrderAction action) {
+        return execute(OrderCommandType.PLACE_ORDER, UID, id, price, size, action, orderType);
+    }
+
+    private CommandResultCode cancel(long id) {
+        return execute(OrderCommandType.CANCEL_ORDER, UID, id, 0, 0, null, null);
+    }
+
+    private CommandResultCode execute(OrderCommandType command, long uid, long id, long price, long size, OrderAction action, OrderType orderType) {
+        cmd.command = command;
+        cmd.orderId = id;
+        cmd.uid = uid;
+        cmd.price = price;
+        cmd.reserveBidPrice = price;
+        cmd.size = size;
+        cmd.action = action;
+        cmd.orderType = orderType;
+        cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+        return process(orderBook, cmd);
+    }
+
+    private CommandResultCode process(IOrderBook orderBook, OrderCommand command) {
+        command.eventsPool = eventsPool;
+        final CommandResultCode resultCode = IOrderBook.processCommand(orderBook, command);
+        if (command.matcherEvent != null) {
+            eventsPool.releaseChain(command.matcherEvent);
+            command.matcherEvent = null;
+        }
+        return resultCode;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(OrderBookBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,134 @@
+package org.openpredict.exchange.tests.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openpredict.exchange.beans.Order;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.core.orderbook.DirectOrdersStore;
+import org.openpredict.exchange.core.orderbook.IOrdersBucket;
+import org.openpredict.exchange.core.orderbook.MatcherEventsPool;
+import org.openpredict.exchange.core.orderbook.OrdersBucketDirectImpl;
+import org.openpredict.exchange.tests.util.TestOrdersGenerator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.openpredict.exchange.beans.OrderAction.ASK;
+import static org.openpredict.exchange.beans.OrderAction.BID;
+import static org.openpredict.exchange.beans.OrderType.GTC;
+import static org.openpredict.exchange.beans.OrderType.IOC;
+
+/**
+ * Price level operations for every {@link IOrdersBucket} implementation, for different queue lengths.<br/>
+ * Each operation keeps number of orders and total volume of the bucket:
+ * putRemoveLast - new order is added to the end of the queue and removed,
+ * removePut - random order is cancelled and placed again into the end of the queue,
+ * match - the first order is completely matched and placed again into the end of the queue.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrdersBucketBenchmark {
+
+    private static final long PRICE = TestOrdersGenerator.CENTRAL_PRICE;
+    private static final long ORDER_SIZE = 10;
+    private static final int NUM_USERS = 1000;
+    private static final int TAKER_UID = 1_000_000;
+    private static final int IDS_NUM = 1024;
+
+    @Param({"NAIVE", "FAST", "LINKED", "DIRECT"})
+    public IOrdersBucket.OrderBucketImplType impl;
+
+    // number of orders in the bucket
+    @Param({"16", "1024", "65536"})
+    public int orders;
+
+    private IOrdersBucket bucket;
+    private final Order workOrder = new Order();
+
+    // random orders to cancel (ids are moving to the end of the queue on re-placing)
+    private final long[] ids = new long[IDS_NUM];
+    private int idx = 0;
+    private long nextOrderId;
+
+    private final MatcherEventsPool eventsPool = new MatcherEventsPool();
+    private final OrderCommand activeOrder = OrderCommand.newOrder(IOC, 0, TAKER_UID, PRICE, ORDER_SIZE, BID);
+    private final Consumer<Order> removeOrderCallback = order -> {
+    };
+
+    @Setup
+    public void setup() {
+        bucket = impl == IOrdersBucket.OrderBucketImplType.DIRECT
+                ? new OrdersBucketDirectImpl(new DirectOrdersStore())
+                : IOrdersBucket.create(impl);
+        bucket.setPrice(PRICE);
+        for (nextOrderId = 0; nextOrderId < orders; nextOrderId++) {
+            bucket.put(newOrder(nextOrderId));
+        }
+        final Random rand = new Random(1L);
+        for (int i = 0; i < IDS_NUM; i++) {
+            ids[i] = rand.nextInt(orders);
+        }
+        activeOrder.eventsPool = eventsPool;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public Order putRemoveLast() {
+        final long orderId = nextOrderId++;
+        bucket.put(newOrder(orderId));
+        return bucket.remove(orderId, uid(orderId));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public Order removePut() {
+        final int i = idx++ & (IDS_NUM - 1);
+        final long orderId = ids[i];
+        final Order order = bucket.remove(orderId, uid(orderId));
+        bucket.put(newOrder(orderId));
+        return order;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public long match() {
+        final long matched = bucket.match(ORDER_SIZE, activeOrder, activeOrder, removeOrderCallback);
+        eventsPool.releaseChain(activeOrder.matcherEvent);
+        activeOrder.matcherEvent = null;
+        // keep queue length, matched order is unknown for direct bucket
+        bucket.put(newOrder(nextOrderId++));
+        return matched;
+    }
+
+    // bucket copies or keeps the order - new object only for heap buckets
+    private Order newOrder(final long orderId) {
+        final Order order = impl == IOrdersBucket.OrderBucketImplType.DIRECT ? workOrder : new Order();
+        order.orderId = orderId;
+        order.uid = uid(orderId);
+        order.price = PRICE;
+        order.size = ORDER_SIZE;
+        order.filled = 0;
+        order.action = ASK;
+        order.orderType = GTC;
+        return order;
+    }
+
+    private static long uid(final long orderId) {
+        return 1 + orderId % NUM_USERS;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(OrdersBucketBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
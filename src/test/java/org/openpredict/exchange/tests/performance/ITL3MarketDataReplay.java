@@ -0,0 +1,74 @@
+package org.openpredict.exchange.tests.performance;
+
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.affinity.AffinityLock;
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.NativeBytes;
+import org.junit.Test;
+import org.openpredict.exchange.beans.L3MarketDataEvents;
+import org.openpredict.exchange.beans.SymbolType;
+import org.openpredict.exchange.beans.cmd.CommandResultCode;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.core.L3MarketDataReplay;
+import org.openpredict.exchange.core.orderbook.IOrderBook;
+import org.openpredict.exchange.core.orderbook.OrderBookFastImpl;
+import org.openpredict.exchange.tests.util.TestOrdersGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * L3 feed replay throughput, feed is recorded from the same load as PerfThroughput single symbol test
+ * (3M commands, 1K pending limit orders, 1K users).
+ */
+@Slf4j
+public final class ITL3MarketDataReplay {
+
+    @Test
+    public void replayThroughput() {
+
+        final TestOrdersGenerator.GenResult genResult = TestOrdersGenerator.generateCommands(3_000_000, 1000, 1000, 0, false);
+
+        // record feed
+        final IOrderBook orderBook = new OrderBookFastImpl(OrderBookFastImpl.DEFAULT_HOT_WIDTH, SymbolType.FUTURES_CONTRACT);
+        final L3MarketDataEvents events = new L3MarketDataEvents();
+        final NativeBytes<Void> feed = Bytes.allocateElasticDirect(64 * 1024 * 1024);
+        final OrderCommand workCmd = new OrderCommand();
+        workCmd.l3Events = events;
+        for (OrderCommand cmd : genResult.getCommands()) {
+            cmd.writeTo(workCmd);
+            workCmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            workCmd.matcherEvent = null;
+            events.reset();
+            IOrderBook.processCommand(orderBook, workCmd);
+            feed.write(events.getBytes());
+        }
+        final long feedSize = feed.writePosition();
+        log.info("feed: {} events, {} MB", feedSize / L3MarketDataEvents.RECORD_SIZE, feedSize / 1024 / 1024);
+
+        try (AffinityLock cpuLock = AffinityLock.acquireLock()) {
+
+            final L3MarketDataReplay replay = new L3MarketDataReplay();
+            final List<Float> perfResults = new ArrayList<>();
+            for (int j = 0; j < 16; j++) {
+                replay.reset();
+                feed.readPosition(0);
+
+                long t = System.currentTimeMillis();
+                replay.apply(feed);
+                t = System.currentTimeMillis() - t;
+
+                assertEquals(orderBook.getL2MarketDataSnapshot(-1), replay.getL2MarketDataSnapshot(Integer.MAX_VALUE));
+
+                final float perfMev = (float) replay.getEventsCounter() / (float) t / 1000.0f;
+                perfResults.add(perfMev);
+                final float averageMev = (float) perfResults.stream().mapToDouble(x -> x).average().orElse(0);
+                log.info("{}. {} M events/s ({} ms) average: {} M events/s", j, perfMev, t, averageMev);
+            }
+        } finally {
+            feed.release();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.openpredict.exchange.tests.performance;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.openpredict.exchange.core.collections.LongObjectTreeMap;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Compares far section style workload (random put/remove and ceiling lookup) for TreeMap and LongObjectTreeMap
+ */
+@Slf4j
+public class ITLongObjectTreeMap {
+
+    private static final int NUM_OPERATIONS = 3_000_000;
+    private static final int PRICES_RANGE = 100_000;
+
+    @Test
+    public void performanceTest() {
+        final long[] keys = generateKeys(NUM_OPERATIONS, 1L);
+
+        for (int j = 0; j < 5; j++) {
+            testTreeMap(keys);
+            testLongObjectTreeMap(keys);
+        }
+    }
+
+    private void testTreeMap(final long[] keys) {
+        final TreeMap<Long, Long> map = new TreeMap<>();
+        long sum = 0;
+        long t = System.currentTimeMillis();
+        for (final long key : keys) {
+            if (map.remove(key) == null) {
+                map.put(key, key);
+            }
+            final Map.Entry<Long, Long> entry = map.ceilingEntry(key);
+            if (entry != null) {
+                sum += entry.getValue();
+            }
+        }
+        t = System.currentTimeMillis() - t;
+        log.info("TreeMap:           {} MT/s (size={} checksum={})", String.format("%.3f", (float) keys.length / (float) t / 1000.0f), map.size(), sum);
+    }
+
+    private void testLongObjectTreeMap(final long[] keys) {
+        final LongObjectTreeMap<Long> map = new LongObjectTreeMap<>();
+        long sum = 0;
+        long t = System.currentTimeMillis();
+        for (final long key : keys) {
+            if (map.remove(key) == null) {
+                map.put(key, key);
+            }
+            final Long value = map.ceilingValue(key);
+            if (value != null) {
+                sum += value;
+            }
+        }
+        t = System.currentTimeMillis() - t;
+        log.info("LongObjectTreeMap: {} MT/s (size={} checksum={})", String.format("%.3f", (float) keys.length / (float) t / 1000.0f), map.size(), sum);
+    }
+
+    private static long[] generateKeys(final int num, final long seed) {
+        final Random rand = new Random(seed);
+        final long[] keys = new long[num];
+        for (int i = 0; i < num; i++) {
+            keys[i] = 100_000 + rand.nextInt(PRICES_RANGE);
+        }
+        return keys;
+    }
+}
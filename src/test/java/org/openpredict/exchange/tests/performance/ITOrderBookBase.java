@@ -18,11 +18,13 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.openpredict.exchange.beans.OrderAction.ASK;
 import static org.openpredict.exchange.beans.OrderAction.BID;
+import static org.openpredict.exchange.beans.OrderType.GTC;
 import static org.openpredict.exchange.beans.OrderType.IOC;
 
 /**
@@ -81,6 +83,104 @@ public abstract class ITOrderBookBase {
 
     }
 
+    /**
+     * Sparse order book: few buckets spread across wide price range, every aggressive order sweeps all of them.
+     * Measures next bucket lookup cost when there are many empty prices between buckets.
+     */
+    @Test
+    public void performanceTestSparseSweep() {
+
+        final Random rand = new Random(1L);
+        final List<OrderCommand> orderCommands = new ArrayList<>();
+        long orderId = 0;
+        for (int cycle = 0; cycle < 10_000; cycle++) {
+            for (int i = 0; i < 100; i++) {
+                final long price = 100_000 + rand.nextInt(30_000);
+                orderCommands.add(OrderCommand.newOrder(GTC, ++orderId, 1, price, 1, ASK));
+            }
+            orderCommands.add(OrderCommand.newOrder(IOC, ++orderId, 2, 200_000, 100, BID));
+        }
+
+        try (AffinityLock cpuLock = AffinityLock.acquireLock()) {
+
+            List<Float> perfResults = new ArrayList<>();
+            for (int j = 0; j < 32; j++) {
+                orderBook = createNewOrderBook();
+
+                long t = System.currentTimeMillis();
+                OrderCommand workCmd = new OrderCommand();
+                for (OrderCommand cmd : orderCommands) {
+                    cmd.writeTo(workCmd);
+                    workCmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+                    IOrderBook.processCommand(orderBook, workCmd);
+                }
+                t = System.currentTimeMillis() - t;
+
+                // every cycle sweeps all placed orders
+                assertThat(orderBook.getOrdersNum(), is(0));
+
+                float perfMt = (float) orderCommands.size() / (float) t / 1000.0f;
+                perfResults.add(perfMt);
+                float averageMt = (float) perfResults.stream().mapToDouble(x -> x).average().orElse(0);
+                log.info("{}. {} MT/s ({} ms) average: {} MT/s", j, perfMt, t, averageMt);
+            }
+        }
+    }
+
+    /**
+     * Superorders: deep order book with many levels in both hot and far sections,
+     * every aggressive order sweeps hundreds of levels (every second one sweeps the whole side).
+     * Measures matching and emptied levels removal cost.
+     */
+    @Test
+    public void performanceTestSuperorder() {
+
+        final Random rand = new Random(1L);
+        final List<OrderCommand> orderCommands = new ArrayList<>();
+        long orderId = 0;
+        for (int cycle = 0; cycle < 2_000; cycle++) {
+            long askVolume = 0;
+            long bidVolume = 0;
+            for (int i = 0; i < 1_000; i++) {
+                // up to 100K prices away - most levels are beyond hot section
+                final long size = 1 + rand.nextInt(5);
+                orderCommands.add(OrderCommand.newOrder(GTC, ++orderId, 1, 1_000_001 + rand.nextInt(100_000), size, ASK));
+                askVolume += size;
+                orderCommands.add(OrderCommand.newOrder(GTC, ++orderId, 1, 999_999 - rand.nextInt(100_000), size, BID));
+                bidVolume += size;
+            }
+            // sweeping whole side (unfilled remainder is rejected) or about a half of it
+            final boolean full = cycle % 2 == 0;
+            orderCommands.add(OrderCommand.newOrder(IOC, ++orderId, 2, 2_000_000, full ? Integer.MAX_VALUE : askVolume / 2, BID));
+            orderCommands.add(OrderCommand.newOrder(IOC, ++orderId, 2, 1, full ? Integer.MAX_VALUE : bidVolume / 2, ASK));
+        }
+
+        try (AffinityLock cpuLock = AffinityLock.acquireLock()) {
+
+            List<Float> perfResults = new ArrayList<>();
+            for (int j = 0; j < 32; j++) {
+                orderBook = createNewOrderBook();
+
+                long t = System.currentTimeMillis();
+                OrderCommand workCmd = new OrderCommand();
+                for (OrderCommand cmd : orderCommands) {
+                    cmd.writeTo(workCmd);
+                    workCmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+                    IOrderBook.processCommand(orderBook, workCmd);
+                }
+                t = System.currentTimeMillis() - t;
+
+                // last cycle sweeps half of the book
+                assertThat(orderBook.getOrdersNum() > 0, is(true));
+
+                float perfMt = (float) orderCommands.size() / (float) t / 1000.0f;
+                perfResults.add(perfMt);
+                float averageMt = (float) perfResults.stream().mapToDouble(x -> x).average().orElse(0);
+                log.info("{}. {} MT/s ({} ms) average: {} MT/s", j, perfMt, t, averageMt);
+            }
+        }
+    }
+
     private void performanceTest(int numOrders, int targetOrderBookOrders) {
 
         try (AffinityLock cpuLock = AffinityLock.acquireLock()) {
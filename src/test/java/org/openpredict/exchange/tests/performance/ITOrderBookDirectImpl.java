@@ -0,0 +1,13 @@
+package org.openpredict.exchange.tests.performance;
+
+import org.openpredict.exchange.beans.SymbolType;
+import org.openpredict.exchange.core.orderbook.IOrderBook;
+import org.openpredict.exchange.core.orderbook.OrderBookDirectImpl;
+
+public class ITOrderBookDirectImpl extends ITOrderBookBase {
+
+    @Override
+    protected IOrderBook createNewOrderBook() {
+        return new OrderBookDirectImpl(SymbolType.FUTURES_CONTRACT);
+    }
+}
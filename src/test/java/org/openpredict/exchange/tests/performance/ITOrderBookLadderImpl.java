@@ -0,0 +1,16 @@
+package org.openpredict.exchange.tests.performance;
+
+import org.openpredict.exchange.beans.SymbolType;
+import org.openpredict.exchange.core.orderbook.IOrderBook;
+import org.openpredict.exchange.core.orderbook.OrderBookLadderImpl;
+
+public class ITOrderBookLadderImpl extends ITOrderBookBase {
+
+    // covers all prices used by performance tests (superorder scenario places orders up to 1_100_000)
+    private static final int LEVELS_NUM = 1 << 21;
+
+    @Override
+    protected IOrderBook createNewOrderBook() {
+        return new OrderBookLadderImpl(0, 1, LEVELS_NUM, SymbolType.FUTURES_CONTRACT);
+    }
+}
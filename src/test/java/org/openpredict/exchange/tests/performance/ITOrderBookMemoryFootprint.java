@@ -0,0 +1,77 @@
+package org.openpredict.exchange.tests.performance;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.openpredict.exchange.beans.OrderAction;
+import org.openpredict.exchange.beans.OrderType;
+import org.openpredict.exchange.beans.SymbolType;
+import org.openpredict.exchange.beans.cmd.CommandResultCode;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.core.orderbook.IOrderBook;
+import org.openpredict.exchange.core.orderbook.OrderBookDirectImpl;
+import org.openpredict.exchange.core.orderbook.OrderBookFastImpl;
+import org.openpredict.exchange.core.orderbook.OrderBookNaiveImpl;
+
+import java.util.function.Supplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Reports memory consumed per resting order (heap + off-heap) for different order book implementations.
+ * Run with large enough heap (e.g. -Xmx4g).
+ */
+@Slf4j
+public class ITOrderBookMemoryFootprint {
+
+    private static final int NUM_ORDERS = 1_000_000;
+    private static final int PRICE_LEVELS = 5_000;
+    private static final long MID_PRICE = 1_000_000;
+
+    @Test
+    public void reportBytesPerOrder() {
+        measure("NAIVE", () -> new OrderBookNaiveImpl(SymbolType.FUTURES_CONTRACT));
+        measure("FAST", () -> new OrderBookFastImpl(OrderBookFastImpl.DEFAULT_HOT_WIDTH, SymbolType.FUTURES_CONTRACT));
+        measure("DIRECT", () -> new OrderBookDirectImpl(SymbolType.FUTURES_CONTRACT));
+    }
+
+    private void measure(final String name, final Supplier<IOrderBook> factory) {
+
+        final long heapBefore = usedHeap();
+
+        final IOrderBook orderBook = factory.get();
+        final OrderCommand cmd = new OrderCommand();
+        for (int i = 0; i < NUM_ORDERS; i++) {
+            // asks above mid price, bids below - nothing matches
+            final boolean ask = (i & 1) == 0;
+            final long offset = 1 + (i >> 1) % PRICE_LEVELS;
+            OrderCommand.newOrder(OrderType.GTC, i + 1, 1 + i % 1000, ask ? MID_PRICE + offset : MID_PRICE - offset, 1 + i % 10, ask ? OrderAction.ASK : OrderAction.BID).writeTo(cmd);
+            cmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+            IOrderBook.processCommand(orderBook, cmd);
+        }
+        assertThat(orderBook.getOrdersNum(), is(NUM_ORDERS));
+
+        final long heapBytes = usedHeap() - heapBefore;
+        final long offHeapBytes = orderBook instanceof OrderBookDirectImpl ? ((OrderBookDirectImpl) orderBook).getOffHeapBytes() : 0;
+
+        log.info("{}: {} orders, heap {} bytes/order, off-heap {} bytes/order, total {} bytes/order",
+                name,
+                orderBook.getOrdersNum(),
+                heapBytes / NUM_ORDERS,
+                offHeapBytes / NUM_ORDERS,
+                (heapBytes + offHeapBytes) / NUM_ORDERS);
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
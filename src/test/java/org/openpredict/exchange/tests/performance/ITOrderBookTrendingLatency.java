@@ -0,0 +1,100 @@
+package org.openpredict.exchange.tests.performance;
+
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.affinity.AffinityLock;
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+import org.openpredict.exchange.beans.OrderAction;
+import org.openpredict.exchange.beans.OrderType;
+import org.openpredict.exchange.beans.SymbolType;
+import org.openpredict.exchange.beans.cmd.CommandResultCode;
+import org.openpredict.exchange.beans.cmd.OrderCommand;
+import org.openpredict.exchange.core.orderbook.IOrderBook;
+import org.openpredict.exchange.core.orderbook.OrderBookFastImpl;
+import org.openpredict.exchange.tests.util.LatencyTools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Latency of OrderBookFastImpl on a steadily trending price series.
+ * Price moves far enough to trigger hot/far re-balancing every few thousands commands.
+ */
+@Slf4j
+public class ITOrderBookTrendingLatency {
+
+    private static final int NUM_COMMANDS = 3_000_000;
+    private static final int MAX_ORDERS = 10_000;
+
+    @Test
+    public void latencyTestTrendingUp() {
+        latencyTest(generateTrendingCommands(NUM_COMMANDS, 1L, 1));
+    }
+
+    @Test
+    public void latencyTestTrendingDown() {
+        latencyTest(generateTrendingCommands(NUM_COMMANDS, 1L, -1));
+    }
+
+    private void latencyTest(final List<OrderCommand> commands) {
+
+        try (AffinityLock cpuLock = AffinityLock.acquireLock()) {
+
+            for (int j = 0; j < 16; j++) {
+                final IOrderBook orderBook = new OrderBookFastImpl(OrderBookFastImpl.DEFAULT_HOT_WIDTH, SymbolType.FUTURES_CONTRACT);
+                final Histogram histogram = new Histogram(Integer.MAX_VALUE, 2);
+
+                final OrderCommand workCmd = new OrderCommand();
+                for (OrderCommand cmd : commands) {
+                    cmd.writeTo(workCmd);
+                    workCmd.resultCode = CommandResultCode.VALID_FOR_MATCHING_ENGINE;
+                    final long t = System.nanoTime();
+                    IOrderBook.processCommand(orderBook, workCmd);
+                    histogram.recordValue(Math.min(System.nanoTime() - t, Integer.MAX_VALUE));
+                }
+
+                log.info("{}. {}", j, LatencyTools.createLatencyReportFast(histogram));
+            }
+        }
+    }
+
+    /**
+     * Generates GTC orders around mid price that moves by one tick every command.
+     * Oldest orders are cancelled to keep order book size limited, some orders are IOC to generate trades.
+     */
+    private static List<OrderCommand> generateTrendingCommands(final int num, final long seed, final int direction) {
+        final Random rand = new Random(seed);
+        final List<OrderCommand> commands = new ArrayList<>(num);
+        final long[] activeOrders = new long[MAX_ORDERS];
+        final int[] activeUids = new int[MAX_ORDERS];
+
+        long mid = 10_000_000;
+        long orderId = 0;
+        int i = 0;
+        while (commands.size() < num) {
+            mid += direction;
+
+            final int uid = 1 + rand.nextInt(1000);
+            final OrderAction action = rand.nextBoolean() ? OrderAction.ASK : OrderAction.BID;
+            final long size = 1 + rand.nextInt(10);
+            if (rand.nextInt(10) == 0) {
+                // aggressive order
+                final long price = action == OrderAction.ASK ? mid - 50 : mid + 50;
+                commands.add(OrderCommand.newOrder(OrderType.IOC, ++orderId, uid, price, size, action));
+            } else {
+                final long offset = 1 + rand.nextInt(500);
+                final long price = action == OrderAction.ASK ? mid + offset : mid - offset;
+                final int slot = i++ % MAX_ORDERS;
+                if (activeOrders[slot] != 0) {
+                    // cancel oldest order (can be already matched)
+                    commands.add(OrderCommand.cancel(activeOrders[slot], activeUids[slot]));
+                }
+                activeOrders[slot] = ++orderId;
+                activeUids[slot] = uid;
+                commands.add(OrderCommand.newOrder(OrderType.GTC, orderId, uid, price, size, action));
+            }
+        }
+        return commands;
+    }
+}
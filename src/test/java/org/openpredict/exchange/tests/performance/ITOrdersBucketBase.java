@@ -30,6 +30,13 @@ public abstract class ITOrdersBucketBase {
 
     protected abstract IOrdersBucket createNewOrdersBucket();
 
+    /**
+     * Remove order placed by UID_2 in bulk removal tests
+     */
+    protected void removeOrder(final IOrdersBucket bucket, final Order order) {
+        bucket.remove(order.orderId, UID_2);
+    }
+
     @Before
     public void before() {
         bucket = createNewOrdersBucket();
@@ -97,7 +104,7 @@ public abstract class ITOrdersBucketBase {
             List<Order> orders1 = orders.subList(0, 900);
 
             for (Order order : orders1) {
-                bucket.remove(order.orderId, UID_2);
+                removeOrder(bucket, order);
                 expectedNumOrders--;
                 expectedVolume -= order.size;
                 assertThat(bucket.getNumOrders(), is(expectedNumOrders));
@@ -189,7 +196,7 @@ public abstract class ITOrdersBucketBase {
 
             s = System.nanoTime();
             for (Order order : orders1) {
-                bucket.remove(order.orderId, UID_2);
+                removeOrder(bucket, order);
                 expectedNumOrders--;
                 expectedVolume -= order.size;
                 assertThat(bucket.getNumOrders(), is(expectedNumOrders));
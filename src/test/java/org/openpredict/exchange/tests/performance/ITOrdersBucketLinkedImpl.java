@@ -0,0 +1,19 @@
+package org.openpredict.exchange.tests.performance;
+
+import org.openpredict.exchange.beans.Order;
+import org.openpredict.exchange.core.orderbook.IOrdersBucket;
+import org.openpredict.exchange.core.orderbook.OrdersBucketLinkedImpl;
+
+public class ITOrdersBucketLinkedImpl extends ITOrdersBucketBase {
+
+    @Override
+    protected IOrdersBucket createNewOrdersBucket() {
+        return new OrdersBucketLinkedImpl();
+    }
+
+    // lookup by orderId scans the queue - order book removes known order instead
+    @Override
+    protected void removeOrder(final IOrdersBucket bucket, final Order order) {
+        bucket.removeOrder(order);
+    }
+}
@@ -4,6 +4,7 @@ import com.google.common.collect.Sets;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import net.openhft.chronicle.wire.Wire;
+import org.eclipse.collections.impl.map.mutable.primitive.IntLongHashMap;
 import org.nustaq.serialization.FSTConfiguration;
 import org.openpredict.exchange.beans.*;
 import org.openpredict.exchange.beans.api.*;
@@ -12,10 +13,13 @@ import org.openpredict.exchange.beans.cmd.OrderCommand;
 import org.openpredict.exchange.beans.cmd.OrderCommandType;
 import org.openpredict.exchange.core.ExchangeApi;
 import org.openpredict.exchange.core.ExchangeCore;
+import org.openpredict.exchange.core.PipelineWaitStrategies;
 import org.openpredict.exchange.core.Utils;
 import org.openpredict.exchange.core.journalling.DiskSerializationProcessor;
 import org.openpredict.exchange.core.orderbook.OrderBookEventsHelper;
+import org.openpredict.exchange.core.orderbook.IOrderBook;
 import org.openpredict.exchange.core.orderbook.OrderBookFastImpl;
+import org.openpredict.exchange.core.partitioning.IUidPartitioner;
 
 import java.util.*;
 import java.util.concurrent.*;
@@ -42,6 +46,7 @@ public final class ExchangeTestContainer implements AutoCloseable {
 
     public static final int SYMBOL_MARGIN = 5991;
     public static final int SYMBOL_EXCHANGE = 9269;
+    public static final int SYMBOL_MARGIN_LADDER = 5992;
 
     public static final long UID_1 = 1442412;
     public static final long UID_2 = 1442413;
@@ -102,6 +107,28 @@ public final class ExchangeTestContainer implements AutoCloseable {
             .makerFee(0)
             .build();
 
+    // same as EUR_USD, but order book is a narrow price ladder
+    public static final CoreSymbolSpecification SYMBOLSPEC_EUR_USD_LADDER = CoreSymbolSpecification.builder()
+            .symbolId(SYMBOL_MARGIN_LADDER)
+            .type(SymbolType.FUTURES_CONTRACT)
+            .baseCurrency(CURRENECY_EUR)
+            .quoteCurrency(CURRENECY_USD)
+            .baseScaleK(1)
+            .quoteScaleK(1)
+            .depositBuy(2200)
+            .depositSell(3210)
+            .takerFee(0)
+            .makerFee(0)
+            .engineProfile(SymbolEngineProfile.builder()
+                    .implementation(IOrderBook.OrderBookImplType.LADDER)
+                    .floorPrice(1000)
+                    .tickSize(1)
+                    .hotWidth(2048)
+                    .expectedDepth(256)
+                    .indexUserOrders(true)
+                    .build())
+            .build();
+
     public static final CoreSymbolSpecification SYMBOLSPEC_ETH_XBT = CoreSymbolSpecification.builder()
             .symbolId(SYMBOL_EXCHANGE)
             .type(SymbolType.CURRENCY_EXCHANGE_PAIR)
@@ -132,6 +159,48 @@ public final class ExchangeTestContainer implements AutoCloseable {
                                  final int riskEnginesNum,
                                  final int msgsInGroupLimit,
                                  final Long stateId) {
+        this(bufferSize, matchingEnginesNum, riskEnginesNum, msgsInGroupLimit, stateId, false);
+    }
+
+    public ExchangeTestContainer(final int bufferSize,
+                                 final int matchingEnginesNum,
+                                 final int riskEnginesNum,
+                                 final int msgsInGroupLimit,
+                                 final Long stateId,
+                                 final boolean levelFillsEnabled) {
+        this(bufferSize, matchingEnginesNum, riskEnginesNum, msgsInGroupLimit, stateId, levelFillsEnabled, null);
+    }
+
+    public ExchangeTestContainer(final int bufferSize,
+                                 final int matchingEnginesNum,
+                                 final int riskEnginesNum,
+                                 final int msgsInGroupLimit,
+                                 final Long stateId,
+                                 final boolean levelFillsEnabled,
+                                 final PipelineWaitStrategies stageWaitStrategies) {
+        this(bufferSize, matchingEnginesNum, riskEnginesNum, msgsInGroupLimit, stateId, levelFillsEnabled, stageWaitStrategies, null);
+    }
+
+    public ExchangeTestContainer(final int bufferSize,
+                                 final int matchingEnginesNum,
+                                 final int riskEnginesNum,
+                                 final int msgsInGroupLimit,
+                                 final Long stateId,
+                                 final boolean levelFillsEnabled,
+                                 final PipelineWaitStrategies stageWaitStrategies,
+                                 final IUidPartitioner uidPartitioner) {
+        this(bufferSize, matchingEnginesNum, riskEnginesNum, msgsInGroupLimit, stateId, levelFillsEnabled, stageWaitStrategies, uidPartitioner, false);
+    }
+
+    public ExchangeTestContainer(final int bufferSize,
+                                 final int matchingEnginesNum,
+                                 final int riskEnginesNum,
+                                 final int msgsInGroupLimit,
+                                 final Long stateId,
+                                 final boolean levelFillsEnabled,
+                                 final PipelineWaitStrategies stageWaitStrategies,
+                                 final IUidPartitioner uidPartitioner,
+                                 final boolean marketDataEnabled) {
 
         this.exchangeCore = ExchangeCore.builder()
                 .resultsConsumer(cmd -> consumer.accept(cmd))
@@ -139,11 +208,16 @@ public final class ExchangeTestContainer implements AutoCloseable {
                 .ringBufferSize(bufferSize)
                 .matchingEnginesNum(matchingEnginesNum)
                 .riskEnginesNum(riskEnginesNum)
+                .uidPartitioner(uidPartitioner)
                 .msgsInGroupLimit(msgsInGroupLimit)
                 .threadAffityMode(THREAD_AFFINITY_ENABLE_PER_LOGICAL_CORE)
                 .waitStrategy(BUSY_SPIN)
-                .orderBookFactory(symbolType -> new OrderBookFastImpl(OrderBookFastImpl.DEFAULT_HOT_WIDTH, symbolType))
-//                .orderBookFactory(OrderBookNaiveImpl::new)
+                .stageWaitStrategies(stageWaitStrategies)
+                .orderBookFactory((symbolType, objectsPool) -> new OrderBookFastImpl(OrderBookFastImpl.DEFAULT_HOT_WIDTH, symbolType, true, null, 0, objectsPool))
+//                .orderBookFactory((symbolType, objectsPool) -> new OrderBookNaiveImpl(symbolType))
+                .levelFillsEnabled(levelFillsEnabled)
+                .marketDataDeltaEnabled(marketDataEnabled)
+                .l3EventsEnabled(marketDataEnabled)
                 .loadStateId(stateId) // Loading from persisted state
                 .build();
 
@@ -191,12 +265,16 @@ public final class ExchangeTestContainer implements AutoCloseable {
 
 
     public void addSymbol(CoreSymbolSpecification symbol) {
+        addSymbol(symbol, CommandResultCode.SUCCESS);
+    }
+
+    public void addSymbol(CoreSymbolSpecification symbol, CommandResultCode expectedResultCode) {
         final FSTConfiguration minBin = FSTConfiguration.createMinBinConfiguration();
-        minBin.registerCrossPlatformClassMappingUseSimpleName(CoreSymbolSpecification.class);
+        minBin.registerCrossPlatformClassMappingUseSimpleName(CoreSymbolSpecification.class, SymbolEngineProfile.class);
         //new MBPrinter().printMessage(minBin.asByteArray(symbol));
 
         final ApiBinaryDataCommand binaryCmd = ApiBinaryDataCommand.builder().transferId(0).data(symbol).build();
-        submitMultiCommandSync(binaryCmd);
+        submitMultiCommandSync(binaryCmd, expectedResultCode);
     }
 
     public void usersInit(int numUsers, Set<Integer> currencies) throws InterruptedException {
@@ -264,6 +342,10 @@ public final class ExchangeTestContainer implements AutoCloseable {
     }
 
     public void submitMultiCommandSync(ApiCommand dataCommand) {
+        submitMultiCommandSync(dataCommand, CommandResultCode.SUCCESS);
+    }
+
+    public void submitMultiCommandSync(ApiCommand dataCommand, CommandResultCode expectedResultCode) {
         final CountDownLatch latch = new CountDownLatch(1);
         consumer = cmd -> {
             if (cmd.command != OrderCommandType.BINARY_DATA
@@ -271,7 +353,7 @@ public final class ExchangeTestContainer implements AutoCloseable {
                     && cmd.command != OrderCommandType.PERSIST_STATE_MATCHING) {
                 throw new IllegalStateException("Unexpected command");
             }
-            if (cmd.resultCode == CommandResultCode.SUCCESS) {
+            if (cmd.resultCode == expectedResultCode) {
                 latch.countDown();
             } else if (cmd.resultCode != CommandResultCode.ACCEPTED) {
                 throw new IllegalStateException("Unexpected result code");
@@ -301,6 +383,42 @@ public final class ExchangeTestContainer implements AutoCloseable {
     }
 
 
+    public long requestStateHash(final boolean fullScan) throws InterruptedException {
+        return submitCommandSync(ApiStateHashRequest.builder().fullScan(fullScan).build(), cmd -> {
+            assertThat(cmd.command, is(OrderCommandType.STATE_HASH_REQUEST));
+            assertThat(cmd.resultCode, is(CommandResultCode.SUCCESS));
+            return cmd.orderId;
+        });
+    }
+
+    /**
+     * @return shard -> (symbol -> number of matching commands processed by the shard)
+     */
+    public NavigableMap<Integer, IntLongHashMap> requestSymbolsLoad() throws InterruptedException {
+        return submitCommandSync(ApiSymbolsLoadReport.builder().build(), cmd -> {
+            assertThat(cmd.resultCode, is(CommandResultCode.SUCCESS));
+            final NavigableMap<Integer, IntLongHashMap> load = new TreeMap<>();
+            if (cmd.matcherEvent != null) {
+                OrderBookEventsHelper.deserializeEvents(cmd.matcherEvent)
+                        .forEach((section, wire) -> load.put(section - 1, Utils.readIntLongHashMap(wire.bytes())));
+            }
+            return load;
+        });
+    }
+
+    /**
+     * @return risk engine shard -> load statistics
+     */
+    public NavigableMap<Integer, RiskEngineLoad> requestRiskLoad() throws InterruptedException {
+        return submitCommandSync(ApiRiskLoadReport.builder().build(), cmd -> {
+            assertThat(cmd.resultCode, is(CommandResultCode.SUCCESS));
+            final NavigableMap<Integer, RiskEngineLoad> load = new TreeMap<>();
+            OrderBookEventsHelper.deserializeEvents(cmd.matcherEvent)
+                    .forEach((section, wire) -> load.put(section - 1, new RiskEngineLoad(wire.bytes())));
+            return load;
+        });
+    }
+
     public L2MarketData requestCurrentOrderBook(final int symbol) {
         BlockingQueue<OrderCommand> queue = attachNewConsumerQueue();
         api.submitCommand(ApiOrderBookRequest.builder().symbol(symbol).size(-1).build());